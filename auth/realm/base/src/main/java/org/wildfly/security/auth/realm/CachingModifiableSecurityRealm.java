@@ -21,18 +21,24 @@ package org.wildfly.security.auth.realm;
 import java.security.Principal;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.wildfly.common.function.ExceptionConsumer;
 import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.server.IdentityDefinition;
 import org.wildfly.security.auth.server.ModifiableRealmIdentityIterator;
 import org.wildfly.security.auth.server.ModifiableRealmIdentity;
 import org.wildfly.security.auth.server.ModifiableSecurityRealm;
+import org.wildfly.security.auth.server.ProvisioningResult;
 import org.wildfly.security.auth.server.RealmIdentity;
 import org.wildfly.security.auth.server.RealmUnavailableException;
 import org.wildfly.security.auth.server.SecurityRealm;
 import org.wildfly.security.authz.Attributes;
 import org.wildfly.security.authz.AuthorizationIdentity;
+import org.wildfly.security.cache.NegativeRealmIdentityCache;
 import org.wildfly.security.cache.RealmIdentityCache;
 import org.wildfly.security.credential.Credential;
 import org.wildfly.security.evidence.Evidence;
@@ -54,6 +60,26 @@ public class CachingModifiableSecurityRealm extends CachingSecurityRealm impleme
         super(realm, cache);
     }
 
+    /**
+     * Creates a new instance.
+     *
+     * @param realm the {@link SecurityRealm} whose {@link RealmIdentity} should be cached..
+     * @param cache the {@link RealmIdentityCache} instance
+     * @param negativeCache the {@link NegativeRealmIdentityCache} remembering principals without an identity, or {@code null} to not cache them
+     */
+    public CachingModifiableSecurityRealm(CacheableSecurityRealm realm, RealmIdentityCache cache, NegativeRealmIdentityCache negativeCache) {
+        super(realm, cache, negativeCache);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param builder the {@link CachingSecurityRealmBuilder} holding the configuration of this realm
+     */
+    protected CachingModifiableSecurityRealm(CachingSecurityRealmBuilder builder) {
+        super(builder);
+    }
+
     @Override
     public ModifiableRealmIdentity getRealmIdentityForUpdate(Principal principal) throws RealmUnavailableException {
         return wrap(getModifiableSecurityRealm().getRealmIdentityForUpdate(principal));
@@ -75,6 +101,18 @@ public class CachingModifiableSecurityRealm extends CachingSecurityRealm impleme
         };
     }
 
+    @Override
+    public ProvisioningResult provisionIdentities(Stream<IdentityDefinition> identities) throws RealmUnavailableException {
+        // the stream may be consumed by several threads if it is parallel
+        Queue<Principal> principals = new ConcurrentLinkedQueue<>();
+        try {
+            return getModifiableSecurityRealm().provisionIdentities(identities.peek(definition -> principals.add(definition.getPrincipal())));
+        } finally {
+            // principals may have been remembered as having no identity
+            principals.forEach(this::removeFromCache);
+        }
+    }
+
     private ModifiableRealmIdentity wrap(final ModifiableRealmIdentity modifiable) {
         return new ModifiableRealmIdentity() {
             @Override
@@ -84,7 +122,7 @@ public class CachingModifiableSecurityRealm extends CachingSecurityRealm impleme
 
             @Override
             public void create() throws RealmUnavailableException {
-                modifiable.create();
+                executeAndInvalidate(modifiable -> { modifiable.create(); });
             }
 
             @Override
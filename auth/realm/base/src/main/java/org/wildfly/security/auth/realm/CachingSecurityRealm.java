@@ -23,6 +23,17 @@ import static org.wildfly.security.auth.realm.ElytronMessages.log;
 
 import java.security.Principal;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.wildfly.security.auth.SupportLevel;
 import org.wildfly.security.auth.server.IdentityCredentials;
@@ -32,7 +43,11 @@ import org.wildfly.security.auth.server.SecurityRealm;
 import org.wildfly.security.auth.server.event.RealmEvent;
 import org.wildfly.security.authz.Attributes;
 import org.wildfly.security.authz.AuthorizationIdentity;
+import org.wildfly.security.cache.NegativeRealmIdentityCache;
 import org.wildfly.security.cache.RealmIdentityCache;
+import org.wildfly.security.cache.RealmIdentityCacheStatistics;
+import org.wildfly.security.cache.StatisticsCounter;
+import org.wildfly.security.cache.VerifiedEvidenceCache;
 import org.wildfly.security.credential.Credential;
 import org.wildfly.security.credential.PasswordCredential;
 import org.wildfly.security.evidence.Evidence;
@@ -43,12 +58,34 @@ import org.wildfly.security.password.interfaces.ClearPassword;
 /**
  * <p>A wrapper class that provides caching capabilities for a {@link SecurityRealm} and its identities.
  *
+ * <p>Concurrent requests for an identity which is not cached are coalesced, only one of them loads the identity from the
+ * backing realm while the others wait for its result.
+ *
+ * <p>Optionally, identities read shortly before they expire from the cache are reloaded in the background, the cached
+ * identity being served until the reload completes, so that frequently used identities never expire under load.
+ *
+ * <p>Optionally, password guesses verified successfully are remembered for a short time in a {@link VerifiedEvidenceCache},
+ * so that clients sending the same password over and over do not cause the stored credential to be verified every time.
+ *
  * @author <a href="mailto:psilva@redhat.com">Pedro Igor</a>
  */
 public class CachingSecurityRealm implements SecurityRealm {
 
     private final CacheableSecurityRealm realm;
     private final RealmIdentityCache cache;
+    private final NegativeRealmIdentityCache negativeCache;
+    private final VerifiedEvidenceCache evidenceCache;
+    private final long loadTimeout;
+    private final ConcurrentHashMap<Principal, CompletableFuture<RealmIdentity>> loading = new ConcurrentHashMap<>();
+    private final Executor refreshExecutor;
+    private final long refreshWindow;
+    private final int maxConcurrentRefreshes;
+    private final ConcurrentHashMap<Principal, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final AtomicInteger activeRefreshes = new AtomicInteger();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final LongAdder refreshSuccesses = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final StatisticsCounter statistics = new StatisticsCounter();
 
     /**
      * Creates a new instance.
@@ -57,8 +94,34 @@ public class CachingSecurityRealm implements SecurityRealm {
      * @param cache the {@link RealmIdentityCache} instance
      */
     public CachingSecurityRealm(CacheableSecurityRealm realm, RealmIdentityCache cache) {
-        this.realm = checkNotNullParam("realm", realm);
-        this.cache = checkNotNullParam("cache", cache);
+        this(builder(realm, cache));
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param realm the {@link SecurityRealm} whose {@link RealmIdentity} should be cached.
+     * @param cache the {@link RealmIdentityCache} instance
+     * @param negativeCache the {@link NegativeRealmIdentityCache} remembering principals without an identity, or {@code null} to not cache them
+     */
+    public CachingSecurityRealm(CacheableSecurityRealm realm, RealmIdentityCache cache, NegativeRealmIdentityCache negativeCache) {
+        this(builder(realm, cache).setNegativeCache(negativeCache));
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param builder the {@link CachingSecurityRealmBuilder} holding the configuration of this realm
+     */
+    protected CachingSecurityRealm(CachingSecurityRealmBuilder builder) {
+        this.realm = checkNotNullParam("realm", builder.getRealm());
+        this.cache = checkNotNullParam("cache", builder.getCache());
+        this.negativeCache = builder.getNegativeCache();
+        this.evidenceCache = builder.getVerifiedEvidenceCache();
+        this.loadTimeout = builder.getLoadTimeout();
+        this.refreshExecutor = builder.getRefreshExecutor();
+        this.refreshWindow = builder.getRefreshWindow();
+        this.maxConcurrentRefreshes = builder.getMaxConcurrentRefreshes();
 
         if (realm instanceof CacheableSecurityRealm) {
             CacheableSecurityRealm cacheable = CacheableSecurityRealm.class.cast(realm);
@@ -68,23 +131,201 @@ public class CachingSecurityRealm implements SecurityRealm {
         }
     }
 
+    /**
+     * Creates a builder of realms caching the identities of the given realm.
+     *
+     * @param realm the {@link SecurityRealm} whose {@link RealmIdentity} should be cached.
+     * @param cache the {@link RealmIdentityCache} instance
+     * @return the builder
+     */
+    public static CachingSecurityRealmBuilder builder(CacheableSecurityRealm realm, RealmIdentityCache cache) {
+        return new CachingSecurityRealmBuilder(checkNotNullParam("realm", realm), checkNotNullParam("cache", cache));
+    }
+
     @Override
     public RealmIdentity getRealmIdentity(Principal principal) throws RealmUnavailableException {
         RealmIdentity cached = cache.get(principal);
 
         if (cached != null) {
             log.tracef("Returning cached RealmIdentity for '%s'", principal);
+            statistics.recordHit();
+            if (refreshExecutor != null) {
+                refreshIfExpiring(principal, cached);
+            }
+            if (! (cached instanceof CachedRealmIdentity)) {
+                // caches not retaining the identities put into them return their own identities, which are wrapped to
+                // cache credentials and verified evidence, and to invalidate the cache on updates, like the cached ones
+                return createCachedIdentity(principal, cached);
+            }
             return cached;
         }
 
-        RealmIdentity realmIdentity = getCacheableRealm().getRealmIdentity(principal);
+        statistics.recordMiss();
+
+        if (negativeCache != null && negativeCache.contains(principal)) {
+            log.tracef("RealmIdentity for '%s' is cached as non-existent", principal);
+            return RealmIdentity.NON_EXISTENT;
+        }
+
+        if (loadTimeout == 0) {
+            return loadRealmIdentity(principal, null);
+        }
+
+        CompletableFuture<RealmIdentity> load = new CompletableFuture<>();
+        CompletableFuture<RealmIdentity> inProgress = loading.putIfAbsent(principal, load);
 
-        if (!realmIdentity.exists()) {
-            log.tracef("RealmIdentity for '%s' does not exist, skipping cache.'", principal);
+        if (inProgress != null) {
+            log.tracef("RealmIdentity for '%s' is being loaded by a concurrent request, waiting for it.", principal);
+            return awaitLoad(principal, inProgress);
+        }
+
+        try {
+            return loadRealmIdentity(principal, load);
+        } catch (RealmUnavailableException | RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(principal, load);
+        }
+    }
+
+    private RealmIdentity awaitLoad(Principal principal, CompletableFuture<RealmIdentity> load) throws RealmUnavailableException {
+        try {
+            return loadTimeout > 0 ? load.get(loadTimeout, TimeUnit.MILLISECONDS) : load.get();
+        } catch (TimeoutException e) {
+            throw log.realmIdentityLoadTimedOut(loadTimeout, principal);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw log.realmIdentityLoadInterrupted(principal, e);
+        } catch (ExecutionException e) {
+            throw log.realmIdentityLoadFailed(principal, e.getCause());
+        }
+    }
+
+    /**
+     * Loads the identity from the backing realm, completing the given future, if any, with the identity to hand out to
+     * concurrent requests for the same principal.
+     */
+    private RealmIdentity loadRealmIdentity(Principal principal, CompletableFuture<RealmIdentity> load) throws RealmUnavailableException {
+        long start = System.nanoTime();
+        RealmIdentity realmIdentity;
+        boolean exists;
+        try {
+            realmIdentity = getCacheableRealm().getRealmIdentity(principal);
+            exists = realmIdentity.exists();
+        } catch (RealmUnavailableException | RuntimeException e) {
+            statistics.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+        statistics.recordLoadSuccess(System.nanoTime() - start);
+
+        if (!exists) {
+            if (negativeCache != null) {
+                log.tracef("RealmIdentity for '%s' does not exist, caching as non-existent.", principal);
+                negativeCache.put(principal);
+            } else {
+                log.tracef("RealmIdentity for '%s' does not exist, skipping cache.'", principal);
+            }
+            if (load != null) {
+                // the identity may be disposed of by this request, concurrent requests only need to know it does not exist
+                load.complete(RealmIdentity.NON_EXISTENT);
+            }
             return realmIdentity;
         }
 
-        RealmIdentity cachedIdentity = new RealmIdentity() {
+        RealmIdentity cachedIdentity = createCachedIdentity(principal, realmIdentity);
+
+        log.tracef("Created wrapper RealmIdentity for '%s' and placing in cache.", principal);
+        cache.put(principal, cachedIdentity);
+        if (load != null) {
+            load.complete(cachedIdentity);
+        }
+
+        return cachedIdentity;
+    }
+
+    /**
+     * Reloads the identity from the backing realm and replaces the cached one, which is served to other requests until
+     * the reload completes. The reloaded identity is only published if the cached one was not removed or replaced meanwhile.
+     */
+    private void refreshRealmIdentity(Principal principal, RealmIdentity cached, long invalidationCount) {
+        long start = System.nanoTime();
+        try {
+            RealmIdentity realmIdentity = getCacheableRealm().getRealmIdentity(principal);
+            boolean exists;
+            try {
+                exists = realmIdentity.exists();
+            } finally {
+                // nobody may use the new identity for a while, do not hold on to resources of the backing realm such as
+                // identity locks, the identity remains usable to lazily load its credentials and attributes
+                realmIdentity.dispose();
+            }
+            statistics.recordLoadSuccess(System.nanoTime() - start);
+
+            if (invalidations.get() != invalidationCount) {
+                log.tracef("RealmIdentity for '%s' was invalidated while being refreshed, discarding it.", principal);
+            } else if (exists) {
+                RealmIdentity cachedIdentity = createCachedIdentity(principal, realmIdentity);
+                if (cache.replace(principal, cached, cachedIdentity)) {
+                    log.tracef("Refreshed RealmIdentity for '%s', replaced cached one.", principal);
+                    refreshSuccesses.increment();
+                } else {
+                    log.tracef("RealmIdentity for '%s' was removed or replaced while being refreshed, discarding it.", principal);
+                }
+            } else {
+                log.tracef("RealmIdentity for '%s' no longer exists, removing it from cache.", principal);
+                cache.remove(principal);
+                if (negativeCache != null) {
+                    negativeCache.put(principal);
+                }
+                refreshSuccesses.increment();
+            }
+        } catch (RealmUnavailableException | RuntimeException e) {
+            log.debugf(e, "Refreshing RealmIdentity for '%s' failed, the cached one is served until it expires.", principal);
+            statistics.recordLoadFailure(System.nanoTime() - start);
+            refreshFailures.increment();
+        } finally {
+            refreshing.remove(principal);
+            activeRefreshes.decrementAndGet();
+        }
+    }
+
+    /**
+     * Schedules a refresh of the identity cached for the given principal if it is about to expire, unless it is already
+     * being refreshed or too many refreshes are in progress.
+     */
+    private void refreshIfExpiring(Principal principal, RealmIdentity cached) {
+        long expiration = cache.getExpiration(principal);
+
+        if (expiration == -1 || System.currentTimeMillis() < expiration - refreshWindow) {
+            return;
+        }
+
+        if (refreshing.putIfAbsent(principal, Boolean.TRUE) != null) {
+            return;
+        }
+
+        if (activeRefreshes.incrementAndGet() > maxConcurrentRefreshes) {
+            log.tracef("Too many refreshes in progress, not refreshing RealmIdentity for '%s'.", principal);
+            activeRefreshes.decrementAndGet();
+            refreshing.remove(principal);
+            return;
+        }
+
+        long invalidationCount = invalidations.get();
+        log.tracef("RealmIdentity for '%s' is about to expire, refreshing it.", principal);
+        try {
+            refreshExecutor.execute(() -> refreshRealmIdentity(principal, cached, invalidationCount));
+        } catch (RejectedExecutionException e) {
+            log.debugf(e, "Refreshing RealmIdentity for '%s' was rejected.", principal);
+            refreshFailures.increment();
+            activeRefreshes.decrementAndGet();
+            refreshing.remove(principal);
+        }
+    }
+
+    private RealmIdentity createCachedIdentity(Principal principal, RealmIdentity realmIdentity) {
+        return new CachedRealmIdentity() {
             final RealmIdentity identity = realmIdentity;
 
             AuthorizationIdentity authorizationIdentity = null;
@@ -111,6 +352,7 @@ public class CachingSecurityRealm implements SecurityRealm {
                                 credentialType.getName(), algorithmName, principal.getName());
                     }
                     credentials = credentials.withCredential(credential);
+                    loaded();
                 }
                 return credentials.getCredentialAcquireSupport(credentialType, algorithmName, parameterSpec);
             }
@@ -129,6 +371,7 @@ public class CachingSecurityRealm implements SecurityRealm {
                         log.tracef("getCredential credentialType='%s' obtained from identity - caching for principal='%s'", credentialType.getName(), principal.getName());
                     }
                     credentials = credentials.withCredential(credential);
+                    loaded();
                 }
                 return credentials.getCredential(credentialType);
             }
@@ -147,6 +390,7 @@ public class CachingSecurityRealm implements SecurityRealm {
                         log.tracef("getCredential credentialType='%s' with algorithmName='%' obtained from identity - caching.", credentialType.getName(), algorithmName);
                     }
                     credentials = credentials.withCredential(credential);
+                    loaded();
                 }
                 return credentials.getCredential(credentialType, algorithmName);
             }
@@ -165,6 +409,7 @@ public class CachingSecurityRealm implements SecurityRealm {
                         log.tracef("getCredential credentialType='%s' with algorithmName='%' obtained from identity - caching for principal='%s'", credentialType.getName(), algorithmName, principal.getName());
                     }
                     credentials = credentials.withCredential(credential);
+                    loaded();
                 }
                 return credentials.getCredential(credentialType, algorithmName, parameterSpec);
             }
@@ -195,6 +440,7 @@ public class CachingSecurityRealm implements SecurityRealm {
                                     evidenceType.getName(), algorithmName, principal.getName());
                         }
                         credentials = credentials.withCredential(credential);
+                        loaded();
                         if (credential.canVerify(evidenceType, algorithmName)) {
                             return SupportLevel.SUPPORTED;
                         }
@@ -210,30 +456,61 @@ public class CachingSecurityRealm implements SecurityRealm {
             @Override
             public boolean verifyEvidence(Evidence evidence) throws RealmUnavailableException {
                 if (evidence instanceof PasswordGuessEvidence) {
-                    if (credentials.canVerify(evidence)) {
-                        log.tracef("verifyEvidence For principal='%s' using cached credential", principal);
-                        return credentials.verify(evidence);
+                    Principal realmPrincipal = identity.getRealmIdentityPrincipal();
+                    if (evidenceCache == null || realmPrincipal == null) {
+                        return verifyPasswordGuess(evidence);
                     }
-                    Credential credential = identity.getCredential(PasswordCredential.class);
-                    if (credential != null) {
-                        log.tracef("verifyEvidence Credential obtained from identity and cached for principal='%s'", principal);
-                        credentials = credentials.withCredential(credential);
-                        if (credential.canVerify(evidence)) {
-                            return credential.verify(evidence);
+                    // the backing realm may destroy the evidence it verifies, so the guess is remembered as a copy
+                    char[] guess = ((PasswordGuessEvidence) evidence).getGuess().clone();
+                    try {
+                        if (evidenceCache.contains(realmPrincipal, guess)) {
+                            log.tracef("verifyEvidence For principal='%s' using recently verified evidence", principal);
+                            return true;
                         }
+                        long invalidationCount = invalidations.get();
+                        if (verifyPasswordGuess(evidence)) {
+                            if (invalidations.get() == invalidationCount) {
+                                evidenceCache.put(realmPrincipal, guess);
+                                // an invalidation racing with the put may have cleared the cache before it
+                                if (invalidations.get() != invalidationCount) {
+                                    evidenceCache.remove(realmPrincipal);
+                                }
+                            }
+                            return true;
+                        }
+                        return false;
+                    } finally {
+                        Arrays.fill(guess, '\0');
                     }
-                    char[] guess = ((PasswordGuessEvidence) evidence).getGuess();
-                    Password password = ClearPassword.createRaw(ClearPassword.ALGORITHM_CLEAR, guess);
-                    log.tracef("verifyEvidence Falling back to direct support of identity for principal='%s'", principal);
-                    if (identity.verifyEvidence(evidence)) {
-                        credentials = credentials.withCredential(new PasswordCredential(password));
-                        return true;
-                    }
-                    return false;
                 }
                 return identity.verifyEvidence(evidence);
             }
 
+            private boolean verifyPasswordGuess(Evidence evidence) throws RealmUnavailableException {
+                if (credentials.canVerify(evidence)) {
+                    log.tracef("verifyEvidence For principal='%s' using cached credential", principal);
+                    return credentials.verify(evidence);
+                }
+                Credential credential = identity.getCredential(PasswordCredential.class);
+                if (credential != null) {
+                    log.tracef("verifyEvidence Credential obtained from identity and cached for principal='%s'", principal);
+                    credentials = credentials.withCredential(credential);
+                    loaded();
+                    if (credential.canVerify(evidence)) {
+                        return credential.verify(evidence);
+                    }
+                }
+                char[] guess = ((PasswordGuessEvidence) evidence).getGuess();
+                Password password = ClearPassword.createRaw(ClearPassword.ALGORITHM_CLEAR, guess);
+                log.tracef("verifyEvidence Falling back to direct support of identity for principal='%s'", principal);
+                if (identity.verifyEvidence(evidence)) {
+                    credentials = credentials.withCredential(new PasswordCredential(password));
+                    loaded();
+                    return true;
+                }
+                return false;
+            }
+
             @Override
             public boolean exists() throws RealmUnavailableException {
                 return true; // non-existing identities will not be wrapped
@@ -244,6 +521,7 @@ public class CachingSecurityRealm implements SecurityRealm {
                 if (authorizationIdentity == null) {
                     log.tracef("getAuthorizationIdentity Caching AuthorizationIdentity for principal='%s'", principal);
                     authorizationIdentity = identity.getAuthorizationIdentity();
+                    loaded();
                 }
                 return authorizationIdentity;
             }
@@ -253,6 +531,7 @@ public class CachingSecurityRealm implements SecurityRealm {
                 if (attributes == null) {
                     log.tracef("getAttributes Caching Attributes for principal='%s'", principal);
                     attributes = identity.getAttributes();
+                    loaded();
                 }
                 return attributes;
             }
@@ -261,12 +540,21 @@ public class CachingSecurityRealm implements SecurityRealm {
             public void dispose() {
                 identity.dispose();
             }
-        };
 
-        log.tracef("Created wrapper RealmIdentity for '%s' and placing in cache.", principal);
-        cache.put(principal, cachedIdentity);
+            /**
+             * Reports the attributes and credentials loaded so far to the cache, which may weigh the identity by them.
+             */
+            private void loaded() {
+                Attributes loadedAttributes = authorizationIdentity != null ? authorizationIdentity.getAttributes() : attributes;
+                cache.loaded(principal, this, loadedAttributes != null ? loadedAttributes : Attributes.EMPTY, credentials);
+            }
+        };
+    }
 
-        return cachedIdentity;
+    /**
+     * The type of the identities created to be cached.
+     */
+    private abstract static class CachedRealmIdentity implements RealmIdentity {
     }
 
     @Override
@@ -290,14 +578,80 @@ public class CachingSecurityRealm implements SecurityRealm {
      * @param principal the {@link Principal} that references a previously cached realm identity
      */
     public void removeFromCache(Principal principal) {
+        invalidations.incrementAndGet();
         cache.remove(principal);
+        if (negativeCache != null) {
+            negativeCache.remove(principal);
+        }
+        if (evidenceCache != null) {
+            evidenceCache.remove(principal);
+        }
     }
 
     /**
      * Removes all cached identities from the cache.
      */
     public void removeAllFromCache() {
+        invalidations.incrementAndGet();
         cache.clear();
+        if (negativeCache != null) {
+            negativeCache.clear();
+        }
+        if (evidenceCache != null) {
+            evidenceCache.clear();
+        }
+    }
+
+    /**
+     * Gets the cache of principals without an identity in the backing realm, to allow it to be monitored.
+     *
+     * @return the {@link NegativeRealmIdentityCache} or {@code null} if non-existent identities are not cached
+     */
+    public NegativeRealmIdentityCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * Gets the cache of recently verified password guesses, to allow it to be monitored.
+     *
+     * @return the {@link VerifiedEvidenceCache} or {@code null} if verified password guesses are not cached
+     */
+    public VerifiedEvidenceCache getVerifiedEvidenceCache() {
+        return evidenceCache;
+    }
+
+    /**
+     * Gets the number of cached identities which were refreshed ahead of their expiration, not counting the refreshes
+     * discarded because the cached identity was invalidated, removed or replaced meanwhile.
+     *
+     * @return the number of successful refreshes
+     */
+    public long getRefreshCount() {
+        return refreshSuccesses.sum();
+    }
+
+    /**
+     * Gets the number of refreshes of cached identities which failed or could not be scheduled, the cached identities
+     * having been served until they expired.
+     *
+     * @return the number of failed refreshes
+     */
+    public long getRefreshFailureCount() {
+        return refreshFailures.sum();
+    }
+
+    /**
+     * Gets a snapshot of the statistics of this realm: the lookups served from the cache or not, the loads from the backing
+     * realm and their latency, as well as the removals and the size reported by the {@link RealmIdentityCache} if it records
+     * statistics.
+     *
+     * @return a snapshot of the statistics of this realm
+     * @see org.wildfly.security.cache.RealmIdentityCacheStatisticsAdapter
+     */
+    public RealmIdentityCacheStatistics getStatistics() {
+        RealmIdentityCacheStatistics cacheStatistics = cache.getStatistics();
+
+        return cacheStatistics != null ? statistics.snapshot(cacheStatistics) : statistics.snapshot(-1);
     }
 
     /**
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.util.concurrent.Executor;
+
+import org.wildfly.security.cache.NegativeRealmIdentityCache;
+import org.wildfly.security.cache.RealmIdentityCache;
+import org.wildfly.security.cache.VerifiedEvidenceCache;
+
+/**
+ * A builder class that creates {@link CachingSecurityRealm} and {@link CachingModifiableSecurityRealm} instances.
+ *
+ * @see CachingSecurityRealm#builder(CacheableSecurityRealm, RealmIdentityCache)
+ */
+public class CachingSecurityRealmBuilder {
+
+    private final CacheableSecurityRealm realm;
+    private final RealmIdentityCache cache;
+    private NegativeRealmIdentityCache negativeCache;
+    private VerifiedEvidenceCache evidenceCache;
+    private long loadTimeout = -1;
+    private Executor refreshExecutor;
+    private long refreshWindow;
+    private int maxConcurrentRefreshes;
+
+    CachingSecurityRealmBuilder(CacheableSecurityRealm realm, RealmIdentityCache cache) {
+        this.realm = realm;
+        this.cache = cache;
+    }
+
+    /**
+     * Set the cache remembering principals for which the backing realm has no identity.
+     *
+     * @param negativeCache the {@link NegativeRealmIdentityCache} or {@code null} to not cache non-existent identities
+     * @return this builder
+     */
+    public CachingSecurityRealmBuilder setNegativeCache(NegativeRealmIdentityCache negativeCache) {
+        this.negativeCache = negativeCache;
+
+        return this;
+    }
+
+    /**
+     * Set the cache remembering password guesses recently verified successfully, so that repeating the same guess does
+     * not require the stored credential to be verified again. Remembered guesses are forgotten when the credential of
+     * the identity is updated or the backing realm reports a change of the identity.
+     *
+     * @param evidenceCache the {@link VerifiedEvidenceCache} or {@code null} to always verify password guesses
+     * @return this builder
+     */
+    public CachingSecurityRealmBuilder setVerifiedEvidenceCache(VerifiedEvidenceCache evidenceCache) {
+        this.evidenceCache = evidenceCache;
+
+        return this;
+    }
+
+    /**
+     * Set how long a request waits for an identity being loaded from the backing realm by a concurrent request for the same
+     * principal, before failing with a {@link org.wildfly.security.auth.server.RealmUnavailableException}.
+     *
+     * @param loadTimeout the time in milliseconds to wait. If {@code -1}, the default, requests wait until the load completes.
+     *                    If {@code 0}, concurrent requests are not coalesced and each of them loads the identity
+     * @return this builder
+     */
+    public CachingSecurityRealmBuilder setLoadTimeout(long loadTimeout) {
+        checkMinimumParameter("loadTimeout", -1, loadTimeout);
+        this.loadTimeout = loadTimeout;
+
+        return this;
+    }
+
+    /**
+     * Enable refresh-ahead of cached identities: an identity read from the cache within the given window before it expires
+     * is reloaded from the backing realm in the background, the cached identity being served until the reload completes.
+     * Requires a {@link RealmIdentityCache} tracking the expiration of its entries.
+     *
+     * @param refreshExecutor the {@link Executor} running the reloads
+     * @param refreshWindow the time in milliseconds before the expiration of an identity from which it is reloaded when read
+     * @param maxConcurrentRefreshes the maximum number of reloads in progress at the same time, further identities being
+     *                               reloaded when read again once the number of reloads in progress dropped
+     * @return this builder
+     */
+    public CachingSecurityRealmBuilder setRefreshAhead(Executor refreshExecutor, long refreshWindow, int maxConcurrentRefreshes) {
+        checkNotNullParam("refreshExecutor", refreshExecutor);
+        checkMinimumParameter("refreshWindow", 1, refreshWindow);
+        checkMinimumParameter("maxConcurrentRefreshes", 1, maxConcurrentRefreshes);
+        this.refreshExecutor = refreshExecutor;
+        this.refreshWindow = refreshWindow;
+        this.maxConcurrentRefreshes = maxConcurrentRefreshes;
+
+        return this;
+    }
+
+    /**
+     * Builds a new {@link CachingSecurityRealm} instance based on the configuration of this builder.
+     *
+     * @return the built realm
+     */
+    public CachingSecurityRealm build() {
+        return new CachingSecurityRealm(this);
+    }
+
+    /**
+     * Builds a new {@link CachingModifiableSecurityRealm} instance based on the configuration of this builder. The backing
+     * realm must be a {@link org.wildfly.security.auth.server.ModifiableSecurityRealm}.
+     *
+     * @return the built realm
+     */
+    public CachingModifiableSecurityRealm buildModifiable() {
+        return new CachingModifiableSecurityRealm(this);
+    }
+
+    CacheableSecurityRealm getRealm() {
+        return realm;
+    }
+
+    RealmIdentityCache getCache() {
+        return cache;
+    }
+
+    NegativeRealmIdentityCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    VerifiedEvidenceCache getVerifiedEvidenceCache() {
+        return evidenceCache;
+    }
+
+    long getLoadTimeout() {
+        return loadTimeout;
+    }
+
+    Executor getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    long getRefreshWindow() {
+        return refreshWindow;
+    }
+
+    int getMaxConcurrentRefreshes() {
+        return maxConcurrentRefreshes;
+    }
+}
@@ -123,6 +123,65 @@ interface ElytronMessages extends BasicLogger {
     @Message(id = 13000, value = "Authorization principal cannot be null after transformation")
     IllegalStateException transformedPrincipalCannotBeNull();
 
+    @Message(id = 13001, value = "Timed out after %d milliseconds waiting for the identity of \"%s\" to be loaded by a concurrent request")
+    RealmUnavailableException realmIdentityLoadTimedOut(long timeout, Principal principal);
+
+    @Message(id = 13002, value = "Interrupted while waiting for the identity of \"%s\" to be loaded by a concurrent request")
+    RealmUnavailableException realmIdentityLoadInterrupted(Principal principal, @Cause InterruptedException cause);
+
+    @Message(id = 13003, value = "Loading the identity of \"%s\" failed in a concurrent request")
+    RealmUnavailableException realmIdentityLoadFailed(Principal principal, @Cause Throwable cause);
+
+    @Message(id = 13004, value = "Filesystem-backed realm failed to watch path \"%s\" for changes")
+    IllegalStateException fileSystemRealmWatchFailed(Path path, @Cause IOException cause);
+
+    @Message(id = 13005, value = "Filesystem-backed realm failed to open attribute index \"%s\"")
+    IllegalStateException fileSystemRealmIndexOpenFailed(Path path, @Cause IOException cause);
+
+    @Message(id = 13006, value = "Filesystem-backed realm failed to update the attribute index for identity \"%s\"")
+    RealmUnavailableException fileSystemRealmIndexUpdateFailed(String name, @Cause IOException cause);
+
+    @Message(id = 13007, value = "Attribute \"%s\" is not indexed by the filesystem-backed realm")
+    IllegalArgumentException fileSystemRealmAttributeNotIndexed(String attributeName);
+
+    @Message(id = 13008, value = "No attributes are indexed by the filesystem-backed realm")
+    IllegalStateException fileSystemRealmNoAttributeIndex();
+
+    @Message(id = 13009, value = "Filesystem-backed realm failed to rebuild attribute index \"%s\"")
+    RealmUnavailableException fileSystemRealmIndexRebuildFailed(Path path, @Cause IOException cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 13010, value = "Failed to compact the segments of the segmented filesystem-backed realm \"%s\"")
+    void segmentedRealmCompactionFailed(Path root, @Cause IOException cause);
+
+    @Message(id = 13011, value = "Segmented filesystem-backed realm failed to open \"%s\"")
+    IllegalStateException segmentedRealmOpenFailed(Path root, @Cause IOException cause);
+
+    @Message(id = 13012, value = "Segmented filesystem-backed realm failed to read identity \"%s\"")
+    RealmUnavailableException segmentedRealmReadFailed(String name, @Cause Exception cause);
+
+    @Message(id = 13013, value = "Segmented filesystem-backed realm failed to write identity \"%s\"")
+    RealmUnavailableException segmentedRealmWriteFailed(String name, @Cause Exception cause);
+
+    @Message(id = 13014, value = "Segmented filesystem-backed realm failed to import identity file \"%s\"")
+    RealmUnavailableException segmentedRealmImportFailed(Path path, @Cause IOException cause);
+
+    @Message(id = 13015, value = "Filesystem-backed realm failed to sync \"%s\"")
+    RealmUnavailableException fileSystemRealmSyncFailed(Path path, @Cause IOException cause);
+
+    @Message(id = 13016, value = "Properties-backed realm failed to watch path \"%s\" for changes")
+    IllegalStateException propertiesRealmWatchFailed(Path path, @Cause IOException cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 13017, value = "Failed to reload properties-backed realm from users file \"%s\" and groups file \"%s\", keeping the previously loaded identities")
+    void propertiesRealmReloadFailed(Path usersFile, Path groupsFile, @Cause Exception cause);
+
+    @Message(id = 13018, value = "Segmented filesystem-backed realm found a corrupted record at offset %d of sealed segment \"%s\"")
+    IOException segmentedRealmCorruptedSegment(long offset, Path path);
+
+    @Message(id = 13019, value = "Filesystem-backed realm failed to build attribute index \"%s\"")
+    IllegalStateException fileSystemRealmIndexBuildFailed(Path path, @Cause RealmUnavailableException cause);
+
     @Message(id = 1154, value = "Failed to read key store")
     RealmUnavailableException failedToReadKeyStore(@Cause KeyStoreException e);
 
@@ -0,0 +1,422 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.DSYNC;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.wildfly.security.authz.Attributes;
+
+/**
+ * <p>A persistent index of the values of selected attributes of the identities of a {@link FileSystemSecurityRealm},
+ * allowing identities to be found by attribute value without reading their files.
+ *
+ * <p>The index is kept in memory and persisted in a journal file: each update appends the indexed values of one identity,
+ * or its removal, and the journal is compacted into a snapshot once it holds many more records than identities. Truncated
+ * records left by a crash are discarded when the journal is read. If the journal is missing, unreadable or was written
+ * for other attributes, the index is reported as not loaded and must be rebuilt from the identity files.
+ */
+final class FileSystemAttributeIndex implements AutoCloseable {
+
+    private static final int MAGIC = 0x454c4958;
+    private static final int VERSION = 1;
+    private static final byte UPDATE = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private final Path file;
+    private final Set<String> attributeNames;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The indexed values of each identity, by attribute name.
+     */
+    private Map<String, Map<String, Set<String>>> identities = new HashMap<>();
+
+    /**
+     * The names of the identities having each value, by attribute name.
+     */
+    private Map<String, Map<String, Set<String>>> values = new HashMap<>();
+
+    /**
+     * The updates made while the index is being rebuilt, a {@code null} value standing for a removal.
+     */
+    private Map<String, Map<String, Set<String>>> rebuildUpdates;
+
+    private FileChannel journal;
+    private int records;
+    private final boolean loaded;
+
+    FileSystemAttributeIndex(final Path file, final Set<String> attributeNames) throws IOException {
+        this.file = file;
+        this.attributeNames = Collections.unmodifiableSet(new TreeSet<>(attributeNames));
+        this.loaded = load();
+        if (loaded) {
+            journal = FileChannel.open(file, WRITE, APPEND, DSYNC);
+        } else {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Determine whether the index was loaded from its journal, as opposed to having to be rebuilt.
+     *
+     * @return {@code true} if the index was loaded, {@code false} if it must be rebuilt
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Determine whether the given attribute is indexed.
+     *
+     * @param attributeName the name of the attribute
+     * @return {@code true} if the attribute is indexed, {@code false} otherwise
+     */
+    boolean isIndexed(final String attributeName) {
+        return attributeNames.contains(attributeName);
+    }
+
+    /**
+     * Find the names of the identities having the given value for the given attribute.
+     *
+     * @param attributeName the name of an indexed attribute
+     * @param value the value of the attribute
+     * @return the names of the identities, in natural order
+     */
+    Set<String> find(final String attributeName, final String value) {
+        lock.readLock().lock();
+        try {
+            Map<String, Set<String>> attributeValues = values.get(attributeName);
+            Set<String> names = attributeValues == null ? null : attributeValues.get(value);
+            return names == null ? Collections.emptySet() : Collections.unmodifiableSet(new TreeSet<>(names));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Index the given attributes of an identity, replacing any values previously indexed for it.
+     *
+     * @param name the name of the identity
+     * @param attributes the attributes of the identity
+     * @throws IOException if the update could not be persisted, the index in memory being updated nonetheless
+     */
+    void update(final String name, final Attributes attributes) throws IOException {
+        apply(Collections.singletonMap(name, indexed(attributes)));
+    }
+
+    /**
+     * Index the given attributes of many identities, persisting the updates together.
+     *
+     * @param attributes the attributes of the identities, by name
+     * @throws IOException if the updates could not be persisted, the index in memory being updated nonetheless
+     */
+    void updateAll(final Map<String, Attributes> attributes) throws IOException {
+        final Map<String, Map<String, Set<String>>> updates = new HashMap<>();
+        for (Map.Entry<String, Attributes> entry : attributes.entrySet()) {
+            updates.put(entry.getKey(), indexed(entry.getValue()));
+        }
+        apply(updates);
+    }
+
+    /**
+     * Remove an identity from the index.
+     *
+     * @param name the name of the identity
+     * @throws IOException if the removal could not be persisted, the index in memory being updated nonetheless
+     */
+    void remove(final String name) throws IOException {
+        apply(Collections.singletonMap(name, null));
+    }
+
+    /**
+     * Start recording the updates made while the index is rebuilt, so that they are not lost when the rebuilt index
+     * replaces the current one.
+     */
+    void startRebuild() {
+        lock.writeLock().lock();
+        try {
+            rebuildUpdates = new HashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the index by the given indexed values of all the identities, read from their files since
+     * {@link #startRebuild()} and obtained by {@link #indexed(Attributes)}, and persist it.
+     *
+     * @param scanned the indexed values of the identities having any, by name
+     * @throws IOException if the rebuilt index could not be persisted
+     */
+    void completeRebuild(final Map<String, Map<String, Set<String>>> scanned) throws IOException {
+        lock.writeLock().lock();
+        try {
+            final Map<String, Map<String, Set<String>>> updates = rebuildUpdates;
+            rebuildUpdates = null;
+            identities = new HashMap<>();
+            values = new HashMap<>();
+            for (Map.Entry<String, Map<String, Set<String>>> entry : scanned.entrySet()) {
+                if (updates == null || ! updates.containsKey(entry.getKey())) {
+                    applyInMemory(entry.getKey(), entry.getValue());
+                }
+            }
+            if (updates != null) {
+                updates.forEach(this::applyInMemory);
+            }
+            writeSnapshot();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        } catch (IOException e) {
+            ElytronMessages.log.debug("Unable to close the attribute index", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the values of the indexed attributes among the given ones.
+     *
+     * @param attributes the attributes of an identity
+     * @return the values by attribute name, or {@code null} if there are none
+     */
+    Map<String, Set<String>> indexed(final Attributes attributes) {
+        final Map<String, Set<String>> indexed = new HashMap<>();
+        for (String attributeName : attributeNames) {
+            if (attributes.containsKey(attributeName)) {
+                final Set<String> attributeValues = new HashSet<>(attributes.get(attributeName));
+                if (! attributeValues.isEmpty()) {
+                    indexed.put(attributeName, attributeValues);
+                }
+            }
+        }
+        return indexed.isEmpty() ? null : indexed;
+    }
+
+    private void apply(final Map<String, Map<String, Set<String>>> updates) throws IOException {
+        lock.writeLock().lock();
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                for (Map.Entry<String, Map<String, Set<String>>> update : updates.entrySet()) {
+                    final String name = update.getKey();
+                    final Map<String, Set<String>> indexed = update.getValue();
+                    if (indexed == null && ! identities.containsKey(name) && rebuildUpdates == null) {
+                        // nothing indexed for this identity, nothing to persist
+                        continue;
+                    }
+                    applyInMemory(name, indexed);
+                    if (rebuildUpdates != null) {
+                        rebuildUpdates.put(name, indexed);
+                    }
+                    writeRecord(out, name, indexed);
+                    records++;
+                }
+            }
+            if (journal == null || bytes.size() == 0) {
+                return;
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            if (records > Math.max(MIN_COMPACTION_RECORDS, identities.size() * 2)) {
+                writeSnapshot();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void applyInMemory(final String name, final Map<String, Set<String>> indexed) {
+        final Map<String, Set<String>> previous = indexed == null ? identities.remove(name) : identities.put(name, indexed);
+        if (previous != null) {
+            for (Map.Entry<String, Set<String>> entry : previous.entrySet()) {
+                final Map<String, Set<String>> attributeValues = values.get(entry.getKey());
+                for (String value : entry.getValue()) {
+                    final Set<String> names = attributeValues.get(value);
+                    names.remove(name);
+                    if (names.isEmpty()) {
+                        attributeValues.remove(value);
+                    }
+                }
+            }
+        }
+        if (indexed != null) {
+            for (Map.Entry<String, Set<String>> entry : indexed.entrySet()) {
+                final Map<String, Set<String>> attributeValues = values.computeIfAbsent(entry.getKey(), key -> new HashMap<>());
+                for (String value : entry.getValue()) {
+                    attributeValues.computeIfAbsent(value, key -> new HashSet<>()).add(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the index from its journal.
+     *
+     * @return {@code true} if the index was loaded, {@code false} if it must be rebuilt
+     */
+    private boolean load() throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            final int count = in.readInt();
+            final Set<String> names = new TreeSet<>();
+            for (int i = 0; i < count; i++) {
+                names.add(in.readUTF());
+            }
+            if (! names.equals(attributeNames)) {
+                ElytronMessages.log.tracef("Attribute index \"%s\" was written for attributes %s, rebuilding it", file, names);
+                return false;
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+        int valid = bytes.length - in.available();
+        try {
+            while (in.available() > 0) {
+                // a record is only applied once it was read completely
+                final String name = in.readUTF();
+                applyInMemory(name, readIndexed(in));
+                records++;
+                valid = bytes.length - in.available();
+            }
+        } catch (EOFException e) {
+            // the last record was only partially written before a crash, drop it
+            ElytronMessages.log.tracef("Discarding truncated record at offset %d of attribute index \"%s\"", valid, file);
+            try (FileChannel channel = FileChannel.open(file, WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return true;
+    }
+
+    private Map<String, Set<String>> readIndexed(final DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        if (type == REMOVE) {
+            return null;
+        } else if (type != UPDATE) {
+            throw new EOFException();
+        }
+        final int attributeCount = in.readInt();
+        final Map<String, Set<String>> indexed = new HashMap<>();
+        for (int i = 0; i < attributeCount; i++) {
+            final String attributeName = in.readUTF();
+            final int valueCount = in.readInt();
+            final Set<String> attributeValues = new HashSet<>();
+            for (int j = 0; j < valueCount; j++) {
+                attributeValues.add(in.readUTF());
+            }
+            indexed.put(attributeName, attributeValues);
+        }
+        return indexed;
+    }
+
+    private static void writeRecord(final DataOutputStream out, final String name, final Map<String, Set<String>> indexed) throws IOException {
+        out.writeUTF(name);
+        if (indexed == null) {
+            out.writeByte(REMOVE);
+            return;
+        }
+        out.writeByte(UPDATE);
+        out.writeInt(indexed.size());
+        for (Map.Entry<String, Set<String>> entry : indexed.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                out.writeUTF(value);
+            }
+        }
+    }
+
+    /**
+     * Replace the journal by a snapshot of the index, atomically.
+     */
+    private void writeSnapshot() throws IOException {
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp, CREATE_NEW, WRITE)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(attributeNames.size());
+            for (String attributeName : attributeNames) {
+                out.writeUTF(attributeName);
+            }
+            for (Map.Entry<String, Map<String, Set<String>>> entry : identities.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, WRITE)) {
+            channel.force(true);
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        journal = FileChannel.open(file, WRITE, APPEND, CREATE, DSYNC);
+        records = 0;
+    }
+}
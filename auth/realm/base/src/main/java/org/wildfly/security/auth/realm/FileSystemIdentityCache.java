@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.wildfly.security.auth.realm.FileSystemSecurityRealm.LoadedIdentity;
+
+/**
+ * A bounded cache of the identities parsed by a {@link FileSystemSecurityRealm}, keyed by the path of their file.
+ *
+ * <p>Entries are invalidated by the writes of the realm itself and, for changes made by other means, by a
+ * {@link WatchService} watching the root of the realm and its hashing directories. Changes made by other means are
+ * therefore only picked up once the watch service reports them, which may take a few seconds on some platforms.
+ */
+final class FileSystemIdentityCache implements AutoCloseable {
+
+    private final Path root;
+    private final int levels;
+    private final Map<Path, LoadedIdentity> identities;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final WatchService watchService;
+    private final Thread watcher;
+    private long invalidations;
+
+    FileSystemIdentityCache(final Path root, final int levels, final int maxEntries) {
+        this.root = root;
+        this.levels = levels;
+        this.identities = new LinkedHashMap<Path, LoadedIdentity>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, LoadedIdentity> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        try {
+            Files.createDirectories(root);
+            watchService = root.getFileSystem().newWatchService();
+            register(root, levels);
+        } catch (IOException e) {
+            throw ElytronMessages.log.fileSystemRealmWatchFailed(root, e);
+        }
+        watcher = new Thread(this::watch, "FileSystemSecurityRealm watcher for " + root);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Get the parsed identity cached for the given file.
+     *
+     * @param path the path of the identity file
+     * @return the cached identity or {@code null} if none
+     */
+    LoadedIdentity get(final Path path) {
+        lock.lock();
+        try {
+            return identities.get(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of invalidations so far, to be passed to {@link #put(Path, LoadedIdentity, long)} once an identity
+     * has been parsed.
+     *
+     * @return the number of invalidations
+     */
+    long getInvalidationCount() {
+        lock.lock();
+        try {
+            return invalidations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cache an identity parsed from the given file, unless some identity was invalidated since the parsing started, in
+     * which case the parsed identity may be stale.
+     *
+     * @param path the path of the identity file
+     * @param identity the parsed identity
+     * @param invalidationCount the number of invalidations before the parsing started
+     */
+    void put(final Path path, final LoadedIdentity identity, final long invalidationCount) {
+        lock.lock();
+        try {
+            if (invalidations == invalidationCount) {
+                identities.put(path, identity);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discard the identity cached for the given file, if any.
+     *
+     * @param path the path of the identity file
+     */
+    void invalidate(final Path path) {
+        lock.lock();
+        try {
+            invalidations++;
+            identities.remove(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discard all the cached identities.
+     */
+    void invalidateAll() {
+        lock.lock();
+        try {
+            invalidations++;
+            identities.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of cached identities.
+     *
+     * @return the number of cached identities
+     */
+    int size() {
+        lock.lock();
+        try {
+            return identities.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            ElytronMessages.log.debug("Unable to close the watch service", e);
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Register the given directory and its hashing subdirectories down to the given depth with the watch service.
+     */
+    private void register(final Path directory, final int depth) throws IOException {
+        try (Stream<Path> directories = Files.walk(directory, depth)) {
+            for (Path subdirectory : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+                subdirectory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            }
+        }
+    }
+
+    private void watch() {
+        for (;;) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            }
+            final Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    ElytronMessages.log.tracef("Missed changes in \"%s\", discarding all cached identities", root);
+                    invalidateAll();
+                    continue;
+                }
+                final Path path = directory.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                    final int depth = levels - root.relativize(path).getNameCount();
+                    try {
+                        if (depth >= 0) {
+                            register(path, depth);
+                        }
+                    } catch (IOException | ClosedWatchServiceException e) {
+                        ElytronMessages.log.debugf(e, "Unable to watch \"%s\" for changes", path);
+                    }
+                    // identities may have been written to the directory before it was registered
+                    invalidateAll();
+                } else if (path.getFileName().toString().endsWith(".xml")) {
+                    // only identity files, not the attribute index or the temporary files written next to them
+                    invalidate(path);
+                }
+            }
+            key.reset();
+        }
+    }
+}
@@ -26,11 +26,13 @@ import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
 import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
@@ -55,13 +57,18 @@ import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
@@ -77,10 +84,12 @@ import org.wildfly.common.iteration.ByteIterator;
 import org.wildfly.common.iteration.CodePointIterator;
 import org.wildfly.security.auth.principal.NamePrincipal;
 import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
+import org.wildfly.security.auth.server.IdentityDefinition;
 import org.wildfly.security.auth.server.ModifiableRealmIdentityIterator;
 import org.wildfly.security.auth.server.ModifiableRealmIdentity;
 import org.wildfly.security.auth.server.ModifiableSecurityRealm;
 import org.wildfly.security.auth.server.NameRewriter;
+import org.wildfly.security.auth.server.ProvisioningResult;
 import org.wildfly.security.auth.server.RealmIdentity;
 import org.wildfly.security.auth.server.RealmUnavailableException;
 import org.wildfly.security.auth.SupportLevel;
@@ -106,18 +115,22 @@ import org.wildfly.security.permission.ElytronPermission;
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
-public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRealm {
+public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRealm, AutoCloseable {
 
     static final String ELYTRON_1_0 = "urn:elytron:1.0";
     static final String ELYTRON_1_0_1 = "urn:elytron:1.0.1";
     static final ElytronPermission CREATE_SECURITY_REALM = ElytronPermission.forName("createSecurityRealm");
+    static final String ATTRIBUTE_INDEX_FILE = ".attribute-index";
+    static final int PROVISIONING_BATCH_SIZE = 1000;
 
     private final Path root;
     private final NameRewriter nameRewriter;
     private final int levels;
     private final boolean encoded;
 
-    private final ConcurrentHashMap<String, IdentitySharedExclusiveLock> realmIdentityLocks = new ConcurrentHashMap<>();
+    private final IdentityLockManager realmIdentityLocks = new IdentityLockManager();
+    private final FileSystemIdentityCache identityCache;
+    private final FileSystemAttributeIndex attributeIndex;
 
     /**
      * Construct a new instance.
@@ -130,6 +143,14 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
      * @param encoded whether identity names should by BASE32 encoded before using as filename
      */
     public FileSystemSecurityRealm(final Path root, final NameRewriter nameRewriter, final int levels, final boolean encoded) {
+        this(root, nameRewriter, levels, encoded, 0, Collections.emptySet());
+    }
+
+    FileSystemSecurityRealm(final FileSystemSecurityRealmBuilder builder) {
+        this(builder.getRoot(), builder.getNameRewriter(), builder.getLevels(), builder.isEncoded(), builder.getIdentityCacheSize(), builder.getIndexedAttributes());
+    }
+
+    private FileSystemSecurityRealm(final Path root, final NameRewriter nameRewriter, final int levels, final boolean encoded, final int identityCacheSize, final Set<String> indexedAttributes) {
         final SecurityManager sm = System.getSecurityManager();
         if (sm != null) {
             sm.checkPermission(CREATE_SECURITY_REALM);
@@ -138,6 +159,26 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         this.nameRewriter = nameRewriter;
         this.levels = levels;
         this.encoded = encoded;
+        this.identityCache = identityCacheSize > 0 ? new FileSystemIdentityCache(root, levels, identityCacheSize) : null;
+        this.attributeIndex = indexedAttributes.isEmpty() ? null : openAttributeIndex(root, indexedAttributes);
+        if (attributeIndex != null && ! attributeIndex.isLoaded()) {
+            try {
+                rebuildAttributeIndex();
+            } catch (RealmUnavailableException e) {
+                close();
+                throw ElytronMessages.log.fileSystemRealmIndexBuildFailed(root.resolve(ATTRIBUTE_INDEX_FILE), e);
+            }
+        }
+    }
+
+    private static FileSystemAttributeIndex openAttributeIndex(final Path root, final Set<String> indexedAttributes) {
+        final Path indexPath = root.resolve(ATTRIBUTE_INDEX_FILE);
+        try {
+            Files.createDirectories(root);
+            return new FileSystemAttributeIndex(indexPath, indexedAttributes);
+        } catch (IOException e) {
+            throw ElytronMessages.log.fileSystemRealmIndexOpenFailed(indexPath, e);
+        }
     }
 
     /**
@@ -170,6 +211,91 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         this(root, NameRewriter.IDENTITY_REWRITER, 2, true);
     }
 
+    /**
+     * Creates a builder of file system realms, allowing optional features such as the caching of parsed identities to be
+     * configured.
+     *
+     * @return the builder
+     */
+    public static FileSystemSecurityRealmBuilder builder() {
+        return new FileSystemSecurityRealmBuilder();
+    }
+
+    /**
+     * Stop watching the root path for changes if parsed identities are cached, discarding the cached identities, and close
+     * the attribute index if any. The realm remains usable, identities being parsed every time they are read, but changes
+     * made afterwards are no longer persisted in the attribute index, which must then be rebuilt.
+     */
+    @Override
+    public void close() {
+        if (identityCache != null) {
+            identityCache.close();
+        }
+        if (attributeIndex != null) {
+            attributeIndex.close();
+        }
+    }
+
+    /**
+     * Find the identities having the given value for an indexed attribute, without reading their files.
+     *
+     * @param attributeName the name of the attribute, which must be one of the
+     *                      {@linkplain FileSystemSecurityRealmBuilder#setIndexedAttributes(Set) indexed attributes}
+     * @param value the value of the attribute
+     * @return the principals of the matching identities, ordered by name
+     * @throws IllegalArgumentException if the attribute is not indexed
+     */
+    public Set<Principal> findIdentities(final String attributeName, final String value) {
+        Assert.checkNotNullParam("attributeName", attributeName);
+        Assert.checkNotNullParam("value", value);
+        if (attributeIndex == null || ! attributeIndex.isIndexed(attributeName)) {
+            throw ElytronMessages.log.fileSystemRealmAttributeNotIndexed(attributeName);
+        }
+        final Set<Principal> principals = new LinkedHashSet<>();
+        for (String name : attributeIndex.find(attributeName, value)) {
+            principals.add(new NamePrincipal(name));
+        }
+        return Collections.unmodifiableSet(principals);
+    }
+
+    /**
+     * Rebuild the attribute index from the identity files, as needed after they were changed other than through this
+     * realm. Identities updated through the realm while the index is rebuilt are indexed correctly, the rebuilt index
+     * replacing the current one once all the identities were read.
+     *
+     * @throws RealmUnavailableException if the identities could not be read or the rebuilt index could not be persisted
+     * @throws IllegalStateException if no attributes are indexed
+     */
+    public void rebuildAttributeIndex() throws RealmUnavailableException {
+        if (attributeIndex == null) {
+            throw ElytronMessages.log.fileSystemRealmNoAttributeIndex();
+        }
+        attributeIndex.startRebuild();
+        // only the values of the indexed attributes are kept, not all the attributes of every identity
+        final Map<String, Map<String, Set<String>>> scanned = new HashMap<>();
+        final ModifiableRealmIdentityIterator iterator = getRealmIdentityIterator();
+        try {
+            while (iterator.hasNext()) {
+                final ModifiableRealmIdentity identity = iterator.next();
+                try {
+                    final Map<String, Set<String>> indexed = attributeIndex.indexed(identity.getAuthorizationIdentity().getAttributes());
+                    if (indexed != null) {
+                        scanned.put(identity.getRealmIdentityPrincipal().getName(), indexed);
+                    }
+                } finally {
+                    identity.dispose();
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        try {
+            attributeIndex.completeRebuild(scanned);
+        } catch (IOException e) {
+            throw ElytronMessages.log.fileSystemRealmIndexRebuildFailed(root.resolve(ATTRIBUTE_INDEX_FILE), e);
+        }
+    }
+
     private Path pathFor(String name) {
         assert name.codePointCount(0, name.length()) > 0;
         String normalizedName = name;
@@ -233,14 +359,125 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         }
 
         // Acquire the appropriate lock for the realm identity
-        IdentitySharedExclusiveLock realmIdentityLock = getRealmIdentityLockForName(finalName);
         IdentityLock lock;
         if (exclusive) {
-            lock = realmIdentityLock.lockExclusive();
+            lock = realmIdentityLocks.lockExclusive(finalName);
         } else {
-            lock = realmIdentityLock.lockShared();
+            lock = realmIdentityLocks.lockShared(finalName);
+        }
+        return new Identity(finalName, pathFor(finalName), lock, identityCache, attributeIndex);
+    }
+
+    /**
+     * Create the given identities, writing the file of each identity once and without waiting for it to be synced. The
+     * files written are synced together, along with their directories, every 1000 identities and once all the
+     * identities were written. If the files of a batch could not be synced or indexed, the identities of the batch are
+     * deleted again and each of them is reported as failed with the cause, the remaining identities being still
+     * provisioned.
+     *
+     * @param identities the definitions of the identities to create (must not be {@code null})
+     * @return the number of identities created and the failures
+     */
+    @Override
+    public ProvisioningResult provisionIdentities(final Stream<IdentityDefinition> identities) throws RealmUnavailableException {
+        Assert.checkNotNullParam("identities", identities);
+        final Map<Principal, Exception> failures = new LinkedHashMap<>();
+        final Map<Principal, Path> written = new LinkedHashMap<>();
+        final Map<String, Attributes> writtenAttributes = new HashMap<>();
+        int provisioned = 0;
+        final Iterator<IdentityDefinition> iterator = identities.iterator();
+        while (iterator.hasNext()) {
+            final IdentityDefinition definition = iterator.next();
+            final Principal principal = definition.getPrincipal();
+            try {
+                if (! (principal instanceof NamePrincipal)) {
+                    throw ElytronMessages.log.invalidName();
+                }
+                final Identity identity = (Identity) getRealmIdentity(principal.getName(), true);
+                try {
+                    identity.provision(new LoadedIdentity(identity.name, new ArrayList<>(definition.getCredentials()), definition.getAttributes()));
+                } finally {
+                    identity.dispose();
+                }
+                written.put(principal, identity.path);
+                writtenAttributes.put(identity.name, definition.getAttributes());
+            } catch (RealmUnavailableException | RuntimeException e) {
+                failures.put(principal, e);
+            }
+            if (written.size() >= PROVISIONING_BATCH_SIZE) {
+                provisioned += syncProvisioned(written, writtenAttributes, failures);
+            }
+        }
+        provisioned += syncProvisioned(written, writtenAttributes, failures);
+        return new ProvisioningResult(provisioned, failures);
+    }
+
+    /**
+     * Sync the given identity files and the directories they were linked into, then index their attributes. If any of
+     * it fails, the identities of the batch are deleted and added to the failures.
+     *
+     * @return the number of identities of the batch which were created
+     */
+    private int syncProvisioned(final Map<Principal, Path> written, final Map<String, Attributes> writtenAttributes, final Map<Principal, Exception> failures) {
+        if (written.isEmpty()) {
+            return 0;
+        }
+        int synced = written.size();
+        try {
+            syncProvisioned(written.values(), writtenAttributes);
+        } catch (RealmUnavailableException e) {
+            // the files may not survive a crash, or cannot be found through the index, nothing must be left of them
+            for (Principal principal : written.keySet()) {
+                try {
+                    final Identity identity = (Identity) getRealmIdentity(principal.getName(), true);
+                    try {
+                        identity.delete();
+                    } finally {
+                        identity.dispose();
+                    }
+                } catch (RealmUnavailableException | RuntimeException deleteFailure) {
+                    e.addSuppressed(deleteFailure);
+                }
+                failures.put(principal, e);
+            }
+            synced = 0;
+        }
+        written.clear();
+        writtenAttributes.clear();
+        return synced;
+    }
+
+    private void syncProvisioned(final Collection<Path> written, final Map<String, Attributes> writtenAttributes) throws RealmUnavailableException {
+        final Set<Path> directories = new LinkedHashSet<>();
+        for (Path path : written) {
+            syncPath(path, true);
+            // directories created for the identity must be synced too
+            for (Path directory = path.getParent(); directory != null && directory.startsWith(root); directory = directory.getParent()) {
+                directories.add(directory);
+            }
+        }
+        for (Path directory : directories) {
+            syncPath(directory, false);
+        }
+        if (attributeIndex != null) {
+            try {
+                attributeIndex.updateAll(writtenAttributes);
+            } catch (IOException e) {
+                throw ElytronMessages.log.fileSystemRealmIndexUpdateFailed(root.toString(), e);
+            }
+        }
+    }
+
+    private static void syncPath(final Path path, final boolean required) throws RealmUnavailableException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (required) {
+                throw ElytronMessages.log.fileSystemRealmSyncFailed(path, e);
+            }
+            // directories cannot be opened on some platforms, where their entries are synced with the files
+            ElytronMessages.log.tracef(e, "Unable to sync directory \"%s\"", path);
         }
-        return new Identity(finalName, pathFor(finalName), lock);
     }
 
     public ModifiableRealmIdentityIterator getRealmIdentityIterator() throws RealmUnavailableException {
@@ -350,18 +587,6 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         return SupportLevel.POSSIBLY_SUPPORTED;
     }
 
-    private IdentitySharedExclusiveLock getRealmIdentityLockForName(final String name) {
-        IdentitySharedExclusiveLock realmIdentityLock = realmIdentityLocks.get(name);
-        if (realmIdentityLock == null) {
-            final IdentitySharedExclusiveLock newRealmIdentityLock = new IdentitySharedExclusiveLock();
-            realmIdentityLock = realmIdentityLocks.putIfAbsent(name, newRealmIdentityLock);
-            if (realmIdentityLock == null) {
-                realmIdentityLock = newRealmIdentityLock;
-            }
-        }
-        return realmIdentityLock;
-    }
-
     @FunctionalInterface
     interface CredentialParseFunction {
         void parseCredential(String algorithm, String format, String body) throws RealmUnavailableException, XMLStreamException;
@@ -375,12 +600,16 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
 
         private final String name;
         private final Path path;
+        private final FileSystemIdentityCache identityCache;
+        private final FileSystemAttributeIndex attributeIndex;
         private IdentityLock lock;
 
-        Identity(final String name, final Path path, final IdentityLock lock) {
+        Identity(final String name, final Path path, final IdentityLock lock, final FileSystemIdentityCache identityCache, final FileSystemAttributeIndex attributeIndex) {
             this.name = name;
             this.path = path;
             this.lock = lock;
+            this.identityCache = identityCache;
+            this.attributeIndex = attributeIndex;
         }
 
         public Principal getRealmIdentityPrincipal() {
@@ -465,23 +694,28 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         }
 
         public void delete() throws RealmUnavailableException {
-            if (System.getSecurityManager() == null) {
-                deletePrivileged();
-                return;
-            }
             try {
-                AccessController.doPrivileged((PrivilegedExceptionAction<Void>) this::deletePrivileged);
-            } catch (PrivilegedActionException e) {
-                if (e.getException() instanceof RealmUnavailableException) {
-                    throw (RealmUnavailableException) e.getException();
+                if (System.getSecurityManager() == null) {
+                    deletePrivileged();
+                    return;
                 }
-                throw new RuntimeException(e.getException());
+                try {
+                    AccessController.doPrivileged((PrivilegedExceptionAction<Void>) this::deletePrivileged);
+                } catch (PrivilegedActionException e) {
+                    if (e.getException() instanceof RealmUnavailableException) {
+                        throw (RealmUnavailableException) e.getException();
+                    }
+                    throw new RuntimeException(e.getException());
+                }
+            } finally {
+                invalidateCachedIdentity();
             }
         }
 
         private Void deletePrivileged() throws RealmUnavailableException {
             try {
                 Files.delete(path);
+                indexAttributes(null);
                 return null;
             } catch (NoSuchFileException e) {
                 throw ElytronMessages.log.fileSystemRealmNotFound(name);
@@ -514,36 +748,64 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         }
 
         public void create() throws RealmUnavailableException {
-            if (System.getSecurityManager() == null) {
-                createPrivileged();
-                return;
+            try {
+                if (System.getSecurityManager() == null) {
+                    createPrivileged();
+                    return;
+                }
+                try {
+                    AccessController.doPrivileged((PrivilegedExceptionAction<Void>) this::createPrivileged);
+                } catch (PrivilegedActionException e) {
+                    if (e.getException() instanceof RealmUnavailableException) {
+                        throw (RealmUnavailableException) e.getException();
+                    }
+                    throw new RuntimeException(e.getException());
+                }
+            } finally {
+                invalidateCachedIdentity();
             }
+        }
+
+        /**
+         * Create this identity with the given credentials and attributes, without waiting for the file to be synced.
+         * The caller is responsible for syncing the file and its parent directories.
+         *
+         * @param newIdentity the content of the identity
+         */
+        void provision(final LoadedIdentity newIdentity) throws RealmUnavailableException {
             try {
-                AccessController.doPrivileged((PrivilegedExceptionAction<Void>) this::createPrivileged);
-            } catch (PrivilegedActionException e) {
-                if (e.getException() instanceof RealmUnavailableException) {
-                    throw (RealmUnavailableException) e.getException();
+                if (System.getSecurityManager() == null) {
+                    createPrivileged(newIdentity, false);
+                    return;
                 }
-                throw new RuntimeException(e.getException());
+                try {
+                    AccessController.doPrivileged((PrivilegedExceptionAction<Void>) () -> createPrivileged(newIdentity, false));
+                } catch (PrivilegedActionException e) {
+                    if (e.getException() instanceof RealmUnavailableException) {
+                        throw (RealmUnavailableException) e.getException();
+                    }
+                    throw new RuntimeException(e.getException());
+                }
+            } finally {
+                invalidateCachedIdentity();
             }
         }
 
         private Void createPrivileged() throws RealmUnavailableException {
+            // create empty identity
+            createPrivileged(new LoadedIdentity(name, Collections.emptyList(), Attributes.EMPTY), true);
+            indexAttributes(Attributes.EMPTY);
+            return null;
+        }
+
+        private Void createPrivileged(final LoadedIdentity newIdentity, final boolean sync) throws RealmUnavailableException {
             for (;;) {
                 final Path tempPath = tempPath();
                 final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newFactory();
-                try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempPath, WRITE, CREATE_NEW, DSYNC))) {
+                try (OutputStream outputStream = new BufferedOutputStream(sync ? Files.newOutputStream(tempPath, WRITE, CREATE_NEW, DSYNC) : Files.newOutputStream(tempPath, WRITE, CREATE_NEW))) {
                     try (AutoCloseableXMLStreamWriterHolder holder = new AutoCloseableXMLStreamWriterHolder(xmlOutputFactory.createXMLStreamWriter(outputStream))) {
-                        final XMLStreamWriter streamWriter = holder.getXmlStreamWriter();
-                        // create empty identity
-                        streamWriter.writeStartDocument();
-                        streamWriter.writeCharacters("\n");
-                        streamWriter.writeStartElement("identity");
-                        // Continue to write using 1.0 as not using any features added in 1.0.1
-                        streamWriter.writeDefaultNamespace(ELYTRON_1_0);
-                        streamWriter.writeEndElement();
-                        streamWriter.writeEndDocument();
-                    } catch (XMLStreamException e) {
+                        writeIdentity(holder.getXmlStreamWriter(), newIdentity);
+                    } catch (XMLStreamException | InvalidKeySpecException | NoSuchAlgorithmException | CertificateEncodingException e) {
                         throw ElytronMessages.log.fileSystemRealmFailedToWrite(tempPath, name, e);
                     }
                 } catch (FileAlreadyExistsException ignored) {
@@ -592,6 +854,7 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
             }
             final LoadedIdentity newIdentity = new LoadedIdentity(name, loadedIdentity.getCredentials(), attributes);
             replaceIdentity(newIdentity);
+            indexAttributes(attributes);
         }
 
         @Override
@@ -604,17 +867,47 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         }
 
         private void replaceIdentity(final LoadedIdentity newIdentity) throws RealmUnavailableException {
-            if (System.getSecurityManager() == null) {
-                replaceIdentityPrivileged(newIdentity);
+            try {
+                if (System.getSecurityManager() == null) {
+                    replaceIdentityPrivileged(newIdentity);
+                    return;
+                }
+                try {
+                    AccessController.doPrivileged((PrivilegedExceptionAction<Void>) () -> replaceIdentityPrivileged(newIdentity));
+                } catch (PrivilegedActionException e) {
+                    if (e.getException() instanceof RealmUnavailableException) {
+                        throw (RealmUnavailableException) e.getException();
+                    }
+                    throw new RuntimeException(e.getException());
+                }
+            } finally {
+                invalidateCachedIdentity();
+            }
+        }
+
+        /**
+         * Update the attribute index, if any, once the file of this identity was written or deleted.
+         *
+         * @param attributes the new attributes of the identity, or {@code null} if it was deleted
+         */
+        private void indexAttributes(final Attributes attributes) throws RealmUnavailableException {
+            if (attributeIndex == null) {
                 return;
             }
             try {
-                AccessController.doPrivileged((PrivilegedExceptionAction<Void>) () -> replaceIdentityPrivileged(newIdentity));
-            } catch (PrivilegedActionException e) {
-                if (e.getException() instanceof RealmUnavailableException) {
-                    throw (RealmUnavailableException) e.getException();
+                if (attributes == null) {
+                    attributeIndex.remove(name);
+                } else {
+                    attributeIndex.update(name, attributes);
                 }
-                throw new RuntimeException(e.getException());
+            } catch (IOException e) {
+                throw ElytronMessages.log.fileSystemRealmIndexUpdateFailed(name, e);
+            }
+        }
+
+        private void invalidateCachedIdentity() {
+            if (identityCache != null) {
+                identityCache.invalidate(path);
             }
         }
 
@@ -674,7 +967,39 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
             }
         }
 
-        private void writeIdentity(final XMLStreamWriter streamWriter, final LoadedIdentity newIdentity) throws XMLStreamException, InvalidKeySpecException, NoSuchAlgorithmException, CertificateEncodingException {
+        /**
+         * Encode an identity as the XML document stored in identity files.
+         *
+         * @param identity the identity to encode
+         * @return the encoded identity
+         */
+        static byte[] encodeIdentity(final LoadedIdentity identity) throws XMLStreamException, InvalidKeySpecException, NoSuchAlgorithmException, CertificateEncodingException {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (AutoCloseableXMLStreamWriterHolder holder = new AutoCloseableXMLStreamWriterHolder(XMLOutputFactory.newFactory().createXMLStreamWriter(outputStream))) {
+                writeIdentity(holder.getXmlStreamWriter(), identity);
+            }
+            return outputStream.toByteArray();
+        }
+
+        /**
+         * Decode an identity from the XML document stored in identity files.
+         *
+         * @param name the name of the identity
+         * @param source the file the document was read from, for error reporting
+         * @param inputStream the stream to read the document from
+         * @param skipCredentials whether the credentials should not be decoded
+         * @param skipAttributes whether the attributes should not be decoded
+         * @return the decoded identity
+         */
+        static LoadedIdentity decodeIdentity(final String name, final Path source, final InputStream inputStream, final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException {
+            return new Identity(name, source, null, null, null).parseIdentity(inputStream, skipCredentials, skipAttributes);
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        private static void writeIdentity(final XMLStreamWriter streamWriter, final LoadedIdentity newIdentity) throws XMLStreamException, InvalidKeySpecException, NoSuchAlgorithmException, CertificateEncodingException {
             streamWriter.writeStartDocument();
             streamWriter.writeCharacters("\n");
             streamWriter.writeStartElement("identity");
@@ -757,6 +1082,33 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         }
 
         private LoadedIdentity loadIdentity(final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException {
+            if (identityCache != null) {
+                return loadCachedIdentity();
+            }
+            return parseIdentityFile(skipCredentials, skipAttributes);
+        }
+
+        /**
+         * Load the identity from the cache, parsing it in full on a cache miss so that it can be reused whatever is read
+         * from it next. A copy of the attributes is returned as they may be modified by the caller.
+         */
+        private LoadedIdentity loadCachedIdentity() throws RealmUnavailableException {
+            LoadedIdentity cached = identityCache.get(path);
+            if (cached == null) {
+                final long invalidationCount = identityCache.getInvalidationCount();
+                final LoadedIdentity parsed = parseIdentityFile(false, false);
+                if (parsed == null) {
+                    return null;
+                }
+                cached = new LoadedIdentity(parsed.getName(), Collections.unmodifiableList(parsed.getCredentials()), parsed.getAttributes());
+                identityCache.put(path, cached, invalidationCount);
+            } else {
+                ElytronMessages.log.tracef("FileSystemSecurityRealm - using cached identity for [%s]", name);
+            }
+            return new LoadedIdentity(cached.getName(), cached.getCredentials(), new MapAttributes(cached.getAttributes()));
+        }
+
+        private LoadedIdentity parseIdentityFile(final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException {
             if (System.getSecurityManager() == null) {
                 return loadIdentityPrivileged(skipCredentials, skipAttributes);
             }
@@ -772,17 +1124,7 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
 
         private LoadedIdentity loadIdentityPrivileged(final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException {
             try (InputStream inputStream = Files.newInputStream(path, READ)) {
-                final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
-                inputFactory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
-                inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
-                inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
-                inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
-                try (final AutoCloseableXMLStreamReaderHolder holder = new AutoCloseableXMLStreamReaderHolder(inputFactory.createXMLStreamReader(inputStream, "UTF-8"))) {
-                    final XMLStreamReader streamReader = holder.getXmlStreamReader();
-                    return parseIdentity(streamReader, skipCredentials, skipAttributes);
-                } catch (XMLStreamException e) {
-                    throw ElytronMessages.log.fileSystemRealmFailedToRead(path, name, e);
-                }
+                return parseIdentity(inputStream, skipCredentials, skipAttributes);
             } catch (NoSuchFileException | FileNotFoundException ignored) {
                 return null;
             } catch (IOException e) {
@@ -790,6 +1132,20 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
             }
         }
 
+        private LoadedIdentity parseIdentity(final InputStream inputStream, final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException {
+            final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+            inputFactory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            try (final AutoCloseableXMLStreamReaderHolder holder = new AutoCloseableXMLStreamReaderHolder(inputFactory.createXMLStreamReader(inputStream, "UTF-8"))) {
+                final XMLStreamReader streamReader = holder.getXmlStreamReader();
+                return parseIdentity(streamReader, skipCredentials, skipAttributes);
+            } catch (XMLStreamException e) {
+                throw ElytronMessages.log.fileSystemRealmFailedToRead(path, name, e);
+            }
+        }
+
         private LoadedIdentity parseIdentity(final XMLStreamReader streamReader, final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException, XMLStreamException {
             final int tag = streamReader.nextTag();
             if (tag != START_ELEMENT || ! validNamespace(streamReader.getNamespaceURI()) || ! "identity".equals(streamReader.getLocalName())) {
@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.wildfly.security.auth.server.NameRewriter;
+
+/**
+ * A builder class that creates {@link FileSystemSecurityRealm} instances.
+ *
+ * @see FileSystemSecurityRealm#builder()
+ */
+public class FileSystemSecurityRealmBuilder {
+
+    private Path root;
+    private NameRewriter nameRewriter = NameRewriter.IDENTITY_REWRITER;
+    private int levels = 2;
+    private boolean encoded = true;
+    private int identityCacheSize;
+    private Set<String> indexedAttributes = Collections.emptySet();
+
+    FileSystemSecurityRealmBuilder() {
+    }
+
+    /**
+     * Set the root path of the identity store.
+     *
+     * @param root the root path of the identity store
+     * @return this builder
+     */
+    public FileSystemSecurityRealmBuilder setRoot(final Path root) {
+        this.root = checkNotNullParam("root", root);
+
+        return this;
+    }
+
+    /**
+     * Set the name rewriter to apply to looked up names.
+     *
+     * @param nameRewriter the name rewriter to apply to looked up names
+     * @return this builder
+     */
+    public FileSystemSecurityRealmBuilder setNameRewriter(final NameRewriter nameRewriter) {
+        this.nameRewriter = checkNotNullParam("nameRewriter", nameRewriter);
+
+        return this;
+    }
+
+    /**
+     * Set the number of levels of directory hashing to apply, {@code 2} by default.
+     *
+     * @param levels the number of levels of directory hashing to apply
+     * @return this builder
+     */
+    public FileSystemSecurityRealmBuilder setLevels(final int levels) {
+        checkMinimumParameter("levels", 0, levels);
+        this.levels = levels;
+
+        return this;
+    }
+
+    /**
+     * Set whether identity names should be BASE32 encoded before using as filename, {@code true} by default.
+     *
+     * @param encoded whether identity names should be BASE32 encoded before using as filename
+     * @return this builder
+     */
+    public FileSystemSecurityRealmBuilder setEncoded(final boolean encoded) {
+        this.encoded = encoded;
+
+        return this;
+    }
+
+    /**
+     * Set the maximum number of parsed identities kept in memory, so that identities read repeatedly are not parsed
+     * from their file every time. Cached identities are discarded when updated through the realm, and when their file
+     * is changed by other means as reported by a {@link java.nio.file.WatchService} watching the root path, which is
+     * created if it does not exist. The realm must then be {@linkplain FileSystemSecurityRealm#close() closed} once no
+     * longer used to stop watching.
+     *
+     * @param identityCacheSize the maximum number of cached identities. If {@code 0}, the default, identities are parsed
+     *                          every time they are read
+     * @return this builder
+     */
+    public FileSystemSecurityRealmBuilder setIdentityCacheSize(final int identityCacheSize) {
+        checkMinimumParameter("identityCacheSize", 0, identityCacheSize);
+        this.identityCacheSize = identityCacheSize;
+
+        return this;
+    }
+
+    /**
+     * Set the names of the attributes whose values are indexed, so that identities can be found by attribute value using
+     * {@link FileSystemSecurityRealm#findIdentities(String, String)} without reading their files. The index is persisted
+     * in a file under the root path and kept up to date as identities are created, deleted or have their attributes set
+     * through the realm. It is rebuilt from the identity files when the realm is built if it does not exist or was built
+     * for other attributes, and can be rebuilt at any time using {@link FileSystemSecurityRealm#rebuildAttributeIndex()},
+     * which should be done after identity files are changed by other means.
+     *
+     * @param indexedAttributes the names of the indexed attributes. If empty, the default, no index is maintained
+     * @return this builder
+     */
+    public FileSystemSecurityRealmBuilder setIndexedAttributes(final Set<String> indexedAttributes) {
+        checkNotNullParam("indexedAttributes", indexedAttributes);
+        this.indexedAttributes = Collections.unmodifiableSet(new LinkedHashSet<>(indexedAttributes));
+
+        return this;
+    }
+
+    /**
+     * Builds a new {@link FileSystemSecurityRealm} instance based on the configuration of this builder.
+     *
+     * Construction with enabled security manager requires {@code createSecurityRealm} {@link org.wildfly.security.permission.ElytronPermission}.
+     *
+     * @return the built realm
+     */
+    public FileSystemSecurityRealm build() {
+        checkNotNullParam("root", root);
+
+        return new FileSystemSecurityRealm(this);
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    NameRewriter getNameRewriter() {
+        return nameRewriter;
+    }
+
+    int getLevels() {
+        return levels;
+    }
+
+    boolean isEncoded() {
+        return encoded;
+    }
+
+    int getIdentityCacheSize() {
+        return identityCacheSize;
+    }
+
+    Set<String> getIndexedAttributes() {
+        return indexedAttributes;
+    }
+}
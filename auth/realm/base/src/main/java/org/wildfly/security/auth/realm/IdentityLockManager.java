@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
+
+/**
+ * <p>Hands out the {@link IdentitySharedExclusiveLock} of realm identities by name.
+ *
+ * <p>Locks are reference counted: a lock is created when a name is first locked and discarded as soon as every
+ * {@link IdentityLock} obtained for that name has been released, so the memory used only depends on the number of
+ * identities currently locked or being waited for, not on the number of distinct names ever looked up.
+ */
+public final class IdentityLockManager {
+
+    private final ConcurrentHashMap<String, ManagedLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Acquire the exclusive lock of the identity with the given name. An invocation of this method will block until the
+     * lock can be acquired.
+     *
+     * @param name the name of the identity
+     * @return a lock object representing the newly acquired lock, which must be released once the identity is disposed of
+     */
+    public IdentityLock lockExclusive(final String name) {
+        return acquire(name).lockExclusive();
+    }
+
+    /**
+     * Acquire a shared lock of the identity with the given name. An invocation of this method will block until the lock
+     * can be acquired.
+     *
+     * @param name the name of the identity
+     * @return a lock object representing the newly acquired lock, which must be released once the identity is disposed of
+     */
+    public IdentityLock lockShared(final String name) {
+        return acquire(name).lockShared();
+    }
+
+    /**
+     * Get the number of names whose lock is currently held or waited for.
+     *
+     * @return the number of names
+     */
+    public int size() {
+        return locks.size();
+    }
+
+    private ManagedLock acquire(final String name) {
+        checkNotNullParam("name", name);
+        // the reference is taken before waiting for the lock, so that the lock is not discarded while waited for
+        return locks.compute(name, (key, lock) -> {
+            if (lock == null) {
+                lock = new ManagedLock(key);
+            }
+            lock.references++;
+            return lock;
+        });
+    }
+
+    private final class ManagedLock extends IdentitySharedExclusiveLock {
+
+        private final String name;
+
+        /**
+         * The number of locks held or waited for, only accessed while computing the mapping of the name.
+         */
+        private int references;
+
+        ManagedLock(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        void release(final IdentityLock identityLock) {
+            super.release(identityLock);
+            locks.computeIfPresent(name, (key, lock) -> --lock.references == 0 ? null : lock);
+        }
+    }
+}
@@ -18,13 +18,22 @@
 
 package org.wildfly.security.auth.realm;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * A simple shared/exclusive lock for a realm identity.
  *
+ * <p>Waiting threads are parked using {@link java.util.concurrent.locks} rather than monitors, so that virtual threads
+ * waiting for an identity are not pinned to their carrier thread.
+ *
  * @author <a href="mailto:fjuma@redhat.com">Farah Juma</a>
  */
 public class IdentitySharedExclusiveLock {
 
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final Condition released = stateLock.newCondition();
     private int sharedHoldCount;
     private boolean isExclusiveLocked;
     private int exclusiveRequests;
@@ -34,26 +43,19 @@ public class IdentitySharedExclusiveLock {
      *
      * @return a lock object representing the newly acquired lock
      */
-    public synchronized IdentityLock lockExclusive() {
-        boolean interrupted = false;
+    public IdentityLock lockExclusive() {
+        stateLock.lock();
         try {
             exclusiveRequests++;
             while ((sharedHoldCount > 0) || isExclusiveLocked) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    interrupted = true;
-                }
+                released.awaitUninterruptibly();
             }
             isExclusiveLocked = true;
             exclusiveRequests--;
             return new IdentityLock(true);
         } finally {
-            if (interrupted) {
-                Thread.currentThread().interrupt();
-            }
+            stateLock.unlock();
         }
-
     }
 
     /**
@@ -61,35 +63,33 @@ public class IdentitySharedExclusiveLock {
      *
      * @return a lock object representing the newly acquired lock
      */
-    public synchronized IdentityLock lockShared() {
-        boolean interrupted = false;
+    public IdentityLock lockShared() {
+        stateLock.lock();
         try {
             while (isExclusiveLocked || (exclusiveRequests > 0)) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    interrupted = true;
-                }
+                released.awaitUninterruptibly();
             }
             sharedHoldCount++;
             return new IdentityLock(false);
         } finally {
-            if (interrupted) {
-                Thread.currentThread().interrupt();
-            }
+            stateLock.unlock();
         }
     }
 
-    private synchronized void release(IdentityLock identityLock) {
-        if (identityLock.isExclusive()) {
-            isExclusiveLocked = false;
-            notifyAll();
-        } else {
-            if (--sharedHoldCount == 0) {
-                notifyAll();
+    void release(IdentityLock identityLock) {
+        stateLock.lock();
+        try {
+            if (identityLock.isExclusive()) {
+                isExclusiveLocked = false;
+                released.signalAll();
+            } else {
+                if (--sharedHoldCount == 0) {
+                    released.signalAll();
+                }
             }
+        } finally {
+            stateLock.unlock();
         }
-
     }
 
     /**
@@ -100,7 +100,7 @@ public class IdentitySharedExclusiveLock {
     public class IdentityLock implements AutoCloseable {
 
         private final boolean exclusive;
-        private volatile boolean valid = true;
+        private final AtomicBoolean valid = new AtomicBoolean(true);
 
         /**
          * Construct a new instance.
@@ -114,10 +114,9 @@ public class IdentitySharedExclusiveLock {
         /**
          * Release this lock. Invoking this method has no effect if this lock is invalid.
          */
-        public synchronized void release() {
-            if (valid) {
+        public void release() {
+            if (valid.compareAndSet(true, false)) {
                 IdentitySharedExclusiveLock.this.release(this);
-                valid = false;
             }
         }
 
@@ -142,7 +141,7 @@ public class IdentitySharedExclusiveLock {
          * @return {@code true} if this lock is valid, {@code false} otherwise
          */
         public boolean isValid() {
-            return valid;
+            return valid.get();
         }
     }
 }
@@ -31,6 +31,9 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 import javax.security.auth.x500.X500Principal;
@@ -44,11 +47,17 @@ import org.wildfly.security.auth.server.SecurityRealm;
 import org.wildfly.security.auth.SupportLevel;
 import org.wildfly.security.credential.Credential;
 import org.wildfly.security.evidence.Evidence;
+import org.wildfly.security.keystore.ModificationCountingKeyStore;
 import org.wildfly.security.x500.util.X500PrincipalUtil;
 
 /**
  * A {@link KeyStore} backed {@link SecurityRealm} implementation.
  *
+ * <p>Identities can also be obtained by the subject of their certificate. If the {@link KeyStore} is a
+ * {@link ModificationCountingKeyStore}, such as a {@link org.wildfly.security.keystore.ModifyTrackingKeyStore} or an
+ * {@link org.wildfly.security.keystore.AtomicLoadKeyStore}, the aliases of the certificates are indexed by subject, the
+ * index being rebuilt whenever the {@link KeyStore} is modified. Otherwise, all the certificates are searched every time.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
@@ -56,6 +65,8 @@ public class KeyStoreBackedSecurityRealm implements SecurityRealm {
 
     private final Supplier<Provider[]> providers;
     private final KeyStore keyStore;
+    private final ReentrantLock certificateIndexLock = new ReentrantLock();
+    private volatile CertificateIndex certificateIndex;
 
     /**
      * Construct a new instance.
@@ -90,21 +101,12 @@ public class KeyStoreBackedSecurityRealm implements SecurityRealm {
                 return RealmIdentity.NON_EXISTENT;
             } else {
                 log.tracef("KeyStoreRealm: obtaining certificate by X500Principal [%s]", x500Principal);
-                final KeyStore keyStore = this.keyStore;
-                try {
-                    final Enumeration<String> aliases = keyStore.aliases();
-                    while (aliases.hasMoreElements()) {
-                        final String alias = aliases.nextElement();
-                        if (keyStore.isCertificateEntry(alias)) {
-                            final Certificate certificate = keyStore.getCertificate(alias);
-                            if (certificate instanceof X509Certificate && x500Principal.equals(X500PrincipalUtil.asX500Principal(((X509Certificate) certificate).getSubjectX500Principal()))) {
-                                log.tracef("KeyStoreRealm: certificate found by X500Principal in alias [%s]", alias);
-                                return new KeyStoreRealmIdentity(alias);
-                            }
-                        }
-                    }
-                } catch (KeyStoreException e) {
-                    throw log.failedToReadKeyStore(e);
+                final String alias = keyStore instanceof ModificationCountingKeyStore
+                        ? getCertificateIndex((ModificationCountingKeyStore) keyStore).get(x500Principal)
+                        : findCertificateAlias(x500Principal);
+                if (alias != null) {
+                    log.tracef("KeyStoreRealm: certificate found by X500Principal in alias [%s]", alias);
+                    return new KeyStoreRealmIdentity(alias);
                 }
                 log.tracef("KeyStoreRealm: certificate not found by X500Principal");
                 return RealmIdentity.NON_EXISTENT;
@@ -112,6 +114,75 @@ public class KeyStoreBackedSecurityRealm implements SecurityRealm {
         }
     }
 
+    private String findCertificateAlias(final X500Principal x500Principal) throws RealmUnavailableException {
+        final KeyStore keyStore = this.keyStore;
+        try {
+            final Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                final String alias = aliases.nextElement();
+                if (x500Principal.equals(getCertificateSubject(alias))) {
+                    return alias;
+                }
+            }
+        } catch (KeyStoreException e) {
+            throw log.failedToReadKeyStore(e);
+        }
+        return null;
+    }
+
+    /**
+     * Get the aliases of the certificate entries by subject, rebuilding the index if the key store was modified since it
+     * was built.
+     */
+    private Map<X500Principal, String> getCertificateIndex(final ModificationCountingKeyStore countingKeyStore) throws RealmUnavailableException {
+        CertificateIndex index = certificateIndex;
+        if (index == null || index.modificationCount != countingKeyStore.getModificationCount()) {
+            certificateIndexLock.lock();
+            try {
+                index = certificateIndex;
+                // read before indexing, so that a modification made while indexing causes the next lookup to index again
+                final long modificationCount = countingKeyStore.getModificationCount();
+                if (index == null || index.modificationCount != modificationCount) {
+                    index = new CertificateIndex(modificationCount, indexCertificates());
+                    certificateIndex = index;
+                    log.tracef("KeyStoreRealm: indexed [%d] certificates by X500Principal", index.aliases.size());
+                }
+            } finally {
+                certificateIndexLock.unlock();
+            }
+        }
+        return index.aliases;
+    }
+
+    private Map<X500Principal, String> indexCertificates() throws RealmUnavailableException {
+        final KeyStore keyStore = this.keyStore;
+        final Map<X500Principal, String> index = new HashMap<>();
+        try {
+            final Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                final String alias = aliases.nextElement();
+                final X500Principal subject = getCertificateSubject(alias);
+                if (subject != null) {
+                    // the first alias wins, as when searching all the certificates
+                    index.putIfAbsent(subject, alias);
+                }
+            }
+        } catch (KeyStoreException e) {
+            throw log.failedToReadKeyStore(e);
+        }
+        return index;
+    }
+
+    private X500Principal getCertificateSubject(final String alias) throws KeyStoreException {
+        if (keyStore.isCertificateEntry(alias)) {
+            final Certificate certificate = keyStore.getCertificate(alias);
+            if (certificate instanceof X509Certificate) {
+                return X500PrincipalUtil.asX500Principal(((X509Certificate) certificate).getSubjectX500Principal());
+            }
+        }
+        return null;
+    }
+
     @Override
     public SupportLevel getCredentialAcquireSupport(final Class<? extends Credential> credentialType, final String algorithmName, final AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
         Assert.checkNotNullParam("credentialType", credentialType);
@@ -211,4 +282,15 @@ public class KeyStoreBackedSecurityRealm implements SecurityRealm {
             return getEntry(name) != null;
         }
     }
+
+    private static final class CertificateIndex {
+
+        private final long modificationCount;
+        private final Map<X500Principal, String> aliases;
+
+        private CertificateIndex(final long modificationCount, final Map<X500Principal, String> aliases) {
+            this.modificationCount = modificationCount;
+            this.aliases = aliases;
+        }
+    }
 }
@@ -18,6 +18,9 @@
 
 package org.wildfly.security.auth.realm;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 import static org.wildfly.security.auth.realm.ElytronMessages.log;
 import static org.wildfly.security.password.interfaces.ClearPassword.ALGORITHM_CLEAR;
 import static org.wildfly.security.password.interfaces.DigestPassword.ALGORITHM_DIGEST_MD5;
@@ -28,6 +31,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
@@ -39,9 +48,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 import org.wildfly.common.Assert;
@@ -70,14 +82,19 @@ import org.wildfly.security.password.spec.PasswordSpec;
 /**
  * A {@link SecurityRealm} implementation that makes use of the legacy properties files.
  *
+ * <p>The realm is either loaded from streams, in which case {@link #load(InputStream, InputStream)} must be called again
+ * to pick up changes, or from files, in which case the files are watched for changes and reloaded automatically. In both
+ * cases the accounts whose password and groups did not change are kept as they are when the realm is reloaded.
+ *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
-public class LegacyPropertiesSecurityRealm implements SecurityRealm {
+public class LegacyPropertiesSecurityRealm implements SecurityRealm, AutoCloseable {
 
     private static final String COMMENT_PREFIX1 = "#";
     private static final String COMMENT_PREFIX2 = "!";
     private static final String REALM_COMMENT_PREFIX = "$REALM_NAME=";
     private static final String REALM_COMMENT_SUFFIX = "$";
+    private static final long RELOAD_DELAY = 100;
 
     private final Supplier<Provider[]> providers;
     private final String defaultRealm;
@@ -86,12 +103,19 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
     private final String groupsAttribute;
 
     private final AtomicReference<LoadedState> loadedState = new AtomicReference<>();
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    private final Path usersFile;
+    private final Path groupsFile;
+    private WatchService watchService;
 
     private LegacyPropertiesSecurityRealm(Builder builder) throws IOException {
         plainText = builder.plainText;
         groupsAttribute = builder.groupsAttribute;
         providers = builder.providers;
         defaultRealm = builder.defaultRealm;
+        usersFile = builder.usersFile == null ? null : builder.usersFile.toAbsolutePath();
+        groupsFile = builder.groupsFile == null ? null : builder.groupsFile.toAbsolutePath();
     }
 
     @Override
@@ -176,8 +200,7 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
                                 return null; // no digest for given username+realm
                             }
                         }
-                        byte[] hashed = ByteIterator.ofBytes(accountEntry.getPasswordRepresentation().getBytes(StandardCharsets.UTF_8)).asUtf8String().hexDecode().drain();
-                        passwordSpec = new DigestPasswordSpec(accountEntry.getName(), loadedState.getRealmName(), hashed);
+                        passwordSpec = new DigestPasswordSpec(accountEntry.getName(), loadedState.getRealmName(), accountEntry.getHashedPassword());
                     }
                 }
 
@@ -204,12 +227,7 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
                     passwordSpec = new ClearPasswordSpec(accountEntry.getPasswordRepresentation().toCharArray());
                 } else {
                     passwordFactory = getPasswordFactory(ALGORITHM_DIGEST_MD5);
-                    try {
-                        byte[] hashed = ByteIterator.ofBytes(accountEntry.getPasswordRepresentation().getBytes(StandardCharsets.UTF_8)).asUtf8String().hexDecode().drain();
-                        passwordSpec = new DigestPasswordSpec(accountEntry.getName(), loadedState.getRealmName(), hashed);
-                    } catch (DecodeException e) {
-                        throw log.decodingHashedPasswordFromPropertiesRealmFailed(e);
-                    }
+                    passwordSpec = new DigestPasswordSpec(accountEntry.getName(), loadedState.getRealmName(), accountEntry.getHashedPassword());
                 }
                 try {
 
@@ -265,6 +283,16 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
      * @throws IOException if there is problem while reading the input streams or invalid content is loaded from streams
      */
     public void load(InputStream usersStream, InputStream groupsStream) throws IOException {
+        loadLock.lock();
+        try {
+            LoadedState previousState = loadedState.get();
+            loadedState.set(loadState(usersStream, groupsStream, previousState == null ? Collections.emptyMap() : previousState.getAccounts()));
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    private LoadedState loadState(InputStream usersStream, InputStream groupsStream, Map<String, AccountEntry> previousAccounts) throws IOException {
         Map<String, AccountEntry> accounts = new HashMap<>();
         Properties groups = new Properties();
 
@@ -321,7 +349,7 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
                             }
                             if (username != null) { // end of line and delimiter was read
                                 String password = builder.toString().trim();
-                                accounts.put(username, new AccountEntry(username, password, groups.getProperty(username)));
+                                accounts.put(username, getAccountEntry(previousAccounts, username, password, groups.getProperty(username)));
                             }
                         }
                     }
@@ -340,11 +368,120 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
         // users, which are in groups file only
         for (String userName : groups.stringPropertyNames()) {
             if (accounts.containsKey(userName) == false) {
-                accounts.put(userName, new AccountEntry(userName, null, groups.getProperty(userName)));
+                accounts.put(userName, getAccountEntry(previousAccounts, userName, null, groups.getProperty(userName)));
             }
         }
 
-        loadedState.set(new LoadedState(accounts, realmName, System.currentTimeMillis()));
+        return new LoadedState(accounts, realmName, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the entry of an account, reusing the previously loaded entry if neither its password nor its groups changed.
+     */
+    private AccountEntry getAccountEntry(Map<String, AccountEntry> previousAccounts, String name, String passwordRepresentation, String groups) {
+        final Set<String> groupsSet = AccountEntry.convertGroups(groups);
+        final AccountEntry previous = previousAccounts.get(name);
+        if (previous != null && Objects.equals(previous.getPasswordRepresentation(), passwordRepresentation) && previous.getGroups().equals(groupsSet)) {
+            return previous;
+        }
+        return new AccountEntry(name, passwordRepresentation, groupsSet, plainText);
+    }
+
+    /**
+     * Get the entry loaded last for the given account, for the tests to check which entries are kept across reloads.
+     */
+    Object getLoadedAccountEntry(String name) {
+        return loadedState.get().getAccounts().get(name);
+    }
+
+    /**
+     * Loads this properties security realm from the users and groups files it was built with.
+     */
+    private void loadFiles() throws IOException {
+        try (InputStream usersStream = usersFile == null ? null : Files.newInputStream(usersFile);
+             InputStream groupsStream = groupsFile == null ? null : Files.newInputStream(groupsFile)) {
+            load(usersStream, groupsStream);
+        }
+    }
+
+    /**
+     * Start watching the directories of the users and groups files, reloading the realm when either file changes.
+     */
+    private void startWatching() {
+        Set<Path> directories = new HashSet<>();
+        for (Path file : new Path[] { usersFile, groupsFile }) {
+            if (file != null) {
+                directories.add(file.getParent());
+            }
+        }
+        for (Path directory : directories) {
+            try {
+                if (watchService == null) {
+                    watchService = directory.getFileSystem().newWatchService();
+                }
+                // files replaced by a rename are reported as created
+                directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            } catch (IOException e) {
+                close();
+                throw log.propertiesRealmWatchFailed(directory, e);
+            }
+        }
+        Thread watcher = new Thread(this::watch, "LegacyPropertiesSecurityRealm watcher for " + (usersFile != null ? usersFile : groupsFile));
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch() {
+        for (;;) {
+            try {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                // a single write is often reported as several events, wait for them to settle before reloading
+                do {
+                    changed |= isPropertiesFileEvent(key);
+                    key.reset();
+                } while ((key = watchService.poll(RELOAD_DELAY, TimeUnit.MILLISECONDS)) != null);
+                if (changed) {
+                    try {
+                        loadFiles();
+                        log.tracef("PropertiesRealm: reloaded from [%s] and [%s]", usersFile, groupsFile);
+                    } catch (IOException | RuntimeException e) {
+                        log.propertiesRealmReloadFailed(usersFile, groupsFile, e);
+                    }
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private boolean isPropertiesFileEvent(WatchKey key) {
+        final Path directory = (Path) key.watchable();
+        boolean result = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                result = true;
+            } else {
+                final Path path = directory.resolve((Path) event.context());
+                result |= path.equals(usersFile) || path.equals(groupsFile);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stop watching the users and groups files for changes, if this realm was built from files, the watcher thread
+     * exiting once it finished any reload in progress. The realm remains usable with the accounts loaded last.
+     */
+    @Override
+    public void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Unable to close the watch service", e);
+            }
+        }
     }
 
     /**
@@ -373,6 +510,8 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
         private Supplier<Provider[]> providers = INSTALLED_PROVIDERS;
         private InputStream usersStream;
         private InputStream groupsStream;
+        private Path usersFile;
+        private Path groupsFile;
         private String defaultRealm = null;
         private boolean plainText;
         private String groupsAttribute = "groups";
@@ -416,6 +555,34 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
             return this;
         }
 
+        /**
+         * Set the file to load the users from. The file is watched for changes, the realm being reloaded whenever it
+         * changes, until the realm is {@linkplain LegacyPropertiesSecurityRealm#close() closed}. If either file is set,
+         * the users and groups streams are ignored.
+         *
+         * @param usersFile the file to load the users from.
+         * @return this {@link Builder}
+         */
+        public Builder setUsersFile(Path usersFile) {
+            this.usersFile = usersFile;
+
+            return this;
+        }
+
+        /**
+         * Set the file to load the group information from. The file is watched for changes, the realm being reloaded
+         * whenever it changes, until the realm is {@linkplain LegacyPropertiesSecurityRealm#close() closed}. If either
+         * file is set, the users and groups streams are ignored.
+         *
+         * @param groupsFile the file to load the group information from.
+         * @return this {@link Builder}
+         */
+        public Builder setGroupsFile(Path groupsFile) {
+            this.groupsFile = groupsFile;
+
+            return this;
+        }
+
         /**
          * Where this realm returns an {@link AuthorizationIdentity} set the key on the Attributes that will be used to hold the
          * group membership information.
@@ -459,12 +626,18 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
          * Builds the {@link LegacyPropertiesSecurityRealm}.
          * @return built {@link LegacyPropertiesSecurityRealm}
          * @throws IOException when loading of property files fails
-         * @throws java.io.FileNotFoundException when property file does not exist
+         * @throws java.io.FileNotFoundException when property stream does not exist
+         * @throws java.nio.file.NoSuchFileException when property file does not exist
          * @throws RealmUnavailableException when property file of users does not contain realm name specification
          */
         public LegacyPropertiesSecurityRealm build() throws IOException {
             LegacyPropertiesSecurityRealm realm = new LegacyPropertiesSecurityRealm(this);
-            realm.load(usersStream, groupsStream);
+            if (usersFile != null || groupsFile != null) {
+                realm.loadFiles();
+                realm.startWatching();
+            } else {
+                realm.load(usersStream, groupsStream);
+            }
 
             return realm;
         }
@@ -501,15 +674,30 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
 
         private final String name;
         private final String passwordRepresentation;
+        private final byte[] hashedPassword;
+        private final DecodeException hashedPasswordDecodeFailure;
         private final Set<String> groups;
 
-        private AccountEntry(String name, String passwordRepresentation, String groups) {
+        private AccountEntry(String name, String passwordRepresentation, Set<String> groups, boolean plainText) {
             this.name = name;
             this.passwordRepresentation = passwordRepresentation;
-            this.groups = convertGroups(groups);
+            this.groups = groups;
+
+            byte[] hashedPassword = null;
+            DecodeException hashedPasswordDecodeFailure = null;
+            if (passwordRepresentation != null && ! plainText) {
+                // decoded once rather than whenever the credential is used, failures being reported when it is used
+                try {
+                    hashedPassword = ByteIterator.ofBytes(passwordRepresentation.getBytes(StandardCharsets.UTF_8)).asUtf8String().hexDecode().drain();
+                } catch (DecodeException e) {
+                    hashedPasswordDecodeFailure = e;
+                }
+            }
+            this.hashedPassword = hashedPassword;
+            this.hashedPasswordDecodeFailure = hashedPasswordDecodeFailure;
         }
 
-        private Set<String> convertGroups(String groups) {
+        private static Set<String> convertGroups(String groups) {
             if (groups == null) {
                 return Collections.emptySet();
             }
@@ -534,6 +722,13 @@ public class LegacyPropertiesSecurityRealm implements SecurityRealm {
             return passwordRepresentation;
         }
 
+        public byte[] getHashedPassword() throws RealmUnavailableException {
+            if (hashedPasswordDecodeFailure != null) {
+                throw log.decodingHashedPasswordFromPropertiesRealmFailed(hashedPasswordDecodeFailure);
+            }
+            return hashedPassword.clone();
+        }
+
         public Set<String> getGroups() {
             return groups;
         }
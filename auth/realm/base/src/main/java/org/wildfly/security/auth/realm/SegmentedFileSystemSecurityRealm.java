@@ -0,0 +1,457 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.cert.CertificateEncodingException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.wildfly.common.Assert;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.FileSystemSecurityRealm.LoadedIdentity;
+import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
+import org.wildfly.security.auth.server.IdentityDefinition;
+import org.wildfly.security.auth.server.ModifiableRealmIdentity;
+import org.wildfly.security.auth.server.ModifiableRealmIdentityIterator;
+import org.wildfly.security.auth.server.ModifiableSecurityRealm;
+import org.wildfly.security.auth.server.NameRewriter;
+import org.wildfly.security.auth.server.ProvisioningResult;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.authz.AuthorizationIdentity;
+import org.wildfly.security.authz.MapAttributes;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.evidence.Evidence;
+
+/**
+ * <p>A filesystem-backed security realm keeping all the identities in a few append-only segment files rather than in one
+ * file per identity.
+ *
+ * <p>Updating an identity appends a record to the segment being written, the identities being found through an index
+ * kept in memory and rebuilt from the segments when the realm is built. Concurrent updates are made durable together by
+ * a single sync, and superseded records are discarded by merging the segments in the background. Each record holds the
+ * same XML document as the identity files of a {@link FileSystemSecurityRealm}, whose identities can be imported using
+ * {@link #importIdentities(FileSystemSecurityRealm)}.
+ */
+public final class SegmentedFileSystemSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRealm, AutoCloseable {
+
+    private final NameRewriter nameRewriter;
+    private final SegmentedIdentityStore store;
+    private final IdentityLockManager realmIdentityLocks = new IdentityLockManager();
+
+    SegmentedFileSystemSecurityRealm(final SegmentedFileSystemSecurityRealmBuilder builder) {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(FileSystemSecurityRealm.CREATE_SECURITY_REALM);
+        }
+        this.nameRewriter = builder.getNameRewriter();
+        try {
+            this.store = new SegmentedIdentityStore(builder.getRoot(), builder.getMaxSegmentSize());
+        } catch (IOException e) {
+            throw ElytronMessages.log.segmentedRealmOpenFailed(builder.getRoot(), e);
+        }
+    }
+
+    /**
+     * Creates a builder of segmented file system realms.
+     *
+     * @return the builder
+     */
+    public static SegmentedFileSystemSecurityRealmBuilder builder() {
+        return new SegmentedFileSystemSecurityRealmBuilder();
+    }
+
+    /**
+     * Sync and close the segment files. The realm can no longer be used afterwards.
+     */
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    /**
+     * Merge the sealed segments now rather than waiting for them to be merged in the background, as can be done after
+     * many identities were deleted or imported.
+     *
+     * @throws RealmUnavailableException if the segments could not be merged
+     */
+    public void compact() throws RealmUnavailableException {
+        try {
+            store.compact();
+        } catch (IOException e) {
+            throw ElytronMessages.log.segmentedRealmWriteFailed(null, e);
+        }
+    }
+
+    /**
+     * Import all the identities of a realm using the layout of one file per identity, replacing any existing identity
+     * with the same name. The identity files are copied as they are, and made durable by a single sync once all of them
+     * were copied. The source realm is not modified, and can be discarded once the import completes.
+     *
+     * @param source the realm to import the identities of
+     * @return the number of imported identities
+     * @throws RealmUnavailableException if an identity file could not be read or the identities could not be written
+     */
+    public int importIdentities(final FileSystemSecurityRealm source) throws RealmUnavailableException {
+        Assert.checkNotNullParam("source", source);
+        int count = 0;
+        long sequence = 0;
+        final ModifiableRealmIdentityIterator iterator = source.getRealmIdentityIterator();
+        try {
+            while (iterator.hasNext()) {
+                final FileSystemSecurityRealm.Identity identity = (FileSystemSecurityRealm.Identity) iterator.next();
+                try {
+                    final String name = identity.getRealmIdentityPrincipal().getName();
+                    final byte[] data;
+                    try {
+                        data = Files.readAllBytes(identity.getPath());
+                    } catch (NoSuchFileException e) {
+                        // deleted since listed
+                        continue;
+                    } catch (IOException e) {
+                        throw ElytronMessages.log.segmentedRealmImportFailed(identity.getPath(), e);
+                    }
+                    // fail now rather than when the identity is first used if the file is not valid
+                    FileSystemSecurityRealm.Identity.decodeIdentity(name, identity.getPath(), new ByteArrayInputStream(data), false, false);
+
+                    final IdentityLock lock = realmIdentityLocks.lockExclusive(name);
+                    try {
+                        sequence = store.append(name, data);
+                    } catch (IOException e) {
+                        throw ElytronMessages.log.segmentedRealmWriteFailed(name, e);
+                    } finally {
+                        lock.release();
+                    }
+                    count++;
+                } finally {
+                    identity.dispose();
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        try {
+            store.sync(sequence);
+        } catch (IOException e) {
+            throw ElytronMessages.log.segmentedRealmWriteFailed(null, e);
+        }
+        return count;
+    }
+
+    /**
+     * Create the given identities, appending a single record for each of them and syncing all of them together once
+     * they were all appended. If the segments could not be synced, the appended identities are deleted again and each
+     * of them is reported as failed with the cause.
+     *
+     * @param identities the definitions of the identities to create (must not be {@code null})
+     * @return the number of identities created and the failures
+     */
+    @Override
+    public ProvisioningResult provisionIdentities(final Stream<IdentityDefinition> identities) throws RealmUnavailableException {
+        Assert.checkNotNullParam("identities", identities);
+        final Map<Principal, Exception> failures = new LinkedHashMap<>();
+        final List<Principal> appended = new ArrayList<>();
+        long sequence = 0;
+        final Iterator<IdentityDefinition> iterator = identities.iterator();
+        while (iterator.hasNext()) {
+            final IdentityDefinition definition = iterator.next();
+            final Principal principal = definition.getPrincipal();
+            try {
+                if (! (principal instanceof NamePrincipal)) {
+                    throw ElytronMessages.log.invalidName();
+                }
+                final Identity identity = (Identity) getRealmIdentity(principal.getName(), true);
+                try {
+                    sequence = identity.provision(new LoadedIdentity(identity.name, new ArrayList<>(definition.getCredentials()), definition.getAttributes()));
+                } finally {
+                    identity.dispose();
+                }
+                appended.add(principal);
+            } catch (RealmUnavailableException | RuntimeException e) {
+                failures.put(principal, e);
+            }
+        }
+        try {
+            store.sync(sequence);
+        } catch (IOException e) {
+            // the appended records may not survive a crash, nothing must be left of them
+            RealmUnavailableException failure = ElytronMessages.log.segmentedRealmWriteFailed(null, e);
+            for (Principal principal : appended) {
+                try {
+                    final ModifiableRealmIdentity identity = getRealmIdentity(principal.getName(), true);
+                    try {
+                        identity.delete();
+                    } finally {
+                        identity.dispose();
+                    }
+                } catch (RealmUnavailableException | RuntimeException deleteFailure) {
+                    failure.addSuppressed(deleteFailure);
+                }
+                failures.put(principal, failure);
+            }
+            return new ProvisioningResult(0, failures);
+        }
+        return new ProvisioningResult(appended.size(), failures);
+    }
+
+    public RealmIdentity getRealmIdentity(final Principal principal) {
+        return principal instanceof NamePrincipal ? getRealmIdentity(principal.getName(), false) : RealmIdentity.NON_EXISTENT;
+    }
+
+    public ModifiableRealmIdentity getRealmIdentityForUpdate(final Principal principal) {
+        return principal instanceof NamePrincipal ? getRealmIdentity(principal.getName(), true) : ModifiableRealmIdentity.NON_EXISTENT;
+    }
+
+    @Override
+    public void registerIdentityChangeListener(Consumer<Principal> listener) {
+        // no need to register the listener given that changes to identities are done through the realm
+    }
+
+    private ModifiableRealmIdentity getRealmIdentity(final String name, final boolean exclusive) {
+        final String finalName = nameRewriter.rewriteName(name);
+        if (finalName == null) {
+            throw ElytronMessages.log.invalidName();
+        }
+
+        // Acquire the appropriate lock for the realm identity
+        IdentityLock lock;
+        if (exclusive) {
+            lock = realmIdentityLocks.lockExclusive(finalName);
+        } else {
+            lock = realmIdentityLocks.lockShared(finalName);
+        }
+        return new Identity(finalName, store, lock);
+    }
+
+    public ModifiableRealmIdentityIterator getRealmIdentityIterator() throws RealmUnavailableException {
+        final Iterator<String> names = store.names().iterator();
+        return new ModifiableRealmIdentityIterator() {
+            public boolean hasNext() {
+                return names.hasNext();
+            }
+
+            public ModifiableRealmIdentity next() {
+                if (! hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getRealmIdentity(names.next(), true);
+            }
+        };
+    }
+
+    public SupportLevel getCredentialAcquireSupport(final Class<? extends Credential> credentialType, final String algorithmName, final AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+        return SupportLevel.POSSIBLY_SUPPORTED;
+    }
+
+    public SupportLevel getEvidenceVerifySupport(final Class<? extends Evidence> evidenceType, final String algorithmName) throws RealmUnavailableException {
+        return SupportLevel.POSSIBLY_SUPPORTED;
+    }
+
+    static final class Identity implements ModifiableRealmIdentity {
+
+        private final String name;
+        private final SegmentedIdentityStore store;
+        private IdentityLock lock;
+
+        Identity(final String name, final SegmentedIdentityStore store, final IdentityLock lock) {
+            this.name = name;
+            this.store = store;
+            this.lock = lock;
+        }
+
+        public Principal getRealmIdentityPrincipal() {
+            return new NamePrincipal(name);
+        }
+
+        public SupportLevel getCredentialAcquireSupport(final Class<? extends Credential> credentialType, final String algorithmName, final AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+            Assert.checkNotNullParam("credentialType", credentialType);
+            for (Credential credential : loadCredentials()) {
+                if (credential.matches(credentialType, algorithmName, parameterSpec)) {
+                    return SupportLevel.SUPPORTED;
+                }
+            }
+            return SupportLevel.UNSUPPORTED;
+        }
+
+        public <C extends Credential> C getCredential(final Class<C> credentialType) throws RealmUnavailableException {
+            return getCredential(credentialType, null);
+        }
+
+        public <C extends Credential> C getCredential(final Class<C> credentialType, final String algorithmName) throws RealmUnavailableException {
+            return getCredential(credentialType, algorithmName, null);
+        }
+
+        public <C extends Credential> C getCredential(final Class<C> credentialType, final String algorithmName, final AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+            Assert.checkNotNullParam("credentialType", credentialType);
+            for (Credential credential : loadCredentials()) {
+                if (credential.matches(credentialType, algorithmName, parameterSpec)) {
+                    return credentialType.cast(credential.clone());
+                }
+            }
+            return null;
+        }
+
+        public SupportLevel getEvidenceVerifySupport(final Class<? extends Evidence> evidenceType, final String algorithmName) throws RealmUnavailableException {
+            Assert.checkNotNullParam("evidenceType", evidenceType);
+            for (Credential credential : loadCredentials()) {
+                if (credential.canVerify(evidenceType, algorithmName)) {
+                    return SupportLevel.SUPPORTED;
+                }
+            }
+            return SupportLevel.UNSUPPORTED;
+        }
+
+        public boolean verifyEvidence(final Evidence evidence) throws RealmUnavailableException {
+            Assert.checkNotNullParam("evidence", evidence);
+            for (Credential credential : loadCredentials()) {
+                if (credential.canVerify(evidence)) {
+                    return credential.verify(evidence);
+                }
+            }
+            return false;
+        }
+
+        public boolean exists() throws RealmUnavailableException {
+            return store.contains(name);
+        }
+
+        public void delete() throws RealmUnavailableException {
+            if (! store.contains(name)) {
+                throw ElytronMessages.log.fileSystemRealmNotFound(name);
+            }
+            write(null);
+        }
+
+        public void create() throws RealmUnavailableException {
+            if (store.contains(name)) {
+                throw ElytronMessages.log.fileSystemRealmAlreadyExists(name, null);
+            }
+            write(new LoadedIdentity(name, Collections.emptyList(), Attributes.EMPTY));
+        }
+
+        public void setCredentials(final Collection<? extends Credential> credentials) throws RealmUnavailableException {
+            Assert.checkNotNullParam("credential", credentials);
+            final LoadedIdentity loadedIdentity = loadIdentity(false, false);
+            if (loadedIdentity == null) {
+                throw ElytronMessages.log.fileSystemRealmNotFound(name);
+            }
+            write(new LoadedIdentity(name, new ArrayList<>(credentials), loadedIdentity.getAttributes()));
+        }
+
+        public void setAttributes(final Attributes attributes) throws RealmUnavailableException {
+            Assert.checkNotNullParam("attributes", attributes);
+            final LoadedIdentity loadedIdentity = loadIdentity(false, true);
+            if (loadedIdentity == null) {
+                throw ElytronMessages.log.fileSystemRealmNotFound(name);
+            }
+            write(new LoadedIdentity(name, loadedIdentity.getCredentials(), attributes));
+        }
+
+        @Override
+        public Attributes getAttributes() throws RealmUnavailableException {
+            final LoadedIdentity loadedIdentity = loadIdentity(true, false);
+            if (loadedIdentity == null) {
+                throw ElytronMessages.log.fileSystemRealmNotFound(name);
+            }
+            return loadedIdentity.getAttributes().asReadOnly();
+        }
+
+        public AuthorizationIdentity getAuthorizationIdentity() throws RealmUnavailableException {
+            final LoadedIdentity loadedIdentity = loadIdentity(true, false);
+            return loadedIdentity == null ? AuthorizationIdentity.EMPTY : AuthorizationIdentity.basicIdentity(loadedIdentity.getAttributes());
+        }
+
+        public void dispose() {
+            // Release the lock for this realm identity
+            IdentityLock identityLock = lock;
+            lock = null;
+            if (identityLock != null) {
+                identityLock.release();
+            }
+        }
+
+        private List<Credential> loadCredentials() throws RealmUnavailableException {
+            final LoadedIdentity loadedIdentity = loadIdentity(false, true);
+            return loadedIdentity == null ? Collections.emptyList() : loadedIdentity.getCredentials();
+        }
+
+        private LoadedIdentity loadIdentity(final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException {
+            final byte[] data;
+            try {
+                data = store.read(name);
+            } catch (IOException e) {
+                throw ElytronMessages.log.segmentedRealmReadFailed(name, e);
+            }
+            if (data == null) {
+                return null;
+            }
+            final LoadedIdentity loadedIdentity = FileSystemSecurityRealm.Identity.decodeIdentity(name, store.getRoot(), new ByteArrayInputStream(data), skipCredentials, skipAttributes);
+            if (! skipAttributes && loadedIdentity.getAttributes() == Attributes.EMPTY) {
+                // could be used to modify the attributes
+                return new LoadedIdentity(name, loadedIdentity.getCredentials(), new MapAttributes());
+            }
+            return loadedIdentity;
+        }
+
+        /**
+         * Create this identity with the given credentials and attributes, without waiting for the record to be synced.
+         *
+         * @param newIdentity the content of the identity
+         * @return the sequence number of the record, to be synced by the caller
+         */
+        long provision(final LoadedIdentity newIdentity) throws RealmUnavailableException {
+            if (store.contains(name)) {
+                throw ElytronMessages.log.fileSystemRealmAlreadyExists(name, null);
+            }
+            try {
+                return store.append(name, FileSystemSecurityRealm.Identity.encodeIdentity(newIdentity));
+            } catch (IOException | XMLStreamException | InvalidKeySpecException | NoSuchAlgorithmException | CertificateEncodingException e) {
+                throw ElytronMessages.log.segmentedRealmWriteFailed(name, e);
+            }
+        }
+
+        private void write(final LoadedIdentity newIdentity) throws RealmUnavailableException {
+            try {
+                store.write(name, newIdentity == null ? null : FileSystemSecurityRealm.Identity.encodeIdentity(newIdentity));
+            } catch (IOException | XMLStreamException | InvalidKeySpecException | NoSuchAlgorithmException | CertificateEncodingException e) {
+                throw ElytronMessages.log.segmentedRealmWriteFailed(name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.nio.file.Path;
+
+import org.wildfly.security.auth.server.NameRewriter;
+
+/**
+ * A builder class that creates {@link SegmentedFileSystemSecurityRealm} instances.
+ *
+ * @see SegmentedFileSystemSecurityRealm#builder()
+ */
+public class SegmentedFileSystemSecurityRealmBuilder {
+
+    private Path root;
+    private NameRewriter nameRewriter = NameRewriter.IDENTITY_REWRITER;
+    private long maxSegmentSize = 64 * 1024 * 1024;
+
+    SegmentedFileSystemSecurityRealmBuilder() {
+    }
+
+    /**
+     * Set the path of the directory holding the segment files, which is created if it does not exist.
+     *
+     * @param root the path of the directory holding the segment files
+     * @return this builder
+     */
+    public SegmentedFileSystemSecurityRealmBuilder setRoot(final Path root) {
+        this.root = checkNotNullParam("root", root);
+
+        return this;
+    }
+
+    /**
+     * Set the name rewriter to apply to looked up names.
+     *
+     * @param nameRewriter the name rewriter to apply to looked up names
+     * @return this builder
+     */
+    public SegmentedFileSystemSecurityRealmBuilder setNameRewriter(final NameRewriter nameRewriter) {
+        this.nameRewriter = checkNotNullParam("nameRewriter", nameRewriter);
+
+        return this;
+    }
+
+    /**
+     * Set the size in bytes beyond which the segment written to is sealed and a new one started, 64 MiB by default.
+     * Sealed segments are merged in the background once most of the stored bytes are superseded by newer records.
+     *
+     * @param maxSegmentSize the maximum size of a segment in bytes
+     * @return this builder
+     */
+    public SegmentedFileSystemSecurityRealmBuilder setMaxSegmentSize(final long maxSegmentSize) {
+        checkMinimumParameter("maxSegmentSize", 1, maxSegmentSize);
+        this.maxSegmentSize = maxSegmentSize;
+
+        return this;
+    }
+
+    /**
+     * Builds a new {@link SegmentedFileSystemSecurityRealm} instance based on the configuration of this builder, reading
+     * the existing segments to rebuild the index of the identities.
+     *
+     * Construction with enabled security manager requires {@code createSecurityRealm} {@link org.wildfly.security.permission.ElytronPermission}.
+     *
+     * @return the built realm
+     */
+    public SegmentedFileSystemSecurityRealm build() {
+        checkNotNullParam("root", root);
+
+        return new SegmentedFileSystemSecurityRealm(this);
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    NameRewriter getNameRewriter() {
+        return nameRewriter;
+    }
+
+    long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+}
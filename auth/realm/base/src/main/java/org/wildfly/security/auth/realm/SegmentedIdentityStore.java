@@ -0,0 +1,774 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>A store of identities kept in append-only segment files, backing a {@link SegmentedFileSystemSecurityRealm}.
+ *
+ * <p>Every write appends a record holding the new content of an identity, or its removal, to the active segment, and an
+ * in-memory index maps each identity name to its latest record. Records carry a sequence number, so the index can be
+ * rebuilt by replaying the segments in any order, and a checksum, so that a record only partially written before a crash
+ * is detected and discarded.
+ *
+ * <p>Writes are made durable by group commit: the thread waiting for its record to be synced forces the active segment
+ * once for all the records appended so far, so concurrent writers share a single sync. The active segment is sealed once
+ * it reaches the maximum segment size, and sealed segments are merged in the background once most of the stored bytes
+ * are no longer referenced by the index, only the latest record of each existing identity being copied.
+ *
+ * <p>The removal records of the merged segments are copied as well, so that an identity cannot come back should the
+ * process stop while the merged segments are being deleted, before the one holding its removal record. They are dropped
+ * by the next merge, as no older record of the identity remains by then. Merged segments are written to temporary files,
+ * only renamed once synced, and are named apart from the segments written to by appends. Only the newest of those may end
+ * with a record partially written before a crash, any other unreadable record is reported as a corruption.
+ */
+final class SegmentedIdentityStore implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String MERGED_PREFIX = "merged-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final int HEADER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final Path root;
+    private final long maxSegmentSize;
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+    /**
+     * The latest removal record of each removed identity which may still shadow an older record of it in another segment
+     */
+    private final ConcurrentHashMap<String, Location> tombstones = new ConcurrentHashMap<>();
+    private final Map<Long, Segment> segments = new ConcurrentHashMap<>();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final AtomicLong synced = new AtomicLong();
+
+    // guarded by appendLock
+    private Segment active;
+    private long lastSequence;
+    private long lastSegmentId;
+    private long totalBytes;
+    private long liveBytes;
+    private volatile boolean closed;
+
+    SegmentedIdentityStore(final Path root, final long maxSegmentSize) throws IOException {
+        this.root = root;
+        this.maxSegmentSize = maxSegmentSize;
+        Files.createDirectories(root);
+        replay();
+        active = createSegment(++lastSegmentId);
+        synced.set(lastSequence);
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Read the content of an identity.
+     *
+     * @param name the name of the identity
+     * @return the content of the identity, or {@code null} if it does not exist
+     * @throws IOException if the record of the identity could not be read
+     */
+    byte[] read(final String name) throws IOException {
+        for (;;) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            final Location location = index.get(name);
+            if (location == null) {
+                return null;
+            }
+            final Record record = location.segment.read(location.offset, location.length);
+            if (record != null) {
+                return record.data;
+            }
+            // the segment was merged into another one concurrently, look the record up again
+        }
+    }
+
+    boolean contains(final String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * Get a snapshot of the names of the stored identities.
+     *
+     * @return the names of the stored identities
+     */
+    List<String> names() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    /**
+     * Write the content of an identity, returning once it is durable.
+     *
+     * @param name the name of the identity
+     * @param data the new content of the identity, or {@code null} to remove it
+     * @throws IOException if the record could not be written or synced
+     */
+    void write(final String name, final byte[] data) throws IOException {
+        sync(append(name, data));
+    }
+
+    /**
+     * Append a record for an identity without waiting for it to be durable, which is done by calling
+     * {@link #sync(long)} with the returned sequence number. The index is updated right away.
+     *
+     * @param name the name of the identity
+     * @param data the new content of the identity, or {@code null} to remove it
+     * @return the sequence number of the record
+     * @throws IOException if the record could not be written
+     */
+    long append(final String name, final byte[] data) throws IOException {
+        final long sequence;
+        final boolean compact;
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (active.size >= maxSegmentSize) {
+                roll();
+            }
+            sequence = lastSequence + 1;
+            final ByteBuffer record = encode(sequence, name, data);
+            final int length = record.remaining();
+            final long offset = active.size;
+            active.write(record, offset);
+            active.size += length;
+            lastSequence = sequence;
+            totalBytes += length;
+
+            final Location location = new Location(active, offset, length, sequence);
+            final Location previous;
+            if (data == null) {
+                previous = index.remove(name);
+                tombstones.put(name, location);
+            } else {
+                previous = index.put(name, location);
+                tombstones.remove(name);
+            }
+            if (previous != null) {
+                liveBytes -= previous.length;
+            }
+            if (data != null) {
+                liveBytes += length;
+            }
+            compact = totalBytes > maxSegmentSize && totalBytes - liveBytes > liveBytes;
+        } finally {
+            appendLock.unlock();
+        }
+        if (compact) {
+            scheduleCompaction();
+        }
+        return sequence;
+    }
+
+    /**
+     * Wait until the record with the given sequence number, and all the records appended before it, are durable.
+     *
+     * @param sequence the sequence number of the record
+     * @throws IOException if the active segment could not be synced
+     */
+    void sync(final long sequence) throws IOException {
+        if (synced.get() >= sequence) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (synced.get() >= sequence) {
+                // synced by the thread which held the lock, along with its own record
+                return;
+            }
+            final Segment segment;
+            final long target;
+            appendLock.lock();
+            try {
+                segment = active;
+                target = lastSequence;
+            } finally {
+                appendLock.unlock();
+            }
+            // appends go on while syncing, to be synced together by the next thread
+            segment.force();
+            synced.accumulateAndGet(target, Math::max);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Merge the sealed segments, copying the latest record of each existing identity and the removal records they hold,
+     * then delete them. The active segment is sealed first, so that all the records written so far are merged.
+     *
+     * @throws IOException if the merged segments could not be written
+     */
+    void compact() throws IOException {
+        compactionLock.lock();
+        try {
+            final Set<Segment> sealed = new TreeSet<>(Comparator.comparingLong(segment -> segment.id));
+            appendLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                roll();
+                for (Segment segment : segments.values()) {
+                    if (segment != active) {
+                        sealed.add(segment);
+                    }
+                }
+            } finally {
+                appendLock.unlock();
+            }
+            if (sealed.isEmpty()) {
+                return;
+            }
+
+            final List<Segment> merged = new ArrayList<>();
+            final Map<String, Location[]> moves = new HashMap<>();
+            final Map<String, Location[]> removals = new HashMap<>();
+            try {
+                copy(index, sealed, merged, moves);
+                copy(tombstones, sealed, merged, removals);
+                for (Segment segment : merged) {
+                    segment.force();
+                    segment.rename(root.resolve(MERGED_PREFIX + segment.id + SEGMENT_SUFFIX));
+                }
+                // the merged segments must be there before any sealed segment is deleted
+                syncDirectory();
+            } catch (IOException | RuntimeException e) {
+                for (Segment segment : merged) {
+                    segment.delete();
+                }
+                syncDirectory();
+                throw e;
+            }
+
+            appendLock.lock();
+            try {
+                for (Segment segment : merged) {
+                    segments.put(segment.id, segment);
+                    totalBytes += segment.size;
+                }
+                for (Map.Entry<String, Location[]> move : moves.entrySet()) {
+                    // the identity may have been updated or removed meanwhile, its new record then remaining in the index
+                    index.replace(move.getKey(), move.getValue()[0], move.getValue()[1]);
+                }
+                for (Segment segment : sealed) {
+                    segments.remove(segment.id);
+                    totalBytes -= segment.size;
+                }
+            } finally {
+                appendLock.unlock();
+            }
+            // oldest first, each deletion being durable before the next one
+            for (Segment segment : sealed) {
+                segment.delete();
+                syncDirectory();
+            }
+            for (Map.Entry<String, Location[]> removal : removals.entrySet()) {
+                // no older record of the identity is left, unless it was written again meanwhile
+                tombstones.remove(removal.getKey(), removal.getValue()[0]);
+            }
+            ElytronMessages.log.tracef("Merged %d segments of \"%s\" into %d segments", sealed.size(), root, merged.size());
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Copy the records of the given locations held by the sealed segments to the merged segments, creating them as needed.
+     *
+     * @param locations the locations of the records, by identity name
+     * @param sealed the segments being merged
+     * @param merged the merged segments, the last one being the one records are appended to
+     * @param moves where to record the previous and the new location of each record copied, by identity name
+     */
+    private void copy(final Map<String, Location> locations, final Set<Segment> sealed, final List<Segment> merged, final Map<String, Location[]> moves) throws IOException {
+        for (Map.Entry<String, Location> entry : locations.entrySet()) {
+            final Location location = entry.getValue();
+            if (! sealed.contains(location.segment)) {
+                continue;
+            }
+            final ByteBuffer record = location.segment.readRaw(location.offset, location.length);
+            if (record == null) {
+                continue;
+            }
+            Segment output = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (output == null || output.size >= maxSegmentSize) {
+                final long id;
+                appendLock.lock();
+                try {
+                    id = ++lastSegmentId;
+                } finally {
+                    appendLock.unlock();
+                }
+                // not published until complete, the sealed segments it is merged from remain authoritative until then
+                final Path path = root.resolve(MERGED_PREFIX + id + SEGMENT_SUFFIX + PARTIAL_SUFFIX);
+                output = new Segment(id, path, FileChannel.open(path, READ, WRITE, CREATE_NEW));
+                merged.add(output);
+            }
+            final long offset = output.size;
+            output.write(record, offset);
+            output.size += location.length;
+            moves.put(entry.getKey(), new Location[] { location, new Location(output, offset, location.length, location.sequence) });
+        }
+    }
+
+    @Override
+    public void close() {
+        compactionLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                active.force();
+            } catch (IOException e) {
+                ElytronMessages.log.debug("Unable to sync the active segment", e);
+            } finally {
+                appendLock.unlock();
+            }
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (! compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final Thread thread = new Thread(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                ElytronMessages.log.segmentedRealmCompactionFailed(root, e);
+            } finally {
+                compactionScheduled.set(false);
+            }
+        }, "SegmentedIdentityStore compaction " + root);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Seal the active segment, syncing it, and start a new one. Must be called holding the append lock.
+     */
+    private void roll() throws IOException {
+        active.force();
+        synced.accumulateAndGet(lastSequence, Math::max);
+        if (active.size > 0) {
+            active = createSegment(++lastSegmentId);
+        }
+    }
+
+    private Segment createSegment(final long id) throws IOException {
+        final Path path = root.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+        final Segment segment = new Segment(id, path, FileChannel.open(path, READ, WRITE, CREATE_NEW));
+        segments.put(id, segment);
+        // the records synced to the segment are only durable once its directory entry is
+        syncDirectory();
+        return segment;
+    }
+
+    /**
+     * Sync the directory of the segments, so that the segment files created or deleted so far survive a crash.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(root, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on some platforms, where their entries are synced with the files
+            ElytronMessages.log.tracef(e, "Unable to sync directory \"%s\"", root);
+        }
+    }
+
+    /**
+     * Rebuild the index from the records of all the segments, the record with the highest sequence number winning for
+     * each identity. Only the newest segment written to by appends may end with a record partially written before a crash,
+     * which is discarded.
+     */
+    private void replay() throws IOException {
+        final TreeMap<Long, Path> paths = new TreeMap<>();
+        long newest = -1;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                final String fileName = path.getFileName().toString();
+                final boolean appended = fileName.startsWith(SEGMENT_PREFIX);
+                if (! appended && ! fileName.startsWith(MERGED_PREFIX)) {
+                    continue;
+                }
+                try {
+                    final int prefixLength = appended ? SEGMENT_PREFIX.length() : MERGED_PREFIX.length();
+                    final long id = Long.parseLong(fileName.substring(prefixLength, fileName.length() - SEGMENT_SUFFIX.length()));
+                    paths.put(id, path);
+                    if (appended) {
+                        newest = Math.max(newest, id);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // not a segment
+                }
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, MERGED_PREFIX + "*" + SEGMENT_SUFFIX + PARTIAL_SUFFIX)) {
+            for (Path path : stream) {
+                // left by a merge which did not complete, all its records are still in the segments it was merged from
+                ElytronMessages.log.tracef("Deleting incomplete merged segment \"%s\"", path);
+                Files.delete(path);
+            }
+        }
+        for (Map.Entry<Long, Path> entry : paths.entrySet()) {
+            final Segment segment = new Segment(entry.getKey(), entry.getValue(), FileChannel.open(entry.getValue(), READ, WRITE));
+            segments.put(segment.id, segment);
+            lastSegmentId = segment.id;
+            final long size = segment.channel.size();
+            long offset = 0;
+            while (offset < size) {
+                final Record record = segment.readAt(offset, size);
+                if (record == null) {
+                    if (entry.getKey() != newest) {
+                        // sealed and merged segments are synced before anything depends on them, do not lose their records
+                        throw ElytronMessages.log.segmentedRealmCorruptedSegment(offset, segment.path);
+                    }
+                    // only partially written before a crash, drop it and anything after it
+                    ElytronMessages.log.tracef("Discarding %d bytes after offset %d of segment \"%s\"", size - offset, offset, segment.path);
+                    segment.channel.truncate(offset);
+                    break;
+                }
+                lastSequence = Math.max(lastSequence, record.sequence);
+                final Location current = index.get(record.name);
+                final Location removed = tombstones.get(record.name);
+                final long latest = Math.max(current == null ? 0 : current.sequence, removed == null ? 0 : removed.sequence);
+                if (record.sequence > latest) {
+                    final Location location = new Location(segment, offset, record.length, record.sequence);
+                    if (record.data == null) {
+                        index.remove(record.name);
+                        tombstones.put(record.name, location);
+                    } else {
+                        index.put(record.name, location);
+                        tombstones.remove(record.name);
+                    }
+                }
+                offset += record.length;
+            }
+            segment.size = offset;
+            totalBytes += offset;
+        }
+        for (Location location : index.values()) {
+            liveBytes += location.length;
+        }
+    }
+
+    private static ByteBuffer encode(final long sequence, final String name, final byte[] data) {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final int payloadLength = 8 + 1 + 4 + nameBytes.length + (data == null ? 0 : data.length);
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+        buffer.putInt(payloadLength);
+        buffer.putInt(0); // checksum, set below
+        buffer.putLong(sequence);
+        buffer.put(data == null ? REMOVE : PUT);
+        buffer.putInt(nameBytes.length);
+        buffer.put(nameBytes);
+        if (data != null) {
+            buffer.put(data);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, payloadLength);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode a record, returning {@code null} if it is truncated or its checksum does not match.
+     */
+    private static Record decode(final ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        final int payloadLength = buffer.getInt();
+        final int checksum = buffer.getInt();
+        if (payloadLength < 13 || payloadLength > buffer.remaining()) {
+            return null;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), payloadLength);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        final long sequence = buffer.getLong();
+        final byte type = buffer.get();
+        final int nameLength = buffer.getInt();
+        if (nameLength < 0 || nameLength > payloadLength - 13) {
+            return null;
+        }
+        final String name = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), nameLength, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + nameLength);
+        byte[] data = null;
+        if (type == PUT) {
+            data = new byte[payloadLength - 13 - nameLength];
+            buffer.get(data);
+        }
+        return new Record(sequence, name, data, HEADER_SIZE + payloadLength);
+    }
+
+    private static final class Location {
+
+        final Segment segment;
+        final long offset;
+        final int length;
+        final long sequence;
+
+        Location(final Segment segment, final long offset, final int length, final long sequence) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Record {
+
+        final long sequence;
+        final String name;
+        final byte[] data;
+        final int length;
+
+        Record(final long sequence, final String name, final byte[] data, final int length) {
+            this.sequence = sequence;
+            this.name = name;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static final class Segment {
+
+        final long id;
+        volatile Path path;
+        final ReentrantLock channelLock = new ReentrantLock();
+        volatile FileChannel channel;
+        volatile boolean deleted;
+        // guarded by the append lock of the store, or confined to the compacting thread until the segment is published
+        long size;
+
+        Segment(final long id, final Path path, final FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        /**
+         * Read the record at the given offset during replay, returning {@code null} if it is incomplete or corrupted.
+         */
+        Record readAt(final long offset, final long size) throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (size - offset < HEADER_SIZE || ! readFully(channel, header, offset)) {
+                return null;
+            }
+            final int payloadLength = header.getInt(0);
+            if (payloadLength < 13 || payloadLength > size - offset - HEADER_SIZE) {
+                return null;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+            if (! readFully(channel, buffer, offset)) {
+                return null;
+            }
+            buffer.flip();
+            return decode(buffer);
+        }
+
+        /**
+         * Read a record known to be complete, returning {@code null} if this segment was deleted.
+         */
+        Record read(final long offset, final int length) throws IOException {
+            final ByteBuffer buffer = readRaw(offset, length);
+            if (buffer == null) {
+                return null;
+            }
+            final Record record = decode(buffer);
+            if (record == null) {
+                throw new EOFException(path.toString());
+            }
+            return record;
+        }
+
+        ByteBuffer readRaw(final long offset, final int length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (;;) {
+                if (deleted) {
+                    return null;
+                }
+                final FileChannel channel = this.channel;
+                try {
+                    if (! readFully(channel, buffer, offset)) {
+                        throw new EOFException(path.toString());
+                    }
+                    buffer.flip();
+                    return buffer;
+                } catch (ClosedChannelException e) {
+                    if (deleted) {
+                        return null;
+                    }
+                    reopen(channel, e);
+                    buffer.clear();
+                }
+            }
+        }
+
+        void write(final ByteBuffer buffer, final long offset) throws IOException {
+            for (;;) {
+                final FileChannel channel = this.channel;
+                try {
+                    long position = offset + buffer.position();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    return;
+                } catch (ClosedChannelException e) {
+                    reopen(channel, e);
+                }
+            }
+        }
+
+        void force() throws IOException {
+            for (;;) {
+                final FileChannel channel = this.channel;
+                try {
+                    channel.force(false);
+                    return;
+                } catch (ClosedChannelException e) {
+                    reopen(channel, e);
+                }
+            }
+        }
+
+        void close() {
+            channelLock.lock();
+            try {
+                deleted = true;
+                channel.close();
+            } catch (IOException e) {
+                ElytronMessages.log.debug("Unable to close segment", e);
+            } finally {
+                channelLock.unlock();
+            }
+        }
+
+        /**
+         * Rename the file of this segment, which must not be in use.
+         */
+        void rename(final Path target) throws IOException {
+            channelLock.lock();
+            try {
+                // some platforms do not allow open files to be renamed
+                channel.close();
+                Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+                path = target;
+                channel = FileChannel.open(target, READ, WRITE);
+            } finally {
+                channelLock.unlock();
+            }
+        }
+
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                ElytronMessages.log.debug("Unable to delete segment", e);
+            }
+        }
+
+        private static boolean readFully(final FileChannel channel, final ByteBuffer buffer, final long offset) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reopen the channel of this segment once closed because a thread using it was interrupted, unless this segment
+         * was closed or deleted. The interrupted thread itself gets the exception, as any further use of the channel by
+         * it would close the channel again.
+         */
+        private void reopen(final FileChannel closedChannel, final ClosedChannelException cause) throws IOException {
+            channelLock.lock();
+            try {
+                if (deleted) {
+                    throw cause;
+                }
+                if (channel == closedChannel) {
+                    channel = FileChannel.open(path, READ, WRITE);
+                }
+            } finally {
+                channelLock.unlock();
+            }
+            if (cause instanceof ClosedByInterruptException) {
+                throw cause;
+            }
+        }
+    }
+}
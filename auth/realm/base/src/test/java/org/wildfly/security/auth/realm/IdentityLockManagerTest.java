@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
+
+/**
+ * Tests for {@link IdentityLockManager}.
+ */
+public class IdentityLockManagerTest {
+
+    @Test
+    public void testLocksAreDiscardedOnceReleased() {
+        IdentityLockManager manager = new IdentityLockManager();
+
+        for (int i = 0; i < 2_000_000; i++) {
+            IdentityLock lock = (i % 2 == 0) ? manager.lockShared("user" + i) : manager.lockExclusive("user" + i);
+            lock.release();
+            assertFalse(lock.isValid());
+        }
+
+        assertEquals(0, manager.size());
+
+        List<IdentityLock> held = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            held.add(manager.lockShared("user" + i));
+            held.add(manager.lockShared("user" + i));
+        }
+        assertEquals(10, manager.size());
+
+        for (IdentityLock lock : held) {
+            lock.release();
+            // releasing twice has no effect
+            lock.release();
+        }
+        assertEquals(0, manager.size());
+    }
+
+    @Test
+    public void testSharedExclusiveSemantics() throws Exception {
+        IdentityLockManager manager = new IdentityLockManager();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            IdentityLock shared = manager.lockShared("joe");
+            // other identities are not affected
+            manager.lockExclusive("bob").release();
+
+            Future<IdentityLock> exclusive = executor.submit(() -> manager.lockExclusive("joe"));
+            assertNull(getIfDone(exclusive));
+
+            // a pending exclusive request takes precedence over new shared requests
+            Future<IdentityLock> pendingShared = executor.submit(() -> manager.lockShared("joe"));
+            assertNull(getIfDone(pendingShared));
+            assertEquals(1, manager.size());
+
+            shared.release();
+            IdentityLock exclusiveLock = exclusive.get(10, TimeUnit.SECONDS);
+            assertTrue(exclusiveLock.isExclusive());
+            assertNull(getIfDone(pendingShared));
+
+            exclusiveLock.release();
+            IdentityLock sharedLock = pendingShared.get(10, TimeUnit.SECONDS);
+            assertNotNull(sharedLock);
+            assertEquals(1, manager.size());
+
+            sharedLock.release();
+            assertEquals(0, manager.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static IdentityLock getIfDone(Future<IdentityLock> future) throws Exception {
+        try {
+            return future.get(200, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        }
+    }
+}
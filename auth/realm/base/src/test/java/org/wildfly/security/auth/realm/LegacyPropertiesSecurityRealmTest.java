@@ -21,12 +21,22 @@ package org.wildfly.security.auth.realm;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.Provider;
 import java.security.Security;
+import java.util.Arrays;
+import java.util.Collections;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -244,6 +254,95 @@ public class LegacyPropertiesSecurityRealmTest {
         testClear(realm, "elytron5", "用戶");
     }
 
+    /**
+     * Test that a realm built from files is reloaded when the files change.
+     */
+    @Test
+    public void testFileReload() throws Exception {
+        Path directory = Files.createTempDirectory("properties-realm");
+        Path usersFile = directory.resolve("users.properties");
+        Path groupsFile = directory.resolve("groups.properties");
+        try (InputStream users = this.getClass().getResourceAsStream("users.properties");
+             InputStream groups = this.getClass().getResourceAsStream("groups.properties")) {
+            Files.copy(users, usersFile);
+            Files.copy(groups, groupsFile);
+        }
+
+        LegacyPropertiesSecurityRealm realm = LegacyPropertiesSecurityRealm.builder()
+                .setUsersFile(usersFile)
+                .setGroupsFile(groupsFile)
+                .build();
+        try {
+            checkVerifyIdentity(realm, "elytron", ELYTRON_PASSWORD_CLEAR);
+            RealmIdentity elytronIdentity = realm.getRealmIdentity(new NamePrincipal("elytron"));
+            assertTrue(elytronIdentity.getAuthorizationIdentity().getAttributes().get("groups").contains("role1"));
+            elytronIdentity.dispose();
+            assertFalse(realm.getRealmIdentity(new NamePrincipal("newman")).exists());
+
+            // replaced as an editor would, by renaming a new file over the old one
+            long loadTime = realm.getLoadTime();
+            Path newGroupsFile = directory.resolve("groups.properties.new");
+            Files.write(newGroupsFile, Arrays.asList("elytron=role5", "newman=role6"));
+            Files.move(newGroupsFile, groupsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (int i = 0; i < 300 && realm.getLoadTime() == loadTime; i++) {
+                Thread.sleep(100);
+            }
+
+            checkVerifyIdentity(realm, "elytron", ELYTRON_PASSWORD_CLEAR);
+            elytronIdentity = realm.getRealmIdentity(new NamePrincipal("elytron"));
+            assertEquals(Collections.singletonList("role5"), elytronIdentity.getAuthorizationIdentity().getAttributes().get("groups"));
+            elytronIdentity.dispose();
+            RealmIdentity newIdentity = realm.getRealmIdentity(new NamePrincipal("newman"));
+            assertTrue(newIdentity.exists());
+            assertNull(newIdentity.getCredential(PasswordCredential.class));
+            newIdentity.dispose();
+            assertFalse(realm.getRealmIdentity(new NamePrincipal("roleman")).exists());
+
+            // closing the realm stops the watcher thread
+            Thread watcher = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().equals("LegacyPropertiesSecurityRealm watcher for " + usersFile.toAbsolutePath()))
+                    .findFirst().get();
+            realm.close();
+            watcher.join(10000);
+            assertFalse(watcher.isAlive());
+        } finally {
+            realm.close();
+            Files.delete(usersFile);
+            Files.delete(groupsFile);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Test that reloading the realm keeps the entries of the accounts whose password and groups did not change.
+     */
+    @Test
+    public void testReloadKeepsUnchangedAccounts() throws Exception {
+        LegacyPropertiesSecurityRealm realm = LegacyPropertiesSecurityRealm.builder()
+                .setUsersStream(stream("unchanged=" + ELYTRON_SIMPLE_PASSWORD, "password=" + ELYTRON_SIMPLE_PASSWORD, "groups=" + ELYTRON_SIMPLE_PASSWORD))
+                .setGroupsStream(stream("unchanged=role1", "password=role1", "groups=role1"))
+                .setPlainText(true)
+                .build();
+        Object unchanged = realm.getLoadedAccountEntry("unchanged");
+        Object password = realm.getLoadedAccountEntry("password");
+        Object groups = realm.getLoadedAccountEntry("groups");
+
+        realm.load(stream("unchanged=" + ELYTRON_SIMPLE_PASSWORD, "password=" + ELYTRON_PASSWORD_CLEAR, "groups=" + ELYTRON_SIMPLE_PASSWORD),
+                stream("unchanged=role1", "password=role1", "groups=role2"));
+
+        assertSame(unchanged, realm.getLoadedAccountEntry("unchanged"));
+        assertNotSame(password, realm.getLoadedAccountEntry("password"));
+        assertNotSame(groups, realm.getLoadedAccountEntry("groups"));
+        checkVerifyIdentity(realm, "password", ELYTRON_PASSWORD_CLEAR);
+        RealmIdentity groupsIdentity = realm.getRealmIdentity(new NamePrincipal("groups"));
+        assertEquals(Collections.singletonList("role2"), groupsIdentity.getAuthorizationIdentity().getAttributes().get("groups"));
+        groupsIdentity.dispose();
+    }
+
+    private static InputStream stream(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
     private void testClear(SecurityRealm realm, String username, String password) throws Exception {
         RealmIdentity identity = realm.getRealmIdentity(new NamePrincipal(username));
         assertTrue("Exists", identity.exists());
@@ -19,6 +19,7 @@ package org.wildfly.security.auth.realm.jdbc;
 
 import java.security.Provider;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.function.Supplier;
 
@@ -39,4 +40,17 @@ public interface ColumnMapper {
      * @throws SQLException if any error occurs when manipulating the given {@link ResultSet}
      */
     Object map(ResultSet resultSet, Supplier<Provider[]> providers) throws SQLException;
+
+    /**
+     * Resolves this mapper against the metadata of the result sets returned by the query it is associated with, so that
+     * anything depending only on the shape of the result set, such as column indexes or column types, is looked up once
+     * rather than for every row.
+     *
+     * @param metaData the metadata of a result set returned by the query
+     * @return the mapper to use for result sets of the same shape, which may be this mapper (not {@code null})
+     * @throws SQLException if any error occurs when reading the given {@link ResultSetMetaData}
+     */
+    default ColumnMapper resolve(ResultSetMetaData metaData) throws SQLException {
+        return this;
+    }
 }
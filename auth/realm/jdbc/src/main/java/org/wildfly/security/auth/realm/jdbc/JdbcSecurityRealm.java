@@ -26,9 +26,22 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
@@ -55,14 +68,20 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
 
     private final Supplier<Provider[]> providers;
     private final List<QueryConfiguration> queryConfiguration;
+    private final QueryConfiguration iterationQuery;
+    private final Executor executor;
+    private final long queryTimeout;
 
     public static JdbcSecurityRealmBuilder builder() {
         return new JdbcSecurityRealmBuilder();
     }
 
-    JdbcSecurityRealm(List<QueryConfiguration> queryConfiguration, Supplier<Provider[]> providers) {
+    JdbcSecurityRealm(List<QueryConfiguration> queryConfiguration, QueryConfiguration iterationQuery, Supplier<Provider[]> providers, Executor executor, long queryTimeout) {
         this.queryConfiguration = queryConfiguration;
+        this.iterationQuery = iterationQuery;
         this.providers = providers;
+        this.executor = executor;
+        this.queryTimeout = queryTimeout;
     }
 
     @Override
@@ -108,6 +127,29 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
         // no notifications from this realm about changes on the underlying storage
     }
 
+    /**
+     * <p>Get a stream of all the identities of this realm, as returned by its iteration query.
+     *
+     * <p>The identities are read from the database while the stream is consumed, using a forward only result set with the
+     * fetch size of the iteration query, so that the whole result is never held in memory. If the iteration query has
+     * column mappers, each identity is built from the rows of the iteration query with the same principal name, which
+     * must be consecutive. Otherwise the principal queries are executed for an identity when it is first used.
+     *
+     * <p>The stream holds a connection until it is fully consumed or closed, so it should be used within a
+     * try-with-resources statement.
+     *
+     * @return a stream of the identities of this realm (not {@code null})
+     * @throws UnsupportedOperationException if no iteration query is defined for this realm
+     */
+    public Stream<RealmIdentity> getRealmIdentities() {
+        if (iterationQuery == null) {
+            throw log.iterationQueryNotDefined();
+        }
+
+        IdentitySpliterator spliterator = new IdentitySpliterator(iterationQuery);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
     private class JdbcRealmIdentity implements RealmIdentity {
 
         private final String name;
@@ -118,6 +160,12 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
             this.name = name;
         }
 
+        JdbcRealmIdentity(String name, QueryResult result) {
+            this.name = name;
+            this.identity = merge(Collections.singletonList(result));
+            this.loaded = true;
+        }
+
         public Principal getRealmIdentityPrincipal() {
             return new NamePrincipal(name);
         }
@@ -195,64 +243,204 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
 
         private JdbcIdentity getIdentity() {
             if (!loaded && this.identity == null) {
-                MapAttributes attributes = new MapAttributes();
-                IdentityCredentials credentials = IdentityCredentials.NONE;
-                boolean found = false;
+                this.identity = merge(executor != null && queryConfiguration.size() > 1 ? executeQueriesConcurrently() : executeQueries());
+                loaded = true;
+            }
+
+            return this.identity;
+        }
 
+        private JdbcIdentity merge(List<QueryResult> results) {
+            MapAttributes attributes = new MapAttributes();
+            IdentityCredentials credentials = IdentityCredentials.NONE;
+            boolean found = false;
+
+            // merged in the order the queries were defined, regardless of the order in which they completed
+            for (QueryResult result : results) {
+                found |= result.found;
+
+                for (String attributeName : result.attributes.keySet()) {
+                    for (String value : result.attributes.get(attributeName)) {
+                        attributes.addLast(attributeName, value);
+                    }
+                }
+
+                for (Credential credential : result.credentials) {
+                    credentials = credentials.withCredential(credential);
+                }
+            }
+
+            return found ? new JdbcIdentity(attributes, credentials) : null;
+        }
+
+        private List<QueryResult> executeQueries() {
+            List<QueryResult> results = new ArrayList<>(queryConfiguration.size());
+            // consecutive queries against the same data source share a connection, which also lets a pool reuse
+            // the statements it caches for that connection
+            DataSource dataSource = null;
+            Connection connection = null;
+
+            try {
                 for (QueryConfiguration configuration : queryConfiguration) {
                     String sql = configuration.getSql();
 
-                    log.tracef("Executing principalQuery %s with value %s", sql, name);
-
-                    try (Connection connection = getConnection(configuration);
-                            PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-                        preparedStatement.setString(1, name);
-
-                        try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                            List<AttributeMapper> attributeMappers = configuration.getColumnMappers(AttributeMapper.class);
-                            List<KeyMapper> keyMappers = configuration.getColumnMappers(KeyMapper.class);
-                            while (resultSet.next()) {
-                                found = true;
-
-                                for (AttributeMapper attributeMapper : attributeMappers) {
-                                    Object value = attributeMapper.map(resultSet, providers);
-                                    if (value != null) {
-                                        if (attributes.containsKey(attributeMapper.getName())) {
-                                            attributes.get(attributeMapper.getName()).add(value.toString());
-                                        } else {
-                                            attributes.addFirst(attributeMapper.getName(), value.toString());
-                                        }
-                                    }
-                                }
-
-                                for (KeyMapper keyMapper : keyMappers) {
-                                    Credential credential = keyMapper.map(resultSet, providers);
-                                    if (credential != null) {
-                                        credentials = credentials.withCredential(credential);
-                                    }
-                                }
-                            }
+                    try {
+                        if (connection == null || dataSource != configuration.getDataSource()) {
+                            closeConnection(connection);
+                            connection = null;
+                            dataSource = configuration.getDataSource();
+                            connection = getConnection(configuration);
                         }
+
+                        results.add(executeQuery(configuration, connection, null));
                     } catch (SQLException e) {
+                        configuration.clearResolvedMappers();
                         throw log.couldNotExecuteQuery(sql, e);
                     } catch (Exception e) {
                         throw log.unexpectedErrorWhenProcessingAuthenticationQuery(sql, e);
                     }
                 }
-
-                this.identity = found ? new JdbcIdentity(attributes, credentials) : null;
-                loaded = true;
+            } finally {
+                closeConnection(connection);
             }
 
-            return this.identity;
+            return results;
         }
 
-        private Connection getConnection(QueryConfiguration configuration) {
+        private List<QueryResult> executeQueriesConcurrently() {
+            List<QueryTask> tasks = new ArrayList<>(queryConfiguration.size());
+            List<FutureTask<QueryResult>> futures = new ArrayList<>(queryConfiguration.size());
+
+            for (QueryConfiguration configuration : queryConfiguration) {
+                QueryTask task = new QueryTask(configuration);
+                FutureTask<QueryResult> future = new FutureTask<>(task);
+                tasks.add(task);
+                futures.add(future);
+                try {
+                    executor.execute(future);
+                } catch (RejectedExecutionException e) {
+                    log.tracef(e, "Executor rejected principalQuery %s, executing it in the calling thread", configuration.getSql());
+                    future.run();
+                }
+            }
+
+            List<QueryResult> results = new ArrayList<>(futures.size());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queryTimeout);
+            boolean completed = false;
+            String sql = null;
+
             try {
-                DataSource dataSource = configuration.getDataSource();
-                return dataSource.getConnection();
-            } catch (Exception e) {
-                throw log.couldNotOpenConnection(e);
+                for (int i = 0; i < futures.size(); i++) {
+                    sql = queryConfiguration.get(i).getSql();
+                    if (queryTimeout > 0) {
+                        results.add(futures.get(i).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+                    } else {
+                        results.add(futures.get(i).get());
+                    }
+                }
+                completed = true;
+            } catch (TimeoutException e) {
+                throw log.queryTimedOut(sql, queryTimeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw log.queryInterrupted(sql, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw log.unexpectedErrorWhenProcessingAuthenticationQuery(sql, cause);
+            } finally {
+                if (! completed) {
+                    // the identity cannot be loaded anyway, so stop any query still running rather than holding its connection
+                    for (int i = 0; i < futures.size(); i++) {
+                        tasks.get(i).cancel();
+                        futures.get(i).cancel(true);
+                    }
+                }
+            }
+
+            return results;
+        }
+
+        private QueryResult executeQuery(QueryConfiguration configuration, Connection connection, QueryTask task) throws SQLException {
+            String sql = configuration.getSql();
+            QueryResult result = new QueryResult();
+
+            log.tracef("Executing principalQuery %s with value %s", sql, name);
+
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                if (queryTimeout > 0) {
+                    preparedStatement.setQueryTimeout((int) TimeUnit.MILLISECONDS.toSeconds(queryTimeout + 999));
+                }
+                if (configuration.getFetchSize() > 0) {
+                    preparedStatement.setFetchSize(configuration.getFetchSize());
+                }
+                preparedStatement.setString(1, name);
+
+                if (task != null) {
+                    task.statement = preparedStatement;
+                    if (task.cancelled) {
+                        return result;
+                    }
+                }
+
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    QueryConfiguration.ResolvedMappers mappers = null;
+                    while (resultSet.next()) {
+                        if (mappers == null) {
+                            mappers = configuration.getResolvedMappers(resultSet);
+                        }
+                        mapRow(resultSet, mappers, result);
+                    }
+                }
+            } finally {
+                if (task != null) {
+                    task.statement = null;
+                }
+            }
+
+            return result;
+        }
+
+        private final class QueryTask implements Callable<QueryResult> {
+
+            private final QueryConfiguration configuration;
+            private volatile PreparedStatement statement;
+            private volatile boolean cancelled;
+
+            QueryTask(QueryConfiguration configuration) {
+                this.configuration = configuration;
+            }
+
+            @Override
+            public QueryResult call() {
+                String sql = configuration.getSql();
+
+                try (Connection connection = getConnection(configuration)) {
+                    return executeQuery(configuration, connection, this);
+                } catch (SQLException e) {
+                    if (! cancelled) {
+                        configuration.clearResolvedMappers();
+                    }
+                    throw log.couldNotExecuteQuery(sql, e);
+                } catch (Exception e) {
+                    throw log.unexpectedErrorWhenProcessingAuthenticationQuery(sql, e);
+                }
+            }
+
+            void cancel() {
+                cancelled = true;
+                PreparedStatement statement = this.statement;
+                if (statement != null) {
+                    try {
+                        statement.cancel();
+                    } catch (SQLException e) {
+                        log.tracef(e, "Failed to cancel principalQuery %s", configuration.getSql());
+                    }
+                }
             }
         }
 
@@ -268,6 +456,173 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
         }
     }
 
+    private Connection getConnection(QueryConfiguration configuration) {
+        try {
+            DataSource dataSource = configuration.getDataSource();
+            return dataSource.getConnection();
+        } catch (Exception e) {
+            throw log.couldNotOpenConnection(e);
+        }
+    }
+
+    private void closeConnection(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.tracef(e, "Failed to close connection");
+            }
+        }
+    }
+
+    private void mapRow(ResultSet resultSet, QueryConfiguration.ResolvedMappers mappers, QueryResult result) throws SQLException {
+        result.found = true;
+
+        for (AttributeMapper attributeMapper : mappers.getAttributeMappers()) {
+            Object value = attributeMapper.map(resultSet, providers);
+            if (value != null) {
+                result.attributes.addLast(attributeMapper.getName(), value.toString());
+            }
+        }
+
+        for (KeyMapper keyMapper : mappers.getKeyMappers()) {
+            Credential credential = keyMapper.map(resultSet, providers);
+            if (credential != null) {
+                result.credentials.add(credential);
+            }
+        }
+    }
+
+    private final class IdentitySpliterator extends Spliterators.AbstractSpliterator<RealmIdentity> {
+
+        private final QueryConfiguration configuration;
+        private Connection connection;
+        private boolean restoreAutoCommit;
+        private PreparedStatement statement;
+        private ResultSet resultSet;
+        private QueryConfiguration.ResolvedMappers mappers;
+        private boolean onRow;
+        private boolean exhausted;
+        private boolean closed;
+
+        IdentitySpliterator(QueryConfiguration configuration) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.configuration = configuration;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super RealmIdentity> action) {
+            if (closed) {
+                return false;
+            }
+
+            String sql = configuration.getSql();
+            RealmIdentity realmIdentity;
+            try {
+                if (resultSet == null) {
+                    open();
+                }
+                String name;
+                do {
+                    if (! onRow && ! next()) {
+                        // release the connection as soon as the last identity was read
+                        close();
+                        return false;
+                    }
+                    name = resultSet.getString(1);
+                    if (name == null) {
+                        log.tracef("Skipping row without identity name returned by iterationQuery %s", sql);
+                        onRow = false;
+                    }
+                } while (name == null);
+
+                if (mappers.getAttributeMappers().isEmpty() && mappers.getKeyMappers().isEmpty()) {
+                    realmIdentity = new JdbcRealmIdentity(name);
+                    onRow = false;
+                } else {
+                    QueryResult result = new QueryResult();
+                    do {
+                        mapRow(resultSet, mappers, result);
+                    } while (next() && name.equals(resultSet.getString(1)));
+                    realmIdentity = new JdbcRealmIdentity(name, result);
+                }
+            } catch (SQLException e) {
+                close();
+                configuration.clearResolvedMappers();
+                throw log.couldNotExecuteQuery(sql, e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+
+            action.accept(realmIdentity);
+            return true;
+        }
+
+        /**
+         * Move to the next row, never calling {@link ResultSet#next()} again once it returned {@code false}.
+         */
+        private boolean next() throws SQLException {
+            if (exhausted) {
+                return onRow = false;
+            }
+            onRow = resultSet.next();
+            exhausted = ! onRow;
+            return onRow;
+        }
+
+        private void open() throws SQLException {
+            String sql = configuration.getSql();
+
+            log.tracef("Executing iterationQuery %s", sql);
+
+            connection = getConnection(configuration);
+            // some drivers, such as the PostgreSQL driver, only use a cursor within a transaction
+            if (connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                restoreAutoCommit = true;
+            }
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (configuration.getFetchSize() > 0) {
+                statement.setFetchSize(configuration.getFetchSize());
+            }
+            resultSet = statement.executeQuery();
+            mappers = configuration.getResolvedMappers(resultSet);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+                if (statement != null) {
+                    statement.close();
+                }
+                if (restoreAutoCommit) {
+                    // nothing was modified, so simply end the transaction the cursor was opened in
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                log.tracef(e, "Failed to close iterationQuery %s", configuration.getSql());
+            } finally {
+                closeConnection(connection);
+            }
+        }
+    }
+
+    private static final class QueryResult {
+
+        private final MapAttributes attributes = new MapAttributes();
+        private final List<Credential> credentials = new ArrayList<>();
+        private boolean found;
+    }
+
     private interface ResultSetCallback<E> {
         E handle(ResultSet resultSet) throws SQLException;
     }
@@ -22,8 +22,10 @@ import static org.wildfly.security.provider.util.ProviderUtil.INSTALLED_PROVIDER
 import java.security.Provider;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
+import org.wildfly.common.Assert;
 import org.wildfly.security.auth.server.RealmIdentity;
 
 /**
@@ -35,6 +37,9 @@ public class JdbcSecurityRealmBuilder {
 
     private Supplier<Provider[]> providers = INSTALLED_PROVIDERS;
     private List<QueryBuilder> queries = new ArrayList<>();
+    private QueryBuilder iterationQuery;
+    private Executor executor;
+    private long queryTimeout;
 
     JdbcSecurityRealmBuilder() {
     }
@@ -51,7 +56,7 @@ public class JdbcSecurityRealmBuilder {
             configuration.add(query.buildQuery());
         }
 
-        return new JdbcSecurityRealm(configuration, providers);
+        return new JdbcSecurityRealm(configuration, iterationQuery != null ? iterationQuery.buildQuery() : null, providers, executor, queryTimeout);
     }
 
     /**
@@ -66,6 +71,39 @@ public class JdbcSecurityRealmBuilder {
         return this;
     }
 
+    /**
+     * <p>Set the executor used to execute the principal queries of an identity concurrently, each of them using its own
+     * connection. The results are merged in the order the queries were defined, so the resulting identity is the same
+     * as if the queries were executed one after another.
+     *
+     * <p>If no executor is set, the queries are executed one after another by the calling thread.
+     *
+     * @param executor the executor used to execute the queries, or {@code null} to execute them in the calling thread
+     * @return this builder.
+     */
+    public JdbcSecurityRealmBuilder setExecutor(Executor executor) {
+        this.executor = executor;
+
+        return this;
+    }
+
+    /**
+     * <p>Set the time in milliseconds the principal queries of an identity may take, or {@code 0} for no limit.
+     *
+     * <p>The timeout is passed to the driver for each statement, rounded up to whole seconds. When queries are executed
+     * concurrently, it also applies to all the queries of an identity together: once it elapses, any query still running
+     * is cancelled and loading the identity fails.
+     *
+     * @param queryTimeout the timeout in milliseconds
+     * @return this builder.
+     */
+    public JdbcSecurityRealmBuilder setQueryTimeout(long queryTimeout) {
+        Assert.checkMinimumParameter("queryTimeout", 0, queryTimeout);
+        this.queryTimeout = queryTimeout;
+
+        return this;
+    }
+
     /**
      * <p>A SQL SELECT statement that will be used to return data from a database based on the principal's name.
      *
@@ -88,4 +126,26 @@ public class JdbcSecurityRealmBuilder {
 
         return builder;
     }
+
+    /**
+     * <p>A SQL SELECT statement that will be used to return all the identities of the realm, as obtained from
+     * {@link JdbcSecurityRealm#getRealmIdentities()}. The first column of the query must be the principal's name:
+     *
+     * <pre>
+     *     JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder().iterationQuery("SELECT name, role_name FROM role_mapping_table ORDER BY name")
+     * </pre>
+     *
+     * <p>If mappers are defined for this query, identities are built from its rows, all the rows of an identity having
+     * to be consecutive. Otherwise the principal queries are used to load each identity.
+     *
+     * @param sql the iteration query
+     * @return this builder
+     */
+    public QueryBuilder iterationQuery(String sql) {
+        QueryBuilder builder = new QueryBuilder(sql, this);
+
+        this.iterationQuery = builder;
+
+        return builder;
+    }
 }
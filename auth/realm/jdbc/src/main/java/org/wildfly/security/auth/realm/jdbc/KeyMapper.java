@@ -20,6 +20,7 @@ package org.wildfly.security.auth.realm.jdbc;
 import java.security.Provider;
 import java.security.spec.AlgorithmParameterSpec;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.function.Supplier;
 
@@ -67,4 +68,9 @@ public interface KeyMapper extends ColumnMapper {
 
 
     Credential map(ResultSet resultSet, Supplier<Provider[]> providers) throws SQLException;
+
+    @Override
+    default KeyMapper resolve(ResultSetMetaData metaData) throws SQLException {
+        return this;
+    }
 }
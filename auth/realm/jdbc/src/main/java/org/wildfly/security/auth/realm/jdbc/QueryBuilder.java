@@ -17,10 +17,13 @@
  */
 package org.wildfly.security.auth.realm.jdbc;
 
+import org.wildfly.common.Assert;
+
 import javax.sql.DataSource;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * A builder class with different configuration options to configure queries.
@@ -33,6 +36,7 @@ public class QueryBuilder extends JdbcSecurityRealmBuilder {
     private final JdbcSecurityRealmBuilder parent;
     private List<ColumnMapper> mappers = new ArrayList<>();
     private DataSource dataSource;
+    private int fetchSize;
 
     QueryBuilder(String sql, JdbcSecurityRealmBuilder parent) {
         this.sql = sql;
@@ -61,19 +65,45 @@ public class QueryBuilder extends JdbcSecurityRealmBuilder {
         return this;
     }
 
+    /**
+     * Defines the number of rows to fetch from the database at a time, which is mostly useful for an iteration query.
+     *
+     * @param fetchSize the fetch size, or {@code 0} to use the default of the driver
+     * @return this builder
+     */
+    public QueryBuilder withFetchSize(int fetchSize) {
+        Assert.checkMinimumParameter("fetchSize", 0, fetchSize);
+        this.fetchSize = fetchSize;
+        return this;
+    }
 
     @Override
     public QueryBuilder principalQuery(String sql) {
         return this.parent.principalQuery(sql);
     }
 
+    @Override
+    public QueryBuilder iterationQuery(String sql) {
+        return this.parent.iterationQuery(sql);
+    }
+
+    @Override
+    public JdbcSecurityRealmBuilder setExecutor(Executor executor) {
+        return this.parent.setExecutor(executor);
+    }
+
+    @Override
+    public JdbcSecurityRealmBuilder setQueryTimeout(long queryTimeout) {
+        return this.parent.setQueryTimeout(queryTimeout);
+    }
+
     @Override
     public JdbcSecurityRealm build() {
         return this.parent.build();
     }
 
     QueryConfiguration buildQuery() {
-        return new QueryConfiguration(this.sql, this.dataSource, this.mappers);
+        return new QueryConfiguration(this.sql, this.dataSource, this.mappers, this.fetchSize);
     }
 
 }
@@ -18,8 +18,12 @@
 package org.wildfly.security.auth.realm.jdbc;
 
 import org.wildfly.common.Assert;
+import org.wildfly.security.auth.realm.jdbc.mapper.AttributeMapper;
 
 import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -34,14 +38,17 @@ public class QueryConfiguration {
     private final DataSource dataSource;
     private String sql;
     private List<ColumnMapper> columnMappers = new ArrayList<>();
+    private final int fetchSize;
+    private volatile ResolvedMappers resolvedMappers;
 
-    QueryConfiguration(String sql, DataSource dataSource, List<ColumnMapper> columnMappers) {
+    QueryConfiguration(String sql, DataSource dataSource, List<ColumnMapper> columnMappers, int fetchSize) {
         Assert.checkNotNullParam("sql", sql);
         Assert.checkNotNullParam("dataSource", dataSource);
         Assert.checkNotNullParam("columnMappers", columnMappers);
         this.sql = sql;
         this.dataSource = dataSource;
         this.columnMappers = columnMappers;
+        this.fetchSize = fetchSize;
     }
 
     /**
@@ -62,6 +69,15 @@ public class QueryConfiguration {
         return this.dataSource;
     }
 
+    /**
+     * Returns the number of rows to fetch from the database at a time, or {@code 0} to use the default of the driver.
+     *
+     * @return the fetch size
+     */
+    int getFetchSize() {
+        return this.fetchSize;
+    }
+
     /**
      * Returns all {@link ColumnMapper} instances associated with this query.
      *
@@ -82,4 +98,64 @@ public class QueryConfiguration {
 
         return attributeMappers;
     }
+
+    /**
+     * Returns the {@link ColumnMapper} instances associated with this query resolved against the metadata of the given
+     * {@link ResultSet}. Mappers are only resolved for the first result set, as all result sets of the query share the
+     * same shape.
+     *
+     * @param resultSet a result set returned by this query
+     * @return the resolved mappers
+     * @throws SQLException if any error occurs when resolving the mappers
+     */
+    ResolvedMappers getResolvedMappers(ResultSet resultSet) throws SQLException {
+        ResolvedMappers resolvedMappers = this.resolvedMappers;
+
+        if (resolvedMappers == null) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            List<AttributeMapper> attributeMappers = new ArrayList<>();
+            List<KeyMapper> keyMappers = new ArrayList<>();
+
+            for (ColumnMapper columnMapper : this.columnMappers) {
+                ColumnMapper resolved = columnMapper.resolve(metaData);
+                if (resolved instanceof AttributeMapper) {
+                    attributeMappers.add((AttributeMapper) resolved);
+                }
+                if (resolved instanceof KeyMapper) {
+                    keyMappers.add((KeyMapper) resolved);
+                }
+            }
+
+            this.resolvedMappers = resolvedMappers = new ResolvedMappers(attributeMappers, keyMappers);
+        }
+
+        return resolvedMappers;
+    }
+
+    /**
+     * Discards the resolved mappers, so that they are resolved again for the next result set, for example after the
+     * query failed because the underlying tables were altered.
+     */
+    void clearResolvedMappers() {
+        this.resolvedMappers = null;
+    }
+
+    static final class ResolvedMappers {
+
+        private final List<AttributeMapper> attributeMappers;
+        private final List<KeyMapper> keyMappers;
+
+        ResolvedMappers(List<AttributeMapper> attributeMappers, List<KeyMapper> keyMappers) {
+            this.attributeMappers = attributeMappers;
+            this.keyMappers = keyMappers;
+        }
+
+        List<AttributeMapper> getAttributeMappers() {
+            return this.attributeMappers;
+        }
+
+        List<KeyMapper> getKeyMappers() {
+            return this.keyMappers;
+        }
+    }
 }
@@ -17,6 +17,8 @@
  */
 package org.wildfly.security.auth.realm.jdbc._private;
 
+import java.sql.SQLException;
+
 import org.jboss.logging.BasicLogger;
 import org.jboss.logging.Logger;
 import org.jboss.logging.annotations.Cause;
@@ -41,9 +43,21 @@ public interface ElytronMessages extends BasicLogger {
     @Message(id = 1043, value = "Invalid password key specification for algorithm \"%s\"")
     RuntimeException invalidPasswordKeySpecificationForAlgorithm(String algorithm, @Cause Throwable cause);
 
+    @Message(id = 1044, value = "Column \"%s\" not found in the result of the query")
+    SQLException columnNotFound(String columnLabel);
+
     @Message(id = 1045, value = "Could not obtain PasswordFactory for algorithm \"%s\"")
     RuntimeException couldNotObtainPasswordFactoryForAlgorithm(String algorithm, @Cause Throwable cause);
 
+    @Message(id = 1046, value = "Query \"%s\" did not complete within %d milliseconds")
+    RuntimeException queryTimedOut(String sql, long timeout);
+
+    @Message(id = 1047, value = "Interrupted while waiting for query \"%s\"")
+    RuntimeException queryInterrupted(String sql, @Cause Throwable cause);
+
+    @Message(id = 1048, value = "No iteration query is defined for the realm")
+    UnsupportedOperationException iterationQueryNotDefined();
+
     @Message(id = 1049, value = "Could not open connection")
     RuntimeException couldNotOpenConnection(@Cause Throwable cause);
 
@@ -17,8 +17,11 @@
  */
 package org.wildfly.security.auth.realm.jdbc.mapper;
 
+import static org.wildfly.security.auth.realm.jdbc._private.ElytronMessages.log;
+
 import java.security.Provider;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.function.Supplier;
 
@@ -31,17 +34,47 @@ import org.wildfly.security.auth.realm.jdbc.ColumnMapper;
 public class AttributeMapper implements ColumnMapper {
 
     private final int index;
+    private final String columnLabel;
     private final String name;
 
     public AttributeMapper(int index, String name) {
         Assert.checkMinimumParameter("index", 1, index);
         this.index = index;
+        this.columnLabel = null;
+        this.name = name;
+    }
+
+    /**
+     * Creates a mapper for the column with the given label, the label being resolved to a column index once for the
+     * query the mapper is associated with.
+     *
+     * @param columnLabel the label of the column, as specified by the SQL {@code AS} clause or the column name otherwise
+     * @param name the name of the attribute
+     */
+    public AttributeMapper(String columnLabel, String name) {
+        Assert.checkNotNullParam("columnLabel", columnLabel);
+        this.index = -1;
+        this.columnLabel = columnLabel;
         this.name = name;
     }
 
     @Override
     public Object map(ResultSet resultSet, Supplier<Provider[]> providers) throws SQLException {
-        return resultSet.getString(this.index);
+        return resultSet.getString(this.columnLabel == null ? this.index : resultSet.findColumn(this.columnLabel));
+    }
+
+    @Override
+    public AttributeMapper resolve(ResultSetMetaData metaData) throws SQLException {
+        if (this.columnLabel == null || getClass() != AttributeMapper.class) {
+            // subclasses may override map, so they keep looking the column up by label
+            return this;
+        }
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (this.columnLabel.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                return new AttributeMapper(i, this.name);
+            }
+        }
+        throw log.columnNotFound(this.columnLabel);
     }
 
     public String getName() {
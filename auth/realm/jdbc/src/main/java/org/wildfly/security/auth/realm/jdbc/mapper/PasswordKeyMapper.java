@@ -65,6 +65,9 @@ public class PasswordKeyMapper implements KeyMapper {
     private final String defaultAlgorithm;
     private final Encoding hashEncoding;
     private final Encoding saltEncoding;
+    private final boolean resolved;
+    private final int hashColumnType;
+    private final int saltColumnType;
 
     public enum Encoding {
         BASE64,
@@ -90,6 +93,23 @@ public class PasswordKeyMapper implements KeyMapper {
         defaultAlgorithm = builder.defaultAlgorithm;
         this.hashEncoding = Assert.checkNotNullParam("hashEncoding", builder.hashEncoding);
         this.saltEncoding = Assert.checkNotNullParam("saltEncoding", builder.saltEncoding);
+        this.resolved = false;
+        this.hashColumnType = Types.NULL;
+        this.saltColumnType = Types.NULL;
+    }
+
+    private PasswordKeyMapper(PasswordKeyMapper mapper, int hashColumnType, int saltColumnType) {
+        this.hashColumn = mapper.hashColumn;
+        this.saltColumn = mapper.saltColumn;
+        this.iterationCountColumn = mapper.iterationCountColumn;
+        this.defaultIterationCount = mapper.defaultIterationCount;
+        this.algorithmColumn = mapper.algorithmColumn;
+        this.defaultAlgorithm = mapper.defaultAlgorithm;
+        this.hashEncoding = mapper.hashEncoding;
+        this.saltEncoding = mapper.saltEncoding;
+        this.resolved = true;
+        this.hashColumnType = hashColumnType;
+        this.saltColumnType = saltColumnType;
     }
 
     @Override
@@ -157,9 +177,8 @@ public class PasswordKeyMapper implements KeyMapper {
         return algorithmColumn;
     }
 
-    private static byte[] getBinaryColumn(ResultSetMetaData metaData, ResultSet resultSet, int column, Encoding encoding) throws SQLException {
+    private static byte[] getBinaryColumn(int columnType, ResultSet resultSet, int column, Encoding encoding) throws SQLException {
         if (column == -1) return null;
-        final int columnType = metaData.getColumnType(column);
         switch (columnType) {
             case Types.BINARY:
             case Types.VARBINARY:
@@ -193,9 +212,8 @@ public class PasswordKeyMapper implements KeyMapper {
         throw new IllegalStateException();
     }
 
-    private static String getStringColumn(ResultSetMetaData metaData, ResultSet resultSet, int column) throws SQLException {
+    private static String getStringColumn(int columnType, ResultSet resultSet, int column) throws SQLException {
         if (column == -1) return null;
-        final int columnType = metaData.getColumnType(column);
         switch (columnType) {
             case Types.BINARY:
             case Types.VARBINARY:
@@ -222,6 +240,14 @@ public class PasswordKeyMapper implements KeyMapper {
         }
     }
 
+    @Override
+    public PasswordKeyMapper resolve(ResultSetMetaData metaData) throws SQLException {
+        if (resolved || getClass() != PasswordKeyMapper.class) {
+            return this;
+        }
+        return new PasswordKeyMapper(this, metaData.getColumnType(hashColumn), saltColumn > 0 ? metaData.getColumnType(saltColumn) : Types.NULL);
+    }
+
     @Override
     public Credential map(ResultSet resultSet, Supplier<Provider[]> providers) throws SQLException {
         byte[] hash = null;
@@ -230,7 +256,16 @@ public class PasswordKeyMapper implements KeyMapper {
         int iterationCount;
         String algorithmName = getDefaultAlgorithm();
 
-        final ResultSetMetaData metaData = resultSet.getMetaData();
+        final int hashColumnType;
+        final int saltColumnType;
+        if (resolved) {
+            hashColumnType = this.hashColumnType;
+            saltColumnType = this.saltColumnType;
+        } else {
+            final ResultSetMetaData metaData = resultSet.getMetaData();
+            hashColumnType = metaData.getColumnType(hashColumn);
+            saltColumnType = saltColumn > 0 ? metaData.getColumnType(saltColumn) : Types.NULL;
+        }
 
         if (algorithmColumn > 0) {
             algorithmName = resultSet.getString(algorithmColumn);
@@ -240,16 +275,16 @@ public class PasswordKeyMapper implements KeyMapper {
         }
 
         if (ClearPassword.ALGORITHM_CLEAR.equals(algorithmName)) {
-            final String s = getStringColumn(metaData, resultSet, hashColumn);
+            final String s = getStringColumn(hashColumnType, resultSet, hashColumn);
             if (s != null) {
                 clear = s.toCharArray();
             } else {
-                hash = getBinaryColumn(metaData, resultSet, hashColumn, hashEncoding);
+                hash = getBinaryColumn(hashColumnType, resultSet, hashColumn, hashEncoding);
             }
         } else {
             if (saltColumn == -1 && iterationCountColumn == -1) {
                 // try modular crypt
-                final String s = getStringColumn(metaData, resultSet, hashColumn);
+                final String s = getStringColumn(hashColumnType, resultSet, hashColumn);
                 if (s != null) {
                     final char[] chars = s.toCharArray();
                     final String identified = ModularCrypt.identifyAlgorithm(chars);
@@ -266,11 +301,11 @@ public class PasswordKeyMapper implements KeyMapper {
                     }
                 }
             }
-            hash = getBinaryColumn(metaData, resultSet, hashColumn, hashEncoding);
+            hash = getBinaryColumn(hashColumnType, resultSet, hashColumn, hashEncoding);
         }
 
         if (saltColumn > 0) {
-            salt = getBinaryColumn(metaData, resultSet, saltColumn, saltEncoding);
+            salt = getBinaryColumn(saltColumnType, resultSet, saltColumn, saltEncoding);
         }
 
         if (iterationCountColumn > 0) {
@@ -201,6 +201,45 @@ public class AttributeMappingTest extends AbstractJdbcSecurityRealmTest {
         assertAttributeValue(attributes.get(allInOneAttributeName), "admin", "manager", "user", "John", "Smith", "jsmith@elytron.org");
     }
 
+    @Test
+    public void testObtainByColumnLabel() throws Exception {
+        createUserTable();
+        insertUser("plainUser", "plainPassword", "John", "Smith", "jsmith@elytron.org");
+        insertUser("otherUser", "otherPassword", "Jane", "Doe", "jdoe@elytron.org");
+
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .principalQuery("SELECT email AS mail, firstName, lastName FROM user_table WHERE name = ?")
+                    .withMapper(new AttributeMapper("firstName", "firstName"))
+                    .withMapper(new AttributeMapper("LASTNAME", "lastName"))
+                    .withMapper(new AttributeMapper("mail", "email"))
+                    .from(getDataSource())
+                .build();
+
+        // the second identity is mapped with the column indexes resolved for the first one
+        for (String[] user : new String[][] { { "plainUser", "John", "Smith", "jsmith@elytron.org" }, { "otherUser", "Jane", "Doe", "jdoe@elytron.org" } }) {
+            RealmIdentity realmIdentity = securityRealm.getRealmIdentity(new NamePrincipal(user[0]));
+            Attributes attributes = realmIdentity.getAuthorizationIdentity().getAttributes();
+
+            assertAttributeValue(attributes.get("firstName"), user[1]);
+            assertAttributeValue(attributes.get("lastName"), user[2]);
+            assertAttributeValue(attributes.get("email"), user[3]);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownColumnLabel() throws Exception {
+        createUserTable();
+        insertUser("plainUser", "plainPassword", "John", "Smith", "jsmith@elytron.org");
+
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .principalQuery("SELECT firstName FROM user_table WHERE name = ?")
+                    .withMapper(new AttributeMapper("middleName", "middleName"))
+                    .from(getDataSource())
+                .build();
+
+        securityRealm.getRealmIdentity(new NamePrincipal("plainUser")).exists();
+    }
+
     protected void assertAttributeValue(Attributes.Entry attribute, String... expectedValues) {
         assertNotNull("Attribute [" + attribute.getKey() + "] not found.", attribute);
 
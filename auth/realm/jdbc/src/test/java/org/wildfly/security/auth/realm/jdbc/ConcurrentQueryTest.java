@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.jdbc.mapper.AttributeMapper;
+import org.wildfly.security.auth.realm.jdbc.mapper.PasswordKeyMapper;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+import org.wildfly.security.password.interfaces.ClearPassword;
+
+/**
+ * Tests for the concurrent execution of the principal queries of a {@link JdbcSecurityRealm}.
+ */
+public class ConcurrentQueryTest extends AbstractJdbcSecurityRealmTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testResultsMergedInQueryOrder() throws Exception {
+        createUserTable();
+        createRoleTable();
+        createRoleMappingTable();
+
+        insertUser("plainUser", "plainPassword", "John", "Smith", "jsmith@elytron.org");
+        insertUserRole("plainUser", "admin");
+        insertUserRole("plainUser", "manager");
+
+        String allInOneAttributeName = "all-in-one";
+
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .setExecutor(executor)
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(1).build())
+                    .from(getDataSource())
+                .principalQuery("SELECT role_name FROM role_mapping_table WHERE user_name = ? ORDER BY role_name")
+                    .withMapper(new AttributeMapper(1, allInOneAttributeName))
+                    .from(getDataSource())
+                .principalQuery("SELECT firstName, lastName FROM user_table WHERE name = ?")
+                    .withMapper(new AttributeMapper(1, allInOneAttributeName))
+                    .withMapper(new AttributeMapper(2, allInOneAttributeName))
+                    .from(getDataSource())
+                .build();
+
+        for (int i = 0; i < 20; i++) {
+            RealmIdentity realmIdentity = securityRealm.getRealmIdentity(new NamePrincipal("plainUser"));
+            Attributes attributes = realmIdentity.getAuthorizationIdentity().getAttributes();
+
+            assertTrue(realmIdentity.verifyEvidence(new PasswordGuessEvidence("plainPassword".toCharArray())));
+            assertEquals(4, attributes.size(allInOneAttributeName));
+            List<String> values = new ArrayList<>(attributes.get(allInOneAttributeName));
+            assertEquals("admin", values.get(0));
+            assertEquals("manager", values.get(1));
+            assertEquals("John", values.get(2));
+            assertEquals("Smith", values.get(3));
+        }
+    }
+
+    @Test
+    public void testQueryTimeout() throws Exception {
+        createUserTable();
+        insertUser("plainUser", "plainPassword", "John", "Smith", "jsmith@elytron.org");
+
+        CountDownLatch interrupted = new CountDownLatch(1);
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .setExecutor(executor)
+                .setQueryTimeout(200)
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(1).build())
+                    .from(getDataSource())
+                .principalQuery("SELECT email FROM user_table WHERE name = ?")
+                    .withMapper(new AttributeMapper(1, "email"))
+                    .from(blockingDataSource(interrupted))
+                .build();
+
+        long start = System.nanoTime();
+        try {
+            securityRealm.getRealmIdentity(new NamePrincipal("plainUser")).exists();
+            fail("Expected the query to time out");
+        } catch (RuntimeException expected) {
+        }
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertTrue("Blocked query was not cancelled", interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Returns a data source that blocks when obtaining a connection until it is interrupted.
+     */
+    private DataSource blockingDataSource(CountDownLatch interrupted) {
+        DataSource dataSource = getDataSource();
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+            }
+            try {
+                return method.invoke(dataSource, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+}
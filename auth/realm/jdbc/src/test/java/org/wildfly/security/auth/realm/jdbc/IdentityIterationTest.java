@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.wildfly.security.auth.realm.jdbc.mapper.AttributeMapper;
+import org.wildfly.security.auth.realm.jdbc.mapper.PasswordKeyMapper;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.authz.RoleDecoder;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+import org.wildfly.security.password.interfaces.ClearPassword;
+
+/**
+ * Tests for the iteration of the identities of a {@link JdbcSecurityRealm}.
+ */
+public class IdentityIterationTest extends AbstractJdbcSecurityRealmTest {
+
+    @Test
+    public void testIterationWithMappers() throws Exception {
+        createUserTable();
+        createRoleTable();
+        createRoleMappingTable();
+
+        insertUser("jane", "janePassword", "Jane", "Doe", "jdoe@elytron.org");
+        insertUser("john", "johnPassword", "John", "Smith", "jsmith@elytron.org");
+        insertUser("noRoles", "noRolesPassword", "No", "Roles", "noroles@elytron.org");
+        insertUserRole("jane", "admin");
+        insertUserRole("jane", "user");
+        insertUserRole("john", "user");
+
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .iterationQuery("SELECT u.name, u.password, r.role_name FROM user_table u LEFT JOIN role_mapping_table r ON r.user_name = u.name ORDER BY u.name, r.role_name")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(2).build())
+                    .withMapper(new AttributeMapper(3, RoleDecoder.KEY_ROLES))
+                    .withFetchSize(2)
+                    .from(getDataSource())
+                .build();
+
+        try (Stream<RealmIdentity> identities = securityRealm.getRealmIdentities()) {
+            List<RealmIdentity> list = identities.collect(Collectors.toList());
+
+            assertEquals(3, list.size());
+            assertEquals("jane", list.get(0).getRealmIdentityPrincipal().getName());
+            assertEquals("john", list.get(1).getRealmIdentityPrincipal().getName());
+            assertEquals("noRoles", list.get(2).getRealmIdentityPrincipal().getName());
+
+            for (RealmIdentity realmIdentity : list) {
+                String name = realmIdentity.getRealmIdentityPrincipal().getName();
+                assertTrue(realmIdentity.exists());
+                assertTrue(realmIdentity.verifyEvidence(new PasswordGuessEvidence((name + "Password").toCharArray())));
+            }
+
+            Attributes attributes = list.get(0).getAuthorizationIdentity().getAttributes();
+            assertEquals(2, attributes.size(RoleDecoder.KEY_ROLES));
+            assertTrue(attributes.get(RoleDecoder.KEY_ROLES).contains("admin"));
+            assertTrue(attributes.get(RoleDecoder.KEY_ROLES).contains("user"));
+            assertEquals(1, list.get(1).getAuthorizationIdentity().getAttributes().size(RoleDecoder.KEY_ROLES));
+            assertFalse(list.get(2).getAuthorizationIdentity().getAttributes().containsKey(RoleDecoder.KEY_ROLES));
+        }
+    }
+
+    @Test
+    public void testIterationWithPrincipalQueries() throws Exception {
+        createUserTable();
+        try (Connection connection = getDataSource().getConnection();
+                PreparedStatement statement = connection.prepareStatement("INSERT INTO user_table (name, password, firstName, lastName, email) VALUES (?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < 1000; i++) {
+                statement.setString(1, "user" + i);
+                statement.setString(2, "password" + i);
+                statement.setString(3, "first" + i);
+                statement.setString(4, "last" + i);
+                statement.setString(5, "user" + i + "@elytron.org");
+                statement.executeUpdate();
+            }
+        }
+
+        List<Connection> connections = new CopyOnWriteArrayList<>();
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .iterationQuery("SELECT name FROM user_table")
+                    .withFetchSize(100)
+                    .from(trackingDataSource(connections))
+                .principalQuery("SELECT password, email FROM user_table WHERE name = ?")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(1).build())
+                    .withMapper(new AttributeMapper(2, "email"))
+                    .from(getDataSource())
+                .build();
+
+        try (Stream<RealmIdentity> identities = securityRealm.getRealmIdentities()) {
+            assertEquals(1000, identities.filter(realmIdentity -> {
+                try {
+                    String name = realmIdentity.getRealmIdentityPrincipal().getName();
+                    return realmIdentity.getAuthorizationIdentity().getAttributes().getFirst("email").equals(name + "@elytron.org");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }).count());
+        }
+
+        assertEquals(1, connections.size());
+        assertTrue(connections.get(0).isClosed());
+
+        // closing a partially consumed stream releases its connection
+        try (Stream<RealmIdentity> identities = securityRealm.getRealmIdentities()) {
+            assertEquals(10, identities.limit(10).count());
+            assertEquals(2, connections.size());
+            assertFalse(connections.get(1).isClosed());
+        }
+        assertTrue(connections.get(1).isClosed());
+    }
+
+    @Test
+    public void testIterationSkipsNullNames() throws Exception {
+        createUserTable();
+        insertUser("jane", "janePassword", "Jane", "Doe", "jdoe@elytron.org");
+        insertUser("john", "johnPassword", "John", "Smith", "jsmith@elytron.org");
+        insertUser("noName", "noNamePassword", "No", "Name", "noname@elytron.org");
+
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .iterationQuery("SELECT CASE WHEN name = 'noName' THEN NULL ELSE name END, password FROM user_table ORDER BY name")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(2).build())
+                    .from(getDataSource())
+                .build();
+
+        try (Stream<RealmIdentity> identities = securityRealm.getRealmIdentities()) {
+            List<String> names = identities.map(realmIdentity -> realmIdentity.getRealmIdentityPrincipal().getName()).collect(Collectors.toList());
+            assertEquals(2, names.size());
+            assertEquals("jane", names.get(0));
+            assertEquals("john", names.get(1));
+        }
+    }
+
+    private DataSource trackingDataSource(List<Connection> connections) {
+        DataSource dataSource = getDataSource();
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+            try {
+                Object result = method.invoke(dataSource, args);
+                if (result instanceof Connection) {
+                    connections.add((Connection) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNoIterationQuery() throws Exception {
+        JdbcSecurityRealm.builder()
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .from(getDataSource())
+                .build()
+                .getRealmIdentities();
+    }
+}
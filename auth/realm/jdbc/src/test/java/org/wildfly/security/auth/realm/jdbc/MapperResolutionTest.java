@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Provider;
+import java.security.spec.AlgorithmParameterSpec;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.jdbc.mapper.AttributeMapper;
+import org.wildfly.security.auth.realm.jdbc.mapper.PasswordKeyMapper;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+import org.wildfly.security.password.interfaces.ClearPassword;
+
+/**
+ * Tests that the column mappers of a {@link JdbcSecurityRealm} resolved once per query map the same identities as mappers
+ * looking their columns up for every row.
+ */
+public class MapperResolutionTest extends AbstractJdbcSecurityRealmTest {
+
+    private static final int USERS = 10;
+
+    @Test
+    public void testResolvedMappersMatchUnresolved() throws Exception {
+        createUserTable();
+        for (int i = 0; i < USERS; i++) {
+            insertUser("user" + i, "password" + i, "first" + i, "last" + i, "user" + i + "@elytron.org");
+        }
+
+        PasswordKeyMapper passwordKeyMapper = PasswordKeyMapper.builder()
+                .setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR)
+                .setHashColumn(1)
+                .build();
+
+        JdbcSecurityRealm resolved = createRealm(passwordKeyMapper, new AttributeMapper("firstName", "firstName"), new AttributeMapper(3, "email"));
+        // neither of these can be resolved, so columns are looked up for every row
+        JdbcSecurityRealm unresolved = createRealm(new UnresolvedKeyMapper(passwordKeyMapper), new AttributeMapper("firstName", "firstName") {}, new AttributeMapper(3, "email") {});
+
+        // every identity is loaded twice, the second time with the mappers resolved by the first query
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < USERS; i++) {
+                String name = "user" + i;
+                RealmIdentity expected = unresolved.getRealmIdentity(new NamePrincipal(name));
+                RealmIdentity actual = resolved.getRealmIdentity(new NamePrincipal(name));
+
+                assertTrue(actual.exists());
+                assertTrue(actual.verifyEvidence(new PasswordGuessEvidence(("password" + i).toCharArray())));
+                assertFalse(actual.verifyEvidence(new PasswordGuessEvidence(("password" + (i + 1)).toCharArray())));
+
+                ClearPassword expectedPassword = expected.getCredential(PasswordCredential.class).getPassword(ClearPassword.class);
+                ClearPassword actualPassword = actual.getCredential(PasswordCredential.class).getPassword(ClearPassword.class);
+                assertNotNull(actualPassword);
+                assertArrayEquals(expectedPassword.getPassword(), actualPassword.getPassword());
+
+                Attributes expectedAttributes = expected.getAuthorizationIdentity().getAttributes();
+                Attributes actualAttributes = actual.getAuthorizationIdentity().getAttributes();
+                assertEquals("first" + i, actualAttributes.getFirst("firstName"));
+                assertEquals(name + "@elytron.org", actualAttributes.getFirst("email"));
+                assertEquals(expectedAttributes.keySet(), actualAttributes.keySet());
+                for (String key : expectedAttributes.keySet()) {
+                    assertEquals(new ArrayList<>(expectedAttributes.get(key)), new ArrayList<>(actualAttributes.get(key)));
+                }
+            }
+        }
+
+        assertFalse(resolved.getRealmIdentity(new NamePrincipal("unknown")).exists());
+    }
+
+    private JdbcSecurityRealm createRealm(KeyMapper keyMapper, AttributeMapper... attributeMappers) {
+        return JdbcSecurityRealm.builder()
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .withMapper(keyMapper)
+                    .from(getDataSource())
+                .principalQuery("SELECT firstName, lastName, email FROM user_table WHERE name = ?")
+                    .withMapper(attributeMappers)
+                    .from(getDataSource())
+                .build();
+    }
+
+    private static final class UnresolvedKeyMapper implements KeyMapper {
+
+        private final KeyMapper delegate;
+
+        UnresolvedKeyMapper(KeyMapper delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, AlgorithmParameterSpec parameterSpec) {
+            return delegate.getCredentialAcquireSupport(credentialType, algorithmName, parameterSpec);
+        }
+
+        @Override
+        public Credential map(ResultSet resultSet, Supplier<Provider[]> providers) throws SQLException {
+            return delegate.map(resultSet, providers);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import java.security.Provider;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.evidence.Evidence;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+
+/**
+ * A {@link DirectEvidenceVerifier} performing its binds on a {@link BindVerificationExecutor}, so that the calling thread
+ * waits for at most the bind timeout and a saturated directory is reported at once.
+ */
+class AsyncDirectEvidenceVerifier implements EvidenceVerifier {
+
+    private final BindVerificationExecutor executor;
+    private final DirectEvidenceVerifier delegate;
+
+    AsyncDirectEvidenceVerifier(boolean allowBlankPassword, BindVerificationExecutor executor) {
+        this.executor = executor;
+        this.delegate = new DirectEvidenceVerifier(allowBlankPassword, executor.getBindTimeout());
+    }
+
+    @Override
+    public SupportLevel getEvidenceVerifySupport(final Class<? extends Evidence> evidenceType, final String algorithmName) throws RealmUnavailableException {
+        return delegate.getEvidenceVerifySupport(evidenceType, algorithmName);
+    }
+
+    @Override
+    public AsyncIdentityEvidenceVerifier forIdentity(final DirContext dirContext, final String distinguishedName, final String url, Attributes attributes) throws RealmUnavailableException {
+        IdentityEvidenceVerifier identityVerifier = delegate.forIdentity(dirContext, distinguishedName, url, attributes);
+        return new AsyncIdentityEvidenceVerifier() {
+            @Override
+            public SupportLevel getEvidenceVerifySupport(final Class<? extends Evidence> evidenceType, final String algorithmName, final Supplier<Provider[]> providers) throws RealmUnavailableException {
+                return identityVerifier.getEvidenceVerifySupport(evidenceType, algorithmName, providers);
+            }
+
+            @Override
+            public boolean verifyEvidence(final Evidence evidence, final Supplier<Provider[]> providers) throws RealmUnavailableException {
+                return executor.await(verifyEvidenceAsync(evidence, providers), distinguishedName);
+            }
+
+            @Override
+            public CompletableFuture<Boolean> verifyEvidenceAsync(final Evidence evidence, final Supplier<Provider[]> providers) throws RealmUnavailableException {
+                if (! (evidence instanceof PasswordGuessEvidence)) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                // the bind works on a copy of the guess, destroyed once the bind is done, the evidence of the caller is left
+                // intact as the caller may still need it, or may destroy it before a queued bind is performed
+                PasswordGuessEvidence guess = new PasswordGuessEvidence(((PasswordGuessEvidence) evidence).getGuess().clone());
+                try {
+                    // the context of the caller is only used here, the bind opens a context of its own as the context of
+                    // the caller is closed, or back in its pool, once the caller stops waiting
+                    DirectEvidenceVerifier.Bind bind = delegate.prepareBind(dirContext, distinguishedName, url);
+                    return executor.submit(() -> {
+                        try {
+                            return bind.bind(guess.getGuess());
+                        } finally {
+                            guess.destroy();
+                        }
+                    });
+                } catch (RealmUnavailableException e) {
+                    guess.destroy();
+                    throw e;
+                }
+            }
+        };
+    }
+}
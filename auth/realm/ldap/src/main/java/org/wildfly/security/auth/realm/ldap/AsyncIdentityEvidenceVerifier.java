@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import java.security.Provider;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.evidence.Evidence;
+
+/**
+ * An {@link IdentityEvidenceVerifier} which can verify evidence without blocking the calling thread.
+ */
+interface AsyncIdentityEvidenceVerifier extends IdentityEvidenceVerifier {
+
+    /**
+     * Start verifying the given evidence.
+     *
+     * @param evidence the evidence to verify.
+     * @param providers the providers to use when verifying evidence.
+     * @return the future result, {@code true} if the evidence is successfully verified, {@code false} otherwise.
+     * @throws RealmUnavailableException if the verification cannot be started.
+     */
+    CompletableFuture<Boolean> verifyEvidenceAsync(Evidence evidence, Supplier<Provider[]> providers) throws RealmUnavailableException;
+
+}
@@ -0,0 +1,280 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.security.auth.realm.ldap.ElytronMessages.log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.wildfly.common.function.ExceptionSupplier;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+
+/**
+ * <p>A bounded pool of threads performing the binds of direct evidence verification, so that a slow directory cannot tie up
+ * every thread verifying evidence, as set by {@link LdapSecurityRealmBuilder#addDirectEvidenceVerification(boolean, BindVerificationExecutor)}.
+ *
+ * <p>At most {@link Builder#setMaxThreads(int) maxThreads} binds are performed at once, and at most
+ * {@link Builder#setQueueDepth(int) queueDepth} more wait for a thread. A bind submitted beyond that is rejected at once
+ * with a {@link RealmUnavailableException}, as is a bind not completed within {@link Builder#setBindTimeout(long) bindTimeout}
+ * milliseconds of being submitted. The timeout is also used as the connect and read timeout of the bind itself.
+ *
+ * <p>One executor can be shared by several realms.
+ */
+public final class BindVerificationExecutor {
+
+    private final int maxThreads;
+    private final int queueDepth;
+    private final long bindTimeout;
+    private final BlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder bindTime = new LongAdder();
+
+    BindVerificationExecutor(Builder builder) {
+        this.maxThreads = builder.maxThreads;
+        this.queueDepth = builder.queueDepth;
+        this.bindTimeout = builder.bindTimeout;
+        this.queue = queueDepth == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueDepth);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "LDAP bind verification " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Construct a new builder.
+     *
+     * @return the new builder (not {@code null})
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    long getBindTimeout() {
+        return bindTimeout;
+    }
+
+    /**
+     * Submit a bind, failing at once if all the threads are busy and the queue is full.
+     *
+     * @param bind the bind, returning whether the evidence was verified
+     * @return the future result of the bind
+     * @throws RealmUnavailableException if the bind was rejected
+     */
+    CompletableFuture<Boolean> submit(ExceptionSupplier<Boolean, RealmUnavailableException> bind) throws RealmUnavailableException {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) { // the caller gave up while the bind was queued
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    future.complete(bind.get());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    bindTime.add(System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                throw log.ldapRealmBindVerificationExecutorClosed();
+            }
+            rejectedCount.increment();
+            throw log.ldapRealmBindVerificationSaturated(maxThreads, queueDepth);
+        }
+        submittedCount.increment();
+        return future;
+    }
+
+    /**
+     * Wait for the result of a submitted bind, for at most the bind timeout.
+     *
+     * @param future the future result of the bind
+     * @param distinguishedName the DN bound as, for error reporting
+     * @return {@code true} if the evidence was verified, {@code false} otherwise
+     * @throws RealmUnavailableException if the bind failed, did not complete in time or the wait was interrupted
+     */
+    boolean await(CompletableFuture<Boolean> future, String distinguishedName) throws RealmUnavailableException {
+        try {
+            return future.get(bindTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            timeoutCount.increment();
+            throw log.ldapRealmBindVerificationTimedOut(distinguishedName, bindTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw log.ldapRealmBindVerificationInterrupted(distinguishedName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RealmUnavailableException) {
+                throw (RealmUnavailableException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw log.ldapRealmBindVerificationFailed(distinguishedName, cause);
+        }
+    }
+
+    /**
+     * Stop accepting binds. The binds already submitted are still performed, and the threads are stopped once they are done.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Get the number of binds currently being performed.
+     *
+     * @return the approximate number of binds in progress
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of binds currently waiting for a thread.
+     *
+     * @return the number of queued binds
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of binds accepted by this executor.
+     *
+     * @return the number of binds submitted
+     */
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    /**
+     * Get the number of binds rejected because all the threads were busy and the queue was full.
+     *
+     * @return the number of binds rejected
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Get the number of binds whose result was not available within the bind timeout.
+     *
+     * @return the number of binds timed out
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * Get the total time in milliseconds spent performing binds, not including the time they were queued.
+     *
+     * @return the total bind time in milliseconds
+     */
+    public long getBindTime() {
+        return TimeUnit.NANOSECONDS.toMillis(bindTime.sum());
+    }
+
+    /**
+     * A builder for {@link BindVerificationExecutor} instances.
+     */
+    public static final class Builder {
+
+        private int maxThreads = 10;
+        private int queueDepth = 100;
+        private long bindTimeout = 5000;
+
+        Builder() {
+        }
+
+        /**
+         * Set the maximum number of binds performed at once, {@code 10} by default.
+         *
+         * @param maxThreads the maximum number of threads
+         * @return this builder
+         */
+        public Builder setMaxThreads(final int maxThreads) {
+            checkMinimumParameter("maxThreads", 1, maxThreads);
+            this.maxThreads = maxThreads;
+
+            return this;
+        }
+
+        /**
+         * Set the maximum number of binds waiting for a thread, {@code 100} by default, or {@code 0} to reject a bind
+         * as soon as all the threads are busy.
+         *
+         * @param queueDepth the maximum number of queued binds
+         * @return this builder
+         */
+        public Builder setQueueDepth(final int queueDepth) {
+            checkMinimumParameter("queueDepth", 0, queueDepth);
+            this.queueDepth = queueDepth;
+
+            return this;
+        }
+
+        /**
+         * Set the time in milliseconds a bind may take, including the time it is queued, {@code 5000} by default.
+         *
+         * @param bindTimeout the bind timeout in milliseconds
+         * @return this builder
+         */
+        public Builder setBindTimeout(final long bindTimeout) {
+            checkMinimumParameter("bindTimeout", 1, bindTimeout);
+            this.bindTimeout = bindTimeout;
+
+            return this;
+        }
+
+        /**
+         * Build the bind verification executor.
+         *
+         * @return the bind verification executor
+         */
+        public BindVerificationExecutor build() {
+            return new BindVerificationExecutor(this);
+        }
+    }
+}
@@ -80,14 +80,31 @@ class DelegatingLdapContext implements LdapContext {
     }
 
     public LdapContext newInitialLdapContext(Hashtable<?,?> environment, Control[] connCtls) throws NamingException {
-        ClassLoader previous = setSocketFactory();
+        return newInitialLdapContext(environment, connCtls, socketFactory);
+    }
+
+    /**
+     * Create a new {@link InitialLdapContext} using the given socket factory, without any instance of this class.
+     *
+     * @param environment the environment of the new context
+     * @param connCtls the connection request controls, or {@code null}
+     * @param socketFactory the socket factory of the new context, or {@code null} to use the one of the environment
+     * @return the new context
+     * @throws NamingException if the context could not be created
+     */
+    static LdapContext newInitialLdapContext(Hashtable<?,?> environment, Control[] connCtls, SocketFactory socketFactory) throws NamingException {
+        ClassLoader previous = setSocketFactory(socketFactory);
         try {
             return new InitialLdapContext(environment, null);
         } finally {
-            unsetSocketFactory(previous);
+            unsetSocketFactory(socketFactory, previous);
         }
     }
 
+    SocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
     @Override
     public void close() throws NamingException {
         if (closeHandler == null) {
@@ -485,6 +502,14 @@ class DelegatingLdapContext implements LdapContext {
     }
 
     private ClassLoader setSocketFactory() {
+        return setSocketFactory(socketFactory);
+    }
+
+    private void unsetSocketFactory(ClassLoader previous) {
+        unsetSocketFactory(socketFactory, previous);
+    }
+
+    private static ClassLoader setSocketFactory(SocketFactory socketFactory) {
         if (socketFactory != null) {
             ThreadLocalSSLSocketFactory.set(socketFactory);
             return setClassLoaderTo(getSocketFactoryClassLoader());
@@ -492,18 +517,18 @@ class DelegatingLdapContext implements LdapContext {
         return null;
     }
 
-    private void unsetSocketFactory(ClassLoader previous) {
+    private static void unsetSocketFactory(SocketFactory socketFactory, ClassLoader previous) {
         if (socketFactory != null) {
             ThreadLocalSSLSocketFactory.unset();
             setClassLoaderTo(previous);
         }
     }
 
-    private ClassLoader getSocketFactoryClassLoader() {
+    private static ClassLoader getSocketFactoryClassLoader() {
         return ThreadLocalSSLSocketFactory.class.getClassLoader();
     }
 
-    private ClassLoader setClassLoaderTo(final ClassLoader targetClassLoader){
+    private static ClassLoader setClassLoaderTo(final ClassLoader targetClassLoader){
         return doPrivileged(new SetContextClassLoaderAction(targetClassLoader));
     }
 
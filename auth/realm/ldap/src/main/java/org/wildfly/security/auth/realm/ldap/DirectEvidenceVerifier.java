@@ -22,6 +22,7 @@ import static org.wildfly.security.auth.realm.ldap.ElytronMessages.log;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.Provider;
+import java.util.Hashtable;
 import java.util.Properties;
 import java.util.function.Supplier;
 
@@ -31,6 +32,7 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
+import javax.net.SocketFactory;
 
 import org.wildfly.security.auth.server.RealmUnavailableException;
 import org.wildfly.security.auth.SupportLevel;
@@ -44,10 +46,25 @@ import org.wildfly.security.evidence.PasswordGuessEvidence;
  */
 class DirectEvidenceVerifier implements EvidenceVerifier {
 
+    private static final String CONNECT_TIMEOUT = "com.sun.jndi.ldap.connect.timeout";
+    private static final String READ_TIMEOUT = "com.sun.jndi.ldap.read.timeout";
+
     private final boolean allowBlankPassword;
+    private final long bindTimeout;
 
     DirectEvidenceVerifier(boolean allowBlankPassword) {
+        this(allowBlankPassword, 0);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param allowBlankPassword whether a blank password guess is used to bind
+     * @param bindTimeout the connect and read timeout in milliseconds of the binds, or {@code 0} to use the timeouts of the realm context
+     */
+    DirectEvidenceVerifier(boolean allowBlankPassword, long bindTimeout) {
         this.allowBlankPassword = allowBlankPassword;
+        this.bindTimeout = bindTimeout;
     }
 
     @Override
@@ -74,14 +91,15 @@ class DirectEvidenceVerifier implements EvidenceVerifier {
                         }
 
                         if (url != null) { // different server - create new context
-                            URI uri = new URI(url);
-                            String namingProviderURL = uri.getScheme() + "://" + uri.getAuthority();
-
                             Properties props = new Properties();
                             dirContext.getEnvironment().forEach(props::put);
-                            props.put(LdapContext.PROVIDER_URL, namingProviderURL);
+                            props.put(LdapContext.PROVIDER_URL, getNamingProviderUrl(url));
                             props.put(LdapContext.SECURITY_PRINCIPAL, distinguishedName);
                             props.put(LdapContext.SECURITY_CREDENTIALS, password);
+                            if (bindTimeout > 0) {
+                                props.put(CONNECT_TIMEOUT, Long.toString(bindTimeout));
+                                props.put(READ_TIMEOUT, Long.toString(bindTimeout));
+                            }
 
                             LdapContext userContext;
                             if (dirContext instanceof DelegatingLdapContext) {
@@ -94,6 +112,10 @@ class DirectEvidenceVerifier implements EvidenceVerifier {
                             LdapContext userContext = ((LdapContext) dirContext).newInstance(null);
                             userContext.addToEnvironment(LdapContext.SECURITY_PRINCIPAL, distinguishedName);
                             userContext.addToEnvironment(LdapContext.SECURITY_CREDENTIALS, password);
+                            if (bindTimeout > 0) {
+                                userContext.addToEnvironment(CONNECT_TIMEOUT, Long.toString(bindTimeout));
+                                userContext.addToEnvironment(READ_TIMEOUT, Long.toString(bindTimeout));
+                            }
                             userContext.reconnect(null);
                             userContext.close();
                         }
@@ -112,4 +134,70 @@ class DirectEvidenceVerifier implements EvidenceVerifier {
 
         };
     }
+
+    /**
+     * Capture on the calling thread everything a bind as the identity needs, so that the bind can be performed on another
+     * thread without the context of the realm, which may be closed or back in its pool by the time the bind runs.
+     *
+     * @param dirContext the context of the realm the identity was found with
+     * @param distinguishedName the distinguished name of the identity
+     * @param url the URL of the server of the identity if it was found following a referral, or {@code null}
+     * @return the bind, opening a context of its own
+     * @throws RealmUnavailableException if the environment of the context could not be read
+     */
+    Bind prepareBind(final DirContext dirContext, final String distinguishedName, final String url) throws RealmUnavailableException {
+        final Hashtable<Object, Object> environment;
+        try {
+            environment = new Hashtable<>(dirContext.getEnvironment());
+            if (url != null) {
+                environment.put(LdapContext.PROVIDER_URL, getNamingProviderUrl(url));
+            }
+        } catch (NamingException | URISyntaxException e) {
+            throw log.directLdapVerificationFailed(distinguishedName, url, e);
+        }
+        environment.put(LdapContext.SECURITY_PRINCIPAL, distinguishedName);
+        if (bindTimeout > 0) {
+            environment.put(CONNECT_TIMEOUT, Long.toString(bindTimeout));
+            environment.put(READ_TIMEOUT, Long.toString(bindTimeout));
+        }
+        final SocketFactory socketFactory = dirContext instanceof DelegatingLdapContext ? ((DelegatingLdapContext) dirContext).getSocketFactory() : null;
+
+        return password -> {
+            if ( ! allowBlankPassword && password.length == 0) {
+                log.debugf("Credential direct evidence verification does not allow blank password.");
+                return false;
+            }
+            Hashtable<Object, Object> bindEnvironment = new Hashtable<>(environment);
+            bindEnvironment.put(LdapContext.SECURITY_CREDENTIALS, password);
+            try {
+                DelegatingLdapContext.newInitialLdapContext(bindEnvironment, null, socketFactory).close();
+                return true;
+            } catch (AuthenticationException e) {
+                log.debugf(e, "Credential direct evidence verification failed. DN: [%s]", distinguishedName);
+                return false;
+            } catch (NamingException e) {
+                throw log.directLdapVerificationFailed(distinguishedName, url, e);
+            }
+        };
+    }
+
+    private static String getNamingProviderUrl(String url) throws URISyntaxException {
+        URI uri = new URI(url);
+        return uri.getScheme() + "://" + uri.getAuthority();
+    }
+
+    /**
+     * A bind as an identity, prepared by {@link #prepareBind(DirContext, String, String)}.
+     */
+    interface Bind {
+
+        /**
+         * Bind as the identity using the given password.
+         *
+         * @param password the password
+         * @return {@code true} if the bind succeeded, {@code false} if the password was refused
+         * @throws RealmUnavailableException if the server could not be reached
+         */
+        boolean bind(char[] password) throws RealmUnavailableException;
+    }
 }
@@ -85,6 +85,9 @@ interface ElytronMessages extends BasicLogger {
     @Message(id = 1064, value = "Invalid identity name")
     IllegalArgumentException invalidName();
 
+    @Message(id = 1078, value = "Ldap-backed realm identity replica requires a search DN and the default identity filter")
+    IllegalStateException ldapRealmIdentityReplicaNotSupported();
+
     @Message(id = 1079, value = "Ldap-backed realm failed to obtain attributes for entry [%s]")
     RuntimeException ldapRealmFailedObtainAttributes(String dn, @Cause Throwable cause);
 
@@ -106,6 +109,9 @@ interface ElytronMessages extends BasicLogger {
     @Message(id = 1087, value = "Clearing credentials from Ldap-backed realm failed. Identity dn: \"%s\"")
     RealmUnavailableException ldapRealmCredentialClearingFailed(String dn, @Cause Throwable cause);
 
+    @Message(id = 1089, value = "Ldap-backed realm direct verification rejected, all %d bind threads are busy and %d binds are queued")
+    RealmUnavailableException ldapRealmBindVerificationSaturated(int maxThreads, int queueDepth);
+
     @Message(id = 1090, value = "Unknown LDAP password scheme")
     InvalidKeySpecException unknownLdapPasswordScheme();
 
@@ -134,15 +140,33 @@ interface ElytronMessages extends BasicLogger {
     @Message(id = 1103, value = "Ldap-backed realm failed to set attributes of identity \"%s\"")
     RealmUnavailableException ldapRealmAttributesSettingFailed(String identity, @Cause Throwable cause);
 
+    @Message(id = 1107, value = "No DirContext pool could provide a context within %d milliseconds")
+    NamingException dirContextPoolExhausted(long maxWait);
+
     @Message(id = 1108, value = "Ldap-backed realm identity search failed")
     RealmUnavailableException ldapRealmIdentitySearchFailed(@Cause Throwable cause);
 
     @Message(id = 1109, value = "Ldap-backed realm is not configured to allow iterate over identities (iterator filter has to be set)")
     RealmUnavailableException ldapRealmNotConfiguredToSupportIteratingOverIdentities();
 
+    @Message(id = 1110, value = "DirContext pool is closed")
+    NamingException dirContextPoolClosed();
+
+    @Message(id = 1111, value = "No DirContextFactory set for the DirContext pool")
+    IllegalStateException noDirContextFactorySet();
+
     @Message(id = 1125, value = "Ldap-backed realm failed to obtain context")
     RealmUnavailableException ldapRealmFailedToObtainContext(@Cause Throwable cause);
 
+    @Message(id = 1131, value = "Ldap-backed realm direct verification with DN [%s] timed out after %d ms")
+    RealmUnavailableException ldapRealmBindVerificationTimedOut(String distinguishedName, long timeout);
+
+    @Message(id = 1142, value = "Ldap-backed realm direct verification with DN [%s] interrupted")
+    RealmUnavailableException ldapRealmBindVerificationInterrupted(String distinguishedName, @Cause Throwable cause);
+
+    @Message(id = 1144, value = "Ldap-backed realm direct verification rejected, the bind verification executor is closed")
+    RealmUnavailableException ldapRealmBindVerificationExecutorClosed();
+
     @LogMessage
     @Message(id = 1146, value = "LDAP Realm unable to register listener, defering action.")
     void ldapRealmDeferRegistration();
@@ -156,6 +180,9 @@ interface ElytronMessages extends BasicLogger {
     @Message(id = 1153, value = "Direct LDAP verification failed with DN [%s] and absolute DN [%s]")
     RealmUnavailableException directLdapVerificationFailed(String distinguishedName, String absoluteName, @Cause Exception e);
 
+    @Message(id = 1158, value = "Ldap-backed realm direct verification with DN [%s] failed")
+    RealmUnavailableException ldapRealmBindVerificationFailed(String distinguishedName, @Cause Throwable cause);
+
     @Message(id = 4025, value = "DirContext tries to connect without ThreadLocalSSLSocketFactory thread local setting")
     IllegalStateException threadLocalSslSocketFactoryThreadLocalNotSet();
 }
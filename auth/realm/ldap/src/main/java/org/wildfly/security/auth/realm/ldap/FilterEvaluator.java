@@ -0,0 +1,255 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapName;
+
+/**
+ * <p>A client side evaluation of the filter of a filtered {@link AttributeMapping}, telling which of the filter
+ * arguments combined into one search found each of the entries it returned.
+ *
+ * <p>Only equality and presence assertions, combined with {@code &} and {@code |}, are supported. An equality assertion
+ * matches a value equal to the asserted value, or a DN equal to the asserted DN; object class names are compared
+ * ignoring case. An entry is so never found to match arguments the server would not have returned it for, but may be
+ * found not to match arguments it was returned for if the server applies a more lenient matching rule.
+ */
+final class FilterEvaluator {
+
+    private static final String OBJECT_CLASS = "objectClass";
+
+    private final Node root;
+    private final Set<String> attributeIds;
+
+    private FilterEvaluator(Node root, Set<String> attributeIds) {
+        this.root = root;
+        this.attributeIds = attributeIds;
+    }
+
+    /**
+     * Parses the given filter.
+     *
+     * @param filter the filter, which may contain filter arguments as {@code {n}}
+     * @return the evaluator of the filter, or {@code null} if the filter is not supported
+     */
+    static FilterEvaluator parse(String filter) {
+        String trimmed = filter.trim();
+        Parser parser = new Parser(trimmed.startsWith("(") ? trimmed : "(" + trimmed + ")");
+        try {
+            Node root = parser.filter();
+            return parser.position == parser.filter.length() ? new FilterEvaluator(root, Collections.unmodifiableSet(parser.attributeIds)) : null;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the IDs of the attributes the filter asserts, which the evaluated entries have to be returned with.
+     *
+     * @return the IDs of the attributes
+     */
+    Set<String> getAttributeIds() {
+        return attributeIds;
+    }
+
+    /**
+     * Determines whether an entry matches the filter with the given arguments.
+     *
+     * @param attributes the attributes of the entry
+     * @param filterArgs the filter arguments
+     * @return {@code true} if the entry matches
+     * @throws NamingException if the values of the attributes cannot be obtained
+     */
+    boolean matches(Attributes attributes, String[] filterArgs) throws NamingException {
+        return root.matches(attributes, filterArgs);
+    }
+
+    private interface Node {
+
+        boolean matches(Attributes attributes, String[] filterArgs) throws NamingException;
+    }
+
+    private static final class Parser {
+
+        private final String filter;
+        private final Set<String> attributeIds = new HashSet<>();
+        private int position;
+
+        Parser(String filter) {
+            this.filter = filter;
+        }
+
+        Node filter() {
+            expect('(');
+            char c = filter.charAt(position);
+            Node node;
+            if (c == '&' || c == '|') {
+                position++;
+                List<Node> nodes = new ArrayList<>();
+                while (filter.charAt(position) == '(') {
+                    nodes.add(filter());
+                }
+                if (nodes.isEmpty()) {
+                    throw new IllegalArgumentException();
+                }
+                node = c == '&' ? and(nodes) : or(nodes);
+            } else {
+                // negations could match entries the server did not return, other assertions are not evaluated
+                node = item();
+            }
+            expect(')');
+            return node;
+        }
+
+        private Node item() {
+            int equals = filter.indexOf('=', position);
+            int end = filter.indexOf(')', position);
+            if (equals < 0 || end < equals) {
+                throw new IllegalArgumentException();
+            }
+            String attributeId = filter.substring(position, equals).trim();
+            if (attributeId.isEmpty() || ! attributeId.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '-' || c == '.' || c == ';')) {
+                throw new IllegalArgumentException();
+            }
+            attributeIds.add(attributeId);
+            String value = filter.substring(equals + 1, end);
+            position = end;
+            if (value.equals("*")) {
+                return (attributes, filterArgs) -> {
+                    Attribute attribute = attributes.get(attributeId);
+                    return attribute != null && attribute.size() > 0;
+                };
+            }
+
+            List<Object> parts = value(value);
+            boolean ignoreCase = attributeId.equalsIgnoreCase(OBJECT_CLASS);
+            return (attributes, filterArgs) -> {
+                Attribute attribute = attributes.get(attributeId);
+                if (attribute == null) {
+                    return false;
+                }
+                StringBuilder asserted = new StringBuilder();
+                for (Object part : parts) {
+                    asserted.append(part instanceof Integer ? filterArgs[(Integer) part] : part);
+                }
+                NamingEnumeration<?> values = attribute.getAll();
+                try {
+                    while (values.hasMore()) {
+                        Object attributeValue = values.next();
+                        if (attributeValue instanceof String && equal((String) attributeValue, asserted.toString(), ignoreCase)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                } finally {
+                    values.close();
+                }
+            };
+        }
+
+        /**
+         * Splits an asserted value into its literal parts and the indexes of its filter arguments.
+         */
+        private List<Object> value(String value) {
+            List<Object> parts = new ArrayList<>();
+            ByteArrayOutputStream literal = new ByteArrayOutputStream();
+            int i = 0;
+            while (i < value.length()) {
+                char c = value.charAt(i);
+                if (c == '*' || c == '(') {
+                    throw new IllegalArgumentException();
+                } else if (c == '\\') {
+                    literal.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                    i += 3;
+                } else if (c == '{') {
+                    int close = value.indexOf('}', i);
+                    if (literal.size() > 0) {
+                        parts.add(new String(literal.toByteArray(), StandardCharsets.UTF_8));
+                        literal.reset();
+                    }
+                    parts.add(Integer.valueOf(value.substring(i + 1, close)));
+                    i = close + 1;
+                } else {
+                    byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                    literal.write(bytes, 0, bytes.length);
+                    i++;
+                }
+            }
+            if (literal.size() > 0) {
+                parts.add(new String(literal.toByteArray(), StandardCharsets.UTF_8));
+            }
+            return parts;
+        }
+
+        private void expect(char c) {
+            if (filter.charAt(position++) != c) {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    private static Node and(List<Node> nodes) {
+        return (attributes, filterArgs) -> {
+            for (Node node : nodes) {
+                if (! node.matches(attributes, filterArgs)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static Node or(List<Node> nodes) {
+        return (attributes, filterArgs) -> {
+            for (Node node : nodes) {
+                if (node.matches(attributes, filterArgs)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private static boolean equal(String value, String asserted, boolean ignoreCase) {
+        if (ignoreCase ? value.equalsIgnoreCase(asserted) : value.equals(asserted)) {
+            return true;
+        }
+        if (asserted.indexOf('=') < 0) {
+            return false;
+        }
+        try {
+            return new LdapName(value).equals(new LdapName(asserted));
+        } catch (InvalidNameException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.security.auth.realm.ldap.ElytronMessages.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.naming.InvalidNameException;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+
+import org.wildfly.security.auth.server._private.CacheEviction;
+
+/**
+ * <p>A cache of the entries found while resolving the group (or role) entries referenced by filtered and referenced
+ * {@link AttributeMapping attribute mappings}, shared by all the identities of an {@link LdapSecurityRealm}.
+ *
+ * <p>Entries are cached by the DN of the entry being resolved and the mapping it was resolved for: for a referenced
+ * mapping, the entry found at that DN; for a filtered mapping, the entries the filter found for it. Entries expire
+ * after a maximum age and the number of entries is bounded, entries being evicted in no particular order once the
+ * bound is reached.
+ */
+final class GroupEntryCache {
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>(16);
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final int maxEntries;
+    private final long maxAge;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     * @param maxAge the time in milliseconds that an entry is kept, must be greater than {@code 0}
+     */
+    GroupEntryCache(int maxEntries, long maxAge) {
+        checkMinimumParameter("maxEntries", 1, maxEntries);
+        checkMinimumParameter("maxAge", 1, maxAge);
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Gets the entries found while resolving the entry with the given DN for the given mapping.
+     *
+     * @param mapping the mapping the entry is resolved for
+     * @param dn the DN of the entry being resolved
+     * @return the entries found, or {@code null} if they are not cached or have expired
+     */
+    List<SearchResult> get(AttributeMapping mapping, String dn) {
+        Key key = key(mapping, dn);
+        Entry entry = key != null ? entries.get(key) : null;
+
+        if (entry != null) {
+            if (System.currentTimeMillis() <= entry.expiration) {
+                hits.increment();
+                return entry.found;
+            }
+            entries.remove(key, entry);
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the entries found while resolving the entry with the given DN for the given mapping.
+     *
+     * @param mapping the mapping the entry was resolved for
+     * @param searchDn the DN of the context the entries were searched in, or {@code null} if the entry was resolved
+     *                 by looking up its DN
+     * @param dn the DN of the entry resolved
+     * @param found the entries found
+     */
+    void put(AttributeMapping mapping, String searchDn, String dn, List<SearchResult> found) {
+        Key key = key(mapping, dn);
+        LdapName searchName = searchDn != null ? name(searchDn) : null;
+        if (key == null || (searchDn != null && searchName == null)) {
+            return;
+        }
+
+        Entry entry = new Entry(searchName, Collections.unmodifiableList(new ArrayList<>(found)), System.currentTimeMillis() + maxAge);
+        if (entries.put(key, entry) == null && entries.size() > maxEntries) {
+            CacheEviction.evict(entries, maxEntries, cached -> cached.expiration, evictionLock);
+        }
+    }
+
+    /**
+     * Removes the entries which may no longer be accurate after the entry with the given DN changed: the entry itself
+     * and the entries found by searching the context containing it.
+     *
+     * @param dn the DN of the entry which changed
+     */
+    void invalidate(LdapName dn) {
+        entries.entrySet().removeIf(e -> e.getKey().dn.equals(dn) || (e.getValue().searchDn != null && dn.startsWith(e.getValue().searchDn)));
+    }
+
+    /**
+     * Removes all entries from this cache.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the current number of entries, some of which may have expired but not been removed yet.
+     *
+     * @return the current number of entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of entries resolved from the cache.
+     *
+     * @return the number of hits
+     */
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of entries which had to be resolved by the server.
+     *
+     * @return the number of misses
+     */
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    private static Key key(AttributeMapping mapping, String dn) {
+        LdapName name = name(dn);
+        return name != null ? new Key(mapping, name) : null;
+    }
+
+    private static LdapName name(String dn) {
+        try {
+            return new LdapName(dn);
+        } catch (InvalidNameException e) {
+            log.tracef(e, "Not caching entry with invalid DN [%s]", dn);
+            return null;
+        }
+    }
+
+    private static final class Key {
+
+        final AttributeMapping mapping;
+        final LdapName dn;
+
+        Key(AttributeMapping mapping, LdapName dn) {
+            this.mapping = mapping;
+            this.dn = dn;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (! (obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mapping == other.mapping && dn.equals(other.dn);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mapping) * 31 + dn.hashCode();
+        }
+    }
+
+    private static final class Entry {
+
+        final LdapName searchDn;
+        final List<SearchResult> found;
+        final long expiration;
+
+        Entry(LdapName searchDn, List<SearchResult> found, long expiration) {
+            this.searchDn = searchDn;
+            this.found = found;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -0,0 +1,636 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.wildfly.security.asn1.ASN1.OCTET_STRING_TYPE;
+import static org.wildfly.security.auth.realm.ldap.ElytronMessages.log;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import org.wildfly.common.function.ExceptionSupplier;
+import org.wildfly.security.asn1.ASN1Exception;
+import org.wildfly.security.asn1.DERDecoder;
+import org.wildfly.security.asn1.DEREncoder;
+
+/**
+ * <p>An in-memory replica of the identity entries of an {@link LdapSecurityRealm}, allowing identities to be looked up
+ * without contacting the server.
+ *
+ * <p>The replica is loaded by a search of the identity search DN and then kept up to date by a daemon thread. If the
+ * server supports the LDAP Content Synchronization operation (RFC 4533), the thread follows the changes since the
+ * load in the refreshAndPersist mode, otherwise it reloads the replica every refresh interval. The replica is also
+ * reloaded after the persistent search ends or fails.
+ *
+ * <p>Identities are looked up by the value of their RDN identifier attribute, as by the default identity filter. An
+ * identity the realm itself is modifying is not looked up in the replica, by name or by DN, from before the write
+ * until its change has been replicated.
+ * An identity missing from the replica is only known not to exist while the changes are followed, as it may have been
+ * created since the last reload otherwise.
+ */
+final class IdentityReplica {
+
+    static final String SYNC_REQUEST_OID = "1.3.6.1.4.1.4203.1.9.1.1";
+    static final String SYNC_STATE_OID = "1.3.6.1.4.1.4203.1.9.1.2";
+    static final String SYNC_DONE_OID = "1.3.6.1.4.1.4203.1.9.1.3";
+
+    static final int MODE_REFRESH_ONLY = 1;
+    static final int MODE_REFRESH_AND_PERSIST = 3;
+
+    static final int STATE_PRESENT = 0;
+    static final int STATE_ADD = 1;
+    static final int STATE_MODIFY = 2;
+    static final int STATE_DELETE = 3;
+
+    private static final int UNIVERSAL_CLASS = 0x00;
+    private static final int ENUMERATED_TYPE = 10;
+    private static final String ENV_BINARY_ATTRIBUTES = "java.naming.ldap.attributes.binary";
+    private static final String ENTRY_UUID = "entryUUID";
+    private static final String ALL_ENTRIES = "(objectClass=*)";
+
+    private final ExceptionSupplier<DirContext, NamingException> dirContextSupplier;
+    private final String searchDn;
+    private final int searchScope;
+    private final String nameAttribute;
+    private final String[] returningAttributes;
+    private final String binaryAttributes;
+    private final int pageSize;
+    private final long refreshInterval;
+    private final Thread thread;
+
+    private final ConcurrentHashMap<String, Modification> modifiedNames = new ConcurrentHashMap<>();
+    private volatile Content content;
+    private volatile boolean following;
+    private volatile boolean closed;
+    private volatile DirContext context;
+    private volatile NamingEnumeration<SearchResult> changes;
+
+    /**
+     * Creates a new instance, the replica is not loaded until it is {@link #start() started}.
+     *
+     * @param dirContextSupplier the supplier of the contexts used to search the identities
+     * @param searchDn the DN of the context containing the identities
+     * @param searchRecursive whether the identities are searched in the whole subtree of the search DN
+     * @param nameAttribute the attribute containing the names of the identities
+     * @param requiredAttributes the attributes to replicate in addition to all the user attributes
+     * @param binaryAttributes the attributes to replicate in binary form
+     * @param pageSize the size of the pages the replica is loaded in if content synchronization is not supported
+     * @param refreshInterval the time in milliseconds between reloads if content synchronization is not supported
+     */
+    IdentityReplica(ExceptionSupplier<DirContext, NamingException> dirContextSupplier, String searchDn, boolean searchRecursive, String nameAttribute,
+                    Collection<String> requiredAttributes, Collection<String> binaryAttributes, int pageSize, long refreshInterval) {
+        this.dirContextSupplier = dirContextSupplier;
+        this.searchDn = searchDn;
+        this.searchScope = searchRecursive ? SearchControls.SUBTREE_SCOPE : SearchControls.ONELEVEL_SCOPE;
+        this.nameAttribute = nameAttribute;
+        List<String> returning = new ArrayList<>(requiredAttributes);
+        returning.add("*");
+        returning.add(ENTRY_UUID);
+        this.returningAttributes = returning.toArray(new String[returning.size()]);
+        this.binaryAttributes = binaryAttributes.isEmpty() ? null : String.join(" ", binaryAttributes);
+        this.pageSize = pageSize;
+        this.refreshInterval = refreshInterval;
+        this.thread = new Thread(this::run, "LdapSecurityRealm identity replica " + searchDn);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts loading the replica and keeping it up to date.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops keeping the replica up to date, identities are no longer looked up in it. The persistent search the
+     * replicating thread may be blocked reading is abandoned and its context closed, so that the thread ends.
+     */
+    void close() {
+        closed = true;
+        content = null;
+        thread.interrupt();
+        NamingEnumeration<SearchResult> changes = this.changes;
+        if (changes != null) {
+            try {
+                changes.close();
+            } catch (NamingException e) {
+                log.trace("Unable to abandon persistent search", e);
+            }
+        }
+        closeContext(this.context);
+    }
+
+    /**
+     * Determines whether the identity with the given name can be looked up in the replica: the replica is loaded,
+     * the identity was not modified by the realm since, and the identity is replicated or the changes are followed.
+     *
+     * @param name the name of the identity
+     * @return {@code true} if the result of {@link #get(String)} reflects the server
+     */
+    boolean isAuthoritative(String name) {
+        Content content = this.content;
+        String key = key(name);
+        return content != null && ! modifiedNames.containsKey(key) && (following || content.names.containsKey(key));
+    }
+
+    /**
+     * Gets the entry of the identity with the given name.
+     *
+     * @param name the name of the identity
+     * @return a copy of the replicated entry, or {@code null} if there is no such identity
+     */
+    SearchResult get(String name) {
+        Content content = this.content;
+        LdapName dn = content != null ? content.names.get(key(name)) : null;
+        return dn != null ? content.copy(dn) : null;
+    }
+
+    /**
+     * Gets the entry with the given DN, if it is replicated and none of its names is being modified by the realm.
+     *
+     * @param dn the DN of the entry
+     * @return a copy of the replicated entry, or {@code null} if the entry is not replicated or is being modified
+     */
+    SearchResult getByDn(String dn) {
+        Content content = this.content;
+        if (content == null) {
+            return null;
+        }
+        SearchResult result;
+        try {
+            result = content.copy(new LdapName(dn));
+        } catch (InvalidNameException e) {
+            return null;
+        }
+        if (result != null) {
+            for (String name : content.names(result.getAttributes())) {
+                if (modifiedNames.containsKey(name)) {
+                    return null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records that the realm is about to modify the identity with the given name, so that it is looked up on the
+     * server from now on. The returned modification is to be passed to {@link #modified(String, Modification)} or
+     * {@link #removed(String, Modification)} once the write is done, whether it succeeded or not.
+     *
+     * @param name the name of the identity
+     * @return the modification
+     */
+    Modification modifying(String name) {
+        Modification modification = new Modification();
+        modifiedNames.put(key(name), modification);
+        return modification;
+    }
+
+    /**
+     * Records that the realm is done modifying the identity with the given name, which is looked up on the server until
+     * the modification is replicated. The entry of the identity is read back from the server, the modification being
+     * replicated once the replica holds the same entry; changes queued before the modification do not end it.
+     *
+     * @param name the name of the identity
+     * @param modification the modification returned by {@link #modifying(String)}
+     */
+    void modified(String name, Modification modification) {
+        modification.written();
+
+        DirContext context = null;
+        try {
+            context = dirContextSupplier.get();
+            NamingEnumeration<SearchResult> results = search(context, "(" + nameAttribute + "={0})", new Object[] { name }, null);
+            try {
+                modification.entry = results.hasMore() ? results.next().getAttributes() : null;
+                modification.read = true;
+            } finally {
+                results.close();
+            }
+        } catch (NamingException | RuntimeException e) {
+            // the identity is looked up on the server until the next reload
+            log.debugf(e, "Reading modified identity [%s] failed", name);
+        } finally {
+            closeContext(context);
+        }
+
+        checkReplicated(key(name));
+    }
+
+    /**
+     * Records that the realm is done modifying the identity with the given name, which no longer has it as it was
+     * renamed or deleted. The modification is replicated once the replica holds no entry with the name.
+     *
+     * @param name the former name of the identity
+     * @param modification the modification returned by {@link #modifying(String)}
+     */
+    void removed(String name, Modification modification) {
+        modification.written();
+        modification.entry = null;
+        modification.read = true;
+
+        checkReplicated(key(name));
+    }
+
+    private void checkReplicated(String key) {
+        Content content = this.content;
+        if (content != null) {
+            // the modification may have been replicated while it was written or read
+            LdapName dn = content.names.get(key);
+            modifiedNames.computeIfPresent(key, (k, m) -> m.replicated(dn != null ? content.entries.get(dn) : null) ? null : m);
+        }
+    }
+
+    /**
+     * Gets the number of replicated entries.
+     *
+     * @return the number of replicated entries, {@code 0} if the replica is not loaded
+     */
+    int size() {
+        Content content = this.content;
+        return content != null ? content.entries.size() : 0;
+    }
+
+    private void run() {
+        while (! closed) {
+            DirContext context = null;
+            try {
+                context = dirContextSupplier.get();
+                this.context = context;
+                if (closed) {
+                    break;
+                }
+                byte[] cookie = load(context);
+                if (cookie != null && ! closed) {
+                    persist((LdapContext) context, cookie);
+                }
+            } catch (NamingException | IOException | RuntimeException e) {
+                if (! closed) {
+                    log.debugf(e, "Replicating identities of [%s] failed", searchDn);
+                }
+            } finally {
+                this.context = null;
+                closeContext(context);
+            }
+
+            try {
+                Thread.sleep(refreshInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Loads all the identity entries, replacing the current content of the replica.
+     *
+     * @return the cookie to follow the changes since the load with, or {@code null} if content synchronization is not supported
+     */
+    byte[] load(DirContext context) throws NamingException, IOException {
+        long started = System.nanoTime();
+        Content loaded = new Content();
+        byte[] cookie = null;
+
+        if (context instanceof LdapContext && supportsContentSynchronization(context)) {
+            LdapContext ldapContext = (LdapContext) context;
+            NamingEnumeration<SearchResult> results = search(ldapContext, ALL_ENTRIES, null, new BasicControl(SYNC_REQUEST_OID, true, encodeSyncRequest(MODE_REFRESH_ONLY, null)));
+            try {
+                while (results.hasMore()) {
+                    loaded.apply(results.next());
+                }
+            } finally {
+                results.close();
+            }
+            cookie = decodeSyncDoneCookie(ldapContext.getResponseControls());
+        } else {
+            byte[] pageCookie = null;
+            do {
+                Control control = context instanceof LdapContext ? new PagedResultsControl(pageSize, pageCookie, Control.NONCRITICAL) : null;
+                NamingEnumeration<SearchResult> results = search(context, ALL_ENTRIES, null, control);
+                try {
+                    while (results.hasMore()) {
+                        loaded.apply(results.next());
+                    }
+                } finally {
+                    results.close();
+                }
+                pageCookie = control != null ? decodePageCookie(((LdapContext) context).getResponseControls()) : null;
+            } while (pageCookie != null && pageCookie.length != 0);
+        }
+
+        content = loaded;
+        // the load reflects any modification written before it started
+        modifiedNames.values().removeIf(modification -> modification.writtenBefore(started));
+        log.debugf("Loaded %d identities of [%s] into the replica", loaded.entries.size(), searchDn);
+        return cookie;
+    }
+
+    /**
+     * Follows the changes since the given cookie until the search ends, the replica is closed or the thread is interrupted.
+     */
+    void persist(LdapContext context, byte[] cookie) throws NamingException {
+        NamingEnumeration<SearchResult> results = search(context, ALL_ENTRIES, null, new BasicControl(SYNC_REQUEST_OID, true, encodeSyncRequest(MODE_REFRESH_AND_PERSIST, cookie)));
+        changes = results;
+        following = true;
+        try {
+            while (! closed && results.hasMore()) {
+                Content content = this.content;
+                if (content != null) {
+                    content.apply(results.next());
+                }
+            }
+        } finally {
+            following = false;
+            changes = null;
+            results.close();
+        }
+    }
+
+    private NamingEnumeration<SearchResult> search(DirContext context, String filter, Object[] filterArgs, Control control) throws NamingException {
+        SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(searchScope);
+        searchControls.setReturningAttributes(returningAttributes);
+
+        Control[] controlsBackup = null;
+        Object binaryAttributesBackup = null;
+        if (control != null) {
+            controlsBackup = ((LdapContext) context).getRequestControls();
+            ((LdapContext) context).setRequestControls(new Control[] { control });
+        }
+        if (binaryAttributes != null) {
+            binaryAttributesBackup = context.getEnvironment().get(ENV_BINARY_ATTRIBUTES);
+            context.addToEnvironment(ENV_BINARY_ATTRIBUTES, binaryAttributes);
+        }
+        try {
+            return context.search(new LdapName(searchDn), filter, filterArgs, searchControls);
+        } finally {
+            if (binaryAttributes != null) {
+                if (binaryAttributesBackup == null) {
+                    context.removeFromEnvironment(ENV_BINARY_ATTRIBUTES);
+                } else {
+                    context.addToEnvironment(ENV_BINARY_ATTRIBUTES, binaryAttributesBackup);
+                }
+            }
+            if (control != null) {
+                ((LdapContext) context).setRequestControls(controlsBackup);
+            }
+        }
+    }
+
+    private static boolean supportsContentSynchronization(DirContext context) throws NamingException {
+        Attribute supportedControls = context.getAttributes("", new String[] { "supportedControl" }).get("supportedControl");
+        return supportedControls != null && supportedControls.contains(SYNC_REQUEST_OID);
+    }
+
+    private static byte[] decodePageCookie(Control[] controls) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    return ((PagedResultsResponseControl) control).getCookie();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encodes the value of the Sync Request Control: {@code SEQUENCE { mode ENUMERATED, cookie OCTET STRING OPTIONAL }}.
+     */
+    static byte[] encodeSyncRequest(int mode, byte[] cookie) {
+        DEREncoder encoder = new DEREncoder();
+        encoder.startSequence();
+        encoder.encodeImplicit(UNIVERSAL_CLASS, ENUMERATED_TYPE);
+        encoder.encodeInteger(BigInteger.valueOf(mode));
+        if (cookie != null) {
+            encoder.encodeOctetString(cookie);
+        }
+        encoder.endSequence();
+        return encoder.getEncoded();
+    }
+
+    /**
+     * Decodes the cookie of the Sync Done Control: {@code SEQUENCE { cookie OCTET STRING OPTIONAL, refreshDeletes BOOLEAN DEFAULT FALSE }}.
+     */
+    static byte[] decodeSyncDoneCookie(Control[] controls) {
+        Control control = findControl(controls, SYNC_DONE_OID);
+        if (control == null) {
+            return null;
+        }
+        try {
+            DERDecoder decoder = new DERDecoder(control.getEncodedValue());
+            decoder.startSequence();
+            return decoder.isNextType(UNIVERSAL_CLASS, OCTET_STRING_TYPE, false) ? decoder.decodeOctetString() : null;
+        } catch (ASN1Exception e) {
+            log.debugf(e, "Invalid Sync Done Control");
+            return null;
+        }
+    }
+
+    /**
+     * Decodes an {@code ENUMERATED} element, which {@link DERDecoder#decodeInteger()} does not accept even if implicitly tagged.
+     */
+    static int decodeEnumerated(DERDecoder decoder) throws ASN1Exception {
+        if (! decoder.isNextType(UNIVERSAL_CLASS, ENUMERATED_TYPE, false)) {
+            throw new ASN1Exception("Expected ENUMERATED");
+        }
+        return new BigInteger(decoder.drainElementValue()).intValue();
+    }
+
+    private static Control findControl(Control[] controls, String oid) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (oid.equals(control.getID())) {
+                    return control;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void closeContext(DirContext context) {
+        if (context != null) {
+            try {
+                context.close();
+            } catch (NamingException e) {
+                log.trace("Unable to close context", e);
+            }
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The replicated entries, indexed by DN, name and entry UUID. Only modified by the replicating thread.
+     */
+    private final class Content {
+
+        private final ConcurrentHashMap<LdapName, Attributes> entries = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, LdapName> names = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, LdapName> uuids = new ConcurrentHashMap<>();
+
+        SearchResult copy(LdapName dn) {
+            Attributes attributes = entries.get(dn);
+            if (attributes == null) {
+                return null;
+            }
+            SearchResult result = new SearchResult(dn.toString(), null, (Attributes) attributes.clone());
+            result.setNameInNamespace(dn.toString());
+            return result;
+        }
+
+        /**
+         * Applies an entry returned by a search, according to its Sync State Control if any:
+         * {@code SEQUENCE { state ENUMERATED, entryUUID OCTET STRING, cookie OCTET STRING OPTIONAL }}.
+         */
+        void apply(SearchResult result) throws NamingException {
+            LdapName dn = new LdapName(result.getNameInNamespace());
+            int state = STATE_ADD;
+            String uuid = null;
+
+            Control control = result instanceof HasControls ? findControl(((HasControls) result).getControls(), SYNC_STATE_OID) : null;
+            if (control != null) {
+                try {
+                    DERDecoder decoder = new DERDecoder(control.getEncodedValue());
+                    decoder.startSequence();
+                    state = decodeEnumerated(decoder);
+                    ByteBuffer uuidBytes = ByteBuffer.wrap(decoder.decodeOctetString());
+                    uuid = new UUID(uuidBytes.getLong(), uuidBytes.getLong()).toString();
+                } catch (RuntimeException e) {
+                    log.debugf(e, "Invalid Sync State Control of entry [%s], reloading it", dn);
+                }
+            }
+
+            if (state == STATE_DELETE) {
+                remove(uuid != null ? uuids.getOrDefault(uuid, dn) : dn);
+            } else if (state != STATE_PRESENT || ! entries.containsKey(dn)) {
+                put(dn, uuid, result.getAttributes());
+            }
+        }
+
+        private void put(LdapName dn, String uuid, Attributes attributes) {
+            if (uuid != null) {
+                LdapName previousDn = uuids.put(uuid, dn);
+                if (previousDn != null && ! previousDn.equals(dn)) { // renamed
+                    remove(previousDn);
+                    uuids.put(uuid, dn);
+                }
+            }
+            // the new entry is visible before the names it no longer has are removed
+            Attributes previous = entries.put(dn, attributes);
+            List<String> names = names(attributes);
+            for (String name : names) {
+                this.names.put(name, dn);
+                modifiedNames.computeIfPresent(name, (key, modification) -> modification.replicated(attributes) ? null : modification);
+            }
+            if (previous != null) {
+                for (String name : names(previous)) {
+                    if (! names.contains(name)) {
+                        removeName(name, dn);
+                    }
+                }
+            }
+        }
+
+        private void remove(LdapName dn) {
+            Attributes previous = entries.remove(dn);
+            if (previous != null) {
+                for (String name : names(previous)) {
+                    removeName(name, dn);
+                }
+            }
+            uuids.values().remove(dn);
+        }
+
+        private void removeName(String name, LdapName dn) {
+            names.remove(name, dn);
+            if (! names.containsKey(name)) {
+                modifiedNames.computeIfPresent(name, (key, modification) -> modification.replicated(null) ? null : modification);
+            }
+        }
+
+        private List<String> names(Attributes attributes) {
+            Attribute attribute = attributes.get(nameAttribute);
+            if (attribute == null) {
+                return Collections.emptyList();
+            }
+            List<String> names = new ArrayList<>(attribute.size());
+            try {
+                NamingEnumeration<?> values = attribute.getAll();
+                while (values.hasMore()) {
+                    names.add(key(values.next().toString()));
+                }
+            } catch (NamingException e) {
+                log.trace("Unable to read names of entry", e);
+            }
+            return names;
+        }
+    }
+
+    /**
+     * A modification of an identity made by the realm, replicated once the replica holds the entry read from the
+     * server after it, or no entry if the identity no longer existed.
+     */
+    static final class Modification {
+
+        private volatile long time;
+        private volatile boolean written;
+        volatile boolean read;
+        volatile Attributes entry;
+
+        void written() {
+            time = System.nanoTime();
+            written = true;
+        }
+
+        boolean writtenBefore(long started) {
+            return written && time - started < 0;
+        }
+
+        boolean replicated(Attributes replicated) {
+            return read && (entry == null ? replicated == null : entry.equals(replicated));
+        }
+    }
+}
@@ -28,8 +28,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -38,11 +40,16 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -56,6 +63,7 @@ import javax.naming.ReferralException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
@@ -76,7 +84,7 @@ import org.wildfly.common.Assert;
 import org.wildfly.common.function.ExceptionSupplier;
 import org.wildfly.security.auth.principal.NamePrincipal;
 import org.wildfly.security.auth.realm.CacheableSecurityRealm;
-import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock;
+import org.wildfly.security.auth.realm.IdentityLockManager;
 import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
 import org.wildfly.security.auth.server.ModifiableRealmIdentityIterator;
 import org.wildfly.security.auth.server.ModifiableRealmIdentity;
@@ -98,23 +106,29 @@ import org.wildfly.security.evidence.Evidence;
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  * @author <a href="mailto:jkalina@redhat.com">Jan Kalina</a>
  */
-class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRealm {
+class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRealm, AutoCloseable {
 
     private final String ENV_BINARY_ATTRIBUTES = "java.naming.ldap.attributes.binary";
+    private static final Pattern FILTER_ARG_PATTERN = Pattern.compile("\\{(\\d+)\\}");
 
     private final Supplier<Provider[]> providers;
     private final ExceptionSupplier<DirContext, NamingException> dirContextSupplier;
     private final NameRewriter nameRewriter;
     private final IdentityMapping identityMapping;
     private final int pageSize;
+    private final int roleRecursionBatchSize;
+    private final Executor roleRecursionExecutor;
+    private final GroupEntryCache groupEntryCache;
+    private final IdentityReplica identityReplica;
 
     private final List<CredentialLoader> credentialLoaders;
     private final List<CredentialPersister> credentialPersisters;
     private final List<EvidenceVerifier> evidenceVerifiers;
 
-    private final ConcurrentHashMap<String, IdentitySharedExclusiveLock> realmIdentityLocks = new ConcurrentHashMap<>();
+    private final IdentityLockManager realmIdentityLocks = new IdentityLockManager();
 
     private Set<Consumer<Principal>> listenersPendingRegistration = new LinkedHashSet<Consumer<Principal>>();
+    private boolean groupEntryCacheListenerPending;
 
     LdapSecurityRealm(final Supplier<Provider[]> providers,
                       final ExceptionSupplier<DirContext, NamingException> dirContextSupplier,
@@ -123,17 +137,59 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
                       final List<CredentialLoader> credentialLoaders,
                       final List<CredentialPersister> credentialPersisters,
                       final List<EvidenceVerifier> evidenceVerifiers,
-                      final int pageSize) {
+                      final int pageSize,
+                      final int roleRecursionBatchSize,
+                      final Executor roleRecursionExecutor,
+                      final GroupEntryCache groupEntryCache,
+                      final long identityReplicaRefreshInterval) {
 
         this.providers = providers;
         this.dirContextSupplier = dirContextSupplier;
         this.nameRewriter = nameRewriter;
         this.identityMapping = identityMapping;
         this.pageSize = pageSize;
+        this.roleRecursionBatchSize = roleRecursionBatchSize;
+        this.roleRecursionExecutor = roleRecursionExecutor;
+        this.groupEntryCache = groupEntryCache;
+        this.groupEntryCacheListenerPending = groupEntryCache != null;
 
         this.credentialLoaders = credentialLoaders;
         this.credentialPersisters = credentialPersisters;
         this.evidenceVerifiers = evidenceVerifiers;
+
+        this.identityReplica = identityReplicaRefreshInterval > 0 ? createIdentityReplica(identityReplicaRefreshInterval) : null;
+        if (identityReplica != null) {
+            identityReplica.start();
+        }
+    }
+
+    private IdentityReplica createIdentityReplica(long refreshInterval) {
+        if (identityMapping.searchDn == null || ! String.format("(%s={0})", identityMapping.rdnIdentifier).equals(identityMapping.filterName)) {
+            throw log.ldapRealmIdentityReplicaNotSupported();
+        }
+
+        Set<String> requiredAttributes = new HashSet<>();
+        Set<String> binaryAttributes = new HashSet<>();
+        for (AttributeMapping mapping : identityMapping.attributes) {
+            if (mapping.getIdentityLdapName() != null) {
+                requiredAttributes.add(mapping.getIdentityLdapName());
+            }
+        }
+        for (CredentialLoader loader : credentialLoaders) {
+            loader.addRequiredIdentityAttributes(requiredAttributes);
+            loader.addBinaryIdentityAttributes(binaryAttributes);
+        }
+        for (CredentialPersister persister : credentialPersisters) {
+            persister.addRequiredIdentityAttributes(requiredAttributes);
+            persister.addBinaryIdentityAttributes(binaryAttributes);
+        }
+        for (EvidenceVerifier verifier : evidenceVerifiers) {
+            verifier.addRequiredIdentityAttributes(requiredAttributes);
+            verifier.addBinaryIdentityAttributes(binaryAttributes);
+        }
+
+        return new IdentityReplica(dirContextSupplier, identityMapping.searchDn, identityMapping.searchRecursive, identityMapping.rdnIdentifier,
+                requiredAttributes, binaryAttributes, pageSize, refreshInterval);
     }
 
     @Override
@@ -172,7 +228,37 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
 
     private void registerIdentityChangeListener(final DirContext dirContext, final Consumer<Principal> listener) throws NamingException {
         EventContext eventContext = (EventContext) dirContext.lookup("");
-        eventContext.addNamingListener("", EventContext.SUBTREE_SCOPE, new ServerNotificationListener(listener));
+        eventContext.addNamingListener("", EventContext.SUBTREE_SCOPE, new ServerNotificationListener(ldapName -> ldapName.getRdns().stream()
+                .filter(rdn -> rdn.getType().equals(identityMapping.rdnIdentifier))
+                .map(rdn -> new NamePrincipal(rdn.getValue().toString()))
+                .findFirst()
+                .ifPresent(listener)));
+    }
+
+    private void registerGroupEntryCacheListener(final DirContext dirContext) throws NamingException {
+        Object context = dirContext.lookup("");
+        if (! (context instanceof EventContext)) {
+            log.debugf("Context [%s] does not support naming events, cached group entries will only expire", context);
+            return;
+        }
+        EventContext eventContext = (EventContext) context;
+        // names of the changed entries are relative to the event context
+        LdapName contextName = new LdapName(eventContext.getNameInNamespace());
+        eventContext.addNamingListener("", EventContext.SUBTREE_SCOPE, new ServerNotificationListener(ldapName -> {
+            LdapName dn = (LdapName) contextName.clone();
+            dn.addAll(ldapName.getRdns());
+            groupEntryCache.invalidate(dn);
+        }) {
+            @Override
+            public void namingExceptionThrown(NamingExceptionEvent evt) {
+                // the listener was deregistered, changes would go unnoticed until it is registered again
+                log.debug("Group entry cache listener failed, clearing the cache", evt.getException());
+                groupEntryCache.clear();
+                synchronized (listenersPendingRegistration) {
+                    groupEntryCacheListenerPending = true;
+                }
+            }
+        });
     }
 
     private ModifiableRealmIdentity getRealmIdentity(final Principal principal, final boolean exclusive) {
@@ -186,12 +272,11 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
 
         // Acquire the appropriate lock for the realm identity
         log.debugf("Obtaining lock for identity [%s]...", name);
-        IdentitySharedExclusiveLock realmIdentityLock = getRealmIdentityLockForName(name);
         IdentityLock lock;
         if (exclusive) {
-            lock = realmIdentityLock.lockExclusive();
+            lock = realmIdentityLocks.lockExclusive(name);
         } else {
-            lock = realmIdentityLock.lockShared();
+            lock = realmIdentityLocks.lockShared(name);
         }
         log.debugf("Obtained lock for identity [%s].", name);
         return new LdapRealmIdentity(name, lock);
@@ -208,6 +293,10 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
                     registerIdentityChangeListener(ctx, it.next());
                     it.remove();
                 }
+                if (groupEntryCacheListenerPending) {
+                    registerGroupEntryCacheListener(ctx);
+                    groupEntryCacheListenerPending = false;
+                }
                 return ctx;
             }
         } catch (NamingException e) {
@@ -215,6 +304,17 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
         }
     }
 
+    /**
+     * Stop keeping the identity replica up to date if any, ending its replicating thread. The realm remains usable,
+     * identities being searched on the server.
+     */
+    @Override
+    public void close() {
+        if (identityReplica != null) {
+            identityReplica.close();
+        }
+    }
+
     private void closeContext(DirContext dirContext) {
         try {
             dirContext.close();
@@ -223,6 +323,36 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
         }
     }
 
+    /**
+     * Combines the given number of copies of a filter into a single filter matching the entries any of them would
+     * match. The arguments of each copy are renumbered to follow those of the previous copy, so that the arguments of
+     * all the copies can be passed to the combined filter one after another.
+     *
+     * @param filter the filter, which may reference its arguments as <em>{0}</em> to <em>{argsPerFilter - 1}</em>
+     * @param count the number of copies to combine
+     * @param argsPerFilter the number of arguments of each copy
+     * @return the combined filter
+     */
+    static String combineFilters(String filter, int count, int argsPerFilter) {
+        Matcher matcher = FILTER_ARG_PATTERN.matcher(filter);
+        StringBuilder combined = new StringBuilder("(|");
+        for (int i = 0; i < count; i++) {
+            int offset = i * argsPerFilter;
+            matcher.reset();
+            StringBuffer renumbered = new StringBuffer();
+            while (matcher.find()) {
+                matcher.appendReplacement(renumbered, "{" + (offset + Integer.parseInt(matcher.group(1))) + "}");
+            }
+            matcher.appendTail(renumbered);
+            if (renumbered.charAt(0) == '(') {
+                combined.append(renumbered);
+            } else {
+                combined.append('(').append(renumbered).append(')');
+            }
+        }
+        return combined.append(')').toString();
+    }
+
     @Override
     public ModifiableRealmIdentityIterator getRealmIdentityIterator() throws RealmUnavailableException {
         if (identityMapping.iteratorFilter == null) {
@@ -302,18 +432,6 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
         return response;
     }
 
-    private IdentitySharedExclusiveLock getRealmIdentityLockForName(final String name) {
-        IdentitySharedExclusiveLock realmIdentityLock = realmIdentityLocks.get(name);
-        if (realmIdentityLock == null) {
-            final IdentitySharedExclusiveLock newRealmIdentityLock = new IdentitySharedExclusiveLock();
-            realmIdentityLock = realmIdentityLocks.putIfAbsent(name, newRealmIdentityLock);
-            if (realmIdentityLock == null) {
-                realmIdentityLock = newRealmIdentityLock;
-            }
-        }
-        return realmIdentityLock;
-    }
-
     private class LdapRealmIdentity implements ModifiableRealmIdentity {
 
         private final String name;
@@ -455,27 +573,33 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
                     }
                 }
 
-                // clear
-                for (CredentialPersister persister : credentialPersisters) {
-                    IdentityCredentialPersister icp = persister.forIdentity(identity.getDirContext(), identity.getDistinguishedName(), identity.getEntry().getAttributes());
-                    icp.clearCredentials();
-                }
-
-                // set
-                for (Credential credential : credentials) {
-                    final Class<? extends Credential> credentialType = credential.getClass();
-                    final String algorithmName = credential instanceof AlgorithmCredential ? ((AlgorithmCredential) credential).getAlgorithm() : null;
-                    final AlgorithmParameterSpec parameterSpec = credential instanceof AlgorithmCredential ? ((AlgorithmCredential) credential).getParameters() : null;
+                IdentityReplica.Modification modification = identityReplica != null ? identityReplica.modifying(name) : null;
+                try {
+                    // clear
                     for (CredentialPersister persister : credentialPersisters) {
                         IdentityCredentialPersister icp = persister.forIdentity(identity.getDirContext(), identity.getDistinguishedName(), identity.getEntry().getAttributes());
-                        if (icp.getCredentialPersistSupport(credentialType, algorithmName, parameterSpec)) {
-                            icp.persistCredential(credential);
-                            // next credential
-                            break;
+                        icp.clearCredentials();
+                    }
+
+                    // set
+                    for (Credential credential : credentials) {
+                        final Class<? extends Credential> credentialType = credential.getClass();
+                        final String algorithmName = credential instanceof AlgorithmCredential ? ((AlgorithmCredential) credential).getAlgorithm() : null;
+                        final AlgorithmParameterSpec parameterSpec = credential instanceof AlgorithmCredential ? ((AlgorithmCredential) credential).getParameters() : null;
+                        for (CredentialPersister persister : credentialPersisters) {
+                            IdentityCredentialPersister icp = persister.forIdentity(identity.getDirContext(), identity.getDistinguishedName(), identity.getEntry().getAttributes());
+                            if (icp.getCredentialPersistSupport(credentialType, algorithmName, parameterSpec)) {
+                                icp.persistCredential(credential);
+                                // next credential
+                                break;
+                            }
                         }
                     }
+                } finally {
+                    if (modification != null) {
+                        identityReplica.modified(name, modification);
+                    }
                 }
-
             } finally {
                 closeContext(dirContext);
             }
@@ -672,6 +796,16 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
             log.debugf("Trying to create identity for principal [%s].", name);
             LdapSearch ldapSearch = createLdapSearchByDn();
             if (ldapSearch == null) { // name is not a valid DN, search by name
+                if (identityReplica != null && identityReplica.isAuthoritative(name)) {
+                    SearchResult result = identityReplica.get(name);
+                    if (result != null) {
+                        log.debugf("Identity for principal [%s] found at [%s] in the replica.", name, result.getNameInNamespace());
+                        return new LdapIdentity(name, dirContext, result.getNameInNamespace(), null, result);
+                    } else {
+                        log.debugf("Identity for principal [%s] not found in the replica.", name);
+                        return null;
+                    }
+                }
                 if (identityMapping.searchDn != null) {
                     ldapSearch = new LdapSearch(identityMapping.searchDn, identityMapping.searchRecursive, 0, identityMapping.filterName, name);
                 } else {
@@ -756,27 +890,40 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
 
                 List<SearchResult> toSearch = new LinkedList<>();
                 toSearch.add(identityEntry);
+                // a search already executed cannot add any value, its results were already processed
+                Set<List<String>> searched = new HashSet<>();
 
                 for (int depth = 0; depth <= mapping.getRoleRecursionDepth() && ! toSearch.isEmpty(); depth++) {
                     List<SearchResult> toSearchInNextLevel = new LinkedList<>();
-                    for(SearchResult entry : toSearch) {
-                        final String entryDn = entry != null ? entry.getNameInNamespace() : null;
-                        if (mapping.getReference() != null && entry != null) { // reference
+                    if (mapping.getReference() != null) { // reference
+                        for (SearchResult entry : toSearch) {
+                            if (entry == null) continue;
                             forEachAttributeValue(entry, mapping.getReference(), value -> {
-                                LdapSearch search = new LdapSearch(value);
-                                extractFilteredAttributesFromSearch(search, entry, mapping, context, identityContext, values, toSearchInNextLevel);
+                                if (searched.add(Collections.singletonList(value))) {
+                                    List<SearchResult> found = groupEntryCache != null ? groupEntryCache.get(mapping, value) : null;
+                                    if (found == null && identityReplica != null) {
+                                        SearchResult replicated = identityReplica.getByDn(value);
+                                        found = replicated != null ? Collections.singletonList(replicated) : null;
+                                    }
+                                    if (found == null) {
+                                        LdapSearch search = new LdapSearch(value);
+                                        setReturningAttributes(search, mapping, Collections.emptySet());
+                                        found = searchEntries(search, entry.getNameInNamespace(), mapping, identityContext);
+                                        if (groupEntryCache != null) {
+                                            groupEntryCache.put(mapping, null, value, found);
+                                        }
+                                    }
+                                    extractFilteredAttributesFromEntries(found, entry.getNameInNamespace(), mapping, values, toSearchInNextLevel);
+                                }
                             });
-                        } else if (mapping.getReference() == null) { // filter
-                            if (depth == 0) { // roles of identity
-                                LdapSearch search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), name, entryDn);
-                                extractFilteredAttributesFromSearch(search, entry, mapping, context, identityContext, values, toSearchInNextLevel);
-                            } else if (entry != null) { // roles of role
-                                forEachAttributeValue(entry, mapping.getRoleRecursionName(), roleName -> {
-                                    LdapSearch search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), roleName, entryDn);
-                                    extractFilteredAttributesFromSearch(search, entry, mapping, context, identityContext, values, toSearchInNextLevel);
-                                });
-                            }
                         }
+                    } else if (depth == 0) { // roles of identity
+                        final String entryDn = identityEntry != null ? identityEntry.getNameInNamespace() : null;
+                        LdapSearch search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), name, entryDn);
+                        setReturningAttributes(search, mapping, Collections.emptySet());
+                        extractFilteredAttributesFromEntries(searchEntries(search, entryDn, mapping, context), entryDn, mapping, values, toSearchInNextLevel);
+                    } else { // roles of roles, searched for the whole level at once
+                        extractFilteredAttributesFromLevel(searchDn, toSearch, searched, mapping, context, values, toSearchInNextLevel);
                     }
                     toSearch = toSearchInNextLevel;
                 }
@@ -784,30 +931,243 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
             });
         }
 
-        private void extractFilteredAttributesFromSearch(LdapSearch search, SearchResult referencedEntry, AttributeMapping mapping, DirContext context, DirContext identityContext, Collection<String> identityAttributeValues, Collection<SearchResult> toSearchInNextLevel) {
-            String referencedDn = referencedEntry != null ? referencedEntry.getNameInNamespace() : null;
+        /**
+         * Searches for the entries matching the filter of the mapping with the filter arguments of any of the given
+         * entries, combining them into searches of at most {@code roleRecursionBatchSize} arguments each. If an executor
+         * is configured, the searches are executed concurrently, each using its own context, but their results are
+         * still processed in order by the calling thread.
+         *
+         * <p>If the group entry cache is enabled, the entries cached are not searched for, and what was found for each
+         * of the others is cached. When the arguments of several entries are combined into one search, the filter is
+         * evaluated on the entries found to tell which of them found each; if the filter cannot be evaluated, the
+         * arguments of different entries are not combined.
+         */
+        private void extractFilteredAttributesFromLevel(String searchDn, List<SearchResult> entries, Set<List<String>> searched, AttributeMapping mapping, DirContext context, Collection<String> identityAttributeValues, Collection<SearchResult> toSearchInNextLevel) {
+            Map<String, List<String[]>> entryArgs = new LinkedHashMap<>();
+            // the entries none of whose filter arguments were searched before, what is found for them is complete
+            Set<String> cacheable = new HashSet<>();
+            for (SearchResult entry : entries) {
+                final String entryDn = entry.getNameInNamespace();
+                if (entryArgs.containsKey(entryDn)) {
+                    // reached through several paths, searched for once
+                    continue;
+                }
+                List<String[]> args = new ArrayList<>();
+                forEachAttributeValue(entry, mapping.getRoleRecursionName(), roleName -> args.add(new String[] { roleName, entryDn }));
+                int count = args.size();
+                args.removeIf(filterArgs -> ! searched.add(Arrays.asList(filterArgs)));
+                if (args.isEmpty()) {
+                    continue;
+                }
+                if (groupEntryCache != null) {
+                    List<SearchResult> found = groupEntryCache.get(mapping, entryDn);
+                    if (found != null) {
+                        extractFilteredAttributesFromEntries(found, entryDn, mapping, identityAttributeValues, toSearchInNextLevel);
+                        continue;
+                    }
+                    if (args.size() == count) {
+                        cacheable.add(entryDn);
+                    }
+                }
+                entryArgs.put(entryDn, args);
+            }
 
-            Set<String> attributes = new HashSet<>();
-            attributes.add(mapping.getLdapName());
-            attributes.add(mapping.getReference());
-            attributes.add(mapping.getRoleRecursionName());
-            search.setReturningAttributes(attributes);
+            FilterEvaluator evaluator = ! cacheable.isEmpty() && entryArgs.size() > 1 && roleRecursionBatchSize > 1 ? FilterEvaluator.parse(mapping.getFilter()) : null;
+            Set<String> evaluatedAttributes = evaluator != null ? evaluator.getAttributeIds() : Collections.emptySet();
+            boolean combineEntries = cacheable.isEmpty() || evaluator != null;
+
+            List<List<String[]>> batches = new ArrayList<>();
+            List<List<String>> batchEntries = new ArrayList<>();
+            List<String[]> batch = new ArrayList<>();
+            List<String> batchDns = new ArrayList<>();
+            for (Map.Entry<String, List<String[]>> entry : entryArgs.entrySet()) {
+                if (! combineEntries && ! batch.isEmpty()) {
+                    batches.add(batch);
+                    batchEntries.add(batchDns);
+                    batch = new ArrayList<>();
+                    batchDns = new ArrayList<>();
+                }
+                for (String[] args : entry.getValue()) {
+                    if (batchDns.isEmpty() || ! batchDns.get(batchDns.size() - 1).equals(entry.getKey())) {
+                        batchDns.add(entry.getKey());
+                    }
+                    batch.add(args);
+                    if (batch.size() == roleRecursionBatchSize) {
+                        batches.add(batch);
+                        batchEntries.add(batchDns);
+                        batch = new ArrayList<>();
+                        batchDns = new ArrayList<>();
+                    }
+                }
+            }
+            if (! batch.isEmpty()) {
+                batches.add(batch);
+                batchEntries.add(batchDns);
+            }
 
-            try (Stream<SearchResult> entries = search.search(mapping.searchInIdentityContext() ? identityContext : context)) {
-                entries.forEach(entry -> {
-                    try {
-                        if (valuesFromAttribute(entry, mapping, identityAttributeValues)) {
-                            toSearchInNextLevel.add(entry);
+            List<LdapSearch> searches = new ArrayList<>(batches.size());
+            for (List<String[]> filterArgs : batches) {
+                LdapSearch search;
+                if (filterArgs.size() == 1) {
+                    search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), filterArgs.get(0));
+                } else {
+                    String[] args = filterArgs.stream().flatMap(Arrays::stream).toArray(String[]::new);
+                    search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, combineFilters(mapping.getFilter(), filterArgs.size(), filterArgs.get(0).length), args);
+                }
+                setReturningAttributes(search, mapping, evaluatedAttributes);
+                searches.add(search);
+            }
+
+            List<List<SearchResult>> results = searchEntries(searches, searchDn, mapping, context);
+            for (List<SearchResult> found : results) {
+                extractFilteredAttributesFromEntries(found, searchDn, mapping, identityAttributeValues, toSearchInNextLevel);
+            }
+            if (! cacheable.isEmpty()) {
+                cacheFound(searchDn, mapping, evaluator, entryArgs, cacheable, batchEntries, results);
+            }
+        }
+
+        /**
+         * Caches what was found for each of the cacheable entries of a level, telling which entries found each entry
+         * returned by a search combining the arguments of several of them by evaluating the filter. Nothing is cached if
+         * an entry returned cannot be told to be found by any of them.
+         */
+        private void cacheFound(String searchDn, AttributeMapping mapping, FilterEvaluator evaluator, Map<String, List<String[]>> entryArgs, Set<String> cacheable, List<List<String>> batchEntries, List<List<SearchResult>> results) {
+            Map<String, Map<String, SearchResult>> foundByEntry = new HashMap<>();
+            for (String entryDn : cacheable) {
+                foundByEntry.put(entryDn, new LinkedHashMap<>());
+            }
+            Set<String> returningAttributes = returningAttributes(mapping);
+            for (int i = 0; i < results.size(); i++) {
+                List<String> batchDns = batchEntries.get(i);
+                for (SearchResult result : results.get(i)) {
+                    boolean attributed = false;
+                    for (String entryDn : batchDns) {
+                        if (batchDns.size() == 1 || matches(evaluator, result, entryArgs.get(entryDn))) {
+                            attributed = true;
+                            Map<String, SearchResult> found = foundByEntry.get(entryDn);
+                            if (found != null) {
+                                found.putIfAbsent(result.getNameInNamespace(), evaluator != null ? withAttributes(result, returningAttributes) : result);
+                            }
                         }
-                    } catch (Exception cause) {
-                        throw ElytronMessages.log.ldapRealmFailedObtainAttributes(referencedDn, cause);
+                    }
+                    if (! attributed) {
+                        log.tracef("Entry [%s] not matched by the filter [%s] of any searched entry, not caching entries found in [%s]", result.getNameInNamespace(), mapping.getFilter(), searchDn);
+                        return;
+                    }
+                }
+            }
+            foundByEntry.forEach((entryDn, found) -> groupEntryCache.put(mapping, searchDn, entryDn, new ArrayList<>(found.values())));
+        }
+
+        private boolean matches(FilterEvaluator evaluator, SearchResult result, List<String[]> entryArgs) {
+            try {
+                for (String[] filterArgs : entryArgs) {
+                    if (evaluator.matches(result.getAttributes(), filterArgs)) {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (NamingException e) {
+                throw ElytronMessages.log.ldapRealmFailedObtainAttributes(result.getNameInNamespace(), e);
+            }
+        }
+
+        private SearchResult withAttributes(SearchResult result, Set<String> attributeIds) {
+            Attributes attributes = new BasicAttributes(true);
+            for (String attributeId : attributeIds) {
+                Attribute attribute = attributeId != null ? result.getAttributes().get(attributeId) : null;
+                if (attribute != null) {
+                    attributes.put(attribute);
+                }
+            }
+            SearchResult stripped = new SearchResult(result.getName(), result.getObject(), attributes, result.isRelative());
+            stripped.setNameInNamespace(result.getNameInNamespace());
+            return stripped;
+        }
+
+        private List<List<SearchResult>> searchEntries(List<LdapSearch> searches, String searchDn, AttributeMapping mapping, DirContext context) {
+            List<List<SearchResult>> results = new ArrayList<>(searches.size());
+            if (roleRecursionExecutor == null || searches.size() < 2) {
+                for (LdapSearch search : searches) {
+                    results.add(searchEntries(search, searchDn, mapping, context));
+                }
+                return results;
+            }
+
+            List<FutureTask<List<SearchResult>>> futures = new ArrayList<>(searches.size());
+            for (LdapSearch search : searches) {
+                FutureTask<List<SearchResult>> future = new FutureTask<>(() -> {
+                    DirContext searchContext = obtainContext();
+                    try {
+                        return searchEntries(search, searchDn, mapping, searchContext);
+                    } finally {
+                        closeContext(searchContext);
                     }
                 });
+                futures.add(future);
+                try {
+                    roleRecursionExecutor.execute(future);
+                } catch (RejectedExecutionException e) {
+                    log.tracef(e, "Executor rejected role recursion search in [%s], executing it in the calling thread", searchDn);
+                    future.run();
+                }
+            }
+
+            try {
+                for (FutureTask<List<SearchResult>> future : futures) {
+                    results.add(future.get());
+                }
+                return results;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw ElytronMessages.log.ldapRealmFailedObtainAttributes(searchDn, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw ElytronMessages.log.ldapRealmFailedObtainAttributes(searchDn, e.getCause());
+            } finally {
+                for (FutureTask<List<SearchResult>> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        private List<SearchResult> searchEntries(LdapSearch search, String referencedDn, AttributeMapping mapping, DirContext context) {
+            try (Stream<SearchResult> entries = search.search(context)) {
+                return entries.collect(Collectors.toList());
             } catch (Exception cause) {
                 throw ElytronMessages.log.ldapRealmFailedObtainAttributes(referencedDn, cause);
             }
         }
 
+        private void extractFilteredAttributesFromEntries(List<SearchResult> entries, String referencedDn, AttributeMapping mapping, Collection<String> identityAttributeValues, Collection<SearchResult> toSearchInNextLevel) {
+            for (SearchResult entry : entries) {
+                try {
+                    if (valuesFromAttribute(entry, mapping, identityAttributeValues)) {
+                        toSearchInNextLevel.add(entry);
+                    }
+                } catch (Exception cause) {
+                    throw ElytronMessages.log.ldapRealmFailedObtainAttributes(referencedDn, cause);
+                }
+            }
+        }
+
+        private void setReturningAttributes(LdapSearch search, AttributeMapping mapping, Set<String> evaluatedAttributes) {
+            Set<String> attributes = returningAttributes(mapping);
+            attributes.addAll(evaluatedAttributes);
+            search.setReturningAttributes(attributes);
+        }
+
+        private Set<String> returningAttributes(AttributeMapping mapping) {
+            Set<String> attributes = new HashSet<>();
+            attributes.add(mapping.getLdapName());
+            attributes.add(mapping.getReference());
+            attributes.add(mapping.getRoleRecursionName());
+            return attributes;
+        }
+
         private Map<String, Collection<String>> extractSimpleAttributes(SearchResult identityEntry) {
             if (identityEntry == null) return Collections.emptyMap();
             return extractAttributes(mapping -> !mapping.isFilteredOrReference(), mapping -> {
@@ -860,7 +1220,14 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
                     throw log.noSuchIdentity();
                 }
                 log.debugf("Removing identity [%s] with DN [%s] from LDAP", name, identity.getDistinguishedName());
-                identity.getDirContext().destroySubcontext(new LdapName(identity.getDistinguishedName()));
+                IdentityReplica.Modification modification = identityReplica != null ? identityReplica.modifying(name) : null;
+                try {
+                    identity.getDirContext().destroySubcontext(new LdapName(identity.getDistinguishedName()));
+                } finally {
+                    if (modification != null) {
+                        identityReplica.modified(name, modification);
+                    }
+                }
             } catch (NamingException e) {
                 throw log.ldapRealmFailedDeleteIdentityFromServer(e);
             } finally {
@@ -880,7 +1247,14 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
                 distinguishName.add(new Rdn(identityMapping.rdnIdentifier, name));
 
                 log.debugf("Creating identity [%s] with DN [%s] in LDAP", name, distinguishName.toString());
-                context.createSubcontext(distinguishName, identityMapping.newIdentityAttributes);
+                IdentityReplica.Modification modification = identityReplica != null ? identityReplica.modifying(name) : null;
+                try {
+                    context.createSubcontext(distinguishName, identityMapping.newIdentityAttributes);
+                } finally {
+                    if (modification != null) {
+                        identityReplica.modified(name, modification);
+                    }
+                }
 
             } catch (NamingException e) {
                 throw log.ldapRealmFailedCreateIdentityOnServer(e);
@@ -932,12 +1306,32 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
                 }
 
                 ModificationItem[] modItemsArray = modItems.toArray(new ModificationItem[modItems.size()]);
-                identity.getDirContext().modifyAttributes(identityLdapName, modItemsArray);
+                boolean rename = renameTo != null && ! renameTo.equals(identityLdapName.getRdn(identityLdapName.size()-1).getValue());
+                boolean renamed = false;
+                // marked before the writes, so that the replica is not used until they are replicated; a rename to the
+                // same name in another case leaves the identity under its name
+                IdentityReplica.Modification modification = identityReplica != null ? identityReplica.modifying(name) : null;
+                IdentityReplica.Modification renameModification = identityReplica != null && rename && ! renameTo.equalsIgnoreCase(name) ? identityReplica.modifying(renameTo) : null;
+                try {
+                    identity.getDirContext().modifyAttributes(identityLdapName, modItemsArray);
 
-                if (renameTo != null && ! renameTo.equals(identityLdapName.getRdn(identityLdapName.size()-1).getValue())) {
-                    LdapName newLdapName = new LdapName(identityLdapName.getRdns().subList(0, identityLdapName.size()-1));
-                    newLdapName.add(new Rdn(identityMapping.rdnIdentifier, renameTo));
-                    identity.getDirContext().rename(identityLdapName, newLdapName);
+                    if (rename) {
+                        LdapName newLdapName = new LdapName(identityLdapName.getRdns().subList(0, identityLdapName.size()-1));
+                        newLdapName.add(new Rdn(identityMapping.rdnIdentifier, renameTo));
+                        identity.getDirContext().rename(identityLdapName, newLdapName);
+                        renamed = true;
+                    }
+                } finally {
+                    if (modification != null) {
+                        if (renamed && renameModification != null) {
+                            identityReplica.removed(name, modification);
+                        } else {
+                            identityReplica.modified(name, modification);
+                        }
+                    }
+                    if (renameModification != null) {
+                        identityReplica.modified(renameTo, renameModification);
+                    }
                 }
 
             } catch (Exception e) {
@@ -1232,15 +1626,16 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
 
     private class ServerNotificationListener implements ObjectChangeListener, NamespaceChangeListener {
 
-        private final Consumer<Principal> listener;
+        private final Consumer<LdapName> listener;
 
-        ServerNotificationListener(Consumer<Principal> listener) {
+        ServerNotificationListener(Consumer<LdapName> listener) {
             this.listener = listener;
         }
 
         @Override
         public void objectAdded(NamingEvent evt) {
-
+            // the identity may have been cached as non-existent
+            invokeCacheUpdateListener(evt);
         }
 
         @Override
@@ -1264,18 +1659,14 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
         }
 
         private void invokeCacheUpdateListener(NamingEvent evt) {
-            Binding oldBinding = evt.getOldBinding();
+            Binding binding = evt.getOldBinding() != null ? evt.getOldBinding() : evt.getNewBinding();
             LdapName ldapName;
             try {
-                ldapName = new LdapName(oldBinding.getName());
+                ldapName = new LdapName(binding.getName());
             } catch (InvalidNameException e) {
-                throw log.ldapInvalidLdapName(oldBinding.getName(), e);
+                throw log.ldapInvalidLdapName(binding.getName(), e);
             }
-            ldapName.getRdns().stream()
-                    .filter(rdn -> rdn.getType().equals(identityMapping.rdnIdentifier))
-                    .map(rdn -> new NamePrincipal(rdn.getValue().toString()))
-                    .findFirst()
-                    .ifPresent(listener::accept);
+            listener.accept(ldapName);
         }
     }
 }
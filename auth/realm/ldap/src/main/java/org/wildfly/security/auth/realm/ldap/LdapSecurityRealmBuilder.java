@@ -36,6 +36,7 @@ import java.security.Provider;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 /**
@@ -61,6 +62,10 @@ public class LdapSecurityRealmBuilder {
     private NameRewriter nameRewriter = NameRewriter.IDENTITY_REWRITER;
     private IdentityMapping identityMapping;
     private int pageSize = 50;
+    private int roleRecursionBatchSize = 50;
+    private Executor roleRecursionExecutor;
+    private GroupEntryCache groupEntryCache;
+    private long identityReplicaRefreshInterval = -1;
 
     private List<CredentialLoader> credentialLoaders = new ArrayList<>();
     private List<CredentialPersister> credentialPersisters = new ArrayList<>();
@@ -132,6 +137,77 @@ public class LdapSecurityRealmBuilder {
         return this;
     }
 
+    /**
+     * Set the maximum number of entries whose roles are searched by a single LDAP search during role recursion. The
+     * searches for all the entries found at one level of the recursion are combined into as few searches as this
+     * allows, a size of {@code 1} searching for the roles of each entry separately.
+     *
+     * @param roleRecursionBatchSize the maximum number of entries searched at once, must be greater than {@code 0}
+     * @return this builder
+     */
+    public LdapSecurityRealmBuilder setRoleRecursionBatchSize(final int roleRecursionBatchSize) {
+        Assert.checkMinimumParameter("roleRecursionBatchSize", 1, roleRecursionBatchSize);
+        this.roleRecursionBatchSize = roleRecursionBatchSize;
+
+        return this;
+    }
+
+    /**
+     * Set the executor used to execute the searches of one level of role recursion concurrently, each of them using
+     * its own {@link DirContext}. If not set, the searches are executed one after another by the calling thread.
+     *
+     * @param roleRecursionExecutor the executor used to execute the searches, or {@code null} to execute them in the calling thread
+     * @return this builder
+     */
+    public LdapSecurityRealmBuilder setRoleRecursionExecutor(final Executor roleRecursionExecutor) {
+        this.roleRecursionExecutor = roleRecursionExecutor;
+
+        return this;
+    }
+
+    /**
+     * Enable caching of the group entries resolved by filtered and referenced attribute mappings, shared by all the
+     * identities of the realm. A cached entry is removed when the server notifies the realm of a change to it, or to
+     * the context a filtered mapping searches in, if the server supports naming events, and once it expires in any case.
+     *
+     * The entries of one level of role recursion missing from the cache are still searched for in batches, as set by
+     * {@link #setRoleRecursionBatchSize(int)}, if the filter of the mapping only contains equality and presence
+     * assertions combined with {@code &} and {@code |}: the filter is then evaluated against each entry returned to
+     * tell which of the searched entries found it. With any other filter they are searched for one by one, so that
+     * what was found for each of them can be cached.
+     *
+     * @param maxEntries the maximum number of entries to cache, must be greater than {@code 0}
+     * @param maxAge the time in milliseconds an entry is cached, must be greater than {@code 0}
+     * @return this builder
+     */
+    public LdapSecurityRealmBuilder setGroupEntryCache(final int maxEntries, final long maxAge) {
+        this.groupEntryCache = new GroupEntryCache(maxEntries, maxAge);
+
+        return this;
+    }
+
+    /**
+     * Enable an in-memory replica of the identity entries, so that identities are looked up by name without
+     * searching the server. The replica is loaded when the realm is built and is kept up to date using the LDAP
+     * Content Synchronization operation if the server supports it, otherwise it is reloaded every refresh interval.
+     * Modifications of identities are still written to the server.
+     *
+     * The replica requires the identity mapping to have a search DN and the default filter name.
+     *
+     * The replica is kept up to date by a daemon thread started when the realm is built. The realm built is
+     * {@link AutoCloseable}, closing it ends this thread; it is not ended otherwise.
+     *
+     * @param refreshInterval the time in milliseconds between reloads of the replica if the server does not support
+     *                        content synchronization, or after synchronization fails, must be greater than {@code 0}
+     * @return this builder
+     */
+    public LdapSecurityRealmBuilder setIdentityReplica(final long refreshInterval) {
+        Assert.checkMinimumParameter("refreshInterval", 1, refreshInterval);
+        this.identityReplicaRefreshInterval = refreshInterval;
+
+        return this;
+    }
+
     public IdentityMappingBuilder identityMapping() {
         assertNotBuilt();
 
@@ -195,6 +271,23 @@ public class LdapSecurityRealmBuilder {
         return addEvidenceVerifier(new DirectEvidenceVerifier(allowBlankPassword));
     }
 
+    /**
+     * Add direct evidence verification, performing the binds on the given executor rather than on the calling thread,
+     * so that a slow directory delays each verification by at most the bind timeout of the executor, and a
+     * verification is rejected at once with a {@link org.wildfly.security.auth.server.RealmUnavailableException}
+     * while the executor is saturated.
+     *
+     * @param allowBlankPassword whether a blank password guess is used to bind
+     * @param executor the executor performing the binds (must not be {@code null})
+     * @return this builder
+     */
+    public LdapSecurityRealmBuilder addDirectEvidenceVerification(boolean allowBlankPassword, BindVerificationExecutor executor) {
+        Assert.checkNotNullParam("executor", executor);
+        assertNotBuilt();
+
+        return addEvidenceVerifier(new AsyncDirectEvidenceVerifier(allowBlankPassword, executor));
+    }
+
     /**
      * Build this realm.
      *
@@ -210,7 +303,7 @@ public class LdapSecurityRealmBuilder {
         }
 
         built = true;
-        return new LdapSecurityRealm(providers, dirContextSupplier, nameRewriter, identityMapping, credentialLoaders, credentialPersisters, evidenceVerifiers, pageSize);
+        return new LdapSecurityRealm(providers, dirContextSupplier, nameRewriter, identityMapping, credentialLoaders, credentialPersisters, evidenceVerifiers, pageSize, roleRecursionBatchSize, roleRecursionExecutor, groupEntryCache, identityReplicaRefreshInterval);
     }
 
     private void assertNotBuilt() {
@@ -0,0 +1,699 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+import static org.wildfly.security.auth.realm.ldap.ElytronMessages.log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.security.auth.callback.CallbackHandler;
+
+/**
+ * <p>A {@link DirContextFactory} keeping a pool of contexts for each of several LDAP servers, each server being represented
+ * by the {@link DirContextFactory} creating its contexts, such as one built by {@link SimpleDirContextFactoryBuilder}.
+ *
+ * <p>Only the contexts obtained by {@link #obtainDirContext(ReferralMode)} are pooled, closing such a context returns it
+ * to the pool. Contexts obtained for the credentials of a {@link CallbackHandler} are bound to a specific account, so they
+ * are obtained from the next server without being pooled.
+ *
+ * <p>The pool for each server holds at most {@link Builder#setMaxSize(int) maxSize} contexts. When all of the servers
+ * are at their maximum, obtaining a context waits for one to be returned for at most
+ * {@link Builder#setMaxWait(long) maxWait} milliseconds. Contexts which were idle for longer than
+ * {@link Builder#setIdleTimeout(long) idleTimeout} milliseconds are closed, and idle contexts can be validated before
+ * being reused. If a server cannot be connected to, the other servers are tried.
+ *
+ * <p>Like any other {@link DirContextFactory}, the pool is used by {@link LdapSecurityRealm} and {@code LdapKeyStore}
+ * through a supplier such as {@code () -> factory.obtainDirContext(ReferralMode.IGNORE)}.
+ */
+public final class PooledDirContextFactory implements DirContextFactory {
+
+    /**
+     * The way new contexts are distributed across the servers.
+     */
+    public enum Distribution {
+        /**
+         * Each context is obtained from the next server in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * Each context is obtained from the server with the fewest contexts in use.
+         */
+        LEAST_LOADED,
+    }
+
+    private final List<Server> servers;
+    private final Distribution distribution;
+    private final int maxSize;
+    private final long maxWait;
+    private final long idleTimeout;
+    private final boolean validateOnBorrow;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition returned = lock.newCondition();
+    private final Map<DirContext, PooledContext> borrowed = new IdentityHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private boolean closed;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final LongAdder exhaustedCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder destroyedCount = new LongAdder();
+
+    PooledDirContextFactory(Builder builder) {
+        List<Server> servers = new ArrayList<>(builder.factories.size());
+        for (DirContextFactory factory : builder.factories) {
+            servers.add(new Server(factory));
+        }
+        this.servers = Collections.unmodifiableList(servers);
+        this.distribution = builder.distribution;
+        this.maxSize = builder.maxSize;
+        this.maxWait = builder.maxWait;
+        this.idleTimeout = builder.idleTimeout;
+        this.validateOnBorrow = builder.validateOnBorrow;
+    }
+
+    /**
+     * Construct a new builder.
+     *
+     * @return the new builder (not {@code null})
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public DirContext obtainDirContext(ReferralMode mode) throws NamingException {
+        final ReferralMode referralMode = mode == null ? ReferralMode.IGNORE : mode;
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWait);
+        boolean waited = false;
+        List<Server> failed = Collections.emptyList();
+
+        while (true) {
+            PooledContext pooled = null;
+            Server reserved = null;
+            PooledContext evicted = null;
+            List<PooledContext> expired;
+
+            lock.lock();
+            try {
+                if (closed) {
+                    throw log.dirContextPoolClosed();
+                }
+                expired = evictExpired();
+                for (Server server : order()) {
+                    if (failed.contains(server)) {
+                        continue;
+                    }
+                    pooled = server.poll(referralMode);
+                    if (pooled != null) {
+                        server.active++;
+                        break;
+                    }
+                    if (server.size() < maxSize) {
+                        // reserve the slot, the context is created without holding the lock
+                        server.active++;
+                        reserved = server;
+                        break;
+                    }
+                }
+                if (pooled == null && reserved == null) {
+                    // all the servers are at their maximum, possibly only holding idle contexts of another referral mode
+                    evicted = evictIdle(failed);
+                    if (evicted != null) {
+                        evicted.server.active++;
+                        reserved = evicted.server;
+                    }
+                }
+                if (pooled == null && reserved == null) {
+                    if (! waited) {
+                        exhaustedCount.increment();
+                        waited = true;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        waitTime.add(System.nanoTime() - start);
+                        throw log.dirContextPoolExhausted(maxWait);
+                    }
+                    try {
+                        returned.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw log.dirContextPoolExhausted(maxWait);
+                    }
+                    continue;
+                }
+            } finally {
+                lock.unlock();
+            }
+            destroy(expired);
+            if (evicted != null) {
+                destroy(evicted.context);
+            }
+
+            if (pooled != null && validateOnBorrow && ! isValid(pooled.context)) {
+                release(pooled.server);
+                destroy(pooled.context);
+                continue;
+            }
+
+            if (pooled == null) {
+                try {
+                    pooled = new PooledContext(reserved, reserved.factory.obtainDirContext(referralMode), referralMode);
+                    createdCount.increment();
+                } catch (NamingException | RuntimeException e) {
+                    release(reserved);
+                    if (failed.isEmpty()) {
+                        failed = new ArrayList<>(servers.size());
+                    }
+                    failed.add(reserved);
+                    if (failed.size() < servers.size()) {
+                        log.debugf(e, "Failed to obtain DirContext from the pool server %d, trying the next server", servers.indexOf(reserved));
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+
+            lock.lock();
+            try {
+                borrowed.put(pooled.context, pooled);
+            } finally {
+                lock.unlock();
+            }
+            borrowCount.increment();
+            waitTime.add(System.nanoTime() - start);
+            return new PooledLdapContext(pooled.context);
+        }
+    }
+
+    @Override
+    public DirContext obtainDirContext(CallbackHandler handler, ReferralMode mode) throws NamingException {
+        NamingException failure = null;
+        for (Server server : order()) {
+            try {
+                return server.factory.obtainDirContext(handler, mode);
+            } catch (NamingException e) {
+                // the credentials can only be verified by a server that is available
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    @Override
+    public void returnContext(DirContext context) {
+        if (context == null) {
+            return;
+        }
+        PooledContext pooled;
+        boolean destroy = false;
+
+        lock.lock();
+        try {
+            pooled = borrowed.remove(context);
+            if (pooled != null) {
+                pooled.server.active--;
+                if (closed || pooled.server.size() >= maxSize) {
+                    destroy = true;
+                } else {
+                    pooled.idleSince = System.nanoTime();
+                    pooled.server.idle.addFirst(pooled);
+                }
+                returned.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (pooled == null) {
+            if (context instanceof PooledLdapContext) {
+                // one of the contexts handed out by a pool, returned at most once
+                ((PooledLdapContext) context).close();
+            } else {
+                // not in use from this pool, possibly already returned and now used by someone else
+                log.tracef("Ignoring returned DirContext [%s] which is not in use from the pool", context);
+            }
+        } else if (destroy) {
+            destroy(pooled.context);
+        }
+    }
+
+    @Override
+    public void discardContext(DirContext context) {
+        if (context == null) {
+            return;
+        }
+        if (context instanceof PooledLdapContext) {
+            ((PooledLdapContext) context).discard();
+            return;
+        }
+        PooledContext pooled;
+
+        lock.lock();
+        try {
+            pooled = borrowed.remove(context);
+            if (pooled != null) {
+                pooled.server.active--;
+                returned.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (pooled != null) {
+            destroy(pooled.context);
+        } else {
+            DirContextFactory.super.discardContext(context);
+        }
+    }
+
+    /**
+     * Close all the idle contexts of this pool. Contexts in use are closed when they are returned, and no more contexts
+     * can be obtained from the pool.
+     */
+    public void close() {
+        List<PooledContext> idle = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            for (Server server : servers) {
+                idle.addAll(server.idle);
+                server.idle.clear();
+            }
+            returned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        destroy(idle);
+    }
+
+    /**
+     * Get the number of contexts currently in use.
+     *
+     * @return the number of contexts in use
+     */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            int active = 0;
+            for (Server server : servers) {
+                active += server.active;
+            }
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of idle contexts currently held by the pool.
+     *
+     * @return the number of idle contexts
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            int idle = 0;
+            for (Server server : servers) {
+                idle += server.idle.size();
+            }
+            return idle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of contexts obtained from this pool.
+     *
+     * @return the number of contexts obtained
+     */
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    /**
+     * Get the total time in milliseconds spent obtaining contexts from this pool, including waiting for a context to be
+     * returned and creating new contexts.
+     *
+     * @return the total wait time in milliseconds
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.sum());
+    }
+
+    /**
+     * Get the number of times a context was requested while all of the servers were at their maximum pool size.
+     *
+     * @return the number of times the pool was exhausted
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.sum();
+    }
+
+    /**
+     * Get the number of contexts created by this pool.
+     *
+     * @return the number of contexts created
+     */
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Get the number of contexts closed by this pool, because they were idle for too long, were not valid any more or
+     * were discarded.
+     *
+     * @return the number of contexts closed
+     */
+    public long getDestroyedCount() {
+        return destroyedCount.sum();
+    }
+
+    /**
+     * Returns the servers in the order they should be tried for the next context.
+     */
+    private List<Server> order() {
+        int size = servers.size();
+        if (size == 1) {
+            return servers;
+        }
+        List<Server> order = new ArrayList<>(size);
+        if (distribution == Distribution.LEAST_LOADED) {
+            order.addAll(servers);
+            // racy reads of the active counts are fine for ordering
+            order.sort((a, b) -> Integer.compare(a.active, b.active));
+        } else {
+            int first = Math.floorMod(next.getAndIncrement(), size);
+            for (int i = 0; i < size; i++) {
+                order.add(servers.get((first + i) % size));
+            }
+        }
+        return order;
+    }
+
+    private void release(Server server) {
+        lock.lock();
+        try {
+            server.active--;
+            returned.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the idle contexts which expired, must be called holding the lock.
+     */
+    private List<PooledContext> evictExpired() {
+        if (idleTimeout <= 0) {
+            return Collections.emptyList();
+        }
+        List<PooledContext> expired = null;
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        for (Server server : servers) {
+            // the least recently returned contexts are at the end
+            PooledContext last;
+            while ((last = server.idle.peekLast()) != null && now - last.idleSince > timeout) {
+                server.idle.pollLast();
+                if (expired == null) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(last);
+            }
+        }
+        return expired == null ? Collections.emptyList() : expired;
+    }
+
+    /**
+     * Removes the least recently used idle context of a server to make room for a new one, must be called holding the lock.
+     *
+     * @return the removed context, to be closed by the caller, or {@code null} if there are no idle contexts
+     */
+    private PooledContext evictIdle(List<Server> failed) {
+        for (Server server : order()) {
+            if (! failed.contains(server)) {
+                PooledContext last = server.idle.pollLast();
+                if (last != null) {
+                    return last;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isValid(DirContext context) {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.OBJECT_SCOPE);
+        controls.setReturningAttributes(new String[0]);
+        controls.setCountLimit(1);
+        try {
+            // read the entry the context is relative to, the base DN of its provider URL or else the root DSE
+            NamingEnumeration<SearchResult> result = context.search("", "(objectClass=*)", controls);
+            result.close();
+            return true;
+        } catch (NameNotFoundException e) {
+            // the base DN does not exist, but the server answered
+            return true;
+        } catch (NamingException | RuntimeException e) {
+            log.debugf(e, "Pooled DirContext [%s] is not valid any more", context);
+            return false;
+        }
+    }
+
+    private void destroy(List<PooledContext> contexts) {
+        for (PooledContext pooled : contexts) {
+            destroy(pooled.context);
+        }
+    }
+
+    private void destroy(DirContext context) {
+        destroyedCount.increment();
+        closeQuietly(context);
+    }
+
+    private static void closeQuietly(DirContext context) {
+        try {
+            context.close();
+        } catch (NamingException e) {
+            log.debugf(e, "Failed to close pooled DirContext [%s]", context);
+        }
+    }
+
+    private static final class Server {
+
+        private final DirContextFactory factory;
+        // most recently returned first
+        private final ArrayDeque<PooledContext> idle = new ArrayDeque<>();
+        private int active;
+
+        Server(DirContextFactory factory) {
+            this.factory = factory;
+        }
+
+        int size() {
+            return active + idle.size();
+        }
+
+        PooledContext poll(ReferralMode mode) {
+            Iterator<PooledContext> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                PooledContext pooled = iterator.next();
+                if (pooled.mode == mode) {
+                    iterator.remove();
+                    return pooled;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A context handed out by the pool, closing it returns the pooled context only the first time.
+     */
+    private final class PooledLdapContext extends DelegatingLdapContext {
+
+        private final DirContext context;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        PooledLdapContext(DirContext context) throws NamingException {
+            super(context, null, null);
+            this.context = context;
+        }
+
+        @Override
+        public void close() {
+            // once returned, the pooled context may already be in use by another caller
+            if (returned.compareAndSet(false, true)) {
+                returnContext(context);
+            }
+        }
+
+        void discard() {
+            if (returned.compareAndSet(false, true)) {
+                discardContext(context);
+            }
+        }
+    }
+
+    private static final class PooledContext {
+
+        private final Server server;
+        private final DirContext context;
+        private final ReferralMode mode;
+        private long idleSince;
+
+        PooledContext(Server server, DirContext context, ReferralMode mode) {
+            this.server = server;
+            this.context = context;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * A builder for {@link PooledDirContextFactory} instances.
+     */
+    public static final class Builder {
+
+        private final List<DirContextFactory> factories = new ArrayList<>();
+        private Distribution distribution = Distribution.ROUND_ROBIN;
+        private int maxSize = 10;
+        private long maxWait = 10000;
+        private long idleTimeout = 300000;
+        private boolean validateOnBorrow = true;
+
+        Builder() {
+        }
+
+        /**
+         * Add a server to the pool, represented by the factory creating its contexts.
+         *
+         * @param factory the factory creating contexts for the server (must not be {@code null})
+         * @return this builder
+         */
+        public Builder addDirContextFactory(final DirContextFactory factory) {
+            checkNotNullParam("factory", factory);
+            factories.add(factory);
+
+            return this;
+        }
+
+        /**
+         * Set the way contexts are distributed across the servers, {@link Distribution#ROUND_ROBIN} by default.
+         *
+         * @param distribution the distribution (must not be {@code null})
+         * @return this builder
+         */
+        public Builder setDistribution(final Distribution distribution) {
+            checkNotNullParam("distribution", distribution);
+            this.distribution = distribution;
+
+            return this;
+        }
+
+        /**
+         * Set the maximum number of contexts, in use or idle, for each server, {@code 10} by default.
+         *
+         * @param maxSize the maximum number of contexts for each server
+         * @return this builder
+         */
+        public Builder setMaxSize(final int maxSize) {
+            checkMinimumParameter("maxSize", 1, maxSize);
+            this.maxSize = maxSize;
+
+            return this;
+        }
+
+        /**
+         * Set the time in milliseconds to wait for a context to be returned when all the servers are at their maximum
+         * size, {@code 10000} by default.
+         *
+         * @param maxWait the maximum wait time in milliseconds
+         * @return this builder
+         */
+        public Builder setMaxWait(final long maxWait) {
+            checkMinimumParameter("maxWait", 0, maxWait);
+            this.maxWait = maxWait;
+
+            return this;
+        }
+
+        /**
+         * Set the time in milliseconds after which an idle context is closed, {@code 300000} by default, or {@code 0} to
+         * keep idle contexts open.
+         *
+         * @param idleTimeout the idle timeout in milliseconds
+         * @return this builder
+         */
+        public Builder setIdleTimeout(final long idleTimeout) {
+            checkMinimumParameter("idleTimeout", 0, idleTimeout);
+            this.idleTimeout = idleTimeout;
+
+            return this;
+        }
+
+        /**
+         * Set whether an idle context is validated by reading the root DSE before being reused, {@code true} by default.
+         *
+         * @param validateOnBorrow {@code true} to validate idle contexts before reusing them
+         * @return this builder
+         */
+        public Builder setValidateOnBorrow(final boolean validateOnBorrow) {
+            this.validateOnBorrow = validateOnBorrow;
+
+            return this;
+        }
+
+        /**
+         * Build the pooled context factory.
+         *
+         * @return the pooled context factory
+         */
+        public PooledDirContextFactory build() {
+            if (factories.isEmpty()) {
+                throw log.noDirContextFactorySet();
+            }
+            return new PooledDirContextFactory(this);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.Test;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+
+/**
+ * Tests for {@link BindVerificationExecutor} and {@link AsyncDirectEvidenceVerifier}.
+ */
+public class BindVerificationExecutorTest {
+
+    private static final Hashtable<Object, Object> boundEnvironment = new Hashtable<>();
+
+    @Test
+    public void testSaturation() throws Exception {
+        BindVerificationExecutor executor = BindVerificationExecutor.builder().setMaxThreads(1).setQueueDepth(1).build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Boolean> first = executor.submit(() -> {
+                started.countDown();
+                awaitUninterruptibly(release);
+                return true;
+            });
+            started.await();
+            CompletableFuture<Boolean> second = executor.submit(() -> false);
+            assertEquals(1, executor.getActiveCount());
+            assertEquals(1, executor.getQueuedCount());
+
+            try {
+                executor.submit(() -> true);
+                fail("Expected RealmUnavailableException");
+            } catch (RealmUnavailableException expected) {
+            }
+            assertEquals(1, executor.getRejectedCount());
+            assertEquals(2, executor.getSubmittedCount());
+
+            release.countDown();
+            assertTrue(executor.await(first, "uid=first"));
+            assertFalse(executor.await(second, "uid=second"));
+            assertEquals(0, executor.getTimeoutCount());
+        } finally {
+            release.countDown();
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        BindVerificationExecutor executor = BindVerificationExecutor.builder().setMaxThreads(1).setBindTimeout(100).build();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean queuedBindPerformed = new AtomicBoolean();
+        try {
+            CompletableFuture<Boolean> first = executor.submit(() -> {
+                awaitUninterruptibly(release);
+                return true;
+            });
+            CompletableFuture<Boolean> second = executor.submit(() -> queuedBindPerformed.getAndSet(true));
+
+            for (CompletableFuture<Boolean> future : Arrays.asList(first, second)) {
+                try {
+                    executor.await(future, "uid=jduke");
+                    fail("Expected RealmUnavailableException");
+                } catch (RealmUnavailableException expected) {
+                }
+            }
+            assertEquals(2, executor.getTimeoutCount());
+
+            // the bind given up while queued is not performed
+            release.countDown();
+            assertTrue(executor.await(executor.submit(() -> true), "uid=jduke"));
+            assertFalse(queuedBindPerformed.get());
+        } finally {
+            release.countDown();
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testFailureAndClose() throws Exception {
+        BindVerificationExecutor executor = BindVerificationExecutor.builder().build();
+        RealmUnavailableException failure = new RealmUnavailableException();
+        try {
+            executor.await(executor.submit(() -> {
+                throw failure;
+            }), "uid=jduke");
+            fail("Expected RealmUnavailableException");
+        } catch (RealmUnavailableException e) {
+            assertSame(failure, e);
+        }
+
+        executor.close();
+        try {
+            executor.submit(() -> true);
+            fail("Expected RealmUnavailableException");
+        } catch (RealmUnavailableException expected) {
+        }
+        assertEquals(0, executor.getRejectedCount());
+    }
+
+    @Test
+    public void testAsyncDirectEvidenceVerifier() throws Exception {
+        BindVerificationExecutor executor = BindVerificationExecutor.builder().setBindTimeout(2000).build();
+        LdapContext context = createContext(Thread.currentThread());
+        boundEnvironment.clear();
+        try {
+            AsyncDirectEvidenceVerifier verifier = new AsyncDirectEvidenceVerifier(false, executor);
+            assertEquals(SupportLevel.SUPPORTED, verifier.getEvidenceVerifySupport(PasswordGuessEvidence.class, null));
+            AsyncIdentityEvidenceVerifier identityVerifier = verifier.forIdentity(context, "uid=jduke,dc=elytron,dc=wildfly,dc=org", null, null);
+
+            PasswordGuessEvidence evidence = new PasswordGuessEvidence("secret".toCharArray());
+            assertTrue(identityVerifier.verifyEvidence(evidence, null));
+            assertFalse(evidence.isDestroyed());
+            assertEquals("2000", boundEnvironment.get("com.sun.jndi.ldap.read.timeout"));
+            assertEquals("uid=jduke,dc=elytron,dc=wildfly,dc=org", boundEnvironment.get(DirContext.SECURITY_PRINCIPAL));
+            assertEquals("ldap://localhost:11390", boundEnvironment.get(DirContext.PROVIDER_URL));
+
+            assertFalse(identityVerifier.verifyEvidenceAsync(new PasswordGuessEvidence("wrong".toCharArray()), null).get());
+            assertEquals(2, executor.getSubmittedCount());
+
+            // following a referral the bind is performed against the server of the identity
+            AsyncIdentityEvidenceVerifier referredVerifier = verifier.forIdentity(context, "uid=jduke,dc=elytron,dc=wildfly,dc=org", "ldap://referred:11391/dc=elytron,dc=wildfly,dc=org", null);
+            assertTrue(referredVerifier.verifyEvidence(new PasswordGuessEvidence("secret".toCharArray()), null));
+            assertEquals("ldap://referred:11391", boundEnvironment.get(DirContext.PROVIDER_URL));
+        } finally {
+            executor.close();
+        }
+    }
+
+    /**
+     * The factory of the contexts the binds open, as the context of the realm must only be used by the calling thread.
+     */
+    public static class BindContextFactory implements InitialContextFactory {
+
+        @Override
+        public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+            boundEnvironment.putAll(environment);
+            if (! "secret".equals(new String((char[]) environment.get(DirContext.SECURITY_CREDENTIALS)))) {
+                throw new AuthenticationException("Invalid credentials");
+            }
+            return (Context) Proxy.newProxyInstance(BindVerificationExecutorTest.class.getClassLoader(), new Class<?>[] { LdapContext.class }, (proxy, method, args) -> {
+                if ("close".equals(method.getName())) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        }
+    }
+
+    private static LdapContext createContext(Thread owner) {
+        return (LdapContext) Proxy.newProxyInstance(BindVerificationExecutorTest.class.getClassLoader(), new Class<?>[] { LdapContext.class }, (proxy, method, args) -> {
+            if (Thread.currentThread() != owner) {
+                throw new IllegalStateException("Context used off the calling thread: " + method.getName());
+            }
+            switch (method.getName()) {
+                case "getEnvironment":
+                    Hashtable<String, Object> environment = new Hashtable<>();
+                    environment.put(Context.INITIAL_CONTEXT_FACTORY, BindContextFactory.class.getName());
+                    environment.put(Context.PROVIDER_URL, "ldap://localhost:11390");
+                    return environment;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchResult;
+import javax.naming.event.EventDirContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.CacheableSecurityRealm;
+import org.wildfly.security.auth.realm.CachingSecurityRealm;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.SecurityRealm;
+import org.wildfly.security.cache.LRURealmIdentityCache;
+import org.wildfly.security.cache.VerifiedEvidenceCache;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+
+/**
+ * Tests of direct verification binds of an Ldap-backed realm wrapped by a {@link CachingSecurityRealm} remembering the
+ * verified password guesses.
+ */
+public class CachingDirectVerificationTest {
+
+    private static final String DN = "uid=jduke,dc=elytron,dc=wildfly,dc=org";
+
+    private static final String PASSWORD = "secret";
+
+    private static final AtomicInteger binds = new AtomicInteger();
+
+    private final Thread caller = Thread.currentThread();
+    private final AtomicInteger foreignCalls = new AtomicInteger();
+
+    @Before
+    public void resetBinds() {
+        binds.set(0);
+    }
+
+    @Test
+    public void testDirectVerification() throws Exception {
+        testVerification(LdapSecurityRealmBuilder.builder().addDirectEvidenceVerification(false));
+    }
+
+    @Test
+    public void testAsyncDirectVerification() throws Exception {
+        BindVerificationExecutor executor = BindVerificationExecutor.builder().build();
+        try {
+            PasswordGuessEvidence evidence = testVerification(LdapSecurityRealmBuilder.builder().addDirectEvidenceVerification(false, executor));
+            assertFalse(evidence.isDestroyed());
+            assertArrayEquals("secret".toCharArray(), evidence.getGuess());
+            // the binds must open contexts of their own rather than use the context of the realm off the calling thread
+            assertEquals(0, foreignCalls.get());
+        } finally {
+            executor.close();
+        }
+    }
+
+    private PasswordGuessEvidence testVerification(LdapSecurityRealmBuilder builder) throws Exception {
+        SecurityRealm ldapRealm = builder
+                .setDirContextSupplier(this::createContext)
+                .identityMapping()
+                    .setSearchDn("dc=elytron,dc=wildfly,dc=org")
+                    .setRdnIdentifier("uid")
+                    .build()
+                .build();
+        SecurityRealm realm = CachingSecurityRealm.builder((CacheableSecurityRealm) ldapRealm, new LRURealmIdentityCache(10))
+                .setVerifiedEvidenceCache(new VerifiedEvidenceCache(10, 60000))
+                .build();
+
+        RealmIdentity identity = realm.getRealmIdentity(new NamePrincipal("jduke"));
+        PasswordGuessEvidence evidence = new PasswordGuessEvidence("secret".toCharArray());
+        assertTrue(identity.verifyEvidence(evidence));
+        assertEquals(1, binds.get());
+
+        // the bind destroying its evidence must not leave a password of NULs remembered
+        assertFalse(identity.verifyEvidence(new PasswordGuessEvidence(new char[6])));
+        assertFalse(identity.verifyEvidence(new PasswordGuessEvidence("wrong!".toCharArray())));
+        assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("secret".toCharArray())));
+        return evidence;
+    }
+
+    private LdapContext createContext() {
+        return (LdapContext) Proxy.newProxyInstance(CachingDirectVerificationTest.class.getClassLoader(), new Class<?>[] { LdapContext.class, EventDirContext.class }, (proxy, method, args) -> {
+            if (Thread.currentThread() != caller) {
+                foreignCalls.incrementAndGet();
+            }
+            switch (method.getName()) {
+                case "lookup":
+                    return proxy;
+                case "addNamingListener":
+                    return null;
+                case "search":
+                    SearchResult result = new SearchResult(DN, null, new BasicAttributes("uid", "jduke", true));
+                    result.setNameInNamespace(DN);
+                    return enumeration(Collections.singleton(result).iterator());
+                case "newInstance":
+                    Hashtable<String, Object> environment = new Hashtable<>();
+                    return Proxy.newProxyInstance(CachingDirectVerificationTest.class.getClassLoader(), new Class<?>[] { LdapContext.class }, (p, m, a) -> {
+                        switch (m.getName()) {
+                            case "addToEnvironment":
+                                return environment.put((String) a[0], a[1]);
+                            case "reconnect":
+                                bind(environment);
+                                return null;
+                            case "close":
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(m.getName());
+                        }
+                    });
+                case "getEnvironment":
+                    Hashtable<String, Object> contextEnvironment = new Hashtable<>();
+                    contextEnvironment.put(Context.INITIAL_CONTEXT_FACTORY, BindContextFactory.class.getName());
+                    return contextEnvironment;
+                case "close":
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static void bind(Hashtable<?, ?> environment) throws AuthenticationException {
+        binds.incrementAndGet();
+        if (! DN.equals(environment.get(DirContext.SECURITY_PRINCIPAL)) || ! PASSWORD.equals(new String((char[]) environment.get(DirContext.SECURITY_CREDENTIALS)))) {
+            throw new AuthenticationException("Invalid credentials");
+        }
+    }
+
+    /**
+     * The factory of the contexts opened by the binds performed off the calling thread.
+     */
+    public static class BindContextFactory implements InitialContextFactory {
+
+        @Override
+        public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+            bind(environment);
+            return (Context) Proxy.newProxyInstance(CachingDirectVerificationTest.class.getClassLoader(), new Class<?>[] { LdapContext.class }, (proxy, method, args) -> {
+                if ("close".equals(method.getName())) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NamingEnumeration<SearchResult> enumeration(Iterator<SearchResult> iterator) {
+        return (NamingEnumeration<SearchResult>) Proxy.newProxyInstance(CachingDirectVerificationTest.class.getClassLoader(), new Class<?>[] { NamingEnumeration.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hasMore":
+                case "hasMoreElements":
+                    return iterator.hasNext();
+                case "next":
+                case "nextElement":
+                    return iterator.next();
+                default:
+                    return null;
+            }
+        });
+    }
+}
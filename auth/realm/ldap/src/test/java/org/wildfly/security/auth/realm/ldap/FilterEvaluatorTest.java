@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link FilterEvaluator}.
+ */
+public class FilterEvaluatorTest {
+
+    private static final String[] ARGS = { "admins", "uid=jduke,ou=people,dc=example,dc=org" };
+
+    @Test
+    public void testEquality() throws Exception {
+        FilterEvaluator evaluator = FilterEvaluator.parse("(&(objectclass=groupofnames)(|(member={1})(owner={1})))");
+        assertEquals(new HashSet<>(Arrays.asList("objectclass", "member", "owner")), evaluator.getAttributeIds());
+
+        assertTrue(evaluator.matches(group("member", "uid=jduke,ou=people,dc=example,dc=org"), ARGS));
+        // DNs are compared as names
+        assertTrue(evaluator.matches(group("owner", "UID=jduke, ou=People, dc=example, dc=org"), ARGS));
+        assertFalse(evaluator.matches(group("member", "uid=other,ou=people,dc=example,dc=org"), ARGS));
+        assertFalse(evaluator.matches(new BasicAttributes("member", ARGS[1], true), ARGS));
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        FilterEvaluator evaluator = FilterEvaluator.parse("description=group \\28{0}\\29");
+        assertTrue(evaluator.matches(new BasicAttributes("description", "group (admins)", true), ARGS));
+        // values which are not names are compared exactly
+        assertFalse(evaluator.matches(new BasicAttributes("description", "group (Admins)", true), ARGS));
+
+        evaluator = FilterEvaluator.parse("(&(cn={0})(description=*))");
+        assertTrue(evaluator.matches(group("description", "any"), ARGS));
+        assertFalse(evaluator.matches(group("member", ARGS[1]), ARGS));
+    }
+
+    @Test
+    public void testUnsupported() {
+        assertNull(FilterEvaluator.parse("(!(member={1}))"));
+        assertNull(FilterEvaluator.parse("(cn=adm*)"));
+        assertNull(FilterEvaluator.parse("(uidNumber>=1000)"));
+        assertNull(FilterEvaluator.parse("(cn~=admins)"));
+        assertNull(FilterEvaluator.parse("(member:dn:={1})"));
+        assertNull(FilterEvaluator.parse("(&(cn={0})"));
+    }
+
+    private static Attributes group(String attributeId, String value) {
+        Attributes attributes = new BasicAttributes(true);
+        Attribute objectClass = new BasicAttribute("objectClass");
+        objectClass.add("top");
+        objectClass.add("groupOfNames");
+        attributes.put(objectClass);
+        attributes.put("cn", "admins");
+        attributes.put(attributeId, value);
+        return attributes;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+
+import org.junit.Test;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.server.SecurityRealm;
+
+/**
+ * Tests for {@link GroupEntryCache}.
+ */
+public class GroupEntryCacheTest {
+
+    private static final AttributeMapping REFERENCE = AttributeMapping.fromReference("memberOf").from("cn").roleRecursion(1).build();
+    private static final AttributeMapping FILTER = AttributeMapping.fromFilter("(member={1})").from("cn").roleRecursion(1).build();
+
+    @Test
+    public void testGetAndPut() {
+        GroupEntryCache cache = new GroupEntryCache(100, 60000);
+
+        assertNull(cache.get(REFERENCE, "cn=g1,ou=groups,dc=example,dc=org"));
+        cache.put(REFERENCE, null, "cn=g1,ou=groups,dc=example,dc=org", found("cn=g1,ou=groups,dc=example,dc=org"));
+
+        // DNs are compared as names
+        List<SearchResult> found = cache.get(REFERENCE, "CN=g1, ou=groups, dc=example, dc=org");
+        assertNotNull(found);
+        assertEquals("cn=g1,ou=groups,dc=example,dc=org", found.get(0).getNameInNamespace());
+        // cached separately for each mapping
+        assertNull(cache.get(FILTER, "cn=g1,ou=groups,dc=example,dc=org"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        GroupEntryCache cache = new GroupEntryCache(100, 100);
+
+        cache.put(REFERENCE, null, "cn=g1,ou=groups,dc=example,dc=org", Collections.emptyList());
+        assertNotNull(cache.get(REFERENCE, "cn=g1,ou=groups,dc=example,dc=org"));
+
+        Thread.sleep(200);
+
+        assertNull(cache.get(REFERENCE, "cn=g1,ou=groups,dc=example,dc=org"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        GroupEntryCache cache = new GroupEntryCache(100, 60000);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(REFERENCE, null, "cn=g" + i + ",ou=groups,dc=example,dc=org", Collections.emptyList());
+            assertTrue(cache.size() <= 100);
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        GroupEntryCache cache = new GroupEntryCache(100, 60000);
+
+        cache.put(REFERENCE, null, "cn=g1,ou=groups,dc=example,dc=org", found("cn=g1,ou=groups,dc=example,dc=org"));
+        cache.put(REFERENCE, null, "cn=g2,ou=groups,dc=example,dc=org", found("cn=g2,ou=groups,dc=example,dc=org"));
+        cache.put(FILTER, "ou=groups,dc=example,dc=org", "cn=g3,ou=groups,dc=example,dc=org", found("cn=g1,ou=groups,dc=example,dc=org"));
+
+        // a change outside of the searched context only affects the changed entry
+        cache.invalidate(new LdapName("uid=jduke,ou=people,dc=example,dc=org"));
+        assertEquals(3, cache.size());
+
+        // the changed entry may now be found by searches in its context
+        cache.invalidate(new LdapName("cn=g2,ou=groups,dc=example,dc=org"));
+        assertNotNull(cache.get(REFERENCE, "cn=g1,ou=groups,dc=example,dc=org"));
+        assertNull(cache.get(REFERENCE, "cn=g2,ou=groups,dc=example,dc=org"));
+        assertNull(cache.get(FILTER, "cn=g3,ou=groups,dc=example,dc=org"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDiamond() throws Exception {
+        Map<String, Attributes> directory = new LinkedHashMap<>();
+        directory.put("uid=jduke,ou=people,dc=example,dc=org", attributes("uid", "jduke"));
+        directory.put("cn=a,ou=groups,dc=example,dc=org", attributes("cn", "a", "member", "uid=jduke,ou=people,dc=example,dc=org"));
+        directory.put("cn=b,ou=groups,dc=example,dc=org", attributes("cn", "b", "member", "uid=jduke,ou=people,dc=example,dc=org"));
+        directory.put("cn=c,ou=groups,dc=example,dc=org", attributes("cn", "c", "member", "cn=a,ou=groups,dc=example,dc=org", "member", "cn=b,ou=groups,dc=example,dc=org"));
+        directory.put("cn=d,ou=groups,dc=example,dc=org", attributes("cn", "d", "member", "cn=c,ou=groups,dc=example,dc=org"));
+        AtomicInteger searches = new AtomicInteger();
+
+        SecurityRealm realm = LdapSecurityRealmBuilder.builder()
+                .setDirContextSupplier(() -> createContext(directory, searches))
+                .setGroupEntryCache(100, 60000)
+                .identityMapping()
+                    .setSearchDn("dc=example,dc=org")
+                    .searchRecursive()
+                    .setRdnIdentifier("uid")
+                    .map(AttributeMapping.fromFilter("(&(cn=*)(member={1}))").from("cn").roleRecursion(3).to("Roles").build())
+                    .build()
+                .build();
+
+        // a and b are searched for at once, c is reached through both of them, it is searched for once and what it found is cached
+        Set<String> expected = new HashSet<>(Arrays.asList("a", "b", "c", "d"));
+        assertEquals(expected, new HashSet<>(realm.getRealmIdentity(new NamePrincipal("jduke")).getAuthorizationIdentity().getAttributes().get("Roles")));
+        assertEquals(5, searches.getAndSet(0));
+        assertEquals(expected, new HashSet<>(realm.getRealmIdentity(new NamePrincipal("jduke")).getAuthorizationIdentity().getAttributes().get("Roles")));
+        assertEquals(2, searches.get());
+    }
+
+    private static DirContext createContext(Map<String, Attributes> directory, AtomicInteger searches) {
+        return (DirContext) Proxy.newProxyInstance(GroupEntryCacheTest.class.getClassLoader(), new Class<?>[] { DirContext.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "search":
+                    searches.incrementAndGet();
+                    FilterEvaluator filter = FilterEvaluator.parse((String) args[1]);
+                    String[] filterArgs = Arrays.stream((Object[]) args[2]).map(Object::toString).toArray(String[]::new);
+                    List<SearchResult> found = new ArrayList<>();
+                    for (Map.Entry<String, Attributes> entry : directory.entrySet()) {
+                        if (filter.matches(entry.getValue(), filterArgs)) {
+                            SearchResult result = new SearchResult(entry.getKey(), null, (Attributes) entry.getValue().clone());
+                            result.setNameInNamespace(entry.getKey());
+                            found.add(result);
+                        }
+                    }
+                    Iterator<SearchResult> iterator = found.iterator();
+                    return Proxy.newProxyInstance(GroupEntryCacheTest.class.getClassLoader(), new Class<?>[] { NamingEnumeration.class }, (p, m, a) -> {
+                        switch (m.getName()) {
+                            case "hasMore":
+                            case "hasMoreElements":
+                                return iterator.hasNext();
+                            case "next":
+                            case "nextElement":
+                                return iterator.next();
+                            default:
+                                return null;
+                        }
+                    });
+                case "lookup":
+                    return proxy;
+                case "getEnvironment":
+                    return new Hashtable<>();
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Attributes attributes(String... idsAndValues) {
+        Attributes attributes = new BasicAttributes(true);
+        for (int i = 0; i < idsAndValues.length; i += 2) {
+            Attribute attribute = attributes.get(idsAndValues[i]);
+            if (attribute == null) {
+                attribute = new BasicAttribute(idsAndValues[i]);
+                attributes.put(attribute);
+            }
+            attribute.add(idsAndValues[i + 1]);
+        }
+        return attributes;
+    }
+
+    private static List<SearchResult> found(String dn) {
+        SearchResult result = new SearchResult(dn, null, new BasicAttributes(true));
+        result.setNameInNamespace(dn);
+        return Collections.singletonList(result);
+    }
+}
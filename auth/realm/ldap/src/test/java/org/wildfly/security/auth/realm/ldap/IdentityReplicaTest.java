@@ -0,0 +1,435 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.Test;
+import org.wildfly.security.asn1.DERDecoder;
+import org.wildfly.security.asn1.DEREncoder;
+import org.wildfly.security.auth.principal.NamePrincipal;
+
+/**
+ * Tests for {@link IdentityReplica}.
+ */
+public class IdentityReplicaTest {
+
+    private static final String SEARCH_DN = "ou=People,dc=elytron,dc=wildfly,dc=org";
+    private static final byte[] COOKIE = { 1, 2, 3 };
+
+    @Test
+    public void testPolling() throws Exception {
+        TestServer server = new TestServer(false);
+        server.results.add(entry("jduke", null, null));
+        server.results.add(entry("user2", null, null));
+        IdentityReplica replica = new IdentityReplica(server::createContext, SEARCH_DN, false, "uid", Collections.singleton("mail"), Collections.emptySet(), 50, 50);
+
+        assertFalse(replica.isAuthoritative("jduke"));
+        replica.start();
+        try {
+            waitForSize(replica, 2);
+            assertTrue(replica.isAuthoritative("jduke"));
+            SearchResult jduke = replica.get("JDuke");
+            assertNotNull(jduke);
+            assertEquals("uid=jduke," + SEARCH_DN, jduke.getNameInNamespace());
+            assertEquals("jduke@elytron.org", jduke.getAttributes().get("mail").get());
+            assertNotNull(replica.getByDn("UID=user2," + SEARCH_DN));
+            assertNull(replica.get("user3"));
+            // without following the changes, a missing identity may have been created since the load
+            assertFalse(replica.isAuthoritative("user3"));
+            assertArrayEquals(new String[] { "mail", "*", "entryUUID" }, server.returningAttributes);
+
+            // lookups return copies
+            jduke.getAttributes().remove("mail");
+            assertNotNull(replica.get("jduke").getAttributes().get("mail"));
+
+            IdentityReplica.Modification modification = replica.modifying("jduke");
+            SearchResult modified = entry("jduke", null, null);
+            modified.getAttributes().put("mail", "duke@elytron.org");
+            server.results.set(0, modified);
+            replica.modified("jduke", modification);
+            // unless reloaded since, the replica holds the entry before the modification
+            assertTrue(! replica.isAuthoritative("jduke") || replica.get("jduke").getAttributes().get("mail").contains("duke@elytron.org"));
+            assertTrue(replica.isAuthoritative("user2"));
+
+            server.results.add(entry("user3", null, null));
+            waitForSize(replica, 3);
+            assertNotNull(replica.get("user3"));
+            assertTrue(replica.isAuthoritative("jduke"));
+            assertEquals("duke@elytron.org", replica.get("jduke").getAttributes().get("mail").get());
+        } finally {
+            replica.close();
+        }
+        assertFalse(replica.isAuthoritative("jduke"));
+        assertNull(replica.get("jduke"));
+    }
+
+    @Test
+    public void testContentSynchronization() throws Exception {
+        TestServer server = new TestServer(true);
+        UUID jdukeUuid = UUID.randomUUID();
+        UUID user2Uuid = UUID.randomUUID();
+        server.results.add(entry("jduke", jdukeUuid, IdentityReplica.STATE_ADD));
+        server.results.add(entry("user2", user2Uuid, IdentityReplica.STATE_ADD));
+        IdentityReplica replica = new IdentityReplica(server::createContext, SEARCH_DN, true, "uid", Collections.emptySet(), Collections.emptySet(), 50, 1000);
+
+        LdapContext context = (LdapContext) server.createContext();
+        assertArrayEquals(COOKIE, replica.load(context));
+        assertEquals(IdentityReplica.MODE_REFRESH_ONLY, decodeSyncRequestMode(server.searchControls[0], null));
+        assertEquals(2, replica.size());
+
+        // the identities are looked up on the server from before the writes
+        IdentityReplica.Modification jdukeModification = replica.modifying("jduke");
+        IdentityReplica.Modification user2Modification = replica.modifying("user2");
+        assertFalse(replica.isAuthoritative("jduke"));
+        assertNull(replica.getByDn("uid=jduke," + SEARCH_DN));
+
+        // the entries on the server once the realm modified jduke and deleted user2
+        SearchResult modified = entry("jduke", jdukeUuid, IdentityReplica.STATE_MODIFY);
+        modified.getAttributes().put("mail", "duke@elytron.org");
+        server.results.clear();
+        server.results.add(modified);
+        replica.modified("jduke", jdukeModification);
+        replica.modified("user2", user2Modification);
+        assertFalse(replica.isAuthoritative("jduke"));
+        assertFalse(replica.isAuthoritative("user2"));
+
+        // a change queued before the modification does not end it
+        SearchResult queued = entry("jduke", jdukeUuid, IdentityReplica.STATE_MODIFY);
+        queued.getAttributes().put("mail", "old@elytron.org");
+        server.results.clear();
+        server.results.add(queued);
+        replica.persist(context, COOKIE);
+        assertFalse(replica.isAuthoritative("jduke"));
+
+        server.results.clear();
+        server.results.add(modified);
+        server.results.add(entry("user2", user2Uuid, IdentityReplica.STATE_DELETE));
+        server.results.add(entry("user3", UUID.randomUUID(), IdentityReplica.STATE_ADD));
+        replica.persist(context, COOKIE);
+
+        assertEquals(IdentityReplica.MODE_REFRESH_AND_PERSIST, decodeSyncRequestMode(server.searchControls[0], COOKIE));
+        assertEquals(2, replica.size());
+        assertTrue(replica.isAuthoritative("jduke"));
+        assertEquals("duke@elytron.org", replica.get("jduke").getAttributes().get("mail").get());
+        assertNotNull(replica.getByDn("uid=jduke," + SEARCH_DN));
+        // no longer following the changes, a missing identity may have been created since
+        assertFalse(replica.isAuthoritative("user2"));
+        assertNull(replica.get("user2"));
+        assertNotNull(replica.get("user3"));
+
+        // renamed entry is recognized by its entry UUID
+        server.results.clear();
+        server.results.add(entry("duke", jdukeUuid, IdentityReplica.STATE_MODIFY));
+        replica.persist(context, COOKIE);
+
+        assertEquals(2, replica.size());
+        assertNull(replica.get("jduke"));
+        assertNull(replica.getByDn("uid=jduke," + SEARCH_DN));
+        assertEquals("uid=duke," + SEARCH_DN, replica.get("duke").getNameInNamespace());
+    }
+
+    @Test
+    public void testRename() throws Exception {
+        TestServer server = new TestServer(true);
+        UUID jdukeUuid = UUID.randomUUID();
+        server.results.add(entry("jduke", jdukeUuid, IdentityReplica.STATE_ADD));
+        IdentityReplica replica = new IdentityReplica(server::createContext, SEARCH_DN, true, "uid", Collections.emptySet(), Collections.emptySet(), 50, 1000);
+
+        LdapContext context = (LdapContext) server.createContext();
+        replica.load(context);
+
+        // the realm renames jduke to duke
+        IdentityReplica.Modification jdukeModification = replica.modifying("jduke");
+        IdentityReplica.Modification dukeModification = replica.modifying("duke");
+        server.results.clear();
+        server.results.add(entry("duke", jdukeUuid, IdentityReplica.STATE_MODIFY));
+        replica.removed("jduke", jdukeModification);
+        replica.modified("duke", dukeModification);
+        assertFalse(replica.isAuthoritative("duke"));
+
+        replica.persist(context, COOKIE);
+        assertTrue(replica.isAuthoritative("duke"));
+        assertNotNull(replica.getByDn("uid=duke," + SEARCH_DN));
+
+        // the rename is replicated for the former name as well, a new identity with it is looked up in the replica
+        server.results.clear();
+        server.results.add(entry("jduke", UUID.randomUUID(), IdentityReplica.STATE_ADD));
+        replica.persist(context, COOKIE);
+        assertTrue(replica.isAuthoritative("jduke"));
+        assertNotNull(replica.getByDn("uid=jduke," + SEARCH_DN));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        TestServer server = new TestServer(true);
+        server.results.add(entry("jduke", UUID.randomUUID(), IdentityReplica.STATE_ADD));
+        server.blockPersist = true;
+        IdentityReplica replica = new IdentityReplica(server::createContext, SEARCH_DN, true, "uid", Collections.emptySet(), Collections.emptySet(), 50, 1000);
+        replica.start();
+        waitForSize(replica, 1);
+        // while the changes are followed a missing identity does not exist
+        for (int i = 0; i < 100 && ! replica.isAuthoritative("user2"); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(replica.isAuthoritative("user2"));
+
+        // the persistent search blocked reading the next change is abandoned
+        replica.close();
+        assertTrue(server.persistClosed.await(5, TimeUnit.SECONDS));
+        Thread thread = replicaThread();
+        if (thread != null) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    @Test
+    public void testRealm() throws Exception {
+        TestServer server = new TestServer(false);
+        server.results.add(entry("jduke", null, null));
+        LdapSecurityRealm realm = (LdapSecurityRealm) LdapSecurityRealmBuilder.builder()
+                .setDirContextSupplier(server::createContext)
+                .setIdentityReplica(60000)
+                .identityMapping()
+                    .setSearchDn(SEARCH_DN)
+                    .setRdnIdentifier("uid")
+                    .build()
+                .build();
+        try {
+            // once the replica is loaded, jduke is found without searching the server
+            int searches;
+            int attempts = 0;
+            do {
+                Thread.sleep(50);
+                searches = server.searches.get();
+                assertTrue(realm.getRealmIdentity(new NamePrincipal("jduke")).exists());
+            } while (server.searches.get() != searches && ++attempts < 100);
+            assertEquals(searches, server.searches.get());
+
+            // an identity created since the load is searched on the server
+            server.results.add(entry("user2", null, null));
+            assertTrue(realm.getRealmIdentity(new NamePrincipal("user2")).exists());
+            assertEquals(searches + 1, server.searches.get());
+        } finally {
+            realm.close();
+        }
+        Thread thread = replicaThread();
+        if (thread != null) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    private static Thread replicaThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("LdapSecurityRealm identity replica " + SEARCH_DN)) {
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    private static void waitForSize(IdentityReplica replica, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && replica.size() != size; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(size, replica.size());
+    }
+
+    private static int decodeSyncRequestMode(Control control, byte[] cookie) {
+        assertEquals(IdentityReplica.SYNC_REQUEST_OID, control.getID());
+        DERDecoder decoder = new DERDecoder(control.getEncodedValue());
+        decoder.startSequence();
+        int mode = IdentityReplica.decodeEnumerated(decoder);
+        assertArrayEquals(cookie, decoder.hasNextElement() ? decoder.decodeOctetString() : null);
+        return mode;
+    }
+
+    private static SearchResult entry(String uid, UUID uuid, Integer state) {
+        BasicAttributes attributes = new BasicAttributes(true);
+        attributes.put(new BasicAttribute("uid", uid));
+        attributes.put(new BasicAttribute("mail", uid + "@elytron.org"));
+        String dn = "uid=" + uid + "," + SEARCH_DN;
+        if (state == null) {
+            SearchResult result = new SearchResult(dn, null, attributes);
+            result.setNameInNamespace(dn);
+            return result;
+        }
+
+        ByteBuffer uuidBytes = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        DEREncoder encoder = new DEREncoder();
+        encoder.startSequence();
+        encoder.encodeImplicit(0, 10);
+        encoder.encodeInteger(BigInteger.valueOf(state));
+        encoder.encodeOctetString(uuidBytes.array());
+        encoder.endSequence();
+        SearchResultWithControls result = new SearchResultWithControls(dn, attributes, new BasicControl(IdentityReplica.SYNC_STATE_OID, false, encoder.getEncoded()));
+        result.setNameInNamespace(dn);
+        return result;
+    }
+
+    private static boolean isPersist(Control control) {
+        DERDecoder decoder = new DERDecoder(control.getEncodedValue());
+        decoder.startSequence();
+        return IdentityReplica.decodeEnumerated(decoder) == IdentityReplica.MODE_REFRESH_AND_PERSIST;
+    }
+
+    private static final class SearchResultWithControls extends SearchResult implements HasControls {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Control[] controls;
+
+        SearchResultWithControls(String name, BasicAttributes attributes, Control... controls) {
+            super(name, null, attributes);
+            this.controls = controls;
+        }
+
+        @Override
+        public Control[] getControls() {
+            return controls;
+        }
+    }
+
+    private static final class TestServer {
+
+        final boolean contentSynchronization;
+        final List<SearchResult> results = Collections.synchronizedList(new ArrayList<>());
+        volatile String[] returningAttributes;
+        volatile Control[] requestControls;
+        volatile Control[] searchControls;
+        volatile boolean blockPersist;
+        final CountDownLatch persistClosed = new CountDownLatch(1);
+        final AtomicInteger searches = new AtomicInteger();
+
+        TestServer(boolean contentSynchronization) {
+            this.contentSynchronization = contentSynchronization;
+        }
+
+        DirContext createContext() {
+            Hashtable<String, Object> environment = new Hashtable<>();
+            return (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { contentSynchronization ? LdapContext.class : DirContext.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getAttributes":
+                        BasicAttributes rootDse = new BasicAttributes(true);
+                        rootDse.put(new BasicAttribute("supportedControl", IdentityReplica.SYNC_REQUEST_OID));
+                        return rootDse;
+                    case "getRequestControls":
+                        return requestControls;
+                    case "setRequestControls":
+                        requestControls = (Control[]) args[0];
+                        return null;
+                    case "getResponseControls":
+                        DEREncoder encoder = new DEREncoder();
+                        encoder.startSequence();
+                        encoder.encodeOctetString(COOKIE);
+                        encoder.endSequence();
+                        return new Control[] { new BasicControl(IdentityReplica.SYNC_DONE_OID, false, encoder.getEncoded()) };
+                    case "getEnvironment":
+                        return environment;
+                    case "addToEnvironment":
+                        return environment.put((String) args[0], args[1]);
+                    case "removeFromEnvironment":
+                        return environment.remove(args[0]);
+                    case "search":
+                        searches.incrementAndGet();
+                        returningAttributes = ((SearchControls) args[args.length - 1]).getReturningAttributes();
+                        searchControls = requestControls;
+                        // searches of an identity by name filter the entries by uid
+                        Object[] filterArgs = args.length == 4 ? (Object[]) args[2] : null;
+                        Iterator<SearchResult> iterator;
+                        synchronized (results) {
+                            List<SearchResult> found = new ArrayList<>();
+                            for (SearchResult result : results) {
+                                if (filterArgs == null || result.getAttributes().get("uid").contains(filterArgs[0])) {
+                                    found.add(result);
+                                }
+                            }
+                            iterator = found.iterator();
+                        }
+                        boolean blocking = blockPersist && requestControls != null && isPersist(requestControls[0]);
+                        CountDownLatch closed = new CountDownLatch(1);
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { NamingEnumeration.class }, (p, m, a) -> {
+                            switch (m.getName()) {
+                                case "close":
+                                    if (blocking) {
+                                        persistClosed.countDown();
+                                    }
+                                    closed.countDown();
+                                    return null;
+                                case "hasMore":
+                                case "hasMoreElements":
+                                    if (blocking && ! iterator.hasNext()) {
+                                        closed.await();
+                                        throw new CommunicationException("Request abandoned");
+                                    }
+                                    return iterator.hasNext();
+                                case "next":
+                                case "nextElement":
+                                    return iterator.next();
+                                default:
+                                    return null;
+                            }
+                        });
+                    case "close":
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName() + Arrays.toString(args));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.security.auth.callback.CallbackHandler;
+
+import org.junit.Test;
+import org.wildfly.security.auth.realm.ldap.DirContextFactory.ReferralMode;
+
+/**
+ * Tests for {@link PooledDirContextFactory}.
+ */
+public class PooledDirContextFactoryTest {
+
+    @Test
+    public void testContextReused() throws Exception {
+        TestServer server = new TestServer();
+        PooledDirContextFactory factory = PooledDirContextFactory.builder().addDirContextFactory(server).build();
+
+        DirContext context = factory.obtainDirContext(ReferralMode.IGNORE);
+        assertEquals(1, factory.getActiveCount());
+        context.close();
+        assertEquals(0, factory.getActiveCount());
+        assertEquals(1, factory.getIdleCount());
+
+        factory.obtainDirContext(ReferralMode.IGNORE).close();
+        factory.obtainDirContext(null).close();
+        assertEquals(1, server.created.get());
+        assertEquals(3, factory.getBorrowCount());
+
+        // a context for another referral mode is not shared
+        factory.obtainDirContext(ReferralMode.FOLLOW).close();
+        assertEquals(2, server.created.get());
+        assertEquals(2, factory.getIdleCount());
+
+        factory.close();
+        assertEquals(0, factory.getIdleCount());
+        assertEquals(2, server.closed.get());
+    }
+
+    @Test
+    public void testExhausted() throws Exception {
+        TestServer server = new TestServer();
+        PooledDirContextFactory factory = PooledDirContextFactory.builder()
+                .addDirContextFactory(server)
+                .setMaxSize(2)
+                .setMaxWait(100)
+                .build();
+
+        DirContext first = factory.obtainDirContext(ReferralMode.IGNORE);
+        DirContext second = factory.obtainDirContext(ReferralMode.IGNORE);
+        try {
+            factory.obtainDirContext(ReferralMode.IGNORE);
+            fail("Expected the pool to be exhausted");
+        } catch (NamingException expected) {
+        }
+        assertEquals(1, factory.getExhaustedCount());
+        assertTrue(factory.getWaitTime() >= 100);
+
+        // a context returned while waiting is handed over
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+                first.close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        DirContext third = factory.obtainDirContext(ReferralMode.IGNORE);
+        thread.join();
+        assertEquals(2, server.created.get());
+        assertEquals(2, factory.getExhaustedCount());
+
+        third.close();
+        second.close();
+        assertEquals(2, factory.getIdleCount());
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        TestServer server = new TestServer();
+        PooledDirContextFactory factory = PooledDirContextFactory.builder()
+                .addDirContextFactory(server)
+                .setIdleTimeout(50)
+                .build();
+
+        factory.obtainDirContext(ReferralMode.IGNORE).close();
+        Thread.sleep(100);
+        factory.obtainDirContext(ReferralMode.IGNORE).close();
+
+        assertEquals(2, server.created.get());
+        assertEquals(1, server.closed.get());
+        assertEquals(1, factory.getDestroyedCount());
+    }
+
+    @Test
+    public void testValidateOnBorrow() throws Exception {
+        TestServer server = new TestServer();
+        PooledDirContextFactory factory = PooledDirContextFactory.builder().addDirContextFactory(server).build();
+
+        factory.obtainDirContext(ReferralMode.IGNORE).close();
+        server.valid.set(false);
+        factory.obtainDirContext(ReferralMode.IGNORE).close();
+
+        assertEquals(2, server.created.get());
+        assertEquals(1, server.closed.get());
+    }
+
+    @Test
+    public void testDistribution() throws Exception {
+        TestServer first = new TestServer();
+        TestServer second = new TestServer();
+        PooledDirContextFactory roundRobin = PooledDirContextFactory.builder()
+                .addDirContextFactory(first)
+                .addDirContextFactory(second)
+                .build();
+
+        List<DirContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            contexts.add(roundRobin.obtainDirContext(ReferralMode.IGNORE));
+        }
+        assertEquals(2, first.created.get());
+        assertEquals(2, second.created.get());
+        for (DirContext context : contexts) {
+            context.close();
+        }
+
+        TestServer third = new TestServer();
+        TestServer fourth = new TestServer();
+        PooledDirContextFactory leastLoaded = PooledDirContextFactory.builder()
+                .addDirContextFactory(third)
+                .addDirContextFactory(fourth)
+                .setDistribution(PooledDirContextFactory.Distribution.LEAST_LOADED)
+                .build();
+
+        DirContext held = leastLoaded.obtainDirContext(ReferralMode.IGNORE);
+        for (int i = 0; i < 3; i++) {
+            leastLoaded.obtainDirContext(ReferralMode.IGNORE).close();
+        }
+        held.close();
+        assertEquals(1, third.created.get());
+        assertEquals(1, fourth.created.get());
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        TestServer down = new TestServer();
+        down.available.set(false);
+        TestServer up = new TestServer();
+        PooledDirContextFactory factory = PooledDirContextFactory.builder()
+                .addDirContextFactory(down)
+                .addDirContextFactory(up)
+                .build();
+
+        for (int i = 0; i < 4; i++) {
+            factory.obtainDirContext(ReferralMode.IGNORE).close();
+        }
+        assertEquals(1, up.created.get());
+
+        up.available.set(false);
+        up.valid.set(false);
+        try {
+            factory.obtainDirContext(ReferralMode.IGNORE);
+            fail("Expected no server to be available");
+        } catch (CommunicationException expected) {
+        }
+        assertEquals(0, factory.getActiveCount());
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        TestServer server = new TestServer();
+        PooledDirContextFactory factory = PooledDirContextFactory.builder().addDirContextFactory(server).build();
+
+        DirContext context = factory.obtainDirContext(ReferralMode.IGNORE);
+        DirContext underlying = server.contexts.get(0);
+        factory.discardContext(underlying);
+        assertEquals(0, factory.getActiveCount());
+        assertEquals(0, factory.getIdleCount());
+        assertEquals(1, server.closed.get());
+
+        assertNotSame(context, factory.obtainDirContext(ReferralMode.IGNORE));
+        assertEquals(2, server.created.get());
+    }
+
+    @Test
+    public void testCloseTwice() throws Exception {
+        TestServer server = new TestServer();
+        PooledDirContextFactory factory = PooledDirContextFactory.builder().addDirContextFactory(server).build();
+
+        DirContext first = factory.obtainDirContext(ReferralMode.IGNORE);
+        first.close();
+        DirContext second = factory.obtainDirContext(ReferralMode.IGNORE);
+        assertEquals(1, server.created.get());
+
+        // the pooled context is in use by the second caller by now
+        first.close();
+        factory.returnContext(first);
+        assertEquals(1, factory.getActiveCount());
+        assertEquals(0, factory.getIdleCount());
+        assertEquals(0, server.closed.get());
+
+        // a context not in use from the pool is not closed
+        TestServer other = new TestServer();
+        factory.returnContext(other.obtainDirContext(ReferralMode.IGNORE));
+        assertEquals(1, factory.getActiveCount());
+        assertEquals(0, other.closed.get());
+
+        second.close();
+        second.close();
+        assertEquals(0, factory.getActiveCount());
+        assertEquals(1, factory.getIdleCount());
+        assertEquals(0, server.closed.get());
+    }
+
+    /**
+     * A {@link DirContextFactory} creating contexts which only support the validation search and closing.
+     */
+    private static final class TestServer implements DirContextFactory {
+
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final AtomicBoolean available = new AtomicBoolean(true);
+        final AtomicBoolean valid = new AtomicBoolean(true);
+        final List<DirContext> contexts = new ArrayList<>();
+
+        @Override
+        public DirContext obtainDirContext(ReferralMode mode) throws NamingException {
+            if (! available.get()) {
+                throw new CommunicationException("Connection refused");
+            }
+            created.incrementAndGet();
+            DirContext context = (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DirContext.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close":
+                        closed.incrementAndGet();
+                        return null;
+                    case "search":
+                        if (! valid.get()) {
+                            throw new CommunicationException("Connection closed");
+                        }
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { NamingEnumeration.class }, (p, m, a) -> null);
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "TestContext";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            contexts.add(context);
+            return context;
+        }
+
+        @Override
+        public DirContext obtainDirContext(CallbackHandler handler, ReferralMode mode) throws NamingException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void returnContext(DirContext context) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.server;
+
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.credential.Credential;
+
+/**
+ * The definition of an identity to create in a {@link ModifiableSecurityRealm}, with its credentials and attributes.
+ *
+ * @see ModifiableSecurityRealm#provisionIdentities(java.util.stream.Stream)
+ */
+public final class IdentityDefinition {
+
+    private final Principal principal;
+    private final Collection<Credential> credentials;
+    private final Attributes attributes;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param principal the principal of the identity (must not be {@code null})
+     * @param credentials the credentials of the identity (must not be {@code null})
+     * @param attributes the attributes of the identity (must not be {@code null})
+     */
+    public IdentityDefinition(final Principal principal, final Collection<? extends Credential> credentials, final Attributes attributes) {
+        this.principal = checkNotNullParam("principal", principal);
+        this.credentials = Collections.unmodifiableList(new ArrayList<>(checkNotNullParam("credentials", credentials)));
+        this.attributes = checkNotNullParam("attributes", attributes);
+    }
+
+    /**
+     * Get the principal of the identity.
+     *
+     * @return the principal of the identity
+     */
+    public Principal getPrincipal() {
+        return principal;
+    }
+
+    /**
+     * Get the credentials of the identity.
+     *
+     * @return the credentials of the identity
+     */
+    public Collection<Credential> getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * Get the attributes of the identity.
+     *
+     * @return the attributes of the identity
+     */
+    public Attributes getAttributes() {
+        return attributes;
+    }
+}
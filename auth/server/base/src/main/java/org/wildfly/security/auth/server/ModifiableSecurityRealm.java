@@ -19,6 +19,10 @@
 package org.wildfly.security.auth.server;
 
 import java.security.Principal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import org.wildfly.security.evidence.Evidence;
 
@@ -75,4 +79,50 @@ public interface ModifiableSecurityRealm extends SecurityRealm {
      * @throws RealmUnavailableException if the realm fails for some reason
      */
     ModifiableRealmIdentityIterator getRealmIdentityIterator() throws RealmUnavailableException;
+
+    /**
+     * Create the given identities, with their credentials and attributes. An identity which cannot be created, for
+     * example because it already exists, does not prevent the next ones from being created: the reason it failed is
+     * reported in the returned result instead, and nothing is left of it in the realm.
+     * <p>
+     * The default implementation creates the identities one at a time using {@link #getRealmIdentityForUpdate(Principal)}.
+     * Realms able to amortise the cost of writes over many identities, for example by syncing them to storage together,
+     * should override it.
+     *
+     * @param identities the definitions of the identities to create (must not be {@code null})
+     * @return the number of identities created and the failures
+     * @throws RealmUnavailableException if the realm fails for some reason affecting all the identities
+     */
+    default ProvisioningResult provisionIdentities(Stream<IdentityDefinition> identities) throws RealmUnavailableException {
+        final Map<Principal, Exception> failures = new LinkedHashMap<>();
+        int provisioned = 0;
+        final Iterator<IdentityDefinition> iterator = identities.iterator();
+        while (iterator.hasNext()) {
+            final IdentityDefinition definition = iterator.next();
+            ModifiableRealmIdentity identity = null;
+            try {
+                identity = getRealmIdentityForUpdate(definition.getPrincipal());
+                identity.create();
+                try {
+                    identity.setCredentials(definition.getCredentials());
+                    identity.setAttributes(definition.getAttributes());
+                } catch (RealmUnavailableException | RuntimeException e) {
+                    try {
+                        identity.delete();
+                    } catch (RealmUnavailableException | RuntimeException e2) {
+                        e.addSuppressed(e2);
+                    }
+                    throw e;
+                }
+                provisioned++;
+            } catch (RealmUnavailableException | RuntimeException e) {
+                failures.put(definition.getPrincipal(), e);
+            } finally {
+                if (identity != null) {
+                    identity.dispose();
+                }
+            }
+        }
+        return new ProvisioningResult(provisioned, failures);
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.server;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of {@link ModifiableSecurityRealm#provisionIdentities(java.util.stream.Stream)}: the number of identities
+ * created, and the reason each of the other identities could not be created.
+ */
+public final class ProvisioningResult {
+
+    private final int provisionedCount;
+    private final Map<Principal, Exception> failures;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param provisionedCount the number of identities created
+     * @param failures the reason each of the identities which could not be created failed, by principal, in the order
+     *                 the identities were defined (must not be {@code null})
+     */
+    public ProvisioningResult(final int provisionedCount, final Map<Principal, Exception> failures) {
+        checkMinimumParameter("provisionedCount", 0, provisionedCount);
+        checkNotNullParam("failures", failures);
+        this.provisionedCount = provisionedCount;
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    /**
+     * Get the number of identities created.
+     *
+     * @return the number of identities created
+     */
+    public int getProvisionedCount() {
+        return provisionedCount;
+    }
+
+    /**
+     * Get the reason each of the identities which could not be created failed, in the order the identities were defined.
+     *
+     * @return the exceptions by principal, empty if all the identities were created
+     */
+    public Map<Principal, Exception> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Determine whether all the identities were created.
+     *
+     * @return {@code true} if all the identities were created, {@code false} otherwise
+     */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ProvisioningResult{provisioned=" + provisionedCount + ", failed=" + failures.size() + "}";
+    }
+}
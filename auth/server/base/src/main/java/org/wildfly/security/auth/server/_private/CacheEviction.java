@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.auth.server._private;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Eviction of the entries of bounded caches, shared by the caches of the realms.
+ */
+public final class CacheEviction {
+
+    private CacheEviction() {
+    }
+
+    /**
+     * Removes the expired entries of a cache, then further entries until the cache is down to a low water mark below its
+     * maximum number of entries, so that the cost of a pass is amortized over many puts. Nothing is removed if another
+     * thread holds the eviction lock, as that thread is already evicting.
+     *
+     * @param entries the entries of the cache
+     * @param maxEntries the maximum number of entries of the cache
+     * @param expiration the function giving the time in milliseconds an entry expires at
+     * @param evictionLock the lock held while evicting
+     * @param <K> the type of the keys
+     * @param <V> the type of the entries
+     * @return the number of unexpired entries removed
+     */
+    public static <K, V> int evict(Map<K, V> entries, int maxEntries, ToLongFunction<? super V> expiration, Lock evictionLock) {
+        if (! evictionLock.tryLock()) {
+            return 0;
+        }
+        try {
+            int target = maxEntries - maxEntries / 10;
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> now > expiration.applyAsLong(entry));
+
+            int evicted = 0;
+            Iterator<K> iterator = entries.keySet().iterator();
+            while (entries.size() > target && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evicted++;
+            }
+            return evicted;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.security.Principal;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.wildfly.security.auth.server.RealmIdentity;
+
+/**
+ * <p>A {@link RealmIdentityCache} implementation safe for highly concurrent use.
+ *
+ * <p>Entries are held in a {@link ConcurrentHashMap} so lookups never block. Eviction follows the CLOCK (second chance)
+ * policy, an approximation of LRU: a read only marks the entry as referenced, and when the cache grows beyond its maximum
+ * number of entries the oldest entries are visited in insertion order, with referenced entries being given a second chance
+ * instead of being evicted. Only writers that need to evict contend with each other.
+ *
+ * <p>The mapping between realm principals and the domain principals used to lookup an identity, as well as the maximum age
+ * of entries, behave as in {@link LRURealmIdentityCache}.
+ */
+public final class ConcurrentRealmIdentityCache implements RealmIdentityCache {
+
+    /**
+     * Holds the cached identities where the key is the domain principal, the one used to lookup the identity
+     */
+    private final ConcurrentHashMap<Principal, CacheEntry> identityCache = new ConcurrentHashMap<>(16);
+
+    /**
+     * Holds a mapping between a realm principal and domain principals
+     */
+    private final ConcurrentHashMap<Principal, Set<Principal>> domainPrincipalMap = new ConcurrentHashMap<>(16);
+
+    /**
+     * The eviction candidates, in insertion order. May hold entries which were already removed from the cache.
+     */
+    private final ConcurrentLinkedQueue<CacheEntry> clock = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger clockSize = new AtomicInteger();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final int maxEntries;
+
+    private final long maxAge;
+
+    private final StatisticsCounter statistics = new StatisticsCounter();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     */
+    public ConcurrentRealmIdentityCache(int maxEntries) {
+        this(maxEntries, -1);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     * @param maxAge the time in milliseconds that an entry can stay in the cache. If {@code -1}, entries never expire
+     */
+    public ConcurrentRealmIdentityCache(int maxEntries, long maxAge) {
+        checkMinimumParameter("maxEntries", 1, maxEntries);
+        checkMinimumParameter("maxAge", -1, maxAge);
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public void put(Principal key, RealmIdentity newValue) {
+        checkNotNullParam("key", key);
+        checkNotNullParam("newValue", newValue);
+        CacheEntry entry = new CacheEntry(key, newValue, maxAge);
+        CacheEntry existing = identityCache.putIfAbsent(key, entry);
+
+        if (existing != null) {
+            if (! existing.isExpired() || ! identityCache.replace(key, existing, entry)) {
+                return;
+            }
+            unlinkDomainPrincipal(existing);
+            statistics.recordRemoval(RemovalCause.EXPIRED);
+        }
+
+        linkDomainPrincipal(entry);
+        if (identityCache.get(key) != entry) {
+            // removed concurrently, do not leave a dangling mapping behind
+            unlinkDomainPrincipal(entry);
+            return;
+        }
+
+        clock.offer(entry);
+        if (clockSize.incrementAndGet() > maxEntries * 2L || identityCache.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    @Override
+    public boolean replace(Principal key, RealmIdentity oldValue, RealmIdentity newValue) {
+        checkNotNullParam("key", key);
+        checkNotNullParam("oldValue", oldValue);
+        checkNotNullParam("newValue", newValue);
+        CacheEntry existing = identityCache.get(key);
+
+        if (existing == null || existing.value() != oldValue) {
+            return false;
+        }
+
+        CacheEntry entry = new CacheEntry(key, newValue, maxAge);
+
+        if (! identityCache.replace(key, existing, entry)) {
+            return false;
+        }
+
+        if (! Objects.equals(existing.realmPrincipal(), entry.realmPrincipal())) {
+            unlinkDomainPrincipal(existing);
+        }
+        linkDomainPrincipal(entry);
+        if (identityCache.get(key) != entry) {
+            // removed concurrently, do not leave a dangling mapping behind
+            unlinkDomainPrincipal(entry);
+            return true;
+        }
+
+        clock.offer(entry);
+        if (clockSize.incrementAndGet() > maxEntries * 2L || identityCache.size() > maxEntries) {
+            evict();
+        }
+
+        return true;
+    }
+
+    @Override
+    public RealmIdentity get(Principal key) {
+        CacheEntry cached = lookup(key);
+
+        if (cached == null) {
+            statistics.recordMiss();
+            return null;
+        }
+
+        if (cached.isExpired()) {
+            statistics.recordRemovals(RemovalCause.EXPIRED, removeAll(cached.key()));
+            statistics.recordMiss();
+            return null;
+        }
+
+        cached.markReferenced();
+        statistics.recordHit();
+
+        return cached.value();
+    }
+
+    @Override
+    public long getExpiration(Principal key) {
+        CacheEntry cached = lookup(key);
+
+        return cached != null ? cached.expiration() : -1;
+    }
+
+    private CacheEntry lookup(Principal key) {
+        CacheEntry cached = identityCache.get(key);
+
+        if (cached == null) {
+            Set<Principal> domainPrincipals = domainPrincipalMap.get(key);
+
+            if (domainPrincipals != null) {
+                for (Principal domainPrincipal : domainPrincipals) {
+                    cached = identityCache.get(domainPrincipal);
+                    if (cached != null) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return cached;
+    }
+
+    @Override
+    public void remove(Principal key) {
+        statistics.recordRemovals(RemovalCause.EXPLICIT, removeAll(key));
+    }
+
+    @Override
+    public RealmIdentityCacheStatistics getStatistics() {
+        return statistics.snapshot(identityCache.size());
+    }
+
+    private int removeAll(Principal key) {
+        CacheEntry removed = identityCache.remove(key);
+        Set<Principal> domainPrincipals;
+        int count = removed != null ? 1 : 0;
+
+        if (removed != null) {
+            Principal realmPrincipal = removed.realmPrincipal();
+            domainPrincipals = realmPrincipal != null ? domainPrincipalMap.remove(realmPrincipal) : null;
+        } else {
+            domainPrincipals = domainPrincipalMap.remove(key);
+        }
+
+        if (domainPrincipals != null) {
+            for (Principal domainPrincipal : domainPrincipals) {
+                if (identityCache.remove(domainPrincipal) != null) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            statistics.recordRemovals(RemovalCause.EXPLICIT, identityCache.size());
+            identityCache.clear();
+            domainPrincipalMap.clear();
+            clock.clear();
+            clockSize.set(0);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void evict() {
+        evictionLock.lock();
+        try {
+            if (clockSize.get() > maxEntries * 2L) {
+                // entries removed from the cache are not unlinked from the clock right away, purge them in bulk
+                clock.removeIf(candidate -> identityCache.get(candidate.key()) != candidate);
+                clockSize.set(clock.size());
+            }
+
+            while (identityCache.size() > maxEntries) {
+                CacheEntry candidate = clock.poll();
+
+                if (candidate == null) {
+                    break;
+                }
+
+                if (identityCache.get(candidate.key()) != candidate) {
+                    clockSize.decrementAndGet();
+                    continue;
+                }
+
+                if (candidate.clearReferenced() && ! candidate.isExpired()) {
+                    clock.offer(candidate);
+                    continue;
+                }
+
+                clockSize.decrementAndGet();
+                if (identityCache.remove(candidate.key(), candidate)) {
+                    unlinkDomainPrincipal(candidate);
+                    statistics.recordRemoval(candidate.isExpired() ? RemovalCause.EXPIRED : RemovalCause.SIZE);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void linkDomainPrincipal(CacheEntry entry) {
+        Principal realmPrincipal = entry.realmPrincipal();
+
+        if (realmPrincipal != null) {
+            domainPrincipalMap.compute(realmPrincipal, (principal, principals) -> {
+                if (principals == null) {
+                    principals = ConcurrentHashMap.newKeySet();
+                }
+                principals.add(entry.key());
+                return principals;
+            });
+        }
+    }
+
+    private void unlinkDomainPrincipal(CacheEntry entry) {
+        Principal realmPrincipal = entry.realmPrincipal();
+
+        if (realmPrincipal != null) {
+            domainPrincipalMap.computeIfPresent(realmPrincipal, (principal, principals) -> {
+                principals.remove(entry.key());
+                return principals.isEmpty() ? null : principals;
+            });
+        }
+    }
+
+    private static final class CacheEntry {
+
+        final Principal key;
+        final RealmIdentity value;
+        final Principal realmPrincipal;
+        final long expiration;
+        volatile boolean referenced;
+
+        CacheEntry(Principal key, RealmIdentity value, long maxAge) {
+            this.key = key;
+            this.value = value;
+            this.realmPrincipal = value.getRealmIdentityPrincipal();
+            if (maxAge == -1) {
+                expiration = -1;
+            } else {
+                expiration = System.currentTimeMillis() + maxAge;
+            }
+        }
+
+        Principal key() {
+            return key;
+        }
+
+        RealmIdentity value() {
+            return value;
+        }
+
+        Principal realmPrincipal() {
+            return realmPrincipal;
+        }
+
+        long expiration() {
+            return expiration;
+        }
+
+        void markReferenced() {
+            // avoid writing to a shared cache line on every read
+            if (! referenced) {
+                referenced = true;
+            }
+        }
+
+        boolean clearReferenced() {
+            if (referenced) {
+                referenced = false;
+                return true;
+            }
+            return false;
+        }
+
+        boolean isExpired() {
+            return expiration != -1 ? System.currentTimeMillis() > expiration : false;
+        }
+    }
+}
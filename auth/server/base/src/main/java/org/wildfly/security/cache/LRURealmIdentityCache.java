@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
@@ -58,6 +59,8 @@ public final class LRURealmIdentityCache implements RealmIdentityCache {
 
     private final long maxAge;
 
+    private final StatisticsCounter statistics = new StatisticsCounter();
+
     /**
      * Creates a new instance.
      *
@@ -79,7 +82,11 @@ public final class LRURealmIdentityCache implements RealmIdentityCache {
         identityCache = new LinkedHashMap<Principal, CacheEntry>(16, DEFAULT_LOAD_FACTOR, true) {
             @Override
             protected boolean removeEldestEntry(Entry<Principal, CacheEntry> eldest) {
-                return identityCache.size()  > maxEntries;
+                if (identityCache.size()  > maxEntries) {
+                    statistics.recordRemoval(RemovalCause.SIZE);
+                    return true;
+                }
+                return false;
             }
         };
         domainPrincipalMap = new HashMap<>(16);
@@ -112,6 +119,42 @@ public final class LRURealmIdentityCache implements RealmIdentityCache {
         }
     }
 
+    @Override
+    public boolean replace(Principal key, RealmIdentity oldValue, RealmIdentity newValue) {
+        try {
+            if (parkForWriteAndCheckInterrupt()) {
+                return false;
+            }
+
+            CacheEntry cached = identityCache.get(key);
+
+            if (cached == null || cached.value() != oldValue) {
+                return false;
+            }
+
+            Principal oldRealmPrincipal = oldValue.getRealmIdentityPrincipal();
+            Principal newRealmPrincipal = newValue.getRealmIdentityPrincipal();
+
+            if (! Objects.equals(oldRealmPrincipal, newRealmPrincipal)) {
+                Set<Principal> domainPrincipals = domainPrincipalMap.get(oldRealmPrincipal);
+
+                if (domainPrincipals != null) {
+                    domainPrincipals.remove(key);
+                    if (domainPrincipals.isEmpty()) {
+                        domainPrincipalMap.remove(oldRealmPrincipal);
+                    }
+                }
+                domainPrincipalMap.computeIfAbsent(newRealmPrincipal, principal -> new HashSet<>()).add(key);
+            }
+
+            identityCache.put(key, new CacheEntry(key, newValue, maxAge));
+
+            return true;
+        } finally {
+            writing.lazySet(false);
+        }
+    }
+
     @Override
     public RealmIdentity get(Principal key) {
         if (parkForReadAndCheckInterrupt()) {
@@ -120,40 +163,54 @@ public final class LRURealmIdentityCache implements RealmIdentityCache {
 
         CacheEntry cached = identityCache.get(key);
 
-        if (cached != null) {
-            return removeIfExpired(cached);
+        if (cached == null) {
+            Set<Principal> domainPrincipal = domainPrincipalMap.get(key);
+
+            if (domainPrincipal != null) {
+                cached = identityCache.get(domainPrincipal.iterator().next());
+            }
         }
 
-        Set<Principal> domainPrincipal = domainPrincipalMap.get(key);
+        RealmIdentity identity = removeIfExpired(cached);
 
-        if (domainPrincipal != null) {
-            return removeIfExpired(identityCache.get(domainPrincipal.iterator().next()));
+        if (identity != null) {
+            statistics.recordHit();
+        } else {
+            statistics.recordMiss();
         }
 
-        return null;
+        return identity;
     }
 
     @Override
-    public void remove(Principal key) {
-        try {
-            if (parkForWriteAndCheckInterrupt()) {
-                return;
-            }
+    public long getExpiration(Principal key) {
+        if (parkForReadAndCheckInterrupt()) {
+            return -1;
+        }
 
-            if (identityCache.containsKey(key)) {
-                domainPrincipalMap.remove(identityCache.remove(key).value().getRealmIdentityPrincipal()).forEach(identityCache::remove);
-            } else if (domainPrincipalMap.containsKey(key)) {
-                domainPrincipalMap.remove(key).forEach(identityCache::remove);
+        CacheEntry cached = identityCache.get(key);
+
+        if (cached == null) {
+            Set<Principal> domainPrincipal = domainPrincipalMap.get(key);
+
+            if (domainPrincipal != null) {
+                cached = identityCache.get(domainPrincipal.iterator().next());
             }
-        } finally {
-            writing.lazySet(false);
         }
+
+        return cached != null ? cached.expiration() : -1;
+    }
+
+    @Override
+    public void remove(Principal key) {
+        remove(key, RemovalCause.EXPLICIT);
     }
 
     @Override
     public void clear() {
         try {
             parkForWriteAndCheckInterrupt();
+            statistics.recordRemovals(RemovalCause.EXPLICIT, identityCache.size());
             identityCache.clear();
             domainPrincipalMap.clear();
         } finally {
@@ -167,13 +224,56 @@ public final class LRURealmIdentityCache implements RealmIdentityCache {
         }
 
         if (cached.isExpired()) {
-            remove(cached.key());
+            remove(cached.key(), RemovalCause.EXPIRED);
             return null;
         }
 
         return cached.value();
     }
 
+    @Override
+    public RealmIdentityCacheStatistics getStatistics() {
+        if (parkForReadAndCheckInterrupt()) {
+            return statistics.snapshot(-1);
+        }
+
+        return statistics.snapshot(identityCache.size());
+    }
+
+    private void remove(Principal key, RemovalCause cause) {
+        try {
+            if (parkForWriteAndCheckInterrupt()) {
+                return;
+            }
+
+            int removed = 0;
+
+            if (identityCache.containsKey(key)) {
+                removed = 1 + removeAll(domainPrincipalMap.remove(identityCache.remove(key).value().getRealmIdentityPrincipal()));
+            } else if (domainPrincipalMap.containsKey(key)) {
+                removed = removeAll(domainPrincipalMap.remove(key));
+            }
+
+            statistics.recordRemovals(cause, removed);
+        } finally {
+            writing.lazySet(false);
+        }
+    }
+
+    private int removeAll(Set<Principal> domainPrincipals) {
+        int removed = 0;
+
+        if (domainPrincipals != null) {
+            for (Principal domainPrincipal : domainPrincipals) {
+                if (identityCache.remove(domainPrincipal) != null) {
+                    removed++;
+                }
+            }
+        }
+
+        return removed;
+    }
+
     private boolean parkForWriteAndCheckInterrupt() {
         while (!writing.compareAndSet(false, true)) {
             LockSupport.parkNanos(1L);
@@ -218,6 +318,10 @@ public final class LRURealmIdentityCache implements RealmIdentityCache {
             return value;
         }
 
+        long expiration() {
+            return expiration;
+        }
+
         boolean isExpired() {
             return expiration != -1 ? System.currentTimeMillis() > expiration : false;
         }
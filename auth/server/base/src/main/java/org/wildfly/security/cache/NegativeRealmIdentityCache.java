@@ -0,0 +1,259 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.security.Principal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.wildfly.security.auth.server._private.CacheEviction;
+
+/**
+ * <p>A cache of principals for which a {@link org.wildfly.security.auth.server.SecurityRealm} reported that no identity exists.
+ *
+ * <p>Remembering these misses avoids hitting the backing store again and again for names which do not exist, for example
+ * when under attack with random user names. Entries expire after a maximum age and the number of entries is bounded,
+ * entries being evicted in no particular order once the bound is reached.
+ *
+ * <p>The cache can optionally be fronted by a Bloom filter, so that lookups of principals which were never recorded as
+ * missing, the vast majority of lookups in a healthy system, can be answered without touching the underlying map.
+ */
+public final class NegativeRealmIdentityCache {
+
+    private static final int FILTER_BITS_PER_ENTRY = 10;
+    private static final int FILTER_HASHES = 3;
+
+    private final ConcurrentHashMap<Principal, Long> expirations = new ConcurrentHashMap<>(16);
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final int maxEntries;
+    private final long maxAge;
+    private final BloomFilter filter;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new instance without a Bloom filter.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     * @param maxAge the time in milliseconds that an entry can stay in the cache, must be greater than {@code 0}
+     */
+    public NegativeRealmIdentityCache(int maxEntries, long maxAge) {
+        this(maxEntries, maxAge, false);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     * @param maxAge the time in milliseconds that an entry can stay in the cache, must be greater than {@code 0}
+     * @param useFilter {@code true} to front the cache with a Bloom filter, {@code false} otherwise
+     */
+    public NegativeRealmIdentityCache(int maxEntries, long maxAge, boolean useFilter) {
+        checkMinimumParameter("maxEntries", 1, maxEntries);
+        checkMinimumParameter("maxAge", 1, maxAge);
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+        this.filter = useFilter ? new BloomFilter(maxEntries) : null;
+    }
+
+    /**
+     * Records that no identity exists for the specified {@link Principal}.
+     *
+     * @param principal the {@link Principal} for which no identity exists
+     */
+    public void put(Principal principal) {
+        checkNotNullParam("principal", principal);
+        if (expirations.put(principal, System.currentTimeMillis() + maxAge) == null) {
+            if (filter != null && filter.add(principal)) {
+                rebuildFilter();
+            }
+            if (expirations.size() > maxEntries) {
+                evictions.add(CacheEviction.evict(expirations, maxEntries, Long::longValue, evictionLock));
+            }
+        }
+    }
+
+    /**
+     * Determines whether the specified {@link Principal} was recently recorded as having no identity.
+     *
+     * @param principal the {@link Principal} to check
+     * @return {@code true} if a non expired entry exists for the principal, {@code false} otherwise
+     */
+    public boolean contains(Principal principal) {
+        if (filter == null || filter.mightContain(principal)) {
+            Long expiration = expirations.get(principal);
+
+            if (expiration != null) {
+                if (System.currentTimeMillis() <= expiration) {
+                    hits.increment();
+                    return true;
+                }
+                expirations.remove(principal, expiration);
+            }
+        }
+
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Removes the entry for the specified {@link Principal}, if any.
+     *
+     * @param principal the {@link Principal} that may now have an identity
+     */
+    public void remove(Principal principal) {
+        expirations.remove(principal);
+    }
+
+    /**
+     * Removes all entries from this cache.
+     */
+    public void clear() {
+        evictionLock.lock();
+        try {
+            expirations.clear();
+            if (filter != null) {
+                filter.clear();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the current number of entries, some of which may have expired but not been removed yet.
+     *
+     * @return the current number of entries
+     */
+    public int size() {
+        return expirations.size();
+    }
+
+    /**
+     * Gets the maximum number of entries this cache holds.
+     *
+     * @return the maximum number of entries
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Gets the number of lookups which found a principal recorded as having no identity.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups which did not find a principal recorded as having no identity.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of entries removed to keep the cache within its maximum number of entries.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private void rebuildFilter() {
+        evictionLock.lock();
+        try {
+            // bits cannot be removed from the filter, start over from the current entries so it does not saturate
+            filter.clear();
+            expirations.keySet().forEach(filter::add);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class BloomFilter {
+
+        private final AtomicLongArray bits;
+        private final int mask;
+        private final int capacity;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        BloomFilter(int expectedEntries) {
+            long desiredBits = Math.max(64L, (long) expectedEntries * FILTER_BITS_PER_ENTRY);
+            int numBits = desiredBits >= 1 << 30 ? 1 << 30 : Integer.highestOneBit((int) desiredBits * 2 - 1);
+            bits = new AtomicLongArray(numBits >>> 6);
+            mask = numBits - 1;
+            capacity = (int) Math.min(Integer.MAX_VALUE, expectedEntries * 2L);
+        }
+
+        /**
+         * Adds the principal, returning {@code true} if the filter was filled beyond its capacity and should be rebuilt.
+         */
+        boolean add(Principal principal) {
+            int hash = spread(principal.hashCode());
+            int step = (hash >>> 16) | 1;
+            for (int i = 0; i < FILTER_HASHES; i++) {
+                int bit = (hash + i * step) & mask;
+                long bitMask = 1L << (bit & 63);
+                int index = bit >>> 6;
+                long word;
+                do {
+                    word = bits.get(index);
+                } while ((word & bitMask) == 0 && ! bits.compareAndSet(index, word, word | bitMask));
+            }
+            return additions.incrementAndGet() > capacity;
+        }
+
+        boolean mightContain(Principal principal) {
+            int hash = spread(principal.hashCode());
+            int step = (hash >>> 16) | 1;
+            for (int i = 0; i < FILTER_HASHES; i++) {
+                int bit = (hash + i * step) & mask;
+                if ((bits.get(bit >>> 6) & (1L << (bit & 63))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void clear() {
+            for (int i = 0; i < bits.length(); i++) {
+                bits.set(i, 0L);
+            }
+            additions.set(0);
+        }
+
+        private static int spread(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 15);
+        }
+    }
+}
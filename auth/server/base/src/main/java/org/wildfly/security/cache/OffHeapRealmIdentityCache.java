@@ -0,0 +1,655 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+import static org.wildfly.security.auth.server._private.ElytronMessages.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.Principal;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.auth.server.SecurityRealm;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.authz.AuthorizationIdentity;
+import org.wildfly.security.authz.MapAttributes;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.evidence.Evidence;
+
+/**
+ * <p>A {@link RealmIdentityCache} implementation keeping a compact binary form of the cached identities outside of the
+ * Java heap, so that caching a large number of identities does not increase the work of the garbage collector.
+ *
+ * <p>When an identity is put into the cache, its attributes are serialised into fixed size segments allocated as direct
+ * buffers or, if a directory is given, as buffers mapped to files within that directory. Credentials are never stored
+ * there, so that no secret is written to disk. The identity itself is not retained.
+ *
+ * <p>Identities returned by {@link #get(Principal)} keep the realm principal of the cached identity and read their
+ * attributes from the binary form, only decoded when first used. Everything else, such as obtaining credentials, verifying
+ * evidence or updating credentials, is delegated to the identity obtained from the given realm for the principal it was
+ * cached for, only obtained when first needed. The realm should be the one the identities are loaded from, for example
+ * the realm wrapped by a {@code CachingSecurityRealm}, which then serves these operations through its own caching.
+ *
+ * <p>Only an index entry per identity, holding the principals it is cached for, remains on the heap. Segments are filled
+ * in order and, once the maximum memory is used, the oldest segment is recycled, evicting the identities it holds. A
+ * segment is also recycled as soon as all its identities have been removed.
+ *
+ * <p>The mapping between realm principals and the domain principals used to lookup an identity, as well as the maximum age
+ * of entries, behave as in {@link LRURealmIdentityCache}.
+ */
+public final class OffHeapRealmIdentityCache implements RealmIdentityCache {
+
+    private static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int MIN_SEGMENTS = 8;
+
+    /**
+     * Holds the location of the cached identities where the key is the domain principal, the one used to lookup the identity
+     */
+    private final Map<Principal, Slot> index = new HashMap<>(16);
+
+    /**
+     * Holds a mapping between a realm principal and domain principals
+     */
+    private final Map<Principal, Set<Principal>> domainPrincipalMap = new HashMap<>(16);
+
+    /**
+     * The segments in use, oldest first, the last one being the one identities are currently appended to
+     */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    /**
+     * Buffers of recycled segments, available for reuse
+     */
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final SecurityRealm realm;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final long maxAge;
+
+    private final Path directory;
+
+    private final StatisticsCounter statistics = new StatisticsCounter();
+
+    private int allocatedSegments;
+
+    /**
+     * Creates a new instance storing identities in direct buffers, whose entries never expire.
+     *
+     * @param realm the realm the cached identities are loaded from, used to obtain their credentials (cannot be {@code null})
+     * @param maxMemory the maximum number of bytes used to store the identities, must be at least {@code 1024}
+     */
+    public OffHeapRealmIdentityCache(SecurityRealm realm, long maxMemory) {
+        this(realm, maxMemory, -1);
+    }
+
+    /**
+     * Creates a new instance storing identities in direct buffers.
+     *
+     * @param realm the realm the cached identities are loaded from, used to obtain their credentials (cannot be {@code null})
+     * @param maxMemory the maximum number of bytes used to store the identities, must be at least {@code 1024}
+     * @param maxAge the time in milliseconds that an entry can stay in the cache. If {@code -1}, entries never expire
+     */
+    public OffHeapRealmIdentityCache(SecurityRealm realm, long maxMemory, long maxAge) {
+        this(realm, maxMemory, maxAge, null);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param realm the realm the cached identities are loaded from, used to obtain their credentials (cannot be {@code null})
+     * @param maxMemory the maximum number of bytes used to store the identities, must be at least {@code 1024}
+     * @param maxAge the time in milliseconds that an entry can stay in the cache. If {@code -1}, entries never expire
+     * @param directory the directory in which the files backing memory-mapped buffers are created, or {@code null} to use
+     *                  direct buffers. The files are deleted as soon as they are mapped
+     */
+    public OffHeapRealmIdentityCache(SecurityRealm realm, long maxMemory, long maxAge, Path directory) {
+        this.realm = checkNotNullParam("realm", realm);
+        checkMinimumParameter("maxMemory", 1024, maxMemory);
+        checkMinimumParameter("maxAge", -1, maxAge);
+        this.segmentSize = (int) Math.min(DEFAULT_SEGMENT_SIZE, maxMemory / MIN_SEGMENTS);
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxMemory / segmentSize);
+        this.maxAge = maxAge;
+        this.directory = directory;
+    }
+
+    @Override
+    public void put(Principal key, RealmIdentity newValue) {
+        checkNotNullParam("key", key);
+        checkNotNullParam("newValue", newValue);
+        // serialising may load attributes from the backing realm, do it before locking
+        Principal realmPrincipal = newValue.getRealmIdentityPrincipal();
+        byte[] data = serialize(realmPrincipal, newValue);
+
+        if (data == null || data.length > segmentSize) {
+            log.tracef("Identity for '%s' cannot be stored off-heap, not caching it", key);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            Slot existing = index.get(key);
+
+            if (existing != null) {
+                if (! existing.isExpired()) {
+                    return;
+                }
+                removeSlot(key, existing);
+                statistics.recordRemoval(RemovalCause.EXPIRED);
+            }
+
+            store(key, realmPrincipal, data);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(Principal key, RealmIdentity oldValue, RealmIdentity newValue) {
+        checkNotNullParam("key", key);
+        checkNotNullParam("oldValue", oldValue);
+        checkNotNullParam("newValue", newValue);
+        // identities returned by get are views of the slot they were read from, compare the slots
+        if (! (oldValue instanceof OffHeapRealmIdentity)) {
+            return false;
+        }
+        Slot expected = ((OffHeapRealmIdentity) oldValue).slot;
+        Principal realmPrincipal = newValue.getRealmIdentityPrincipal();
+        byte[] data = serialize(realmPrincipal, newValue);
+
+        lock.writeLock().lock();
+        try {
+            Slot existing = index.get(key);
+
+            if (existing != expected) {
+                return false;
+            }
+
+            removeSlot(key, existing);
+            if (data == null || data.length > segmentSize) {
+                log.tracef("Identity for '%s' cannot be stored off-heap, not caching it", key);
+                statistics.recordRemoval(RemovalCause.EXPLICIT);
+                return true;
+            }
+            store(key, realmPrincipal, data);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public RealmIdentity get(Principal key) {
+        Slot slot;
+        lock.readLock().lock();
+        try {
+            slot = lookup(key);
+
+            if (slot == null) {
+                statistics.recordMiss();
+                return null;
+            }
+
+            if (! slot.isExpired()) {
+                statistics.recordHit();
+                return new OffHeapRealmIdentity(slot, realm);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            statistics.recordRemovals(RemovalCause.EXPIRED, removeAll(key));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        statistics.recordMiss();
+        return null;
+    }
+
+    @Override
+    public long getExpiration(Principal key) {
+        lock.readLock().lock();
+        try {
+            Slot slot = lookup(key);
+
+            return slot != null ? slot.expiration : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Principal key) {
+        lock.writeLock().lock();
+        try {
+            statistics.recordRemovals(RemovalCause.EXPLICIT, removeAll(key));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            statistics.recordRemovals(RemovalCause.EXPLICIT, index.size());
+            index.clear();
+            domainPrincipalMap.clear();
+            segments.clear();
+            freeBuffers.clear();
+            allocatedSegments = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the current number of entries, some of which may have expired but not been removed yet.
+     *
+     * @return the current number of entries
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of bytes currently allocated outside of the heap to store identities.
+     *
+     * @return the allocated memory
+     */
+    public long getAllocatedMemory() {
+        lock.readLock().lock();
+        try {
+            return (long) allocatedSegments * segmentSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of entries removed to make room for new ones.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return getStatistics().getEvictionCount();
+    }
+
+    @Override
+    public RealmIdentityCacheStatistics getStatistics() {
+        return statistics.snapshot(size());
+    }
+
+    private int removeAll(Principal key) {
+        Slot removed = index.get(key);
+        Set<Principal> domainPrincipals;
+        int count = 0;
+
+        if (removed != null) {
+            domainPrincipals = domainPrincipalMap.remove(removed.realmPrincipal);
+            removeSlot(key, removed);
+            count++;
+        } else {
+            domainPrincipals = domainPrincipalMap.remove(key);
+        }
+
+        if (domainPrincipals != null) {
+            for (Principal domainPrincipal : domainPrincipals) {
+                Slot slot = index.get(domainPrincipal);
+                if (slot != null) {
+                    removeSlot(domainPrincipal, slot);
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private Slot lookup(Principal key) {
+        Slot slot = index.get(key);
+
+        if (slot == null) {
+            Set<Principal> domainPrincipals = domainPrincipalMap.get(key);
+
+            if (domainPrincipals != null) {
+                slot = index.get(domainPrincipals.iterator().next());
+            }
+        }
+
+        return slot;
+    }
+
+    private void removeSlot(Principal key, Slot slot) {
+        index.remove(key);
+        Set<Principal> domainPrincipals = domainPrincipalMap.get(slot.realmPrincipal);
+        if (domainPrincipals != null) {
+            domainPrincipals.remove(key);
+            if (domainPrincipals.isEmpty()) {
+                domainPrincipalMap.remove(slot.realmPrincipal);
+            }
+        }
+
+        Segment segment = slot.segment;
+        segment.live -= slot.length;
+        if (segment.live == 0 && segment != segments.peekLast()) {
+            // nothing left in there, no need to wait for it to become the oldest segment to reuse it
+            segments.remove(segment);
+            freeBuffers.push(segment.buffer);
+        }
+    }
+
+    private void store(Principal key, Principal realmPrincipal, byte[] data) {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.remaining() < data.length) {
+            segment = addSegment();
+            if (segment == null) {
+                return;
+            }
+        }
+
+        Slot slot = segment.write(data, key, realmPrincipal, maxAge);
+        index.put(key, slot);
+        domainPrincipalMap.computeIfAbsent(realmPrincipal, principal -> new HashSet<>()).add(key);
+    }
+
+    private Segment addSegment() {
+        Segment current = segments.peekLast();
+        if (current != null && current.live == 0) {
+            // everything appended to the current segment was removed already
+            segments.pollLast();
+            freeBuffers.push(current.buffer);
+        }
+
+        ByteBuffer buffer = freeBuffers.poll();
+
+        if (buffer == null && allocatedSegments >= maxSegments) {
+            Segment oldest = segments.poll();
+            Iterator<Map.Entry<Principal, Slot>> iterator = index.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Principal, Slot> entry = iterator.next();
+                Slot slot = entry.getValue();
+                if (slot.segment == oldest) {
+                    iterator.remove();
+                    Set<Principal> domainPrincipals = domainPrincipalMap.get(slot.realmPrincipal);
+                    if (domainPrincipals != null) {
+                        domainPrincipals.remove(entry.getKey());
+                        if (domainPrincipals.isEmpty()) {
+                            domainPrincipalMap.remove(slot.realmPrincipal);
+                        }
+                    }
+                    statistics.recordRemoval(RemovalCause.SIZE);
+                }
+            }
+            buffer = oldest.buffer;
+        }
+
+        if (buffer == null) {
+            try {
+                buffer = allocate();
+            } catch (IOException e) {
+                log.tracef(e, "Unable to allocate memory-mapped buffer in '%s'", directory);
+                return null;
+            }
+            allocatedSegments++;
+        }
+
+        buffer.clear();
+        Segment segment = new Segment(buffer);
+        segments.add(segment);
+        return segment;
+    }
+
+    private ByteBuffer allocate() throws IOException {
+        if (directory == null) {
+            return ByteBuffer.allocateDirect(segmentSize);
+        }
+
+        Path file = Files.createTempFile(directory, "identity-cache", ".segment");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } finally {
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    private static byte[] serialize(Principal realmPrincipal, RealmIdentity identity) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Attributes attributes = identity.getAuthorizationIdentity().getAttributes();
+            out.writeInt(attributes.size());
+            for (Attributes.Entry entry : attributes.entries()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.size());
+                for (String value : entry) {
+                    out.writeUTF(value);
+                }
+            }
+        } catch (IOException | UnsupportedOperationException | IllegalStateException e) {
+            log.tracef(e, "Unable to serialise identity '%s'", realmPrincipal);
+            return null;
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static final class Segment {
+
+        final ByteBuffer buffer;
+        int live;
+
+        Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int remaining() {
+            return buffer.remaining();
+        }
+
+        Slot write(byte[] data, Principal key, Principal realmPrincipal, long maxAge) {
+            int offset = buffer.position();
+            buffer.put(data);
+            live += data.length;
+            return new Slot(this, offset, data.length, key, realmPrincipal, maxAge);
+        }
+    }
+
+    private static final class Slot {
+
+        final Segment segment;
+        final int offset;
+        final int length;
+        final Principal key;
+        final Principal realmPrincipal;
+        final long expiration;
+
+        Slot(Segment segment, int offset, int length, Principal key, Principal realmPrincipal, long maxAge) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.key = key;
+            this.realmPrincipal = realmPrincipal;
+            if (maxAge == -1) {
+                expiration = -1;
+            } else {
+                expiration = System.currentTimeMillis() + maxAge;
+            }
+        }
+
+        byte[] read() {
+            // concurrent readers must not share the position of the buffer
+            ByteBuffer buffer = segment.buffer.duplicate();
+            byte[] data = new byte[length];
+            buffer.position(offset);
+            buffer.get(data);
+            return data;
+        }
+
+        boolean isExpired() {
+            return expiration != -1 ? System.currentTimeMillis() > expiration : false;
+        }
+    }
+
+    /**
+     * A cached identity whose attributes are rehydrated from their binary form when first used, the identity obtained from
+     * the realm being used for anything else.
+     */
+    private static final class OffHeapRealmIdentity implements RealmIdentity {
+
+        private final Slot slot;
+        private final SecurityRealm realm;
+        private final byte[] data;
+        private volatile Attributes attributes;
+        private volatile RealmIdentity identity;
+
+        OffHeapRealmIdentity(Slot slot, SecurityRealm realm) {
+            this.slot = slot;
+            this.realm = realm;
+            // read while locked, the segment may be recycled afterwards
+            this.data = slot.read();
+        }
+
+        private RealmIdentity getIdentity() throws RealmUnavailableException {
+            RealmIdentity identity = this.identity;
+            if (identity == null) {
+                synchronized (this) {
+                    identity = this.identity;
+                    if (identity == null) {
+                        this.identity = identity = realm.getRealmIdentity(slot.key);
+                    }
+                }
+            }
+            return identity;
+        }
+
+        @Override
+        public Principal getRealmIdentityPrincipal() {
+            return slot.realmPrincipal;
+        }
+
+        @Override
+        public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+            return getIdentity().getCredentialAcquireSupport(credentialType, algorithmName, parameterSpec);
+        }
+
+        @Override
+        public <C extends Credential> C getCredential(Class<C> credentialType) throws RealmUnavailableException {
+            return getIdentity().getCredential(credentialType);
+        }
+
+        @Override
+        public <C extends Credential> C getCredential(Class<C> credentialType, String algorithmName) throws RealmUnavailableException {
+            return getIdentity().getCredential(credentialType, algorithmName);
+        }
+
+        @Override
+        public <C extends Credential> C getCredential(Class<C> credentialType, String algorithmName, AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+            return getIdentity().getCredential(credentialType, algorithmName, parameterSpec);
+        }
+
+        @Override
+        public void updateCredential(Credential credential) throws RealmUnavailableException {
+            getIdentity().updateCredential(credential);
+        }
+
+        @Override
+        public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) throws RealmUnavailableException {
+            return getIdentity().getEvidenceVerifySupport(evidenceType, algorithmName);
+        }
+
+        @Override
+        public boolean verifyEvidence(Evidence evidence) throws RealmUnavailableException {
+            return getIdentity().verifyEvidence(evidence);
+        }
+
+        @Override
+        public boolean exists() {
+            return true; // non-existing identities are not cached
+        }
+
+        @Override
+        public void dispose() {
+            RealmIdentity identity = this.identity;
+            if (identity != null) {
+                identity.dispose();
+            }
+        }
+
+        @Override
+        public AuthorizationIdentity getAuthorizationIdentity() throws RealmUnavailableException {
+            return AuthorizationIdentity.basicIdentity(getAttributes());
+        }
+
+        @Override
+        public Attributes getAttributes() throws RealmUnavailableException {
+            Attributes attributes = this.attributes;
+            if (attributes == null) {
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+                    MapAttributes decoded = new MapAttributes();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        String key = in.readUTF();
+                        for (int j = in.readInt(); j > 0; j--) {
+                            decoded.addLast(key, in.readUTF());
+                        }
+                    }
+                    this.attributes = attributes = decoded.asReadOnly();
+                } catch (IOException e) {
+                    throw new RealmUnavailableException(e);
+                }
+            }
+            return attributes;
+        }
+    }
+}
@@ -23,7 +23,9 @@ import static org.wildfly.common.Assert.checkNotNullParam;
 import java.security.Principal;
 import java.util.function.Function;
 
+import org.wildfly.security.auth.server.IdentityCredentials;
 import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.authz.Attributes;
 
 /**
  * <p>Provides a mechanism to plug a cache for {@link RealmIdentity} instances obtained from a {@link org.wildfly.security.auth.server.SecurityRealm}.
@@ -77,6 +79,67 @@ public interface RealmIdentityCache {
      */
     RealmIdentity get(Principal principal);
 
+    /**
+     * <p>Replaces the {@link RealmIdentity} cached for the specified {@link Principal} only if it is still the given one, for
+     * example to publish a reloaded identity unless the previous one was removed or replaced meanwhile.
+     *
+     * <p>The default implementation compares and replaces the identity in separate steps, implementations should override it
+     * to replace the identity atomically.
+     *
+     * @param principal the {@link Principal} the realm identity was cached with
+     * @param oldValue the {@link RealmIdentity} expected to be cached
+     * @param newValue the {@link RealmIdentity} to cache instead
+     * @return {@code true} if the identity was replaced, {@code false} if another or no identity was cached
+     */
+    default boolean replace(Principal principal, RealmIdentity oldValue, RealmIdentity newValue) {
+        checkNotNullParam("principal", principal);
+        checkNotNullParam("oldValue", oldValue);
+        checkNotNullParam("newValue", newValue);
+        if (get(principal) != oldValue) {
+            return false;
+        }
+        remove(principal);
+        put(principal, newValue);
+        return true;
+    }
+
+    /**
+     * Obtains the time at which the {@link RealmIdentity} cached for the specified {@link Principal} expires.
+     *
+     * @param principal the {@link Principal} that references a previously cached realm identity
+     * @return the expiration time in milliseconds since the epoch, or {@code -1} if no entry could be found, the entry never
+     * expires or this cache does not track the expiration of its entries
+     */
+    default long getExpiration(Principal principal) {
+        return -1;
+    }
+
+    /**
+     * <p>Notifies this cache that the given {@link RealmIdentity}, cached for the specified {@link Principal}, has loaded
+     * attributes or credentials since it was put, for example by a caching realm obtaining them lazily from the backing
+     * realm. Caches bounded by the footprint of their entries can weigh the identity again from the given state.
+     *
+     * <p>Nothing is to be done if another or no identity is cached for the principal. The default implementation does
+     * nothing.
+     *
+     * @param principal the {@link Principal} the realm identity was cached with
+     * @param realmIdentity the cached {@link RealmIdentity} instance
+     * @param attributes the attributes the identity now holds
+     * @param credentials the credentials the identity now holds
+     */
+    default void loaded(Principal principal, RealmIdentity realmIdentity, Attributes attributes, IdentityCredentials credentials) {
+    }
+
+    /**
+     * Obtains a snapshot of the statistics recorded by this cache, such as the number of hits and misses, the number of
+     * removals by {@link RemovalCause} and the current number of entries.
+     *
+     * @return a snapshot of the statistics of this cache, or {@code null} if this cache does not record statistics
+     */
+    default RealmIdentityCacheStatistics getStatistics() {
+        return null;
+    }
+
     /**
      * Removes a specific cached identity from the cache and referenced by the specified {@link Principal}.
      *
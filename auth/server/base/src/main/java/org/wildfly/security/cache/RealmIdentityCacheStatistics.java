@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>An immutable snapshot of the statistics of a {@link RealmIdentityCache}, or of a caching realm using it.
+ *
+ * <p>Load times are recorded in a histogram whose buckets are bounded by {@link #getLoadLatencyBounds()}: the bucket at
+ * index {@code i} counts the loads which took less than {@code bounds[i]} milliseconds and at least
+ * {@code bounds[i - 1]} milliseconds, the last bucket counting the loads which took longer than the last bound.
+ *
+ * @see StatisticsCounter
+ */
+public final class RealmIdentityCacheStatistics {
+
+    private static final long[] LOAD_LATENCY_BOUNDS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000 };
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long[] loadLatencyHistogram;
+    private final long[] removalCounts;
+    private final long size;
+
+    RealmIdentityCacheStatistics(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+            long[] loadLatencyHistogram, long[] removalCounts, long size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.loadLatencyHistogram = loadLatencyHistogram;
+        this.removalCounts = removalCounts;
+        this.size = size;
+    }
+
+    /**
+     * Gets the upper bounds, in milliseconds, of the buckets of the load latency histogram.
+     *
+     * @return the upper bounds of the buckets, the last bucket having no upper bound
+     */
+    public static long[] getLoadLatencyBounds() {
+        return LOAD_LATENCY_BOUNDS.clone();
+    }
+
+    static int loadLatencyBucket(long loadTime) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(loadTime);
+        int bucket = 0;
+        while (bucket < LOAD_LATENCY_BOUNDS.length && millis >= LOAD_LATENCY_BOUNDS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    static int loadLatencyBuckets() {
+        return LOAD_LATENCY_BOUNDS.length + 1;
+    }
+
+    /**
+     * Gets the number of lookups which found a cached identity.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of lookups which did not find a cached identity.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the ratio of lookups which found a cached identity.
+     *
+     * @return the hit ratio, or {@code 0} if no lookup happened yet
+     */
+    public double getHitRatio() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * Gets the number of identities loaded from the backing realm, successfully or not.
+     *
+     * @return the number of loads
+     */
+    public long getLoadCount() {
+        return loadSuccessCount + loadFailureCount;
+    }
+
+    /**
+     * Gets the number of identities successfully loaded from the backing realm.
+     *
+     * @return the number of successful loads
+     */
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * Gets the number of identities which could not be loaded from the backing realm.
+     *
+     * @return the number of failed loads
+     */
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * Gets the total time spent loading identities from the backing realm.
+     *
+     * @return the total load time in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * Gets the average time spent loading an identity from the backing realm.
+     *
+     * @return the average load time in nanoseconds, or {@code 0} if no identity was loaded yet
+     */
+    public double getAverageLoadTime() {
+        long loadCount = getLoadCount();
+        return loadCount == 0 ? 0 : (double) totalLoadTime / loadCount;
+    }
+
+    /**
+     * Gets the number of loads in each bucket of the load latency histogram.
+     *
+     * @return the number of loads per bucket
+     * @see #getLoadLatencyBounds()
+     */
+    public long[] getLoadLatencyHistogram() {
+        return loadLatencyHistogram.clone();
+    }
+
+    /**
+     * Gets the number of identities removed from the cache for the given cause.
+     *
+     * @param cause the cause of the removals
+     * @return the number of removals
+     */
+    public long getRemovalCount(RemovalCause cause) {
+        return removalCounts[cause.ordinal()];
+    }
+
+    /**
+     * Gets the number of identities evicted to keep the cache within its bounds.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return getRemovalCount(RemovalCause.SIZE);
+    }
+
+    /**
+     * Gets the number of identities removed because they stayed in the cache longer than their maximum age.
+     *
+     * @return the number of expired identities
+     */
+    public long getExpiredCount() {
+        return getRemovalCount(RemovalCause.EXPIRED);
+    }
+
+    /**
+     * Gets the number of entries in the cache when this snapshot was taken.
+     *
+     * @return the number of entries, or {@code -1} if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RealmIdentityCacheStatistics{hits=%d, misses=%d, loadSuccesses=%d, loadFailures=%d, totalLoadTime=%d, evictions=%d, expired=%d, explicitRemovals=%d, size=%d}",
+                hitCount, missCount, loadSuccessCount, loadFailureCount, totalLoadTime, getEvictionCount(), getExpiredCount(),
+                getRemovalCount(RemovalCause.EXPLICIT), size);
+    }
+}
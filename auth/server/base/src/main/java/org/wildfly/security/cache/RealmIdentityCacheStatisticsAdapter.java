@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.util.function.Supplier;
+
+/**
+ * <p>A {@link RealmIdentityCacheStatisticsMXBean} taking a fresh snapshot of the statistics every time an attribute is read,
+ * so that it can be registered once with an {@link javax.management.MBeanServer}:
+ *
+ * <pre>
+ *     MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+ *     server.registerMBean(new RealmIdentityCacheStatisticsAdapter(cachingRealm::getStatistics),
+ *             new ObjectName("org.wildfly.security:type=RealmIdentityCache,name=my-realm"));
+ * </pre>
+ */
+public final class RealmIdentityCacheStatisticsAdapter implements RealmIdentityCacheStatisticsMXBean {
+
+    private final Supplier<RealmIdentityCacheStatistics> statistics;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param statistics the supplier of the snapshots of the statistics to expose, such as
+     *                   {@code CachingSecurityRealm::getStatistics} or {@link RealmIdentityCache#getStatistics()}
+     */
+    public RealmIdentityCacheStatisticsAdapter(Supplier<RealmIdentityCacheStatistics> statistics) {
+        this.statistics = checkNotNullParam("statistics", statistics);
+    }
+
+    @Override
+    public long getHitCount() {
+        return statistics.get().getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return statistics.get().getMissCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return statistics.get().getHitRatio();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return statistics.get().getLoadCount();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return statistics.get().getLoadFailureCount();
+    }
+
+    @Override
+    public double getAverageLoadTimeMillis() {
+        return statistics.get().getAverageLoadTime() / 1_000_000;
+    }
+
+    @Override
+    public long[] getLoadLatencyBounds() {
+        return RealmIdentityCacheStatistics.getLoadLatencyBounds();
+    }
+
+    @Override
+    public long[] getLoadLatencyHistogram() {
+        return statistics.get().getLoadLatencyHistogram();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return statistics.get().getEvictionCount();
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return statistics.get().getExpiredCount();
+    }
+
+    @Override
+    public long getExplicitRemovalCount() {
+        return statistics.get().getRemovalCount(RemovalCause.EXPLICIT);
+    }
+
+    @Override
+    public long getSize() {
+        return statistics.get().getSize();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+/**
+ * The management interface exposing the {@link RealmIdentityCacheStatistics} of a cache, or of a caching realm, as an MXBean.
+ *
+ * @see RealmIdentityCacheStatisticsAdapter
+ */
+public interface RealmIdentityCacheStatisticsMXBean {
+
+    /**
+     * @see RealmIdentityCacheStatistics#getHitCount()
+     */
+    long getHitCount();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getMissCount()
+     */
+    long getMissCount();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getHitRatio()
+     */
+    double getHitRatio();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getLoadCount()
+     */
+    long getLoadCount();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getLoadFailureCount()
+     */
+    long getLoadFailureCount();
+
+    /**
+     * Gets the average time spent loading an identity from the backing realm.
+     *
+     * @return the average load time in milliseconds
+     * @see RealmIdentityCacheStatistics#getAverageLoadTime()
+     */
+    double getAverageLoadTimeMillis();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getLoadLatencyBounds()
+     */
+    long[] getLoadLatencyBounds();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getLoadLatencyHistogram()
+     */
+    long[] getLoadLatencyHistogram();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getEvictionCount()
+     */
+    long getEvictionCount();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getExpiredCount()
+     */
+    long getExpiredCount();
+
+    /**
+     * Gets the number of identities removed from the cache because they changed or the cache was cleared.
+     *
+     * @return the number of explicit removals
+     * @see RealmIdentityCacheStatistics#getRemovalCount(RemovalCause)
+     */
+    long getExplicitRemovalCount();
+
+    /**
+     * @see RealmIdentityCacheStatistics#getSize()
+     */
+    long getSize();
+}
@@ -0,0 +1,43 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+/**
+ * The reasons for which an identity is removed from a {@link RealmIdentityCache}.
+ *
+ * @see RealmIdentityCacheStatistics#getRemovalCount(RemovalCause)
+ */
+public enum RemovalCause {
+
+    /**
+     * The identity was evicted to keep the cache within its bounds.
+     */
+    SIZE,
+
+    /**
+     * The identity stayed in the cache longer than its maximum age.
+     */
+    EXPIRED,
+
+    /**
+     * The identity was removed from the cache, for example because it changed in the backing realm.
+     */
+    EXPLICIT,
+    ;
+}
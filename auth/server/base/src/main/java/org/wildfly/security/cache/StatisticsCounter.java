@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe accumulator of the statistics of a {@link RealmIdentityCache}, or of a caching realm using it, from which
+ * {@link RealmIdentityCacheStatistics} snapshots are taken.
+ */
+public final class StatisticsCounter {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder[] loadLatencyHistogram = newAdders(RealmIdentityCacheStatistics.loadLatencyBuckets());
+    private final LongAdder[] removals = newAdders(RemovalCause.values().length);
+
+    /**
+     * Records a lookup which found a cached identity.
+     */
+    public void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * Records a lookup which did not find a cached identity.
+     */
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Records the successful load of an identity from the backing realm.
+     *
+     * @param loadTime the time spent loading the identity, in nanoseconds
+     */
+    public void recordLoadSuccess(long loadTime) {
+        loadSuccesses.increment();
+        recordLoadTime(loadTime);
+    }
+
+    /**
+     * Records the failure to load an identity from the backing realm.
+     *
+     * @param loadTime the time spent trying to load the identity, in nanoseconds
+     */
+    public void recordLoadFailure(long loadTime) {
+        loadFailures.increment();
+        recordLoadTime(loadTime);
+    }
+
+    /**
+     * Records the removal of an identity from the cache.
+     *
+     * @param cause the cause of the removal
+     */
+    public void recordRemoval(RemovalCause cause) {
+        removals[cause.ordinal()].increment();
+    }
+
+    /**
+     * Records the removal of several identities from the cache.
+     *
+     * @param cause the cause of the removals
+     * @param count the number of identities removed
+     */
+    public void recordRemovals(RemovalCause cause, int count) {
+        removals[cause.ordinal()].add(count);
+    }
+
+    /**
+     * Takes a snapshot of the statistics recorded so far.
+     *
+     * @param size the current number of entries in the cache, or {@code -1} if unknown
+     * @return the snapshot
+     */
+    public RealmIdentityCacheStatistics snapshot(long size) {
+        return new RealmIdentityCacheStatistics(hits.sum(), misses.sum(), loadSuccesses.sum(), loadFailures.sum(), totalLoadTime.sum(),
+                sum(loadLatencyHistogram), sum(removals), size);
+    }
+
+    /**
+     * Takes a snapshot of the lookups and loads recorded so far, completed with the removals and the size reported by the
+     * statistics of the underlying cache. This is meant for a caching realm which records lookups and loads itself.
+     *
+     * @param cacheStatistics the statistics of the underlying cache
+     * @return the snapshot
+     */
+    public RealmIdentityCacheStatistics snapshot(RealmIdentityCacheStatistics cacheStatistics) {
+        checkNotNullParam("cacheStatistics", cacheStatistics);
+        long[] removalCounts = new long[removals.length];
+        for (RemovalCause cause : RemovalCause.values()) {
+            removalCounts[cause.ordinal()] = cacheStatistics.getRemovalCount(cause);
+        }
+        return new RealmIdentityCacheStatistics(hits.sum(), misses.sum(), loadSuccesses.sum(), loadFailures.sum(), totalLoadTime.sum(),
+                sum(loadLatencyHistogram), removalCounts, cacheStatistics.getSize());
+    }
+
+    private void recordLoadTime(long loadTime) {
+        totalLoadTime.add(loadTime);
+        loadLatencyHistogram[RealmIdentityCacheStatistics.loadLatencyBucket(loadTime)].increment();
+    }
+
+    private static LongAdder[] newAdders(int length) {
+        LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static long[] sum(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Principal;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.wildfly.security.auth.server._private.CacheEviction;
+
+/**
+ * <p>A cache of password guesses which were recently verified successfully, allowing a repeated guess to be accepted
+ * without running the possibly expensive verification of the stored credential again.
+ *
+ * <p>Guesses are never stored: only a keyed MAC of the principal name and the guess is kept, the key being randomly
+ * generated for each instance and never leaving the process. Entries expire after a maximum age, which should be kept
+ * short, and the number of entries is bounded, entries being evicted in no particular order once the bound is reached.
+ */
+public final class VerifiedEvidenceCache {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_SIZE = 32;
+
+    private final ConcurrentHashMap<Principal, Entry> entries = new ConcurrentHashMap<>(16);
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ThreadLocal<Mac> macs;
+    private final int maxEntries;
+    private final long maxAge;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     * @param maxAge the time in milliseconds that a verified guess is remembered, must be greater than {@code 0}
+     */
+    public VerifiedEvidenceCache(int maxEntries, long maxAge) {
+        checkMinimumParameter("maxEntries", 1, maxEntries);
+        checkMinimumParameter("maxAge", 1, maxAge);
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+
+        byte[] keyBytes = new byte[KEY_SIZE];
+        new SecureRandom().nextBytes(keyBytes);
+        SecretKey key = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+        Arrays.fill(keyBytes, (byte) 0);
+
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // fail now rather than on first use if the algorithm is not available
+        macs.get();
+    }
+
+    /**
+     * Records that the given guess was successfully verified for the specified {@link Principal}, replacing any guess
+     * previously recorded for it.
+     *
+     * @param principal the {@link Principal} whose credential was verified
+     * @param guess the verified password guess
+     */
+    public void put(Principal principal, char[] guess) {
+        checkNotNullParam("principal", principal);
+        checkNotNullParam("guess", guess);
+        if (entries.put(principal, new Entry(mac(principal, guess), System.currentTimeMillis() + maxAge)) == null
+                && entries.size() > maxEntries) {
+            CacheEviction.evict(entries, maxEntries, entry -> entry.expiration, evictionLock);
+        }
+    }
+
+    /**
+     * Determines whether the given guess was recently verified successfully for the specified {@link Principal}.
+     *
+     * @param principal the {@link Principal} whose credential is being verified
+     * @param guess the password guess
+     * @return {@code true} if the same guess was verified successfully and has not expired, {@code false} otherwise
+     */
+    public boolean contains(Principal principal, char[] guess) {
+        Entry entry = entries.get(principal);
+
+        if (entry != null) {
+            if (System.currentTimeMillis() > entry.expiration) {
+                entries.remove(principal, entry);
+            } else if (MessageDigest.isEqual(entry.mac, mac(principal, guess))) {
+                hits.increment();
+                return true;
+            }
+        }
+
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Removes the entry for the specified {@link Principal}, if any.
+     *
+     * @param principal the {@link Principal} whose credential may have changed
+     */
+    public void remove(Principal principal) {
+        entries.remove(principal);
+    }
+
+    /**
+     * Removes all entries from this cache.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the current number of entries, some of which may have expired but not been removed yet.
+     *
+     * @return the current number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of guesses accepted because they were verified recently.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of guesses which had to be verified against the stored credential.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private byte[] mac(Principal principal, char[] guess) {
+        Mac mac = macs.get();
+        mac.update(principal.getName().getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(guess));
+        try {
+            mac.update(encoded);
+        } finally {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+
+        return mac.doFinal();
+    }
+
+    private static final class Entry {
+
+        final byte[] mac;
+        final long expiration;
+
+        Entry(byte[] mac, long expiration) {
+            this.mac = mac;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+import org.wildfly.security.auth.server.IdentityCredentials;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.credential.BearerTokenCredential;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.credential.KeyPairCredential;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.credential.PublicKeyCredential;
+import org.wildfly.security.credential.SecretKeyCredential;
+import org.wildfly.security.credential.X509CertificateChainPrivateCredential;
+import org.wildfly.security.credential.X509CertificateChainPublicCredential;
+
+/**
+ * <p>A {@link RealmIdentityCache} implementation bounded by the estimated memory used by its entries instead of their number.
+ *
+ * <p>Each identity is given a weight, an estimate in bytes of its footprint, when it is put into the cache. Once the total
+ * weight of the cached identities exceeds the maximum weight, the least recently used identities are evicted. Identities
+ * weighing more than the maximum weight on their own are not cached.
+ *
+ * <p>Unless a custom weigher is given, an identity is first weighed by {@link #estimateEntryWeight(RealmIdentity)} from its
+ * realm principal only, so that caching it never loads anything from the backing realm. It is weighed again, accounting
+ * for its attributes and credentials, each time the caching realm reports it has {@link #loaded loaded} some of them, and
+ * the least recently used identities are evicted if the cache is then heavier than its maximum weight. A custom weigher
+ * is only applied when an identity is put, {@link #estimateWeight(RealmIdentity)} can be given when the identities
+ * already hold their attributes and credentials.
+ *
+ * <p>The mapping between realm principals and the domain principals used to lookup an identity, as well as the maximum age
+ * of entries, behave as in {@link LRURealmIdentityCache}.
+ */
+public final class WeightedRealmIdentityCache implements RealmIdentityCache {
+
+    /**
+     * Estimated footprint of a cache entry, its keys and the identity wrapping its attributes and credentials.
+     */
+    private static final long ENTRY_WEIGHT = 256;
+    private static final long ATTRIBUTE_WEIGHT = 64;
+    private static final long ATTRIBUTE_VALUE_WEIGHT = 48;
+    private static final long CREDENTIAL_WEIGHT = 512;
+
+    private static final List<Class<? extends Credential>> CREDENTIAL_TYPES = Arrays.asList(
+            PasswordCredential.class,
+            X509CertificateChainPublicCredential.class,
+            X509CertificateChainPrivateCredential.class,
+            PublicKeyCredential.class,
+            KeyPairCredential.class,
+            SecretKeyCredential.class,
+            BearerTokenCredential.class);
+
+    /**
+     * Holds the cached identities where the key is the domain principal, the one used to lookup the identity
+     */
+    private final LinkedHashMap<Principal, CacheEntry> identityCache = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Holds a mapping between a realm principal and domain principals
+     */
+    private final Map<Principal, Set<Principal>> domainPrincipalMap = new HashMap<>(16);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final long maxWeight;
+
+    private final long maxAge;
+
+    private final ToLongFunction<RealmIdentity> weigher;
+
+    private final boolean weighLoaded;
+
+    private final StatisticsCounter statistics = new StatisticsCounter();
+
+    private long weight;
+
+    /**
+     * Creates a new instance whose entries never expire.
+     *
+     * @param maxWeight the maximum total weight, in bytes, of the cached identities
+     */
+    public WeightedRealmIdentityCache(long maxWeight) {
+        this(maxWeight, -1);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxWeight the maximum total weight, in bytes, of the cached identities
+     * @param maxAge the time in milliseconds that an entry can stay in the cache. If {@code -1}, entries never expire
+     */
+    public WeightedRealmIdentityCache(long maxWeight, long maxAge) {
+        this(maxWeight, maxAge, WeightedRealmIdentityCache::estimateEntryWeight, true);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxWeight the maximum total weight of the cached identities
+     * @param maxAge the time in milliseconds that an entry can stay in the cache. If {@code -1}, entries never expire
+     * @param weigher the function giving the weight of an identity, in the same unit as {@code maxWeight}
+     */
+    public WeightedRealmIdentityCache(long maxWeight, long maxAge, ToLongFunction<RealmIdentity> weigher) {
+        this(maxWeight, maxAge, weigher, false);
+    }
+
+    private WeightedRealmIdentityCache(long maxWeight, long maxAge, ToLongFunction<RealmIdentity> weigher, boolean weighLoaded) {
+        checkMinimumParameter("maxWeight", 1, maxWeight);
+        checkMinimumParameter("maxAge", -1, maxAge);
+        this.maxWeight = maxWeight;
+        this.maxAge = maxAge;
+        this.weigher = checkNotNullParam("weigher", weigher);
+        this.weighLoaded = weighLoaded;
+    }
+
+    @Override
+    public void put(Principal key, RealmIdentity newValue) {
+        checkNotNullParam("key", key);
+        checkNotNullParam("newValue", newValue);
+        // weighing may load attributes and credentials from the backing realm, do it before locking
+        long entryWeight = weigher.applyAsLong(newValue);
+        checkMinimumParameter("weight", 0, entryWeight);
+
+        if (entryWeight > maxWeight) {
+            return;
+        }
+
+        Principal realmPrincipal = newValue.getRealmIdentityPrincipal();
+        lock.lock();
+        try {
+            CacheEntry existing = identityCache.get(key);
+
+            if (existing != null) {
+                if (! existing.isExpired()) {
+                    return;
+                }
+                removeEntry(existing);
+                statistics.recordRemoval(RemovalCause.EXPIRED);
+            }
+
+            insert(key, newValue, realmPrincipal, entryWeight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(Principal key, RealmIdentity oldValue, RealmIdentity newValue) {
+        checkNotNullParam("key", key);
+        checkNotNullParam("oldValue", oldValue);
+        checkNotNullParam("newValue", newValue);
+        long entryWeight = weigher.applyAsLong(newValue);
+        checkMinimumParameter("weight", 0, entryWeight);
+
+        Principal realmPrincipal = newValue.getRealmIdentityPrincipal();
+        lock.lock();
+        try {
+            CacheEntry existing = identityCache.get(key);
+
+            if (existing == null || existing.value() != oldValue) {
+                return false;
+            }
+
+            removeEntry(existing);
+            // an identity heavier than the whole cache is not cached, the previous one is removed nonetheless
+            if (entryWeight <= maxWeight) {
+                insert(key, newValue, realmPrincipal, entryWeight);
+            }
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Weighs the given identity again from the attributes and credentials it has loaded, unless a custom weigher was
+     * given. The identity is removed if it is then heavier than the whole cache.
+     */
+    @Override
+    public void loaded(Principal key, RealmIdentity identity, Attributes attributes, IdentityCredentials credentials) {
+        checkNotNullParam("key", key);
+        checkNotNullParam("identity", identity);
+        checkNotNullParam("attributes", attributes);
+        checkNotNullParam("credentials", credentials);
+        if (! weighLoaded) {
+            return;
+        }
+        long entryWeight = estimateEntryWeight(identity) + estimateWeight(attributes) + credentials.size() * CREDENTIAL_WEIGHT;
+
+        lock.lock();
+        try {
+            CacheEntry existing = identityCache.get(key);
+
+            if (existing == null || existing.value() != identity || existing.weight() == entryWeight) {
+                return;
+            }
+
+            if (entryWeight > maxWeight) {
+                removeEntry(existing);
+                statistics.recordRemoval(RemovalCause.SIZE);
+                return;
+            }
+
+            weight += entryWeight - existing.weight();
+            existing.weight = entryWeight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public RealmIdentity get(Principal key) {
+        lock.lock();
+        try {
+            CacheEntry cached = lookup(key);
+
+            if (cached == null) {
+                statistics.recordMiss();
+                return null;
+            }
+
+            if (cached.isExpired()) {
+                statistics.recordRemovals(RemovalCause.EXPIRED, removeAll(cached.key()));
+                statistics.recordMiss();
+                return null;
+            }
+
+            statistics.recordHit();
+            return cached.value();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getExpiration(Principal key) {
+        lock.lock();
+        try {
+            CacheEntry cached = lookup(key);
+
+            return cached != null ? cached.expiration() : -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(Principal key) {
+        lock.lock();
+        try {
+            statistics.recordRemovals(RemovalCause.EXPLICIT, removeAll(key));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            statistics.recordRemovals(RemovalCause.EXPLICIT, identityCache.size());
+            identityCache.clear();
+            domainPrincipalMap.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the current total weight of the cached identities.
+     *
+     * @return the current weight
+     */
+    public long getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the maximum total weight of the cached identities.
+     *
+     * @return the maximum weight
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Gets the current number of entries, some of which may have expired but not been removed yet.
+     *
+     * @return the current number of entries
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return identityCache.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of entries removed to keep the cache within its maximum weight.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return getStatistics().getEvictionCount();
+    }
+
+    @Override
+    public RealmIdentityCacheStatistics getStatistics() {
+        return statistics.snapshot(size());
+    }
+
+    /**
+     * Estimates the footprint in bytes of the cache entry of the given identity from its realm principal, without
+     * obtaining its attributes or credentials. This is the default weigher.
+     *
+     * @param identity the identity to weigh
+     * @return the estimated weight of the entry
+     */
+    public static long estimateEntryWeight(RealmIdentity identity) {
+        return ENTRY_WEIGHT + 2L * identity.getRealmIdentityPrincipal().getName().length();
+    }
+
+    /**
+     * <p>Estimates the footprint in bytes of the given identity from its attributes and the number of its credentials.
+     *
+     * <p>The attributes of the authorization identity and the credentials of the most common types are obtained from the identity, which may load them
+     * from the backing realm on every put, so this weigher is only used if given explicitly; by default identities are weighed from what they
+     * report to have {@link #loaded loaded}. Any of them which cannot be obtained is ignored.
+     *
+     * @param identity the identity to weigh
+     * @return the estimated weight of the identity
+     */
+    public static long estimateWeight(RealmIdentity identity) {
+        long weight = estimateEntryWeight(identity);
+
+        try {
+            weight += estimateWeight(identity.getAuthorizationIdentity().getAttributes());
+        } catch (RealmUnavailableException | UnsupportedOperationException | IllegalStateException ignored) {
+        }
+
+        for (Class<? extends Credential> credentialType : CREDENTIAL_TYPES) {
+            try {
+                if (identity.getCredential(credentialType) != null) {
+                    weight += CREDENTIAL_WEIGHT;
+                }
+            } catch (RealmUnavailableException | UnsupportedOperationException ignored) {
+            }
+        }
+
+        return weight;
+    }
+
+    private static long estimateWeight(Attributes attributes) {
+        long weight = 0;
+        for (Attributes.Entry entry : attributes.entries()) {
+            weight += ATTRIBUTE_WEIGHT + 2L * entry.getKey().length();
+            for (String value : entry) {
+                weight += ATTRIBUTE_VALUE_WEIGHT + 2L * value.length();
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Adds a new entry and evicts the least recently used entries beyond the maximum weight, must be called holding the lock.
+     */
+    private void insert(Principal key, RealmIdentity value, Principal realmPrincipal, long entryWeight) {
+        identityCache.put(key, new CacheEntry(key, value, realmPrincipal, entryWeight, maxAge));
+        domainPrincipalMap.computeIfAbsent(realmPrincipal, principal -> new HashSet<>()).add(key);
+        weight += entryWeight;
+        evict();
+    }
+
+    /**
+     * Evicts the least recently used entries beyond the maximum weight, must be called holding the lock.
+     */
+    private void evict() {
+        Iterator<CacheEntry> iterator = identityCache.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            CacheEntry eldest = iterator.next();
+            iterator.remove();
+            unlinkEntry(eldest);
+            statistics.recordRemoval(RemovalCause.SIZE);
+        }
+    }
+
+    private CacheEntry lookup(Principal key) {
+        CacheEntry cached = identityCache.get(key);
+
+        if (cached == null) {
+            Set<Principal> domainPrincipals = domainPrincipalMap.get(key);
+
+            if (domainPrincipals != null) {
+                cached = identityCache.get(domainPrincipals.iterator().next());
+            }
+        }
+
+        return cached;
+    }
+
+    private int removeAll(Principal key) {
+        CacheEntry removed = identityCache.remove(key);
+        Set<Principal> domainPrincipals;
+        int count = 0;
+
+        if (removed != null) {
+            weight -= removed.weight();
+            count++;
+            domainPrincipals = domainPrincipalMap.remove(removed.realmPrincipal());
+        } else {
+            domainPrincipals = domainPrincipalMap.remove(key);
+        }
+
+        if (domainPrincipals != null) {
+            for (Principal domainPrincipal : domainPrincipals) {
+                CacheEntry entry = identityCache.remove(domainPrincipal);
+                if (entry != null) {
+                    weight -= entry.weight();
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private void removeEntry(CacheEntry entry) {
+        identityCache.remove(entry.key());
+        unlinkEntry(entry);
+    }
+
+    private void unlinkEntry(CacheEntry entry) {
+        weight -= entry.weight();
+        Set<Principal> domainPrincipals = domainPrincipalMap.get(entry.realmPrincipal());
+
+        if (domainPrincipals != null) {
+            domainPrincipals.remove(entry.key());
+            if (domainPrincipals.isEmpty()) {
+                domainPrincipalMap.remove(entry.realmPrincipal());
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+
+        final Principal key;
+        final RealmIdentity value;
+        final Principal realmPrincipal;
+        long weight;
+        final long expiration;
+
+        CacheEntry(Principal key, RealmIdentity value, Principal realmPrincipal, long weight, long maxAge) {
+            this.key = key;
+            this.value = value;
+            this.realmPrincipal = realmPrincipal;
+            this.weight = weight;
+            if (maxAge == -1) {
+                expiration = -1;
+            } else {
+                expiration = System.currentTimeMillis() + maxAge;
+            }
+        }
+
+        Principal key() {
+            return key;
+        }
+
+        RealmIdentity value() {
+            return value;
+        }
+
+        Principal realmPrincipal() {
+            return realmPrincipal;
+        }
+
+        long weight() {
+            return weight;
+        }
+
+        long expiration() {
+            return expiration;
+        }
+
+        boolean isExpired() {
+            return expiration != -1 ? System.currentTimeMillis() > expiration : false;
+        }
+    }
+}
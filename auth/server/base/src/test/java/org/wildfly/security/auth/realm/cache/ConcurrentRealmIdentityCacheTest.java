@@ -0,0 +1,283 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.cache.ConcurrentRealmIdentityCache;
+import org.wildfly.security.cache.RealmIdentityCache;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.evidence.Evidence;
+
+/**
+ * Tests for {@link ConcurrentRealmIdentityCache}.
+ */
+public class ConcurrentRealmIdentityCacheTest {
+
+    @Test
+    public void testMaxEntries() {
+        RealmIdentityCache cache = new ConcurrentRealmIdentityCache(5);
+
+        for (int i = 0; i < 5; i++) {
+            cache.put(new NamePrincipal("user" + i), createRealmIdentity("user" + i));
+        }
+
+        // referenced entries are given a second chance, the unreferenced one is evicted first
+        for (int i = 1; i < 5; i++) {
+            assertNotNull(cache.get(new NamePrincipal("user" + i)));
+        }
+
+        cache.put(new NamePrincipal("user5"), createRealmIdentity("user5"));
+
+        assertNull(cache.get(new NamePrincipal("user0")));
+        for (int i = 1; i < 6; i++) {
+            assertNotNull(cache.get(new NamePrincipal("user" + i)));
+        }
+
+        for (int i = 6; i < 100; i++) {
+            cache.put(new NamePrincipal("user" + i), createRealmIdentity("user" + i));
+        }
+
+        int cached = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get(new NamePrincipal("user" + i)) != null) {
+                cached++;
+            }
+        }
+        assertEquals(5, cached);
+        assertNotNull(cache.get(new NamePrincipal("user99")));
+    }
+
+    @Test
+    public void testDomainPrincipalMapping() {
+        RealmIdentityCache cache = new ConcurrentRealmIdentityCache(10);
+        RealmIdentity identity = createRealmIdentity("joe");
+
+        cache.put(new NamePrincipal("joe@domain"), identity);
+        cache.put(new NamePrincipal("JOE"), identity);
+
+        assertSame(identity, cache.get(new NamePrincipal("joe")));
+        assertSame(identity, cache.get(new NamePrincipal("JOE")));
+
+        cache.remove(new NamePrincipal("joe"));
+
+        assertNull(cache.get(new NamePrincipal("joe@domain")));
+        assertNull(cache.get(new NamePrincipal("JOE")));
+        assertNull(cache.get(new NamePrincipal("joe")));
+
+        cache.put(new NamePrincipal("joe@domain"), identity);
+        cache.put(new NamePrincipal("JOE"), identity);
+        cache.remove(new NamePrincipal("JOE"));
+
+        assertNull(cache.get(new NamePrincipal("joe@domain")));
+        assertNull(cache.get(new NamePrincipal("joe")));
+    }
+
+    @Test
+    public void testReplace() {
+        RealmIdentityCache cache = new ConcurrentRealmIdentityCache(10);
+        RealmIdentity first = createRealmIdentity("joe");
+        RealmIdentity second = createRealmIdentity("joe");
+
+        cache.put(new NamePrincipal("joe@domain"), first);
+        assertFalse(cache.replace(new NamePrincipal("joe@domain"), second, createRealmIdentity("joe")));
+        assertSame(first, cache.get(new NamePrincipal("joe@domain")));
+
+        assertTrue(cache.replace(new NamePrincipal("joe@domain"), first, second));
+        assertSame(second, cache.get(new NamePrincipal("joe@domain")));
+        assertSame(second, cache.get(new NamePrincipal("joe")));
+        assertFalse(cache.replace(new NamePrincipal("joe@domain"), first, createRealmIdentity("joe")));
+
+        cache.remove(new NamePrincipal("joe"));
+        assertFalse(cache.replace(new NamePrincipal("joe@domain"), second, createRealmIdentity("joe")));
+        assertNull(cache.get(new NamePrincipal("joe@domain")));
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        RealmIdentityCache cache = new ConcurrentRealmIdentityCache(10, 100);
+
+        cache.put(new NamePrincipal("joe"), createRealmIdentity("joe"));
+        assertNotNull(cache.get(new NamePrincipal("joe")));
+
+        Thread.sleep(200);
+
+        assertNull(cache.get(new NamePrincipal("joe")));
+
+        RealmIdentity identity = createRealmIdentity("joe");
+        cache.put(new NamePrincipal("joe"), identity);
+        assertSame(identity, cache.get(new NamePrincipal("joe")));
+    }
+
+    @Test
+    public void testExpiration() {
+        RealmIdentityCache cache = new ConcurrentRealmIdentityCache(10, 60000);
+        RealmIdentity identity = createRealmIdentity("joe");
+        long before = System.currentTimeMillis();
+
+        assertEquals(-1, cache.getExpiration(new NamePrincipal("joe")));
+
+        cache.put(new NamePrincipal("joe@domain"), identity);
+        long expiration = cache.getExpiration(new NamePrincipal("joe@domain"));
+
+        assertTrue(expiration >= before + 60000 && expiration <= System.currentTimeMillis() + 60000);
+        assertEquals(expiration, cache.getExpiration(new NamePrincipal("joe")));
+
+        cache = new ConcurrentRealmIdentityCache(10);
+        cache.put(new NamePrincipal("joe"), identity);
+        assertEquals(-1, cache.getExpiration(new NamePrincipal("joe")));
+    }
+
+    @Test
+    public void testClear() {
+        RealmIdentityCache cache = new ConcurrentRealmIdentityCache(10);
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(new NamePrincipal("user" + i), createRealmIdentity("user" + i));
+        }
+
+        cache.clear();
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(cache.get(new NamePrincipal("user" + i)));
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        RealmIdentityCache cache = new ConcurrentRealmIdentityCache(64);
+        long operations = runContention(cache, 8, 128, TimeUnit.MILLISECONDS.toNanos(500));
+
+        assertTrue(operations > 0);
+
+        int cached = 0;
+        for (int i = 0; i < 128; i++) {
+            RealmIdentity identity = cache.get(new NamePrincipal("user" + i));
+            if (identity != null) {
+                assertEquals("user" + i, identity.getRealmIdentityPrincipal().getName());
+                cached++;
+            }
+        }
+        assertTrue(cached <= 64);
+    }
+
+    /**
+     * Runs a read mostly workload of lookups falling back to puts on misses, returning the total number of operations performed.
+     */
+    private static long runContention(RealmIdentityCache cache, int threads, int principals, long durationNanos) throws Exception {
+        List<Principal> keys = new ArrayList<>(principals);
+        List<RealmIdentity> identities = new ArrayList<>(principals);
+        for (int i = 0; i < principals; i++) {
+            keys.add(new NamePrincipal("user" + i));
+            identities.add(createRealmIdentity("user" + i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<Long>> results = new ArrayList<>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long operations = 0;
+                    start.await();
+                    while (running.get()) {
+                        // skew the accesses so that some identities are hot
+                        int index = Math.min(random.nextInt(principals), random.nextInt(principals));
+                        if (cache.get(keys.get(index)) == null) {
+                            cache.put(keys.get(index), identities.get(index));
+                        }
+                        operations++;
+                    }
+                    return operations;
+                }));
+            }
+
+            start.countDown();
+            TimeUnit.NANOSECONDS.sleep(durationNanos);
+            running.set(false);
+
+            long total = 0;
+            for (Future<Long> result : results) {
+                total += result.get(10, TimeUnit.SECONDS);
+            }
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static RealmIdentity createRealmIdentity(String name) {
+        Principal principal = new NamePrincipal(name);
+        return new RealmIdentity() {
+            @Override
+            public Principal getRealmIdentityPrincipal() {
+                return principal;
+            }
+
+            @Override
+            public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, final AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+                return SupportLevel.UNSUPPORTED;
+            }
+
+            @Override
+            public <C extends Credential> C getCredential(Class<C> credentialType) throws RealmUnavailableException {
+                return null;
+            }
+
+            @Override
+            public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) throws RealmUnavailableException {
+                return SupportLevel.UNSUPPORTED;
+            }
+
+            @Override
+            public boolean verifyEvidence(Evidence evidence) throws RealmUnavailableException {
+                return false;
+            }
+
+            @Override
+            public boolean exists() throws RealmUnavailableException {
+                return true;
+            }
+        };
+    }
+}
@@ -18,8 +18,11 @@
 
 package org.wildfly.security.auth.realm.cache;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.security.Principal;
 import java.security.spec.AlgorithmParameterSpec;
@@ -148,6 +151,23 @@ public class LRURealmIdentityCacheTest {
         assertNull(cache.get(principals.get(4)));
     }
 
+    @Test
+    public void testReplace() {
+        RealmIdentity cached = cache.get(principals.get(2));
+        RealmIdentity replacement = createRealmIdentity();
+
+        assertFalse(cache.replace(principals.get(2), createRealmIdentity(), replacement));
+        assertSame(cached, cache.get(principals.get(2)));
+
+        assertTrue(cache.replace(principals.get(2), cached, replacement));
+        assertSame(replacement, cache.get(principals.get(2)));
+        assertFalse(cache.replace(principals.get(2), cached, createRealmIdentity()));
+
+        cache.remove(principals.get(2));
+        assertFalse(cache.replace(principals.get(2), replacement, createRealmIdentity()));
+        assertNull(cache.get(principals.get(2)));
+    }
+
     @Test
     public void testClear() {
         cache.clear();
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.cache.NegativeRealmIdentityCache;
+
+/**
+ * Tests for {@link NegativeRealmIdentityCache}.
+ */
+public class NegativeRealmIdentityCacheTest {
+
+    @Test
+    public void testPutAndRemove() {
+        NegativeRealmIdentityCache cache = new NegativeRealmIdentityCache(10, 60000);
+
+        assertFalse(cache.contains(new NamePrincipal("joe")));
+        cache.put(new NamePrincipal("joe"));
+        assertTrue(cache.contains(new NamePrincipal("joe")));
+        assertFalse(cache.contains(new NamePrincipal("bob")));
+
+        cache.remove(new NamePrincipal("joe"));
+        assertFalse(cache.contains(new NamePrincipal("joe")));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        NegativeRealmIdentityCache cache = new NegativeRealmIdentityCache(10, 100);
+
+        cache.put(new NamePrincipal("joe"));
+        assertTrue(cache.contains(new NamePrincipal("joe")));
+
+        Thread.sleep(200);
+
+        assertFalse(cache.contains(new NamePrincipal("joe")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        NegativeRealmIdentityCache cache = new NegativeRealmIdentityCache(100, 60000);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new NamePrincipal("user" + i));
+            assertTrue(cache.size() <= 100);
+        }
+
+        assertEquals(1000 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testFilter() {
+        NegativeRealmIdentityCache cache = new NegativeRealmIdentityCache(100, 60000, true);
+
+        cache.put(new NamePrincipal("joe"));
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new NamePrincipal("user" + i));
+            if (i > 0) {
+                cache.remove(new NamePrincipal("user" + (i - 1)));
+            }
+        }
+
+        // the filter is rebuilt as it fills up, current entries must still be found
+        assertTrue(cache.contains(new NamePrincipal("joe")));
+        assertTrue(cache.contains(new NamePrincipal("user999")));
+        assertFalse(cache.contains(new NamePrincipal("user998")));
+        assertFalse(cache.contains(new NamePrincipal("bob")));
+
+        cache.clear();
+        assertFalse(cache.contains(new NamePrincipal("user999")));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.management.ManagementFactory;
+import java.security.Principal;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.cache.ConcurrentRealmIdentityCache;
+import org.wildfly.security.cache.LRURealmIdentityCache;
+import org.wildfly.security.cache.RealmIdentityCache;
+import org.wildfly.security.cache.RealmIdentityCacheStatistics;
+import org.wildfly.security.cache.RealmIdentityCacheStatisticsAdapter;
+import org.wildfly.security.cache.RemovalCause;
+import org.wildfly.security.cache.StatisticsCounter;
+import org.wildfly.security.cache.WeightedRealmIdentityCache;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.evidence.Evidence;
+
+/**
+ * Tests for {@link RealmIdentityCacheStatistics} as recorded by the {@link RealmIdentityCache} implementations.
+ */
+public class RealmIdentityCacheStatisticsTest {
+
+    @Test
+    public void testLRURealmIdentityCache() throws Exception {
+        assertStatistics(new LRURealmIdentityCache(2, 100));
+    }
+
+    @Test
+    public void testConcurrentRealmIdentityCache() throws Exception {
+        assertStatistics(new ConcurrentRealmIdentityCache(2, 100));
+    }
+
+    @Test
+    public void testWeightedRealmIdentityCache() throws Exception {
+        assertStatistics(new WeightedRealmIdentityCache(2, 100, identity -> 1));
+    }
+
+    @Test
+    public void testLoadLatencyHistogram() {
+        StatisticsCounter counter = new StatisticsCounter();
+
+        counter.recordLoadSuccess(TimeUnit.MICROSECONDS.toNanos(500));
+        counter.recordLoadSuccess(TimeUnit.MILLISECONDS.toNanos(3));
+        counter.recordLoadFailure(TimeUnit.MILLISECONDS.toNanos(1));
+        counter.recordLoadSuccess(TimeUnit.SECONDS.toNanos(10));
+
+        RealmIdentityCacheStatistics statistics = counter.snapshot(-1);
+        long[] expected = new long[RealmIdentityCacheStatistics.getLoadLatencyBounds().length + 1];
+        expected[0] = 1;
+        expected[1] = 1;
+        expected[2] = 1;
+        expected[expected.length - 1] = 1;
+
+        assertArrayEquals(expected, statistics.getLoadLatencyHistogram());
+        assertEquals(4, statistics.getLoadCount());
+        assertEquals(1, statistics.getLoadFailureCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(10004500), statistics.getTotalLoadTime());
+        assertEquals(-1, statistics.getSize());
+    }
+
+    @Test
+    public void testMXBean() throws Exception {
+        RealmIdentityCache cache = new LRURealmIdentityCache(10);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.wildfly.security:type=RealmIdentityCache,name=test");
+
+        server.registerMBean(new RealmIdentityCacheStatisticsAdapter(cache::getStatistics), name);
+        try {
+            cache.put(new NamePrincipal("joe"), createRealmIdentity("joe"));
+            cache.get(new NamePrincipal("joe"));
+            cache.get(new NamePrincipal("bob"));
+
+            assertEquals(1L, server.getAttribute(name, "HitCount"));
+            assertEquals(1L, server.getAttribute(name, "MissCount"));
+            assertEquals(0.5, (Double) server.getAttribute(name, "HitRatio"), 0);
+            assertEquals(1L, server.getAttribute(name, "Size"));
+
+            cache.clear();
+
+            assertEquals(1L, server.getAttribute(name, "ExplicitRemovalCount"));
+            assertEquals(0L, server.getAttribute(name, "Size"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private static void assertStatistics(RealmIdentityCache cache) throws Exception {
+        cache.put(new NamePrincipal("user0"), createRealmIdentity("user0"));
+        cache.put(new NamePrincipal("user1"), createRealmIdentity("user1"));
+
+        assertNotNull(cache.get(new NamePrincipal("user0")));
+        assertNull(cache.get(new NamePrincipal("unknown")));
+
+        // user1 is the least recently used
+        cache.put(new NamePrincipal("user2"), createRealmIdentity("user2"));
+        assertNotNull(cache.get(new NamePrincipal("user0")));
+        assertNotNull(cache.get(new NamePrincipal("user2")));
+
+        cache.remove(new NamePrincipal("user0"));
+
+        Thread.sleep(200);
+        assertNull(cache.get(new NamePrincipal("user2")));
+
+        RealmIdentityCacheStatistics statistics = cache.getStatistics();
+
+        assertEquals(3, statistics.getHitCount());
+        assertEquals(2, statistics.getMissCount());
+        assertEquals(0.6, statistics.getHitRatio(), 0.0001);
+        assertEquals(1, statistics.getEvictionCount());
+        assertEquals(1, statistics.getExpiredCount());
+        assertEquals(1, statistics.getRemovalCount(RemovalCause.EXPLICIT));
+        assertEquals(0, statistics.getSize());
+        assertEquals(0, statistics.getLoadCount());
+    }
+
+    private static RealmIdentity createRealmIdentity(String name) {
+        Principal principal = new NamePrincipal(name);
+        return new RealmIdentity() {
+            @Override
+            public Principal getRealmIdentityPrincipal() {
+                return principal;
+            }
+
+            @Override
+            public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, final AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+                return SupportLevel.UNSUPPORTED;
+            }
+
+            @Override
+            public <C extends Credential> C getCredential(Class<C> credentialType) throws RealmUnavailableException {
+                return null;
+            }
+
+            @Override
+            public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) throws RealmUnavailableException {
+                return SupportLevel.UNSUPPORTED;
+            }
+
+            @Override
+            public boolean verifyEvidence(Evidence evidence) throws RealmUnavailableException {
+                return false;
+            }
+
+            @Override
+            public boolean exists() throws RealmUnavailableException {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.cache.VerifiedEvidenceCache;
+
+/**
+ * Tests for {@link VerifiedEvidenceCache}.
+ */
+public class VerifiedEvidenceCacheTest {
+
+    @Test
+    public void testPutAndContains() {
+        VerifiedEvidenceCache cache = new VerifiedEvidenceCache(10, 60000);
+
+        assertFalse(cache.contains(new NamePrincipal("joe"), "password".toCharArray()));
+        cache.put(new NamePrincipal("joe"), "password".toCharArray());
+
+        assertTrue(cache.contains(new NamePrincipal("joe"), "password".toCharArray()));
+        assertFalse(cache.contains(new NamePrincipal("joe"), "Password".toCharArray()));
+        assertFalse(cache.contains(new NamePrincipal("bob"), "password".toCharArray()));
+
+        cache.put(new NamePrincipal("joe"), "changed".toCharArray());
+        assertFalse(cache.contains(new NamePrincipal("joe"), "password".toCharArray()));
+        assertTrue(cache.contains(new NamePrincipal("joe"), "changed".toCharArray()));
+
+        cache.remove(new NamePrincipal("joe"));
+        assertFalse(cache.contains(new NamePrincipal("joe"), "changed".toCharArray()));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(5, cache.getMissCount());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        VerifiedEvidenceCache cache = new VerifiedEvidenceCache(10, 100);
+
+        cache.put(new NamePrincipal("joe"), "password".toCharArray());
+        assertTrue(cache.contains(new NamePrincipal("joe"), "password".toCharArray()));
+
+        Thread.sleep(200);
+
+        assertFalse(cache.contains(new NamePrincipal("joe"), "password".toCharArray()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        VerifiedEvidenceCache cache = new VerifiedEvidenceCache(100, 60000);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new NamePrincipal("user" + i), "password".toCharArray());
+            assertTrue(cache.size() <= 100);
+        }
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
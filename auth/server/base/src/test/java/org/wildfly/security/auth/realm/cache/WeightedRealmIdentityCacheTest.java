@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.security.spec.AlgorithmParameterSpec;
+
+import org.junit.Test;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.server.IdentityCredentials;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.authz.AuthorizationIdentity;
+import org.wildfly.security.authz.MapAttributes;
+import org.wildfly.security.cache.WeightedRealmIdentityCache;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.evidence.Evidence;
+import org.wildfly.security.password.interfaces.ClearPassword;
+
+/**
+ * Tests for {@link WeightedRealmIdentityCache}.
+ */
+public class WeightedRealmIdentityCacheTest {
+
+    @Test
+    public void testMaxWeight() {
+        WeightedRealmIdentityCache cache = new WeightedRealmIdentityCache(100, -1, identity -> identity.getRealmIdentityPrincipal().getName().length() * 10L);
+
+        // 5 identities weighing 20
+        for (int i = 0; i < 5; i++) {
+            cache.put(new NamePrincipal("u" + i), createRealmIdentity("u" + i, 0, false));
+        }
+        assertEquals(100, cache.getWeight());
+        assertEquals(0, cache.getEvictionCount());
+
+        assertNotNull(cache.get(new NamePrincipal("u0")));
+
+        // weighs 60, evicts the 3 least recently used identities
+        cache.put(new NamePrincipal("user10"), createRealmIdentity("user10", 0, false));
+
+        assertNotNull(cache.get(new NamePrincipal("u0")));
+        assertNull(cache.get(new NamePrincipal("u1")));
+        assertNull(cache.get(new NamePrincipal("u2")));
+        assertNull(cache.get(new NamePrincipal("u3")));
+        assertNotNull(cache.get(new NamePrincipal("u4")));
+        assertNotNull(cache.get(new NamePrincipal("user10")));
+        assertEquals(100, cache.getWeight());
+        assertEquals(3, cache.getEvictionCount());
+        assertEquals(3, cache.size());
+
+        // heavier than the whole cache, not cached
+        cache.put(new NamePrincipal("user1000000"), createRealmIdentity("user1000000", 0, false));
+        assertNull(cache.get(new NamePrincipal("user1000000")));
+        assertEquals(100, cache.getWeight());
+
+        cache.remove(new NamePrincipal("user10"));
+        assertEquals(40, cache.getWeight());
+
+        cache.clear();
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDomainPrincipalMapping() {
+        WeightedRealmIdentityCache cache = new WeightedRealmIdentityCache(10000);
+        RealmIdentity identity = createRealmIdentity("joe", 1, true);
+
+        cache.put(new NamePrincipal("joe@domain"), identity);
+        cache.put(new NamePrincipal("JOE"), identity);
+
+        assertSame(identity, cache.get(new NamePrincipal("joe")));
+        assertSame(identity, cache.get(new NamePrincipal("JOE")));
+        assertEquals(2, cache.size());
+
+        cache.remove(new NamePrincipal("joe"));
+
+        assertNull(cache.get(new NamePrincipal("joe@domain")));
+        assertNull(cache.get(new NamePrincipal("JOE")));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testReplace() {
+        WeightedRealmIdentityCache cache = new WeightedRealmIdentityCache(10000);
+        RealmIdentity first = createRealmIdentity("joe", 1, true);
+        RealmIdentity second = createRealmIdentity("joe", 1, true);
+
+        cache.put(new NamePrincipal("joe@domain"), first);
+        assertFalse(cache.replace(new NamePrincipal("joe@domain"), second, createRealmIdentity("joe", 1, true)));
+        assertSame(first, cache.get(new NamePrincipal("joe@domain")));
+
+        assertTrue(cache.replace(new NamePrincipal("joe@domain"), first, second));
+        assertSame(second, cache.get(new NamePrincipal("joe@domain")));
+        assertSame(second, cache.get(new NamePrincipal("joe")));
+        assertFalse(cache.replace(new NamePrincipal("joe@domain"), first, createRealmIdentity("joe", 1, true)));
+
+        cache.remove(new NamePrincipal("joe"));
+        assertFalse(cache.replace(new NamePrincipal("joe@domain"), second, createRealmIdentity("joe", 1, true)));
+        assertNull(cache.get(new NamePrincipal("joe@domain")));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        WeightedRealmIdentityCache cache = new WeightedRealmIdentityCache(10000, 100);
+
+        cache.put(new NamePrincipal("joe"), createRealmIdentity("joe", 1, true));
+        assertNotNull(cache.get(new NamePrincipal("joe")));
+        assertTrue(cache.getExpiration(new NamePrincipal("joe")) > 0);
+
+        Thread.sleep(200);
+
+        assertNull(cache.get(new NamePrincipal("joe")));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testEstimateWeight() {
+        long empty = WeightedRealmIdentityCache.estimateWeight(createRealmIdentity("joe", 0, false));
+        long withCredential = WeightedRealmIdentityCache.estimateWeight(createRealmIdentity("joe", 0, true));
+        long withGroups = WeightedRealmIdentityCache.estimateWeight(createRealmIdentity("joe", 1000, false));
+
+        assertTrue(empty > 0);
+        assertTrue(withCredential > empty);
+        assertTrue(withGroups > empty + 1000 * "group1000".length() * 2);
+    }
+
+    @Test
+    public void testDefaultWeigherLoadsNothing() {
+        Principal principal = new NamePrincipal("joe");
+        RealmIdentity identity = (RealmIdentity) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RealmIdentity.class }, (proxy, method, args) -> {
+            if (method.getName().equals("getRealmIdentityPrincipal")) {
+                return principal;
+            }
+            throw new AssertionError("Unexpected call of " + method.getName());
+        });
+        WeightedRealmIdentityCache cache = new WeightedRealmIdentityCache(10000);
+
+        cache.put(principal, identity);
+
+        assertSame(identity, cache.get(principal));
+        assertEquals(WeightedRealmIdentityCache.estimateEntryWeight(identity), cache.getWeight());
+        assertTrue(WeightedRealmIdentityCache.estimateWeight(createRealmIdentity("joe", 1, true)) > cache.getWeight());
+    }
+
+    @Test
+    public void testLoaded() throws Exception {
+        WeightedRealmIdentityCache cache = new WeightedRealmIdentityCache(2800);
+        RealmIdentity joe = createRealmIdentity("joe", 10, true);
+        RealmIdentity bob = createRealmIdentity("bob", 0, false);
+        cache.put(new NamePrincipal("joe"), joe);
+        cache.put(new NamePrincipal("bob"), bob);
+        long entryWeight = WeightedRealmIdentityCache.estimateEntryWeight(joe);
+        assertEquals(2 * entryWeight, cache.getWeight());
+
+        // weighed again once its attributes and credentials are loaded
+        IdentityCredentials credentials = IdentityCredentials.NONE.withCredential(joe.getCredential(PasswordCredential.class));
+        cache.loaded(new NamePrincipal("joe"), joe, joe.getAuthorizationIdentity().getAttributes(), credentials);
+        assertEquals(entryWeight + WeightedRealmIdentityCache.estimateWeight(joe), cache.getWeight());
+
+        // another identity cached for the principal is not weighed
+        cache.loaded(new NamePrincipal("bob"), joe, joe.getAuthorizationIdentity().getAttributes(), credentials);
+        assertEquals(entryWeight + WeightedRealmIdentityCache.estimateWeight(joe), cache.getWeight());
+
+        // the least recently used identity is evicted once the loaded identity makes the cache too heavy
+        MapAttributes groups = new MapAttributes();
+        for (int i = 0; i < 30; i++) {
+            groups.addLast("groups", "group" + i);
+        }
+        cache.loaded(new NamePrincipal("joe"), joe, groups, credentials);
+        assertNull(cache.get(new NamePrincipal("bob")));
+        assertSame(joe, cache.get(new NamePrincipal("joe")));
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+
+        // removed once heavier than the whole cache
+        for (int i = 30; i < 100; i++) {
+            groups.addLast("groups", "group" + i);
+        }
+        cache.loaded(new NamePrincipal("joe"), joe, groups, credentials);
+        assertNull(cache.get(new NamePrincipal("joe")));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testLoadedWithCustomWeigher() throws Exception {
+        WeightedRealmIdentityCache cache = new WeightedRealmIdentityCache(100, -1, identity -> 10);
+        RealmIdentity joe = createRealmIdentity("joe", 10, true);
+        cache.put(new NamePrincipal("joe"), joe);
+
+        cache.loaded(new NamePrincipal("joe"), joe, joe.getAuthorizationIdentity().getAttributes(), IdentityCredentials.NONE);
+        assertEquals(10, cache.getWeight());
+    }
+
+    private static RealmIdentity createRealmIdentity(String name, int groups, boolean withPassword) {
+        Principal principal = new NamePrincipal(name);
+        MapAttributes attributes = new MapAttributes();
+        for (int i = 0; i < groups; i++) {
+            attributes.addLast("groups", "group" + i);
+        }
+        PasswordCredential credential = withPassword ? new PasswordCredential(ClearPassword.createRaw(ClearPassword.ALGORITHM_CLEAR, "password".toCharArray())) : null;
+
+        return new RealmIdentity() {
+            @Override
+            public Principal getRealmIdentityPrincipal() {
+                return principal;
+            }
+
+            @Override
+            public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, final AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+                return SupportLevel.UNSUPPORTED;
+            }
+
+            @Override
+            public <C extends Credential> C getCredential(Class<C> credentialType) throws RealmUnavailableException {
+                return credentialType.isInstance(credential) ? credentialType.cast(credential) : null;
+            }
+
+            @Override
+            public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) throws RealmUnavailableException {
+                return SupportLevel.UNSUPPORTED;
+            }
+
+            @Override
+            public boolean verifyEvidence(Evidence evidence) throws RealmUnavailableException {
+                return false;
+            }
+
+            @Override
+            public boolean exists() throws RealmUnavailableException {
+                return true;
+            }
+
+            @Override
+            public AuthorizationIdentity getAuthorizationIdentity() throws RealmUnavailableException {
+                return AuthorizationIdentity.basicIdentity(attributes);
+            }
+        };
+    }
+}
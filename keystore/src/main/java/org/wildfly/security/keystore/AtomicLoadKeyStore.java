@@ -35,7 +35,7 @@ import java.security.cert.CertificateException;
  *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
-public class AtomicLoadKeyStore extends KeyStore {
+public class AtomicLoadKeyStore extends KeyStore implements ModificationCountingKeyStore {
 
     private final AtomicLoadKeyStoreSpi keyStoreSpi;
 
@@ -140,6 +140,11 @@ public class AtomicLoadKeyStore extends KeyStore {
         keyStoreSpi.restoreKeyStore(key.keyStore);
     }
 
+    @Override
+    public long getModificationCount() {
+        return keyStoreSpi.getModificationCount();
+    }
+
     /**
      * An opaque key representing an atomic keystore state.
      */
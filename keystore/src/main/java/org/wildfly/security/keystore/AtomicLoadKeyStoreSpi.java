@@ -22,11 +22,14 @@ import static org.wildfly.security.keystore.ElytronMessages.log;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.KeyStoreSpi;
 import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -40,6 +43,8 @@ class AtomicLoadKeyStoreSpi extends DelegatingKeyStoreSpi {
 
     private final AtomicReference<KeyStore> currentStore = new AtomicReference<KeyStore>();
 
+    private final AtomicLong modificationCount = new AtomicLong();
+
     AtomicLoadKeyStoreSpi(KeyStoreFactory keyStoreFactory) {
         this.keyStoreFactory = keyStoreFactory;
     }
@@ -52,6 +57,7 @@ class AtomicLoadKeyStoreSpi extends DelegatingKeyStoreSpi {
             KeyStore keyStore = keyStoreFactory.getInstance();
             keyStore.load(stream, password);
             currentStore.set(keyStore);
+            modificationCount.incrementAndGet();
         } catch (KeyStoreException e) {
             throw log.unableToCreateKeyStore(e);
         }
@@ -63,6 +69,40 @@ class AtomicLoadKeyStoreSpi extends DelegatingKeyStoreSpi {
 
     void restoreKeyStore(final KeyStore keyStore) {
         currentStore.set(keyStore);
+        modificationCount.incrementAndGet();
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) throws KeyStoreException {
+        super.engineSetKeyEntry(alias, key, password, chain);
+        modificationCount.incrementAndGet();
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
+        super.engineSetKeyEntry(alias, key, chain);
+        modificationCount.incrementAndGet();
+    }
+
+    @Override
+    public void engineSetCertificateEntry(String alias, Certificate cert) throws KeyStoreException {
+        super.engineSetCertificateEntry(alias, cert);
+        modificationCount.incrementAndGet();
+    }
+
+    @Override
+    public void engineDeleteEntry(String alias) throws KeyStoreException {
+        super.engineDeleteEntry(alias);
+        modificationCount.incrementAndGet();
+    }
+
+    /**
+     * Get the number of times the current {@link KeyStore} was loaded, restored or modified.
+     *
+     * @return the number of modifications
+     */
+    long getModificationCount() {
+        return modificationCount.get();
     }
 
     @Override
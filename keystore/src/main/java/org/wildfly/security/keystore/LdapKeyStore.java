@@ -71,6 +71,10 @@ public class LdapKeyStore extends KeyStore {
         private String certificateChainEncoding = "PKCS7";
         private String keyAttribute = "userPKCS12";
         private String keyType = "PKCS12";
+        private int pageSize = 50;
+        private long cacheMaxAge = 0;
+        private long negativeCacheMaxAge = 0;
+        private long refreshInterval = 0;
 
         private Builder() {
         }
@@ -101,7 +105,7 @@ public class LdapKeyStore extends KeyStore {
             LdapKeyStoreSpi spi = new LdapKeyStoreSpi(dirContextSupplier, searchPath, searchScope, searchTimeLimit,
                     filterAlias, filterCertificate, filterIterate, createPath, createRdn, createAttributes, aliasAttribute,
                     certificateAttribute, certificateType, certificateChainAttribute, certificateChainEncoding,
-                    keyAttribute, keyType);
+                    keyAttribute, keyType, pageSize, cacheMaxAge, negativeCacheMaxAge, refreshInterval);
             return new LdapKeyStore(spi, EmptyProvider.getInstance(), "LdapKeyStore");
         }
 
@@ -317,6 +321,65 @@ public class LdapKeyStore extends KeyStore {
             this.keyType = keyType;
             return this;
         }
+
+        /**
+         * Set the size of the pages in which all the keystore items are searched, when iterating aliases or loading all
+         * the items. Default value: 50, 0 to search all the items at once.
+         *
+         * @param pageSize the number of items in a page
+         * @return this builder
+         */
+        public Builder setPageSize(int pageSize) {
+            Assert.checkMinimumParameter("pageSize", 0, pageSize);
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Set the time in milliseconds a keystore item looked up by alias is cached, so that further lookups of the
+         * same alias do not search LDAP. Items modified through the keystore are reloaded immediately.
+         * Default value: 0, items are not cached.
+         *
+         * @param cacheMaxAge the maximum age of a cached item in milliseconds
+         * @return this builder
+         */
+        public Builder setCacheMaxAge(long cacheMaxAge) {
+            Assert.checkMinimumParameter("cacheMaxAge", 0, cacheMaxAge);
+            this.cacheMaxAge = cacheMaxAge;
+            return this;
+        }
+
+        /**
+         * Set the time in milliseconds an alias which was not found is remembered as not existing.
+         * Default value: 0, aliases not found are searched again.
+         *
+         * @param negativeCacheMaxAge the maximum age of a cached missing alias in milliseconds
+         * @return this builder
+         */
+        public Builder setNegativeCacheMaxAge(long negativeCacheMaxAge) {
+            Assert.checkMinimumParameter("negativeCacheMaxAge", 0, negativeCacheMaxAge);
+            this.negativeCacheMaxAge = negativeCacheMaxAge;
+            return this;
+        }
+
+        /**
+         * Set the interval in milliseconds in which all the keystore items are loaded by a background thread. Once
+         * loaded, lookups by alias or certificate, aliases and size are answered without searching LDAP, which suits
+         * a trust store used during TLS handshakes. If no load completes within twice the interval, the last load is
+         * no longer used and LDAP is searched again. Default value: 0, items are not loaded in the background.
+         *
+         * The daemon thread loading the items is started when the key store is built. It holds the key store only
+         * weakly and stops once the key store has been garbage collected, so a key store no longer in use keeps
+         * loading the items until it is collected.
+         *
+         * @param refreshInterval the interval between loads in milliseconds
+         * @return this builder
+         */
+        public Builder setRefreshInterval(long refreshInterval) {
+            Assert.checkMinimumParameter("refreshInterval", 0, refreshInterval);
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
     }
 
 }
@@ -20,6 +20,7 @@ package org.wildfly.security.keystore;
 
 import static org.wildfly.security.keystore.ElytronMessages.log;
 
+import org.wildfly.common.function.ExceptionConsumer;
 import org.wildfly.common.function.ExceptionSupplier;
 import org.wildfly.security.util.LdapUtil;
 
@@ -32,13 +33,18 @@ import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 import javax.naming.ldap.Rdn;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -58,10 +64,21 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A LDAP backed {@link KeyStore} implementation.
  *
+ * The entries looked up by alias can be cached for a maximum age, including the aliases which were not found. If a
+ * refresh interval is set, all the entries are loaded in the background every interval, and lookups by alias and
+ * certificate, aliases and size are then answered from the last load without contacting the server. The entries
+ * modified through the key store are reloaded immediately. If no load completes within twice the interval after the
+ * previous one, for example because the server is unavailable, the last load is no longer used and the server is
+ * searched again.
+ *
  * @author <a href="mailto:jkalina@redhat.com">Jan Kalina</a>
  */
 class LdapKeyStoreSpi extends KeyStoreSpi {
@@ -88,6 +105,14 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
     private final String certificateChainEncoding;
     private final String keyAttribute;
     private final String keyType;
+    private final int pageSize;
+    private final long cacheMaxAge;
+    private final long negativeCacheMaxAge;
+    private final long refreshInterval;
+    private final String[] entryAttributes;
+
+    private final ConcurrentHashMap<String, CachedAlias> cache = new ConcurrentHashMap<>();
+    private final AtomicReference<LoadedEntries> loadedEntries = new AtomicReference<>(new LoadedEntries(null, 0));
 
     LdapKeyStoreSpi(ExceptionSupplier<DirContext, NamingException> dirContextSupplier, String searchPath, int searchScope, int searchTimeLimit,
                     String filterAlias, String filterCertificate, String filterIterate,
@@ -95,7 +120,8 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
                     String aliasAttribute,
                     String certificateAttribute, String certificateType,
                     String certificateChainAttribute, String certificateChainEncoding,
-                    String keyAttribute, String keyType) {
+                    String keyAttribute, String keyType,
+                    int pageSize, long cacheMaxAge, long negativeCacheMaxAge, long refreshInterval) {
         this.dirContextSupplier = dirContextSupplier;
         this.searchPath = searchPath;
         this.searchScope = searchScope;
@@ -113,14 +139,26 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
         this.certificateChainEncoding = certificateChainEncoding;
         this.keyAttribute = keyAttribute;
         this.keyType = keyType;
+        this.pageSize = pageSize;
+        this.cacheMaxAge = cacheMaxAge;
+        this.negativeCacheMaxAge = negativeCacheMaxAge;
+        this.refreshInterval = refreshInterval;
+        this.entryAttributes = new String[]{aliasAttribute, certificateAttribute, certificateChainAttribute, keyAttribute,
+                CREATE_TIMESTAMP_ATTRIBUTE, MODIFY_TIMESTAMP_ATTRIBUTE};
+
+        if (refreshInterval > 0) {
+            Thread thread = new Thread(new Refresher(this, refreshInterval), "LdapKeyStore refresh " + searchPath);
+            thread.setDaemon(true);
+            thread.start();
+        }
     }
 
-    private Object binaryAttributesBackup;
+    private final ThreadLocal<Object> binaryAttributesBackup = new ThreadLocal<>();
 
     private DirContext obtainDirContext() {
         try {
             DirContext context = dirContextSupplier.get();
-            binaryAttributesBackup = context.getEnvironment().get(ENV_BINARY_ATTRIBUTES);
+            binaryAttributesBackup.set(context.getEnvironment().get(ENV_BINARY_ATTRIBUTES));
             context.addToEnvironment(ENV_BINARY_ATTRIBUTES, String.join(" ",
                     certificateAttribute, certificateChainAttribute, keyAttribute));
             return context;
@@ -130,11 +168,13 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
     }
 
     private void returnDirContext(DirContext context) {
+        Object backup = binaryAttributesBackup.get();
+        binaryAttributesBackup.remove();
         try {
-            if (binaryAttributesBackup == null) {
+            if (backup == null) {
                 context.removeFromEnvironment(ENV_BINARY_ATTRIBUTES);
             } else {
-                context.addToEnvironment(ENV_BINARY_ATTRIBUTES, binaryAttributesBackup);
+                context.addToEnvironment(ENV_BINARY_ATTRIBUTES, backup);
             }
             context.close();
         } catch (NamingException e) {
@@ -163,7 +203,155 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
         return results.next();
     }
 
+    private boolean isCaching() {
+        return cacheMaxAge > 0 || refreshInterval > 0;
+    }
+
+    private static String key(String alias) {
+        return alias.toLowerCase(Locale.ROOT);
+    }
+
     private Attributes obtainAliasOrCertificateAttributes(String alias, byte[] cert, String[] attributes) {
+        if (cert == null && isCaching()) {
+            return obtainAliasAttributes(alias);
+        }
+        return searchAliasOrCertificateAttributes(alias, cert, attributes);
+    }
+
+    /**
+     * Get the entries of the last full load, or {@code null} if not loaded yet or no longer up to date.
+     */
+    private Map<String, Attributes> getLoadedEntries() {
+        LoadedEntries loaded = loadedEntries.get();
+        if (loaded.entries == null || System.currentTimeMillis() - loaded.time > 2 * refreshInterval) {
+            return null;
+        }
+        return loaded.entries;
+    }
+
+    /**
+     * Obtain all the attributes of the entry of the given alias, from the last full load or the cache if possible.
+     */
+    private Attributes obtainAliasAttributes(String alias) {
+        String key = key(alias);
+        Map<String, Attributes> loadedEntries = getLoadedEntries();
+        if (loadedEntries != null) {
+            return loadedEntries.get(key);
+        }
+        CachedAlias cached = cache.get(key);
+        if (cached != null) {
+            if (System.currentTimeMillis() <= cached.expiration) {
+                return cached.attributes;
+            }
+            cache.remove(key, cached);
+        }
+        return loadAliasAttributes(alias);
+    }
+
+    private Attributes loadAliasAttributes(String alias) {
+        Attributes attributes = searchAliasOrCertificateAttributes(alias, null, entryAttributes);
+        String key = key(alias);
+        Map<String, Attributes> loadedEntries = this.loadedEntries.get().entries;
+        if (loadedEntries != null) {
+            if (attributes != null) {
+                loadedEntries.put(key, attributes);
+            } else {
+                loadedEntries.remove(key);
+            }
+        }
+        long maxAge = attributes != null ? cacheMaxAge : negativeCacheMaxAge;
+        if (maxAge > 0) {
+            cache.put(key, new CachedAlias(attributes, System.currentTimeMillis() + maxAge));
+        } else {
+            cache.remove(key);
+        }
+        return attributes;
+    }
+
+    private void aliasModified(String alias) {
+        if (! isCaching()) return;
+        // a new holder makes any full load started before the modification fail to publish
+        loadedEntries.updateAndGet(loaded -> new LoadedEntries(loaded.entries, loaded.time));
+        try {
+            loadAliasAttributes(alias);
+        } catch (IllegalStateException e) {
+            log.tracef(e, "Unable to reload modified alias [%s]", alias);
+            cache.remove(key(alias));
+            loadedEntries.set(new LoadedEntries(null, 0)); // not up to date until the next full load
+        }
+    }
+
+    /**
+     * Load all the entries, replacing the result of the previous full load unless the key store was modified meanwhile.
+     */
+    void refresh() {
+        LoadedEntries previous = loadedEntries.get();
+        Map<String, Attributes> loaded = new ConcurrentHashMap<>();
+        DirContext context = obtainDirContext();
+        try {
+            forEachEntry(context, entryAttributes, result -> {
+                Attribute attribute = result.getAttributes().get(aliasAttribute);
+                if (attribute != null) loaded.put(key((String) attribute.get()), result.getAttributes());
+            });
+        } catch (NamingException e) {
+            throw log.ldapKeyStoreFailedToIterateAliases(e);
+        } finally {
+            returnDirContext(context);
+        }
+        if (! loadedEntries.compareAndSet(previous, new LoadedEntries(loaded, System.currentTimeMillis()))) {
+            log.trace("LdapKeyStore modified while loading all the entries, the load is discarded");
+            return;
+        }
+        cache.clear();
+        log.debugf("Loaded %d entries of LdapKeyStore [%s]", loaded.size(), searchPath);
+    }
+
+    /**
+     * Iterate over all the entries, in pages if the context supports it.
+     */
+    private void forEachEntry(DirContext context, String[] returningAttributes, ExceptionConsumer<SearchResult, NamingException> consumer) throws NamingException {
+        SearchControls controls = createSearchControl(returningAttributes);
+        if (! (context instanceof LdapContext) || pageSize <= 0) {
+            consumeResults(context.search(searchPath, filterIterate, null, controls), consumer);
+            return;
+        }
+
+        LdapContext ldapContext = (LdapContext) context;
+        Control[] controlsBackup = ldapContext.getRequestControls();
+        try {
+            byte[] cookie = null;
+            do {
+                // not critical, a server not supporting paging returns all the entries at once
+                ldapContext.setRequestControls(new Control[]{new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL)});
+                consumeResults(ldapContext.search(searchPath, filterIterate, null, controls), consumer);
+                cookie = null;
+                Control[] responseControls = ldapContext.getResponseControls();
+                if (responseControls != null) {
+                    for (Control control : responseControls) {
+                        if (control instanceof PagedResultsResponseControl) {
+                            cookie = ((PagedResultsResponseControl) control).getCookie();
+                        }
+                    }
+                }
+            } while (cookie != null && cookie.length != 0);
+        } catch (IOException e) {
+            throw log.ldapKeyStoreFailedToIterateAliases(e);
+        } finally {
+            ldapContext.setRequestControls(controlsBackup);
+        }
+    }
+
+    private static void consumeResults(NamingEnumeration<SearchResult> results, ExceptionConsumer<SearchResult, NamingException> consumer) throws NamingException {
+        try {
+            while (results.hasMore()) {
+                consumer.accept(results.next());
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    private Attributes searchAliasOrCertificateAttributes(String alias, byte[] cert, String[] attributes) {
         DirContext context = obtainDirContext();
         if (context == null) {
             log.trace("Unable to obtain DirContext");
@@ -293,6 +481,7 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
         } finally {
             returnDirContext(context);
         }
+        aliasModified(alias);
     }
 
     @Override
@@ -360,10 +549,14 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
         } finally {
             returnDirContext(context);
         }
+        aliasModified(alias);
     }
 
     @Override
     public boolean engineContainsAlias(String alias) {
+        if (isCaching()) {
+            return obtainAliasAttributes(alias) != null;
+        }
         DirContext context = obtainDirContext();
         if (context == null) {
             log.trace("Unable to obtain DirContext");
@@ -383,18 +576,29 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
 
     @Override
     public Enumeration<String> engineAliases() {
+        Map<String, Attributes> loadedEntries = getLoadedEntries();
+        if (loadedEntries != null) {
+            List<String> aliases = new LinkedList<>();
+            try {
+                for (Attributes attributes : loadedEntries.values()) {
+                    aliases.add((String) attributes.get(aliasAttribute).get());
+                }
+            } catch (NamingException e) {
+                throw log.ldapKeyStoreFailedToIterateAliases(e);
+            }
+            return Collections.enumeration(aliases);
+        }
         DirContext context = obtainDirContext();
         if (context == null) {
             log.trace("Unable to obtain DirContext");
             return null;
         }
         try {
-            NamingEnumeration<SearchResult> results = context.search(searchPath, filterIterate, null, createSearchControl(new String[]{aliasAttribute})); // TODO pagination
             List<String> aliases = new LinkedList<>();
-            while (results.hasMore()) {
-                Attribute attribute = results.next().getAttributes().get(aliasAttribute);
+            forEachEntry(context, new String[]{aliasAttribute}, result -> {
+                Attribute attribute = result.getAttributes().get(aliasAttribute);
                 if (attribute != null) aliases.add((String) attribute.get());
-            }
+            });
             return Collections.enumeration(aliases);
         } catch (NamingException e) {
             throw log.ldapKeyStoreFailedToIterateAliases(e);
@@ -405,19 +609,19 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
 
     @Override
     public int engineSize() {
+        Map<String, Attributes> loadedEntries = getLoadedEntries();
+        if (loadedEntries != null) {
+            return loadedEntries.size();
+        }
         DirContext context = obtainDirContext();
         if (context == null) {
             log.trace("Unable to obtain DirContext");
             return 0;
         }
         try {
-            NamingEnumeration<SearchResult> results = context.search(searchPath, filterIterate, null, createSearchControl(new String[]{aliasAttribute}));
-            int count = 0;
-            while (results.hasMore()) {
-                results.next();
-                count++;
-            }
-            return count;
+            int[] count = new int[1];
+            forEachEntry(context, new String[]{aliasAttribute}, result -> count[0]++);
+            return count[0];
         } catch (NamingException e) {
             throw log.ldapKeyStoreFailedToIterateAliases(e);
         } finally {
@@ -459,6 +663,17 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
     public String engineGetCertificateAlias(Certificate cert) {
         try {
             byte[] certBytes = cert.getEncoded();
+            Map<String, Attributes> loadedEntries = getLoadedEntries();
+            if (loadedEntries != null) {
+                for (Attributes attributes : loadedEntries.values()) {
+                    Attribute attribute = LdapUtil.getBinaryAttribute(attributes, certificateAttribute);
+                    if (attribute != null && Arrays.equals(certBytes, (byte[]) attribute.get())) {
+                        return (String) attributes.get(aliasAttribute).get();
+                    }
+                }
+                log.tracef("Certificate not found in LDAP: [%s]", cert);
+                return null;
+            }
             Attributes attributes = obtainAliasOrCertificateAttributes(null, certBytes, new String[]{aliasAttribute});
             Attribute attribute = attributes == null ? null : attributes.get(aliasAttribute);
             if (attribute == null) {
@@ -481,4 +696,65 @@ class LdapKeyStoreSpi extends KeyStoreSpi {
         // NO-OP
     }
 
+    private static final class CachedAlias {
+
+        final Attributes attributes;
+        final long expiration;
+
+        CachedAlias(Attributes attributes, long expiration) {
+            this.attributes = attributes;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * The result of a full load, a new instance is set on every modification so a concurrent load can detect it.
+     */
+    private static final class LoadedEntries {
+
+        final Map<String, Attributes> entries;
+        final long time;
+
+        LoadedEntries(Map<String, Attributes> entries, long time) {
+            this.entries = entries;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Loads all the entries every interval, as long as the key store is in use.
+     */
+    private static final class Refresher implements Runnable {
+
+        private final WeakReference<LdapKeyStoreSpi> spi;
+        private final long interval;
+
+        Refresher(LdapKeyStoreSpi spi, long interval) {
+            this.spi = new WeakReference<>(spi);
+            this.interval = interval;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                LdapKeyStoreSpi spi = this.spi.get();
+                if (spi == null) {
+                    return;
+                }
+                try {
+                    spi.refresh();
+                } catch (RuntimeException e) {
+                    log.debugf(e, "Loading all the entries of LdapKeyStore failed");
+                }
+                spi = null;
+
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,37 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.keystore;
+
+import java.security.KeyStore;
+
+/**
+ * A {@link KeyStore} able to report how many times its content may have changed, allowing information derived from its
+ * entries to be cached until it changes.
+ */
+public interface ModificationCountingKeyStore {
+
+    /**
+     * Get the number of times the content of this {@link KeyStore} was modified or loaded since it was created. The count
+     * only ever increases, so information derived from the entries remains valid as long as the count is unchanged.
+     *
+     * @return the number of modifications of this {@link KeyStore}
+     */
+    long getModificationCount();
+}
@@ -31,7 +31,7 @@ import org.wildfly.common.Assert;
  *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
-public class ModifyTrackingKeyStore extends KeyStore {
+public class ModifyTrackingKeyStore extends KeyStore implements ModificationCountingKeyStore {
 
     private final ModifyTrackingKeyStoreSpi keyStoreSpi;
 
@@ -78,4 +78,9 @@ public class ModifyTrackingKeyStore extends KeyStore {
         keyStoreSpi.setModified(modified);
     }
 
+    @Override
+    public long getModificationCount() {
+        return keyStoreSpi.getModificationCount();
+    }
+
 }
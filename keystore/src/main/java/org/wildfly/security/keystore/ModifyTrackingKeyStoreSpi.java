@@ -28,6 +28,7 @@ import java.security.KeyStoreSpi;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The {@link KeyStoreSpi} implementation to track modifications.
@@ -38,7 +39,9 @@ class ModifyTrackingKeyStoreSpi extends DelegatingKeyStoreSpi {
 
     private final KeyStore delegate;
     private volatile boolean initialised = false;
-    private volatile boolean modified = false;    ModifyTrackingKeyStoreSpi(KeyStore delegate) {
+    private volatile boolean modified = false;
+    private final AtomicLong modificationCount = new AtomicLong();
+    ModifyTrackingKeyStoreSpi(KeyStore delegate) {
         this.delegate = delegate;
     }
 
@@ -46,24 +49,28 @@ class ModifyTrackingKeyStoreSpi extends DelegatingKeyStoreSpi {
     public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) throws KeyStoreException {
         super.engineSetKeyEntry(alias, key, password, chain);
         modified = true;
+        modificationCount.incrementAndGet();
     }
 
     @Override
     public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
         super.engineSetKeyEntry(alias, key, chain);
         modified = true;
+        modificationCount.incrementAndGet();
     }
 
     @Override
     public void engineSetCertificateEntry(String alias, Certificate cert) throws KeyStoreException {
         super.engineSetCertificateEntry(alias, cert);
         modified = true;
+        modificationCount.incrementAndGet();
     }
 
     @Override
     public void engineDeleteEntry(String alias) throws KeyStoreException {
         super.engineDeleteEntry(alias);
         modified = true;
+        modificationCount.incrementAndGet();
     }
 
     @Override
@@ -78,6 +85,7 @@ class ModifyTrackingKeyStoreSpi extends DelegatingKeyStoreSpi {
         if (initialised) {
             super.engineLoad(stream, password);
             modified = false;
+            modificationCount.incrementAndGet();
         } else {
             // Skip the first initialisation as we are deliberately getting initialised flags set.
             initialised = true;
@@ -102,6 +110,19 @@ class ModifyTrackingKeyStoreSpi extends DelegatingKeyStoreSpi {
         this.modified = modified;
     }
 
+    /**
+     * Get the number of modifications made through this implementation, plus those of the delegate if it counts them too.
+     *
+     * @return the number of modifications
+     */
+    long getModificationCount() {
+        long count = modificationCount.get();
+        if (delegate instanceof ModificationCountingKeyStore) {
+            count += ((ModificationCountingKeyStore) delegate).getModificationCount();
+        }
+        return count;
+    }
+
     @Override
     protected KeyStore getKeyStore() {
         return delegate;
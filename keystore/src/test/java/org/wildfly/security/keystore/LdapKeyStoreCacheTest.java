@@ -0,0 +1,322 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.wildfly.security.keystore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import org.junit.Test;
+
+/**
+ * Tests of the caching, paging and background loading of {@link LdapKeyStore}, against a fake LDAP context counting
+ * the searches.
+ */
+public class LdapKeyStoreCacheTest {
+
+    private static final String SEARCH_PATH = "ou=keystore,dc=elytron,dc=wildfly,dc=org";
+
+    @Test
+    public void testCache() throws Exception {
+        TestServer server = new TestServer("alpha", "beta");
+        KeyStore keyStore = LdapKeyStore.builder()
+                .setDirContextSupplier(server::createContext)
+                .setSearchPath(SEARCH_PATH)
+                .setCacheMaxAge(60000)
+                .setNegativeCacheMaxAge(60000)
+                .build();
+        keyStore.load(null);
+
+        assertTrue(keyStore.containsAlias("alpha"));
+        assertTrue(keyStore.isCertificateEntry("ALPHA"));
+        assertFalse(keyStore.isKeyEntry("alpha"));
+        assertEquals(1, server.searches.get());
+
+        assertFalse(keyStore.containsAlias("gamma"));
+        assertFalse(keyStore.isCertificateEntry("gamma"));
+        assertEquals(2, server.searches.get());
+
+        // deleted entry is reloaded
+        keyStore.deleteEntry("alpha");
+        int searches = server.searches.get();
+        assertFalse(keyStore.containsAlias("alpha"));
+        assertTrue(keyStore.containsAlias("beta"));
+        assertEquals(searches + 1, server.searches.get());
+    }
+
+    @Test
+    public void testNoCache() throws Exception {
+        TestServer server = new TestServer("alpha");
+        KeyStore keyStore = LdapKeyStore.builder()
+                .setDirContextSupplier(server::createContext)
+                .setSearchPath(SEARCH_PATH)
+                .build();
+        keyStore.load(null);
+
+        assertTrue(keyStore.containsAlias("alpha"));
+        assertTrue(keyStore.containsAlias("alpha"));
+        assertFalse(keyStore.containsAlias("gamma"));
+        assertFalse(keyStore.containsAlias("gamma"));
+        assertEquals(4, server.searches.get());
+    }
+
+    @Test
+    public void testPagedAliases() throws Exception {
+        TestServer server = new TestServer("a1", "a2", "a3", "a4", "a5");
+        KeyStore keyStore = LdapKeyStore.builder()
+                .setDirContextSupplier(server::createContext)
+                .setSearchPath(SEARCH_PATH)
+                .setPageSize(2)
+                .build();
+        keyStore.load(null);
+
+        assertEquals(server.aliases(), Collections.list(keyStore.aliases()));
+        assertEquals(3, server.searches.get());
+        assertEquals(5, keyStore.size());
+        assertEquals(6, server.searches.get());
+        assertTrue(server.requestControlsRestored);
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        TestServer server = new TestServer("a1", "a2", "a3");
+        // the second load only starts once the first one was published
+        TestServer.BlockedIteration second = server.block(2);
+        KeyStore keyStore = LdapKeyStore.builder()
+                .setDirContextSupplier(server::createContext)
+                .setSearchPath(SEARCH_PATH)
+                .setRefreshInterval(1000)
+                .build();
+        keyStore.load(null);
+
+        assertTrue(second.started.await(10, TimeUnit.SECONDS));
+        int searches = server.searches.get();
+
+        assertTrue(keyStore.containsAlias("a1"));
+        assertTrue(keyStore.isCertificateEntry("a2"));
+        assertFalse(keyStore.containsAlias("a4"));
+        assertEquals(3, keyStore.size());
+        assertEquals(server.aliases(), sorted(Collections.list(keyStore.aliases())));
+        assertEquals(searches, server.searches.get());
+        second.release.countDown();
+    }
+
+    @Test
+    public void testRefreshDiscardedOnModification() throws Exception {
+        TestServer server = new TestServer("a1", "a2", "a3");
+        TestServer.BlockedIteration first = server.block(1);
+        // the second load only starts once the first one was discarded
+        TestServer.BlockedIteration second = server.block(2);
+        KeyStore keyStore = LdapKeyStore.builder()
+                .setDirContextSupplier(server::createContext)
+                .setSearchPath(SEARCH_PATH)
+                .setRefreshInterval(100)
+                .build();
+        keyStore.load(null);
+
+        assertTrue(first.started.await(10, TimeUnit.SECONDS));
+        // the load in progress already holds the deleted entry
+        keyStore.deleteEntry("a1");
+        first.release.countDown();
+        assertTrue(second.started.await(10, TimeUnit.SECONDS));
+
+        int searches = server.searches.get();
+        assertFalse(keyStore.containsAlias("a1"));
+        assertEquals(2, keyStore.size());
+        assertTrue(server.searches.get() > searches);
+        second.release.countDown();
+    }
+
+    @Test
+    public void testStaleRefresh() throws Exception {
+        TestServer server = new TestServer("a1", "a2");
+        TestServer.BlockedIteration second = server.block(2);
+        // the fourth load starts at least three intervals after the first one was published
+        TestServer.BlockedIteration fourth = server.block(4);
+        KeyStore keyStore = LdapKeyStore.builder()
+                .setDirContextSupplier(server::createContext)
+                .setSearchPath(SEARCH_PATH)
+                .setRefreshInterval(50)
+                .build();
+        keyStore.load(null);
+
+        assertTrue(second.started.await(10, TimeUnit.SECONDS));
+        server.iterationsFailing = true;
+        second.release.countDown();
+        assertTrue(fourth.started.await(10, TimeUnit.SECONDS));
+
+        // the server is searched again once the last load is too old
+        server.entries.remove("a2");
+        int searches = server.searches.get();
+        assertFalse(keyStore.containsAlias("a2"));
+        assertTrue(keyStore.containsAlias("a1"));
+        assertEquals(searches + 2, server.searches.get());
+        fourth.release.countDown();
+    }
+
+    private static List<String> sorted(List<String> list) {
+        Collections.sort(list);
+        return list;
+    }
+
+    private static final class TestServer {
+
+        final Map<String, Attributes> entries = new ConcurrentHashMap<>();
+        final AtomicInteger searches = new AtomicInteger();
+        final AtomicInteger iterations = new AtomicInteger();
+        final Map<Integer, BlockedIteration> blockedIterations = new ConcurrentHashMap<>();
+        volatile boolean requestControlsRestored;
+        volatile boolean iterationsFailing;
+
+        TestServer(String... aliases) {
+            for (String alias : aliases) {
+                BasicAttributes attributes = new BasicAttributes(true);
+                attributes.put("cn", alias);
+                attributes.put("usercertificate", new byte[] { 1, 2, 3 });
+                entries.put(alias, attributes);
+            }
+        }
+
+        /**
+         * Block the given search of all the entries, counting from 1, until it is released.
+         */
+        BlockedIteration block(int iteration) {
+            BlockedIteration blocked = new BlockedIteration();
+            blockedIterations.put(iteration, blocked);
+            return blocked;
+        }
+
+        List<String> aliases() {
+            List<String> aliases = new ArrayList<>(entries.keySet());
+            Collections.sort(aliases);
+            return aliases;
+        }
+
+        DirContext createContext() {
+            Hashtable<String, Object> environment = new Hashtable<>();
+            Control[][] requestControls = new Control[1][];
+            Control[][] responseControls = new Control[1][];
+            return (DirContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "search": {
+                        searches.incrementAndGet();
+                        String filter = (String) args[1];
+                        List<SearchResult> results = new ArrayList<>();
+                        for (String alias : aliases()) {
+                            if (filter.equals("(cn=*)") || filter.equals("(cn={0})") && alias.equalsIgnoreCase((String) ((Object[]) args[2])[0])) {
+                                SearchResult result = new SearchResult("cn=" + alias, null, (Attributes) entries.get(alias).clone());
+                                result.setNameInNamespace("cn=" + alias + "," + SEARCH_PATH);
+                                results.add(result);
+                            }
+                        }
+                        responseControls[0] = null;
+                        if (filter.equals("(cn=*)")) {
+                            BlockedIteration blocked = blockedIterations.get(iterations.incrementAndGet());
+                            if (blocked != null) {
+                                blocked.started.countDown();
+                                blocked.release.await();
+                            }
+                            if (iterationsFailing) {
+                                throw new NamingException("Unavailable");
+                            }
+                            if (requestControls[0] != null && requestControls[0][0].getID().equals(PagedResultsControl.OID)) {
+                                byte[] value = requestControls[0][0].getEncodedValue();
+                                int pageSize = value[4];
+                                int offset = value[6] == 1 ? value[7] : 0;
+                                int end = Math.min(offset + pageSize, results.size());
+                                byte[] cookie = end < results.size() ? new byte[] { 0x30, 0x06, 0x02, 0x01, 0x00, 0x04, 0x01, (byte) end } : new byte[] { 0x30, 0x05, 0x02, 0x01, 0x00, 0x04, 0x00 };
+                                responseControls[0] = new Control[] { new PagedResultsResponseControl(PagedResultsControl.OID, false, cookie) };
+                                results = results.subList(offset, end);
+                            }
+                        }
+                        List<SearchResult> page = results;
+                        int[] next = new int[1];
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { NamingEnumeration.class }, (p, m, a) -> {
+                            switch (m.getName()) {
+                                case "hasMore":
+                                case "hasMoreElements":
+                                    return next[0] < page.size();
+                                case "next":
+                                case "nextElement":
+                                    return page.get(next[0]++);
+                                default:
+                                    return null;
+                            }
+                        });
+                    }
+                    case "destroySubcontext":
+                        entries.remove(((String) args[0]).substring(3, ((String) args[0]).indexOf(',')));
+                        return null;
+                    case "getRequestControls":
+                        return requestControls[0];
+                    case "setRequestControls":
+                        requestControls[0] = (Control[]) args[0];
+                        requestControlsRestored = args[0] == null;
+                        return null;
+                    case "getResponseControls":
+                        return responseControls[0];
+                    case "getEnvironment":
+                        return environment;
+                    case "addToEnvironment":
+                        return environment.put((String) args[0], args[1]);
+                    case "removeFromEnvironment":
+                        return environment.remove(args[0]);
+                    case "close":
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        static final class BlockedIteration {
+
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+        }
+    }
+}
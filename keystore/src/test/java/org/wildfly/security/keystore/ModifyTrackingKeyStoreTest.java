@@ -101,6 +101,33 @@ public class ModifyTrackingKeyStoreTest {
         assertTrue(modifiable.isModified());
     }
 
+    @Test
+    public void verifyModificationCount() throws Exception {
+        AtomicLoadKeyStore atomic = AtomicLoadKeyStore.newInstance(KEY_STORE_TYPE);
+        try (FileInputStream fis = new FileInputStream(this.keyStore)) {
+            atomic.load(fis, STORE_PASSWORD);
+        }
+        ModifyTrackingKeyStore modifiable = ModifyTrackingKeyStore.modifyTrackingKeyStore(atomic);
+        long count = modifiable.getModificationCount();
+
+        modifiable.store(new ByteArrayOutputStream(), STORE_PASSWORD);
+        assertEquals(count, modifiable.getModificationCount());
+
+        modifiable.deleteEntry(ALIAS);
+        assertTrue(modifiable.getModificationCount() > count);
+        count = modifiable.getModificationCount();
+
+        modifiable.setEntry(ALIAS, new SecretKeyEntry(getSecretKey()), protectionParameter);
+        assertTrue(modifiable.getModificationCount() > count);
+        count = modifiable.getModificationCount();
+
+        // loaded directly rather than through the wrapper
+        try (FileInputStream fis = new FileInputStream(this.keyStore)) {
+            atomic.revertibleLoad(fis, STORE_PASSWORD);
+        }
+        assertTrue(modifiable.getModificationCount() > count);
+    }
+
     private KeyStore load() throws GeneralSecurityException, IOException {
         KeyStore keyStore = KeyStore.getInstance(KEY_STORE_TYPE);
         try (FileInputStream fis = new FileInputStream(this.keyStore)) {
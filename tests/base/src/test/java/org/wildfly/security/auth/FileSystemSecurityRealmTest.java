@@ -25,8 +25,11 @@ import org.wildfly.common.iteration.CodePointIterator;
 import org.wildfly.security.password.WildFlyElytronPasswordProvider;
 import org.wildfly.security.auth.principal.NamePrincipal;
 import org.wildfly.security.auth.realm.FileSystemSecurityRealm;
+import org.wildfly.security.auth.server.IdentityDefinition;
 import org.wildfly.security.auth.server.ModifiableRealmIdentityIterator;
 import org.wildfly.security.auth.server.ModifiableRealmIdentity;
+import org.wildfly.security.auth.server.ProvisioningResult;
+import org.wildfly.security.auth.server.RealmIdentity;
 import org.wildfly.security.authz.Attributes;
 import org.wildfly.security.authz.AuthorizationIdentity;
 import org.wildfly.security.authz.MapAttributes;
@@ -56,21 +59,28 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.Principal;
 import java.security.Provider;
 import java.security.Security;
+import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 import static org.wildfly.security.password.interfaces.BCryptPassword.BCRYPT_SALT_SIZE;
 
 /**
@@ -366,6 +376,200 @@ public class FileSystemSecurityRealmTest {
         identity3.dispose();
     }
 
+    @Test
+    public void testIdentityCache() throws Exception {
+        try (FileSystemSecurityRealm securityRealm = FileSystemSecurityRealm.builder()
+                .setRoot(getRootPath())
+                .setLevels(1)
+                .setIdentityCacheSize(10)
+                .build()) {
+            ModifiableRealmIdentity newIdentity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("cachedUser"));
+            newIdentity.create();
+            newIdentity.setCredentials(Collections.singleton(new PasswordCredential(
+                    PasswordFactory.getInstance(ClearPassword.ALGORITHM_CLEAR).generatePassword(new ClearPasswordSpec("secretPassword".toCharArray())))));
+            newIdentity.setAttributes(createRoles("Employee"));
+            newIdentity.dispose();
+
+            for (int i = 0; i < 3; i++) {
+                RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal("cachedUser"));
+                assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("secretPassword".toCharArray())));
+                Attributes attributes = identity.getAuthorizationIdentity().getAttributes();
+                assertEquals(Collections.singletonList("Employee"), attributes.get("roles"));
+                // modifying the attributes handed out does not affect the cached identity
+                attributes.addLast("roles", "Intruder");
+                identity.dispose();
+            }
+
+            // updates through the realm are visible right away
+            ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("cachedUser"));
+            identity.setAttributes(createRoles("Manager"));
+            identity.dispose();
+            assertEquals(Collections.singletonList("Manager"), getRoles(securityRealm, "cachedUser"));
+
+            // updates by other means are visible once reported by the file system
+            FileSystemSecurityRealm otherRealm = new FileSystemSecurityRealm(getRootPath(false), 1);
+            identity = otherRealm.getRealmIdentityForUpdate(new NamePrincipal("cachedUser"));
+            identity.setAttributes(createRoles("Admin"));
+            identity.dispose();
+
+            long deadline = System.currentTimeMillis() + 30000;
+            while (! getRoles(securityRealm, "cachedUser").equals(Collections.singletonList("Admin")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(Collections.singletonList("Admin"), getRoles(securityRealm, "cachedUser"));
+
+            identity = otherRealm.getRealmIdentityForUpdate(new NamePrincipal("cachedUser"));
+            identity.delete();
+            identity.dispose();
+
+            deadline = System.currentTimeMillis() + 30000;
+            while (securityRealm.getRealmIdentity(new NamePrincipal("cachedUser")).getAuthorizationIdentity() != AuthorizationIdentity.EMPTY && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(AuthorizationIdentity.EMPTY, securityRealm.getRealmIdentity(new NamePrincipal("cachedUser")).getAuthorizationIdentity());
+        }
+    }
+
+    @Test
+    public void testAttributeIndex() throws Exception {
+        FileSystemSecurityRealm securityRealm = FileSystemSecurityRealm.builder()
+                .setRoot(getRootPath())
+                .setLevels(1)
+                .build();
+        for (int i = 0; i < 4; i++) {
+            ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user" + i));
+            identity.create();
+            identity.setAttributes(createRoles(i % 2 == 0 ? "Employee" : "Manager"));
+            identity.dispose();
+        }
+
+        // the index is built from the existing identities
+        Set<String> indexedAttributes = Collections.singleton("roles");
+        securityRealm = FileSystemSecurityRealm.builder()
+                .setRoot(getRootPath(false))
+                .setLevels(1)
+                .setIndexedAttributes(indexedAttributes)
+                .build();
+        try {
+            assertEquals(principals("user0", "user2"), securityRealm.findIdentities("roles", "Employee"));
+            assertEquals(principals("user1", "user3"), securityRealm.findIdentities("roles", "Manager"));
+            assertEquals(Collections.emptySet(), securityRealm.findIdentities("roles", "Admin"));
+
+            // and kept up to date by the realm
+            ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user0"));
+            identity.setAttributes(createRoles("Admin"));
+            identity.dispose();
+            identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user1"));
+            identity.delete();
+            identity.dispose();
+            identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user4"));
+            identity.create();
+            identity.setAttributes(createRoles("Manager"));
+            identity.dispose();
+
+            assertEquals(principals("user2"), securityRealm.findIdentities("roles", "Employee"));
+            assertEquals(principals("user3", "user4"), securityRealm.findIdentities("roles", "Manager"));
+            assertEquals(principals("user0"), securityRealm.findIdentities("roles", "Admin"));
+        } finally {
+            securityRealm.close();
+        }
+
+        // the index is persisted, a truncated last record being discarded
+        Path indexPath = getRootPath(false).resolve(".attribute-index");
+        Files.write(indexPath, new byte[] { 0, 5, 'u' }, StandardOpenOption.APPEND);
+        securityRealm = FileSystemSecurityRealm.builder()
+                .setRoot(getRootPath(false))
+                .setLevels(1)
+                .setIndexedAttributes(indexedAttributes)
+                .build();
+        try {
+            assertEquals(principals("user3", "user4"), securityRealm.findIdentities("roles", "Manager"));
+            assertEquals(principals("user0"), securityRealm.findIdentities("roles", "Admin"));
+
+            // changes made by other means are picked up by rebuilding the index
+            FileSystemSecurityRealm otherRealm = new FileSystemSecurityRealm(getRootPath(false), 1);
+            ModifiableRealmIdentity identity = otherRealm.getRealmIdentityForUpdate(new NamePrincipal("user2"));
+            identity.setAttributes(createRoles("Manager"));
+            identity.dispose();
+            assertEquals(principals("user3", "user4"), securityRealm.findIdentities("roles", "Manager"));
+
+            securityRealm.rebuildAttributeIndex();
+            assertEquals(principals("user2", "user3", "user4"), securityRealm.findIdentities("roles", "Manager"));
+            assertEquals(Collections.emptySet(), securityRealm.findIdentities("roles", "Employee"));
+
+            try {
+                securityRealm.findIdentities("email", "user2@example.org");
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    @Test
+    public void testProvisionIdentities() throws Exception {
+        FileSystemSecurityRealm securityRealm = FileSystemSecurityRealm.builder()
+                .setRoot(getRootPath())
+                .setLevels(2)
+                .setIndexedAttributes(Collections.singleton("roles"))
+                .build();
+        try {
+            ModifiableRealmIdentity existing = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user7"));
+            existing.create();
+            existing.dispose();
+
+            PasswordFactory factory = PasswordFactory.getInstance(ClearPassword.ALGORITHM_CLEAR);
+            ProvisioningResult result = securityRealm.provisionIdentities(IntStream.range(0, 2500).mapToObj(i -> {
+                try {
+                    return new IdentityDefinition(new NamePrincipal("user" + i),
+                            Collections.singleton(new PasswordCredential(factory.generatePassword(new ClearPasswordSpec(("password" + i).toCharArray())))),
+                            createRoles(i % 2 == 0 ? "Employee" : "Manager"));
+                } catch (InvalidKeySpecException e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+
+            assertEquals(2499, result.getProvisionedCount());
+            assertEquals(Collections.singleton(new NamePrincipal("user7")), result.getFailures().keySet());
+            assertFalse(result.isSuccessful());
+
+            RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal("user2048"));
+            assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("password2048".toCharArray())));
+            assertEquals(Collections.singletonList("Employee"), new ArrayList<>(identity.getAuthorizationIdentity().getAttributes().get("roles")));
+            identity.dispose();
+            assertTrue(securityRealm.getRealmIdentity(new NamePrincipal("user7")).getAuthorizationIdentity().getAttributes().isEmpty());
+
+            assertEquals(1250, securityRealm.findIdentities("roles", "Employee").size());
+            assertEquals(1249, securityRealm.findIdentities("roles", "Manager").size());
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    private static Set<Principal> principals(String... names) {
+        Set<Principal> principals = new LinkedHashSet<>();
+        for (String name : names) {
+            principals.add(new NamePrincipal(name));
+        }
+        return principals;
+    }
+
+    private static MapAttributes createRoles(String role) {
+        MapAttributes attributes = new MapAttributes();
+        attributes.addFirst("roles", role);
+        return attributes;
+    }
+
+    private static List<String> getRoles(FileSystemSecurityRealm securityRealm, String name) throws Exception {
+        RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal(name));
+        try {
+            return new ArrayList<>(identity.getAuthorizationIdentity().getAttributes().get("roles"));
+        } finally {
+            identity.dispose();
+        }
+    }
+
     private FileSystemSecurityRealm createRealmWithTwoIdentities() throws Exception {
         FileSystemSecurityRealm securityRealm = new FileSystemSecurityRealm(getRootPath(), 1);
         ModifiableRealmIdentity identity1 = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("firstUser"));
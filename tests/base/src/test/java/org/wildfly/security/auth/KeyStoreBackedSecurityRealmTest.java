@@ -27,10 +27,15 @@ import java.io.InputStream;
 import java.security.KeyStore;
 import java.security.Provider;
 import java.security.Security;
+import java.security.cert.X509Certificate;
+
+import javax.security.auth.x500.X500Principal;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.wildfly.security.keystore.AtomicLoadKeyStore;
+import org.wildfly.security.keystore.ModifyTrackingKeyStore;
 import org.wildfly.security.keystore.WildFlyElytronKeyStoreProvider;
 import org.wildfly.security.password.WildFlyElytronPasswordProvider;
 import org.wildfly.security.auth.principal.NamePrincipal;
@@ -42,6 +47,7 @@ import org.wildfly.security.evidence.PasswordGuessEvidence;
 import org.wildfly.security.password.Password;
 import org.wildfly.security.password.interfaces.BCryptPassword;
 import org.wildfly.security.password.interfaces.UnixMD5CryptPassword;
+import org.wildfly.security.x500.cert.SelfSignedX509CertificateAndSigningKey;
 
 /**
  * Testsuite for the {@link org.wildfly.security.auth.realm.KeyStoreBackedSecurityRealm}.
@@ -111,4 +117,47 @@ public class KeyStoreBackedSecurityRealmTest {
         assertTrue("Error validating credential", realmIdentity.verifyEvidence(new PasswordGuessEvidence("$#21pass".toCharArray())));
         assertFalse("Error validating credential", realmIdentity.verifyEvidence(new PasswordGuessEvidence("wrongpass".toCharArray())));
     }
+
+    @Test
+    public void testCertificateBySubject() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        checkCertificateBySubject(keyStore);
+    }
+
+    @Test
+    public void testCertificateBySubjectIndexed() throws Exception {
+        AtomicLoadKeyStore keyStore = AtomicLoadKeyStore.newInstance("PKCS12");
+        keyStore.load(null, null);
+        checkCertificateBySubject(ModifyTrackingKeyStore.modifyTrackingKeyStore(keyStore));
+    }
+
+    private void checkCertificateBySubject(KeyStore keyStore) throws Exception {
+        keyStore.setCertificateEntry("one", createCertificate("CN=one"));
+        keyStore.setCertificateEntry("two", createCertificate("CN=two"));
+        SecurityRealm realm = new KeyStoreBackedSecurityRealm(keyStore);
+
+        assertEquals("one", realm.getRealmIdentity(new X500Principal("CN=one")).getRealmIdentityPrincipal().getName());
+        assertEquals("two", realm.getRealmIdentity(new X500Principal("cn=two")).getRealmIdentityPrincipal().getName());
+        assertFalse(realm.getRealmIdentity(new X500Principal("CN=three")).exists());
+
+        keyStore.setCertificateEntry("three", createCertificate("CN=three"));
+        assertEquals("three", realm.getRealmIdentity(new X500Principal("CN=three")).getRealmIdentityPrincipal().getName());
+
+        keyStore.deleteEntry("one");
+        assertFalse(realm.getRealmIdentity(new X500Principal("CN=one")).exists());
+
+        keyStore.setCertificateEntry("two", createCertificate("CN=four"));
+        assertFalse(realm.getRealmIdentity(new X500Principal("CN=two")).exists());
+        assertEquals("two", realm.getRealmIdentity(new X500Principal("CN=four")).getRealmIdentityPrincipal().getName());
+    }
+
+    private static X509Certificate createCertificate(String dn) {
+        return SelfSignedX509CertificateAndSigningKey.builder()
+                .setDn(new X500Principal(dn))
+                .setKeyAlgorithmName("RSA")
+                .setSignatureAlgorithmName("SHA256withRSA")
+                .build()
+                .getSelfSignedCertificate();
+    }
 }
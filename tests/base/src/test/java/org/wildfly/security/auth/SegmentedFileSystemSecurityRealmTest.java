@@ -0,0 +1,444 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.FileSystemSecurityRealm;
+import org.wildfly.security.auth.realm.SegmentedFileSystemSecurityRealm;
+import org.wildfly.security.auth.server.IdentityDefinition;
+import org.wildfly.security.auth.server.ModifiableRealmIdentity;
+import org.wildfly.security.auth.server.ModifiableRealmIdentityIterator;
+import org.wildfly.security.auth.server.ProvisioningResult;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.authz.MapAttributes;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+import org.wildfly.security.password.PasswordFactory;
+import org.wildfly.security.password.WildFlyElytronPasswordProvider;
+import org.wildfly.security.password.interfaces.ClearPassword;
+import org.wildfly.security.password.spec.ClearPasswordSpec;
+
+/**
+ * Tests for {@link SegmentedFileSystemSecurityRealm}.
+ */
+public class SegmentedFileSystemSecurityRealmTest {
+
+    private static final Provider provider = WildFlyElytronPasswordProvider.getInstance();
+
+    @BeforeClass
+    public static void onBefore() throws Exception {
+        Security.addProvider(provider);
+    }
+
+    @AfterClass
+    public static void onAfter() throws Exception {
+        Security.removeProvider(provider.getName());
+    }
+
+    @Test
+    public void testCreateUpdateAndDelete() throws Exception {
+        SegmentedFileSystemSecurityRealm securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath()).build();
+        try {
+            ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("plainUser"));
+            assertFalse(identity.exists());
+            identity.create();
+            assertTrue(identity.exists());
+            identity.setCredentials(Collections.singleton(createPassword("secretPassword")));
+            identity.setAttributes(createRoles("Employee"));
+            identity.dispose();
+
+            identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("otherUser"));
+            identity.create();
+            identity.dispose();
+        } finally {
+            securityRealm.close();
+        }
+
+        securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build();
+        try {
+            RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal("plainUser"));
+            assertTrue(identity.exists());
+            assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("secretPassword".toCharArray())));
+            assertFalse(identity.verifyEvidence(new PasswordGuessEvidence("wrongPassword".toCharArray())));
+            assertEquals(Collections.singletonList("Employee"), new ArrayList<>(identity.getAuthorizationIdentity().getAttributes().get("roles")));
+            identity.dispose();
+
+            ModifiableRealmIdentity modifiable = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("plainUser"));
+            modifiable.delete();
+            assertFalse(modifiable.exists());
+            modifiable.dispose();
+        } finally {
+            securityRealm.close();
+        }
+
+        securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build();
+        try {
+            assertFalse(securityRealm.getRealmIdentity(new NamePrincipal("plainUser")).exists());
+            assertTrue(securityRealm.getRealmIdentity(new NamePrincipal("otherUser")).exists());
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    @Test
+    public void testTruncatedRecordDiscarded() throws Exception {
+        SegmentedFileSystemSecurityRealm securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath()).build();
+        try {
+            ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("plainUser"));
+            identity.create();
+            identity.setAttributes(createRoles("Employee"));
+            identity.dispose();
+        } finally {
+            securityRealm.close();
+        }
+
+        // a record only partially written before a crash
+        List<Path> segments = getSegments();
+        Files.write(segments.get(segments.size() - 1), new byte[] { 0, 0, 1, 0, 42, 42 }, StandardOpenOption.APPEND);
+
+        securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build();
+        try {
+            assertEquals(Collections.singletonList("Employee"), getRoles(securityRealm, "plainUser"));
+            ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("plainUser"));
+            identity.setAttributes(createRoles("Manager"));
+            identity.dispose();
+        } finally {
+            securityRealm.close();
+        }
+
+        securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build();
+        try {
+            assertEquals(Collections.singletonList("Manager"), getRoles(securityRealm, "plainUser"));
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        SegmentedFileSystemSecurityRealm securityRealm = SegmentedFileSystemSecurityRealm.builder()
+                .setRoot(getRootPath())
+                .setMaxSegmentSize(4096)
+                .build();
+        try {
+            for (int i = 0; i < 10; i++) {
+                ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user" + i));
+                identity.create();
+                identity.dispose();
+            }
+            for (int round = 0; round < 50; round++) {
+                for (int i = 0; i < 10; i++) {
+                    ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user" + i));
+                    identity.setAttributes(createRoles("Role" + round));
+                    identity.dispose();
+                }
+            }
+            ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user9"));
+            identity.delete();
+            identity.dispose();
+
+            securityRealm.compact();
+
+            long size = 0;
+            for (Path segment : getSegments()) {
+                size += Files.size(segment);
+            }
+            assertTrue("Segments not compacted: " + size + " bytes", size < 4096);
+            for (int i = 0; i < 9; i++) {
+                assertEquals(Collections.singletonList("Role49"), getRoles(securityRealm, "user" + i));
+            }
+        } finally {
+            securityRealm.close();
+        }
+
+        securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build();
+        try {
+            for (int i = 0; i < 9; i++) {
+                assertEquals(Collections.singletonList("Role49"), getRoles(securityRealm, "user" + i));
+            }
+            assertFalse(securityRealm.getRealmIdentity(new NamePrincipal("user9")).exists());
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    @Test
+    public void testRemovalSurvivesInterruptedCompaction() throws Exception {
+        SegmentedFileSystemSecurityRealm securityRealm = SegmentedFileSystemSecurityRealm.builder()
+                .setRoot(getRootPath())
+                .setMaxSegmentSize(1024)
+                .build();
+        try {
+            for (int i = 0; i < 20; i++) {
+                ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user" + i));
+                identity.create();
+                identity.setAttributes(createRoles("Employee"));
+                identity.dispose();
+            }
+            ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user0"));
+            identity.delete();
+            identity.dispose();
+        } finally {
+            securityRealm.close();
+        }
+
+        // the oldest segment holds the records creating user0, the removal being in a newer one
+        List<Path> segments = getSegments();
+        assertTrue(segments.size() > 2);
+        Path oldest = segments.get(0);
+        byte[] oldestContent = Files.readAllBytes(oldest);
+
+        securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).setMaxSegmentSize(1024).build();
+        try {
+            securityRealm.compact();
+        } finally {
+            securityRealm.close();
+        }
+
+        // as if the process stopped after deleting the segment holding the removal but not the oldest one
+        Files.write(oldest, oldestContent);
+
+        securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build();
+        try {
+            assertFalse(securityRealm.getRealmIdentity(new NamePrincipal("user0")).exists());
+            for (int i = 1; i < 20; i++) {
+                assertEquals(Collections.singletonList("Employee"), getRoles(securityRealm, "user" + i));
+            }
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    @Test
+    public void testCorruptedSealedSegment() throws Exception {
+        SegmentedFileSystemSecurityRealm securityRealm = SegmentedFileSystemSecurityRealm.builder()
+                .setRoot(getRootPath())
+                .setMaxSegmentSize(1024)
+                .build();
+        try {
+            for (int i = 0; i < 20; i++) {
+                ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user" + i));
+                identity.create();
+                identity.setAttributes(createRoles("Employee"));
+                identity.dispose();
+            }
+        } finally {
+            securityRealm.close();
+        }
+
+        List<Path> segments = getSegments();
+        assertTrue(segments.size() > 1);
+        byte[] content = Files.readAllBytes(segments.get(0));
+        content[content.length / 2] ^= 1;
+        Files.write(segments.get(0), content);
+
+        try {
+            SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build().close();
+            fail("Expected IllegalStateException not thrown");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(content.length, Files.size(segments.get(0)));
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        SegmentedFileSystemSecurityRealm securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath()).build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        ModifiableRealmIdentity identity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("user" + thread + "-" + i));
+                        identity.create();
+                        identity.setAttributes(createRoles("Employee"));
+                        identity.dispose();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            securityRealm.close();
+        }
+
+        SegmentedFileSystemSecurityRealm reopened = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build();
+        try {
+            int count = 0;
+            ModifiableRealmIdentityIterator iterator = reopened.getRealmIdentityIterator();
+            while (iterator.hasNext()) {
+                ModifiableRealmIdentity identity = iterator.next();
+                assertEquals(Collections.singletonList("Employee"), new ArrayList<>(identity.getAttributes().get("roles")));
+                identity.dispose();
+                count++;
+            }
+            assertEquals(400, count);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testImportIdentities() throws Exception {
+        Path source = getRootPath().resolve("source");
+        FileSystemSecurityRealm fileSystemRealm = new FileSystemSecurityRealm(source, 2);
+        for (int i = 0; i < 5; i++) {
+            ModifiableRealmIdentity identity = fileSystemRealm.getRealmIdentityForUpdate(new NamePrincipal("user" + i));
+            identity.create();
+            identity.setCredentials(Collections.singleton(createPassword("password" + i)));
+            identity.setAttributes(createRoles("Role" + i));
+            identity.dispose();
+        }
+
+        SegmentedFileSystemSecurityRealm securityRealm = SegmentedFileSystemSecurityRealm.builder()
+                .setRoot(getRootPath(false).resolve("segments"))
+                .build();
+        try {
+            assertEquals(5, securityRealm.importIdentities(fileSystemRealm));
+            for (int i = 0; i < 5; i++) {
+                RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal("user" + i));
+                assertNotNull(identity.getCredential(PasswordCredential.class));
+                assertTrue(identity.verifyEvidence(new PasswordGuessEvidence(("password" + i).toCharArray())));
+                assertEquals(Collections.singletonList("Role" + i), new ArrayList<>(identity.getAuthorizationIdentity().getAttributes().get("roles")));
+                identity.dispose();
+            }
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    @Test
+    public void testProvisionIdentities() throws Exception {
+        SegmentedFileSystemSecurityRealm securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath()).build();
+        try {
+            List<IdentityDefinition> definitions = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                definitions.add(new IdentityDefinition(new NamePrincipal("user" + i), Collections.singleton(createPassword("password" + i)), createRoles("Employee")));
+            }
+            definitions.add(new IdentityDefinition(new NamePrincipal("user0"), Collections.emptyList(), createRoles("Manager")));
+
+            ProvisioningResult result = securityRealm.provisionIdentities(definitions.stream());
+            assertEquals(100, result.getProvisionedCount());
+            assertEquals(Collections.singleton(new NamePrincipal("user0")), result.getFailures().keySet());
+        } finally {
+            securityRealm.close();
+        }
+
+        securityRealm = SegmentedFileSystemSecurityRealm.builder().setRoot(getRootPath(false)).build();
+        try {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(securityRealm.getRealmIdentity(new NamePrincipal("user" + i)).verifyEvidence(new PasswordGuessEvidence(("password" + i).toCharArray())));
+            }
+            assertEquals(Collections.singletonList("Employee"), getRoles(securityRealm, "user0"));
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    private static PasswordCredential createPassword(String password) throws Exception {
+        return new PasswordCredential(PasswordFactory.getInstance(ClearPassword.ALGORITHM_CLEAR).generatePassword(new ClearPasswordSpec(password.toCharArray())));
+    }
+
+    private static MapAttributes createRoles(String role) {
+        MapAttributes attributes = new MapAttributes();
+        attributes.addFirst("roles", role);
+        return attributes;
+    }
+
+    private static List<String> getRoles(SegmentedFileSystemSecurityRealm securityRealm, String name) throws Exception {
+        RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal(name));
+        try {
+            return new ArrayList<>(identity.getAuthorizationIdentity().getAttributes().get("roles"));
+        } finally {
+            identity.dispose();
+        }
+    }
+
+    private List<Path> getSegments() throws Exception {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(getRootPath(false), "{segment,merged}-*.log")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(segmentId(a), segmentId(b)));
+        return segments;
+    }
+
+    private static long segmentId(Path segment) {
+        String fileName = segment.getFileName().toString();
+        return Long.parseLong(fileName.substring(fileName.indexOf('-') + 1, fileName.length() - ".log".length()));
+    }
+
+    private Path getRootPath(boolean deleteIfExists) throws Exception {
+        Path rootPath = Paths.get(getClass().getResource(File.separator).toURI())
+                .resolve("segmented-filesystem-realm");
+
+        if (rootPath.toFile().exists() && !deleteIfExists) {
+            return rootPath;
+        }
+
+        return Files.walkFileTree(Files.createDirectories(rootPath), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Path getRootPath() throws Exception {
+        return getRootPath(true);
+    }
+}
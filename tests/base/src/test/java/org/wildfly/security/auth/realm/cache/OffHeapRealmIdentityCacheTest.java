@@ -0,0 +1,376 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.CacheableSecurityRealm;
+import org.wildfly.security.auth.realm.CachingSecurityRealm;
+import org.wildfly.security.auth.realm.SimpleMapBackedSecurityRealm;
+import org.wildfly.security.auth.realm.SimpleRealmEntry;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.auth.server.SecurityRealm;
+import org.wildfly.security.authz.AuthorizationIdentity;
+import org.wildfly.security.authz.MapAttributes;
+import org.wildfly.security.cache.OffHeapRealmIdentityCache;
+import org.wildfly.security.cache.VerifiedEvidenceCache;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.evidence.Evidence;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+import org.wildfly.security.password.WildFlyElytronPasswordProvider;
+import org.wildfly.security.password.interfaces.ClearPassword;
+
+/**
+ * Tests for {@link OffHeapRealmIdentityCache}.
+ */
+public class OffHeapRealmIdentityCacheTest {
+
+    private static final WildFlyElytronPasswordProvider provider = WildFlyElytronPasswordProvider.getInstance();
+
+    @BeforeClass
+    public static void registerProvider() {
+        Security.addProvider(provider);
+    }
+
+    @AfterClass
+    public static void removeProvider() {
+        Security.removeProvider(provider.getName());
+    }
+
+    @Test
+    public void testRehydration() throws Exception {
+        CountingSecurityRealm realm = createSecurityRealm(1);
+        OffHeapRealmIdentityCache cache = new OffHeapRealmIdentityCache(realm, 1024 * 1024);
+
+        cache.put(new NamePrincipal("user0"), realm.getRealmIdentity(new NamePrincipal("user0")));
+        RealmIdentity identity = cache.get(new NamePrincipal("user0"));
+
+        assertNotNull(identity);
+        assertTrue(identity.exists());
+        assertEquals("user0", identity.getRealmIdentityPrincipal().getName());
+        assertEquals(Arrays.asList("admin", "user"), identity.getAttributes().get("roles"));
+        assertEquals("user0@example.org", identity.getAttributes().getFirst("email"));
+        // attributes are served by the cache, the identity is only obtained from the realm for its credentials
+        assertEquals(1, realm.loads.get());
+        assertNotNull(identity.getCredential(PasswordCredential.class));
+        assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("password0".toCharArray())));
+        assertFalse(identity.verifyEvidence(new PasswordGuessEvidence("wrong".toCharArray())));
+        assertEquals(2, realm.loads.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testDelegation() throws Exception {
+        Principal principal = new X500Principal("CN=user0");
+        AtomicReference<Credential> updated = new AtomicReference<>();
+        MapAttributes attributes = new MapAttributes();
+        attributes.addFirst("email", "user0@example.org");
+
+        // verifies evidence without exposing any credential, as a realm binding to a directory would
+        RealmIdentity directIdentity = new RealmIdentity() {
+            @Override
+            public Principal getRealmIdentityPrincipal() {
+                return principal;
+            }
+
+            @Override
+            public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, AlgorithmParameterSpec parameterSpec) {
+                return SupportLevel.UNSUPPORTED;
+            }
+
+            @Override
+            public <C extends Credential> C getCredential(Class<C> credentialType) {
+                fail("Credentials must not be obtained to cache the identity");
+                return null;
+            }
+
+            @Override
+            public void updateCredential(Credential credential) {
+                updated.set(credential);
+            }
+
+            @Override
+            public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) {
+                return SupportLevel.SUPPORTED;
+            }
+
+            @Override
+            public boolean verifyEvidence(Evidence evidence) {
+                return Arrays.equals("password0".toCharArray(), ((PasswordGuessEvidence) evidence).getGuess());
+            }
+
+            @Override
+            public boolean exists() {
+                return true;
+            }
+
+            @Override
+            public AuthorizationIdentity getAuthorizationIdentity() {
+                return AuthorizationIdentity.basicIdentity(attributes);
+            }
+        };
+        AtomicReference<Principal> loaded = new AtomicReference<>();
+        SecurityRealm realm = new SecurityRealm() {
+            @Override
+            public RealmIdentity getRealmIdentity(Principal principal) {
+                loaded.set(principal);
+                return directIdentity;
+            }
+
+            @Override
+            public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, AlgorithmParameterSpec parameterSpec) {
+                return SupportLevel.UNSUPPORTED;
+            }
+
+            @Override
+            public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) {
+                return SupportLevel.SUPPORTED;
+            }
+        };
+        OffHeapRealmIdentityCache cache = new OffHeapRealmIdentityCache(realm, 1024 * 1024);
+
+        cache.put(new NamePrincipal("user0"), directIdentity);
+        RealmIdentity identity = cache.get(new NamePrincipal("user0"));
+
+        assertNotNull(identity);
+        assertSame(principal, identity.getRealmIdentityPrincipal());
+        assertEquals("user0@example.org", identity.getAttributes().getFirst("email"));
+        assertNull(loaded.get());
+        assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("password0".toCharArray())));
+        assertFalse(identity.verifyEvidence(new PasswordGuessEvidence("wrong".toCharArray())));
+        // obtained with the principal it was cached for
+        assertEquals(new NamePrincipal("user0"), loaded.get());
+
+        PasswordCredential credential = new PasswordCredential(ClearPassword.createRaw(ClearPassword.ALGORITHM_CLEAR, "password1".toCharArray()));
+        identity.updateCredential(credential);
+        assertSame(credential, updated.get());
+    }
+
+    @Test
+    public void testCachingSecurityRealm() throws Exception {
+        CountingSecurityRealm realm = createSecurityRealm(1);
+        VerifiedEvidenceCache evidenceCache = new VerifiedEvidenceCache(10, 60000);
+        CachingSecurityRealm securityRealm = CachingSecurityRealm.builder(realm, new OffHeapRealmIdentityCache(realm, 1024 * 1024))
+                .setVerifiedEvidenceCache(evidenceCache)
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal("user0"));
+            assertEquals("user0@example.org", identity.getAuthorizationIdentity().getAttributes().getFirst("email"));
+            assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("password0".toCharArray())));
+            identity.dispose();
+        }
+
+        // cached identities still verify guesses through the evidence cache
+        assertEquals(4, evidenceCache.getHitCount());
+        assertEquals(1, evidenceCache.getMissCount());
+        assertEquals(1, realm.loads.get());
+        assertEquals(4, securityRealm.getStatistics().getHitCount());
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        CountingSecurityRealm realm = createSecurityRealm(3);
+        OffHeapRealmIdentityCache cache = new OffHeapRealmIdentityCache(realm, 1024 * 1024);
+
+        cache.put(new NamePrincipal("user0"), realm.getRealmIdentity(new NamePrincipal("user0")));
+        RealmIdentity cached = cache.get(new NamePrincipal("user0"));
+
+        assertFalse(cache.replace(new NamePrincipal("user0"), realm.getRealmIdentity(new NamePrincipal("user0")), realm.getRealmIdentity(new NamePrincipal("user1"))));
+        assertTrue(cache.replace(new NamePrincipal("user0"), cached, realm.getRealmIdentity(new NamePrincipal("user1"))));
+        assertFalse(cache.replace(new NamePrincipal("user0"), cached, realm.getRealmIdentity(new NamePrincipal("user2"))));
+
+        assertEquals("user1@example.org", cache.get(new NamePrincipal("user0")).getAttributes().getFirst("email"));
+        assertEquals(1, cache.size());
+
+        cache.remove(new NamePrincipal("user0"));
+        assertFalse(cache.replace(new NamePrincipal("user0"), cached, realm.getRealmIdentity(new NamePrincipal("user2"))));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDomainPrincipalMapping() throws Exception {
+        CountingSecurityRealm realm = createSecurityRealm(1);
+        OffHeapRealmIdentityCache cache = new OffHeapRealmIdentityCache(realm, 1024 * 1024);
+        RealmIdentity identity = realm.getRealmIdentity(new NamePrincipal("user0"));
+
+        cache.put(new NamePrincipal("user0@domain"), identity);
+        cache.put(new NamePrincipal("USER0"), identity);
+
+        assertNotNull(cache.get(new NamePrincipal("user0")));
+        assertNotNull(cache.get(new NamePrincipal("USER0")));
+
+        cache.remove(new NamePrincipal("user0"));
+
+        assertNull(cache.get(new NamePrincipal("user0@domain")));
+        assertNull(cache.get(new NamePrincipal("USER0")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxMemory() throws Exception {
+        CountingSecurityRealm realm = createSecurityRealm(1000);
+        OffHeapRealmIdentityCache cache = new OffHeapRealmIdentityCache(realm, 8192);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new NamePrincipal("user" + i), realm.getRealmIdentity(new NamePrincipal("user" + i)));
+            assertTrue(cache.getAllocatedMemory() <= 8192);
+        }
+
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(1000 - cache.getEvictionCount(), cache.size());
+        assertNull(cache.get(new NamePrincipal("user0")));
+        assertTrue(cache.get(new NamePrincipal("user999")).verifyEvidence(new PasswordGuessEvidence("password999".toCharArray())));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getAllocatedMemory());
+    }
+
+    @Test
+    public void testRemovedSegmentsAreReused() throws Exception {
+        CountingSecurityRealm realm = createSecurityRealm(1000);
+        OffHeapRealmIdentityCache cache = new OffHeapRealmIdentityCache(realm, 8192);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new NamePrincipal("user" + i), realm.getRealmIdentity(new NamePrincipal("user" + i)));
+            cache.remove(new NamePrincipal("user" + i));
+        }
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+        assertTrue(cache.getAllocatedMemory() <= 2048);
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        CountingSecurityRealm realm = createSecurityRealm(1);
+        OffHeapRealmIdentityCache cache = new OffHeapRealmIdentityCache(realm, 1024 * 1024, 100);
+
+        cache.put(new NamePrincipal("user0"), realm.getRealmIdentity(new NamePrincipal("user0")));
+        assertNotNull(cache.get(new NamePrincipal("user0")));
+        assertTrue(cache.getExpiration(new NamePrincipal("user0")) > 0);
+
+        Thread.sleep(200);
+
+        assertNull(cache.get(new NamePrincipal("user0")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMemoryMappedBuffers() throws Exception {
+        Path directory = Files.createTempDirectory("identity-cache");
+        try {
+            CountingSecurityRealm realm = createSecurityRealm(100);
+            OffHeapRealmIdentityCache cache = new OffHeapRealmIdentityCache(realm, 1024 * 1024, -1, directory);
+
+            for (int i = 0; i < 100; i++) {
+                cache.put(new NamePrincipal("user" + i), realm.getRealmIdentity(new NamePrincipal("user" + i)));
+            }
+
+            for (int i = 0; i < 100; i++) {
+                RealmIdentity identity = cache.get(new NamePrincipal("user" + i));
+                assertEquals("user" + i + "@example.org", identity.getAttributes().getFirst("email"));
+                assertTrue(identity.verifyEvidence(new PasswordGuessEvidence(("password" + i).toCharArray())));
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static CountingSecurityRealm createSecurityRealm(int identities) {
+        Map<String, SimpleRealmEntry> entries = new HashMap<>();
+        for (int i = 0; i < identities; i++) {
+            MapAttributes attributes = new MapAttributes();
+            attributes.addAll("roles", Arrays.asList("admin", "user"));
+            attributes.addFirst("email", "user" + i + "@example.org");
+            PasswordCredential credential = new PasswordCredential(ClearPassword.createRaw(ClearPassword.ALGORITHM_CLEAR, ("password" + i).toCharArray()));
+            entries.put("user" + i, new SimpleRealmEntry(Collections.singletonList(credential), attributes));
+        }
+        SimpleMapBackedSecurityRealm realm = new SimpleMapBackedSecurityRealm();
+        realm.setIdentityMap(entries);
+
+        return new CountingSecurityRealm(realm);
+    }
+
+    /**
+     * A realm counting the identities obtained from it.
+     */
+    private static final class CountingSecurityRealm implements CacheableSecurityRealm {
+
+        final SecurityRealm realm;
+        final AtomicInteger loads = new AtomicInteger();
+
+        CountingSecurityRealm(SecurityRealm realm) {
+            this.realm = realm;
+        }
+
+        @Override
+        public RealmIdentity getRealmIdentity(Principal principal) throws RealmUnavailableException {
+            loads.incrementAndGet();
+            return realm.getRealmIdentity(principal);
+        }
+
+        @Override
+        public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+            return realm.getCredentialAcquireSupport(credentialType, algorithmName, parameterSpec);
+        }
+
+        @Override
+        public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) throws RealmUnavailableException {
+            return realm.getEvidenceVerifySupport(evidenceType, algorithmName);
+        }
+
+        @Override
+        public void registerIdentityChangeListener(Consumer<Principal> listener) {
+        }
+    }
+}
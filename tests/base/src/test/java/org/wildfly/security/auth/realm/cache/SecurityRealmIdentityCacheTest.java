@@ -19,16 +19,28 @@
 package org.wildfly.security.auth.realm.cache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.security.Principal;
 import java.security.Security;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
@@ -37,8 +49,10 @@ import org.junit.Test;
 import org.wildfly.security.password.WildFlyElytronPasswordProvider;
 import org.wildfly.security.auth.SupportLevel;
 import org.wildfly.security.auth.permission.LoginPermission;
+import org.wildfly.security.auth.principal.NamePrincipal;
 import org.wildfly.security.auth.realm.CacheableSecurityRealm;
 import org.wildfly.security.auth.realm.CachingSecurityRealm;
+import org.wildfly.security.auth.realm.CachingSecurityRealmBuilder;
 import org.wildfly.security.auth.realm.SimpleMapBackedSecurityRealm;
 import org.wildfly.security.auth.realm.SimpleRealmEntry;
 import org.wildfly.security.auth.server.RealmIdentity;
@@ -50,7 +64,12 @@ import org.wildfly.security.auth.server.ServerAuthenticationContext;
 import org.wildfly.security.authz.MapAttributes;
 import org.wildfly.security.authz.RoleDecoder;
 import org.wildfly.security.cache.LRURealmIdentityCache;
+import org.wildfly.security.cache.NegativeRealmIdentityCache;
 import org.wildfly.security.cache.RealmIdentityCache;
+import org.wildfly.security.cache.RealmIdentityCacheStatistics;
+import org.wildfly.security.cache.RemovalCause;
+import org.wildfly.security.cache.VerifiedEvidenceCache;
+import org.wildfly.security.cache.WeightedRealmIdentityCache;
 import org.wildfly.security.credential.Credential;
 import org.wildfly.security.credential.PasswordCredential;
 import org.wildfly.security.evidence.Evidence;
@@ -66,6 +85,7 @@ import org.wildfly.security.password.spec.ClearPasswordSpec;
 public class SecurityRealmIdentityCacheTest {
 
     private AtomicInteger realmHitCount = new AtomicInteger();
+    private Consumer<Principal> identityChangeListener;
 
     @Before
     public void onBefore() {
@@ -102,6 +122,23 @@ public class SecurityRealmIdentityCacheTest {
         assertEquals(10, realmHitCount.get());
     }
 
+    @Test
+    public void testWeightedCacheWeighsLoadedIdentities() throws Exception {
+        WeightedRealmIdentityCache cache = new WeightedRealmIdentityCache(10000);
+        SecurityDomain securityDomain = SecurityDomain.builder().setDefaultRealmName("default").addRealm("default", createSecurityRealm(cache)).build()
+                .setPermissionMapper((permissionMappable, roles) -> LoginPermission.getInstance())
+                .build();
+
+        assertAuthenticationAndAuthorization("joe", securityDomain);
+        RealmIdentity cached = cache.get(new NamePrincipal("joe"));
+        assertNotNull(cached);
+
+        // the credential verified and the attributes authorized with were loaded after the identity was put
+        long entryWeight = WeightedRealmIdentityCache.estimateEntryWeight(cached);
+        assertTrue(cache.getWeight() > entryWeight);
+        assertEquals(WeightedRealmIdentityCache.estimateWeight(cached), cache.getWeight());
+    }
+
     @Test
     public void testMaxAge() throws Exception {
         SecurityDomain securityDomain = SecurityDomain.builder().setDefaultRealmName("default").addRealm("default", createSecurityRealm(createRealmIdentityLRUCache(2000))).build()
@@ -122,7 +159,254 @@ public class SecurityRealmIdentityCacheTest {
         assertEquals(2, realmHitCount.get());
     }
 
+    @Test
+    public void testNegativeCache() throws Exception {
+        NegativeRealmIdentityCache negativeCache = new NegativeRealmIdentityCache(10, 60000);
+        SecurityRealm securityRealm = createSecurityRealm(createRealmIdentityLRUCache(), negativeCache);
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(securityRealm.getRealmIdentity(new NamePrincipal("unknown")).exists());
+        }
+
+        assertEquals(1, realmHitCount.get());
+        assertEquals(9, negativeCache.getHitCount());
+
+        identityChangeListener.accept(new NamePrincipal("unknown"));
+
+        assertFalse(securityRealm.getRealmIdentity(new NamePrincipal("unknown")).exists());
+        assertEquals(2, realmHitCount.get());
+
+        assertTrue(securityRealm.getRealmIdentity(new NamePrincipal("joe")).exists());
+        assertEquals(3, realmHitCount.get());
+    }
+
+    @Test
+    public void testConcurrentLoadsAreCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SecurityRealm securityRealm = createBlockingSecurityRealm(release, false).build();
+        List<Future<RealmIdentity>> results = getRealmIdentityConcurrently(securityRealm, "joe", 10, release);
+
+        for (Future<RealmIdentity> result : results) {
+            assertTrue(result.get(10, TimeUnit.SECONDS).exists());
+        }
+        assertEquals(1, realmHitCount.get());
+    }
+
+    @Test
+    public void testConcurrentLoadFailureIsPropagated() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SecurityRealm securityRealm = createBlockingSecurityRealm(release, true).build();
+        List<Future<RealmIdentity>> results = getRealmIdentityConcurrently(securityRealm, "joe", 10, release);
+
+        for (Future<RealmIdentity> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected exception not thrown");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RealmUnavailableException);
+            }
+        }
+        assertEquals(1, realmHitCount.get());
+    }
+
+    @Test
+    public void testConcurrentLoadTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SecurityRealm securityRealm = createBlockingSecurityRealm(release, false).setLoadTimeout(100).build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<RealmIdentity> loading = executor.submit(() -> securityRealm.getRealmIdentity(new NamePrincipal("joe")));
+            while (realmHitCount.get() == 0) {
+                Thread.sleep(10);
+            }
+
+            try {
+                securityRealm.getRealmIdentity(new NamePrincipal("joe"));
+                fail("Expected exception not thrown");
+            } catch (RealmUnavailableException expected) {
+            }
+
+            release.countDown();
+            assertTrue(loading.get(10, TimeUnit.SECONDS).exists());
+            assertTrue(securityRealm.getRealmIdentity(new NamePrincipal("joe")).exists());
+            assertEquals(1, realmHitCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CachingSecurityRealm securityRealm = createBlockingSecurityRealm(new CountDownLatch(0), false, createRealmIdentityLRUCache(1000))
+                    .setRefreshAhead(executor, 800, 1)
+                    .build();
+            NamePrincipal principal = new NamePrincipal("joe");
+            RealmIdentity identity = securityRealm.getRealmIdentity(principal);
+
+            assertSame(identity, securityRealm.getRealmIdentity(principal));
+            assertEquals(1, realmHitCount.get());
+
+            Thread.sleep(500);
+
+            // within the refresh window, the cached identity is served while it is being reloaded
+            assertSame(identity, securityRealm.getRealmIdentity(principal));
+            for (int i = 0; i < 100 && securityRealm.getRefreshCount() == 0; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(1, securityRealm.getRefreshCount());
+            assertEquals(2, realmHitCount.get());
+
+            RealmIdentity refreshed = securityRealm.getRealmIdentity(principal);
+            assertNotSame(identity, refreshed);
+            assertTrue(refreshed.exists());
+
+            Thread.sleep(700);
+
+            // the original identity would have expired by now
+            assertSame(refreshed, securityRealm.getRealmIdentity(principal));
+            assertEquals(0, securityRealm.getRefreshFailureCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVerifiedEvidenceCache() throws Exception {
+        VerifiedEvidenceCache evidenceCache = new VerifiedEvidenceCache(10, 60000);
+        CachingSecurityRealm securityRealm = createBlockingSecurityRealm(new CountDownLatch(0), false)
+                .setVerifiedEvidenceCache(evidenceCache)
+                .build();
+        SecurityDomain securityDomain = SecurityDomain.builder().setDefaultRealmName("default").addRealm("default", securityRealm).build()
+                .setPermissionMapper((permissionMappable, roles) -> LoginPermission.getInstance())
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            assertAuthenticationAndAuthorization("joe", securityDomain);
+        }
+        assertEquals(9, evidenceCache.getHitCount());
+        assertEquals(1, evidenceCache.getMissCount());
+
+        // failed guesses are not remembered
+        RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal("joe"));
+        assertFalse(identity.verifyEvidence(new PasswordGuessEvidence("wrong".toCharArray())));
+        assertFalse(identity.verifyEvidence(new PasswordGuessEvidence("wrong".toCharArray())));
+        assertEquals(3, evidenceCache.getMissCount());
+
+        identityChangeListener.accept(new NamePrincipal("joe"));
+        assertEquals(0, evidenceCache.size());
+
+        assertAuthenticationAndAuthorization("joe", securityDomain);
+        assertEquals(4, evidenceCache.getMissCount());
+        assertEquals(1, evidenceCache.size());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        CachingSecurityRealm securityRealm = createBlockingSecurityRealm(new CountDownLatch(0), false).build();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(securityRealm.getRealmIdentity(new NamePrincipal("joe")).exists());
+        }
+        identityChangeListener.accept(new NamePrincipal("joe"));
+        assertTrue(securityRealm.getRealmIdentity(new NamePrincipal("joe")).exists());
+
+        RealmIdentityCacheStatistics statistics = securityRealm.getStatistics();
+
+        assertEquals(2, statistics.getHitCount());
+        assertEquals(2, statistics.getMissCount());
+        assertEquals(2, statistics.getLoadSuccessCount());
+        assertEquals(0, statistics.getLoadFailureCount());
+        assertEquals(2, Arrays.stream(statistics.getLoadLatencyHistogram()).sum());
+        assertEquals(1, statistics.getRemovalCount(RemovalCause.EXPLICIT));
+        assertEquals(1, statistics.getSize());
+
+        securityRealm = createBlockingSecurityRealm(new CountDownLatch(0), true).build();
+        try {
+            securityRealm.getRealmIdentity(new NamePrincipal("joe"));
+            fail("Expected RealmUnavailableException");
+        } catch (RealmUnavailableException expected) {
+        }
+        assertEquals(1, securityRealm.getStatistics().getLoadFailureCount());
+    }
+
+    private List<Future<RealmIdentity>> getRealmIdentityConcurrently(SecurityRealm securityRealm, String name, int threads, CountDownLatch release) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch started = new CountDownLatch(threads);
+        List<Future<RealmIdentity>> results = new ArrayList<>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    started.countDown();
+                    return securityRealm.getRealmIdentity(new NamePrincipal(name));
+                }));
+            }
+            started.await(10, TimeUnit.SECONDS);
+            // give all the requests a chance to find the one in progress
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<RealmIdentity> result : results) {
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException ignored) {
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private CachingSecurityRealmBuilder createBlockingSecurityRealm(CountDownLatch release, boolean fail) {
+        return createBlockingSecurityRealm(release, fail, createRealmIdentityLRUCache());
+    }
+
+    private CachingSecurityRealmBuilder createBlockingSecurityRealm(CountDownLatch release, boolean fail, RealmIdentityCache cache) {
+        SimpleMapBackedSecurityRealm realm = new SimpleMapBackedSecurityRealm();
+        Map<String, SimpleRealmEntry> users = new HashMap<>();
+
+        addUser(users, "joe", "User");
+        realm.setIdentityMap(users);
+
+        return CachingSecurityRealm.builder(new CacheableSecurityRealm() {
+            @Override
+            public void registerIdentityChangeListener(Consumer<Principal> listener) {
+                identityChangeListener = listener;
+            }
+
+            @Override
+            public RealmIdentity getRealmIdentity(Principal principal) throws RealmUnavailableException {
+                realmHitCount.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RealmUnavailableException(e);
+                }
+                if (fail) {
+                    throw new RealmUnavailableException("Unavailable");
+                }
+                return realm.getRealmIdentity(principal);
+            }
+
+            @Override
+            public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName, final AlgorithmParameterSpec parameterSpec) throws RealmUnavailableException {
+                return realm.getCredentialAcquireSupport(credentialType, algorithmName, parameterSpec);
+            }
+
+            @Override
+            public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) throws RealmUnavailableException {
+                return realm.getEvidenceVerifySupport(evidenceType, algorithmName);
+            }
+        }, cache);
+    }
+
     private SecurityRealm createSecurityRealm(RealmIdentityCache cache) {
+        return createSecurityRealm(cache, null);
+    }
+
+    private SecurityRealm createSecurityRealm(RealmIdentityCache cache, NegativeRealmIdentityCache negativeCache) {
         SimpleMapBackedSecurityRealm realm = new SimpleMapBackedSecurityRealm();
         Map<String, SimpleRealmEntry> users = new HashMap<>();
 
@@ -158,7 +442,7 @@ public class SecurityRealmIdentityCacheTest {
         return new CachingSecurityRealm(new CacheableSecurityRealm() {
             @Override
             public void registerIdentityChangeListener(Consumer<Principal> listener) {
-
+                identityChangeListener = listener;
             }
 
             @Override
@@ -176,7 +460,7 @@ public class SecurityRealmIdentityCacheTest {
             public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) throws RealmUnavailableException {
                 return getEvidenceVerifySupport(evidenceType, algorithmName);
             }
-        }, cache) {
+        }, cache, negativeCache) {
         };
     }
 
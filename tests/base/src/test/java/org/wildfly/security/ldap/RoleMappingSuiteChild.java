@@ -19,8 +19,20 @@
 package org.wildfly.security.ldap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
 
 import org.junit.Test;
+import org.wildfly.common.function.ExceptionSupplier;
 import org.wildfly.security.auth.permission.LoginPermission;
 import org.wildfly.security.auth.realm.AggregateSecurityRealm;
 import org.wildfly.security.auth.realm.LegacyPropertiesSecurityRealm;
@@ -117,6 +129,69 @@ public class RoleMappingSuiteChild extends AbstractAttributeMappingSuiteChild {
         }, AttributeMapping.fromFilter("description={0}").from("cn").roleRecursionName("cn").roleRecursion(1).to(RoleDecoder.KEY_ROLES).build());
     }
 
+    @Test
+    public void testRecursiveRolesCycleSearchedSeparately() throws Exception {
+        LdapSecurityRealmBuilder realmBuilder = LdapSecurityRealmBuilder.builder()
+                .setRoleRecursionBatchSize(1);
+
+        assertAttributes(createSecurityDomain(realmBuilder, AttributeMapping.fromFilter("(&(objectClass=groupOfNames)(member={1}))").from("cn").roleRecursion(10).to(RoleDecoder.KEY_ROLES).build()), "jduke", attributes -> {
+            assertEquals("Expected a single attribute.", 1, attributes.size());
+            assertAttributeValue(attributes.get(RoleDecoder.KEY_ROLES), "R1", "R2","R3");
+        });
+    }
+
+    @Test
+    public void testRecursiveRolesMoreWaysToOneRoleSearchedConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            LdapSecurityRealmBuilder realmBuilder = LdapSecurityRealmBuilder.builder()
+                    .setRoleRecursionBatchSize(1)
+                    .setRoleRecursionExecutor(executor);
+
+            assertAttributes(createSecurityDomain(realmBuilder, AttributeMapping.fromFilter("(&(objectClass=groupOfNames)(member={1}))").from("cn").roleRecursion(1).to(RoleDecoder.KEY_ROLES).build()), "ranvir", attributes -> {
+                assertEquals("Expected a single attribute.", 1, attributes.size());
+                assertAttributeValue(attributes.get(RoleDecoder.KEY_ROLES), "MWR1", "MWR2","MWR3");
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRoleMappingWithMemberOfRecursiveFromGroupEntryCache() throws Exception {
+        AtomicInteger searches = new AtomicInteger();
+        ExceptionSupplier<DirContext, NamingException> dirContextSupplier = LdapTestSuite.dirContextFactory.create();
+        LdapSecurityRealmBuilder realmBuilder = LdapSecurityRealmBuilder.builder()
+                .setGroupEntryCache(100, 60000);
+        SecurityDomain securityDomain = createSecurityDomain(realmBuilder, () -> countingSearches(dirContextSupplier.get(), searches),
+                AttributeMapping.fromReference("memberOf").roleRecursion(3).from("description").to(RoleDecoder.KEY_ROLES).build());
+
+        int[] searched = new int[2];
+        for (int i = 0; i < 2; i++) {
+            searches.set(0);
+            assertAttributes(securityDomain, "userWithMemberOfRoles", attributes -> {
+                assertEquals("Expected a single attribute.", 1, attributes.size());
+                assertAttributeValue(attributes.get(RoleDecoder.KEY_ROLES), "roleByMemberOfDescription", "roleOfRoleByMemberOfDescription");
+            });
+            searched[i] = searches.get();
+        }
+        // the second time, the two group entries the roles come from are not searched for, as they come from the cache
+        assertTrue("Expected at least 2 searches less, searched " + searched[0] + " then " + searched[1] + " times", searched[0] - searched[1] >= 2);
+    }
+
+    private static DirContext countingSearches(DirContext context, AtomicInteger searches) {
+        return (DirContext) Proxy.newProxyInstance(RoleMappingSuiteChild.class.getClassLoader(), new Class<?>[] { LdapContext.class }, (proxy, method, args) -> {
+            if (method.getName().equals("search")) {
+                searches.incrementAndGet();
+            }
+            try {
+                return method.invoke(context, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
     @Test
     public void testAuthorizationWithDifferentAuthenticationRealm() throws Exception {
         SecurityDomain.Builder builder = SecurityDomain.builder()
@@ -145,4 +220,27 @@ public class RoleMappingSuiteChild extends AbstractAttributeMappingSuiteChild {
             assertAttributeValue(attributes.get(RoleDecoder.KEY_ROLES), "RN3");
         });
     }
+
+    private static SecurityDomain createSecurityDomain(LdapSecurityRealmBuilder realmBuilder, AttributeMapping... attributes) {
+        return createSecurityDomain(realmBuilder, LdapTestSuite.dirContextFactory.create(), attributes);
+    }
+
+    private static SecurityDomain createSecurityDomain(LdapSecurityRealmBuilder realmBuilder, ExceptionSupplier<DirContext, NamingException> dirContextSupplier, AttributeMapping... attributes) {
+        SecurityDomain.Builder builder = SecurityDomain.builder()
+            .setDefaultRealmName("default")
+            .addRealm("default",
+                realmBuilder
+                    .setDirContextSupplier(dirContextSupplier)
+                    .identityMapping()
+                        .setSearchDn("dc=elytron,dc=wildfly,dc=org")
+                        .searchRecursive()
+                        .setRdnIdentifier("uid")
+                        .map(attributes)
+                        .build()
+                    .build()
+            ).build();
+        builder.setPermissionMapper((permissionMappable, roles) -> PermissionVerifier.from(new LoginPermission()));
+
+        return builder.build();
+    }
 }
@@ -369,6 +369,9 @@ public interface ElytronToolMessages extends BasicLogger {
     @Message(id = NONE, value = "Provides a detailed summary of all operations performed, once the command finishes.")
     String cmdFileSystemRealmSummaryDesc();
 
+    @Message(id = NONE, value = "Number of threads used to write the identities of each filesystem-realm. Identities are written by a single thread by default.")
+    String cmdFileSystemRealmParallelismDesc();
+
     @Message(id = NONE, value = "No users file specified. Please use either --bulk-convert <file> or specify a users file using --users-file <file>")
     MissingOptionException missingUsersFile();
 
@@ -392,4 +395,10 @@ public interface ElytronToolMessages extends BasicLogger {
 
     @Message(id = NONE, value = "Should file %s be overwritten? (y/n) ")
     String shouldFileBeOverwritten(String file);
+
+    @Message(id = NONE, value = "Converted %d of %d identities.")
+    String fileSystemRealmConversionProgress(int converted, int total);
+
+    @Message(id = NONE, value = "Converted %d identities to %s in %d ms (%d identities per second).")
+    String fileSystemRealmConversionThroughput(int converted, String outputLocation, long millis, long rate);
 }
@@ -17,6 +17,7 @@
  */
 package org.wildfly.security.tool;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -30,7 +31,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import org.apache.commons.cli.CommandLine;
@@ -63,6 +67,7 @@ class FileSystemRealmCommand extends Command {
     static final int GENERAL_CONFIGURATION_WARNING = 1;
     static final String FILE_SYSTEM_REALM_COMMAND = "filesystem-realm";
     static final int SUMMARY_WIDTH = 100;
+    static final int PROGRESS_INTERVAL = 1000;
 
     private static final String HELP_PARAM = "help";
     private static final String DEBUG_PARAM = "debug";
@@ -74,9 +79,11 @@ class FileSystemRealmCommand extends Command {
     private static final String FILESYSTEM_REALM_NAME_PARAM = "filesystem-realm-name";
     private static final String SECURITY_DOMAIN_NAME_PARAM = "security-domain-name";
     private static final String BULK_CONVERT_PARAM = "bulk-convert";
+    private static final String PARALLELISM_PARAM = "parallelism";
     private static final String FILE_ARG = "file";
     private static final String DIRECTORY_ARG = "directory";
     private static final String NAME_ARG = "name";
+    private static final String THREADS_ARG = "threads";
     private static final String DEFAULT_FILESYSTEM_REALM_NAME = "converted-properties-filesystem-realm";
     private static final String DEFAULT_SECURITY_DOMAIN_NAME = "converted-properties-security-domain";
 
@@ -90,6 +97,7 @@ class FileSystemRealmCommand extends Command {
     private boolean summaryMode = false;
     private StringBuilder summaryString = null;
     private boolean warningOccurred = false;
+    private int parallelism = 1;
 
     FileSystemRealmCommand() {
         options = new Options();
@@ -119,6 +127,9 @@ class FileSystemRealmCommand extends Command {
         option.setArgName(NAME_ARG);
         options.addOption(option);
 
+        option = Option.builder().longOpt(PARALLELISM_PARAM).hasArg().argName(THREADS_ARG).desc(ElytronToolMessages.msg.cmdFileSystemRealmParallelismDesc()).build();
+        options.addOption(option);
+
         option = Option.builder().longOpt(HELP_PARAM).desc(ElytronToolMessages.msg.cmdLineHelp()).build();
         options.addOption(option);
 
@@ -235,6 +246,18 @@ class FileSystemRealmCommand extends Command {
         }
         printDuplicatesWarning(cmdLine);
 
+        String parallelismOption = cmdLine.getOptionValue(PARALLELISM_PARAM);
+        if (parallelismOption != null) {
+            try {
+                parallelism = Integer.parseInt(parallelismOption);
+            } catch (NumberFormatException e) {
+                parallelism = 0;
+            }
+            if (parallelism < 1) {
+                errorHandler(ElytronToolMessages.msg.invalidParameterMustBeIntBetween(PARALLELISM_PARAM, 1, Integer.MAX_VALUE));
+            }
+        }
+
         String bulkConvert = cmdLine.getOptionValue("b");
         String usersFileOption = cmdLine.getOptionValue("u");
         String rolesFileOption = cmdLine.getOptionValue("r");
@@ -308,11 +331,11 @@ class FileSystemRealmCommand extends Command {
 
     /**
      * Prints out a warning message if silentMode is not enabled and adds the warning to the summary
-     * if summaryMode is enabled
+     * if summaryMode is enabled. May be called concurrently while identities are written in parallel.
      *
      * @param warning The warning to be shown
      */
-    private void warningHandler(String warning) {
+    private synchronized void warningHandler(String warning) {
         warningOccurred = true;
         if (! silentMode) {
             System.out.print("WARNING: ");
@@ -325,6 +348,17 @@ class FileSystemRealmCommand extends Command {
         }
     }
 
+    /**
+     * Prints out a progress message if silentMode is not enabled
+     *
+     * @param progress The progress message to be shown
+     */
+    private void progressHandler(String progress) {
+        if (! silentMode) {
+            System.out.println(progress);
+        }
+    }
+
     /**
      * Determines if a summary needs to be printed and prints summary after an error is thrown
      *
@@ -481,19 +515,20 @@ class FileSystemRealmCommand extends Command {
     }
 
     /**
-     * Parses a uses or roles properties file to get the user mappings (users-password for users files
-     * and users-roles for roles files).
+     * Parses a users or roles properties file, passing each user mapping (users-password for users files
+     * and users-roles for roles files) to the given consumer as it is read.
      *
      * @param descriptor The descriptor class holding the information for this block
      * @param param The type of input file (either users-file or roles-file)
      * @param count The index of the current descriptor block
-     * @return The String list of each user mapping in the file
+     * @param entryConsumer The consumer of each user mapping in the file
+     * @return {@code true} if at least one user mapping was found in the file, {@code false} otherwise
      * @throws Exception Exception to be handled by Elytron Tool
      */
-    private List<String> parseInputFile(Descriptor descriptor, String param, int count) throws Exception {
-        List<String> entries = new ArrayList<>();
+    private boolean parseInputFile(Descriptor descriptor, String param, int count, Consumer<String> entryConsumer) throws Exception {
         String paramValue = getDescriptorParam(param, descriptor);
         boolean valueValid = true;
+        boolean entryFound = false;
         Path path = null;
         if (paramValue == null) {
             warningHandler(ElytronToolMessages.msg.noValueFound(param));
@@ -508,23 +543,82 @@ class FileSystemRealmCommand extends Command {
             }
         }
         if (valueValid) {
-            try (Stream<String> stream = Files.lines(path)) {
-                stream.forEach(line -> {
+            try (BufferedReader reader = Files.newBufferedReader(path)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
                     if (line.startsWith("#$REALM_NAME=")) {
                         line = line.substring(line.indexOf("=") + 1);
                         line = line.substring(0, line.indexOf("$"));
                         descriptor.setRealmName(line);
                     } else if (!line.startsWith("#")){
-                        entries.add(line);
+                        entryConsumer.accept(line);
+                        entryFound = true;
                     }
-                });
+                }
             }
         }
-        return entries;
+        return entryFound;
+    }
+
+    /**
+     * Adds the password of a user mapping from a users file to the map of users
+     *
+     * @param usersMap The map of each user to its password followed by its roles
+     * @param userMapping The users-password mapping
+     */
+    private void addUserMapping(Map<String, ArrayList<String>> usersMap, String userMapping) {
+        String[] userStringSplit = userMapping.split("=");
+        String user = userStringSplit[0].trim();
+        String password;
+        if (userStringSplit.length == 1) {
+            String message = String.format("No password was found for user %s", user);
+            warningHandler(message);
+            password = null;
+        } else {
+            password = userStringSplit[1].trim();
+        }
+        ArrayList<String> userAttributes = new ArrayList<>();
+        userAttributes.add(password);
+        usersMap.put(user, userAttributes);
+    }
+
+    /**
+     * Adds the roles of a user mapping from a roles file to the map of users
+     *
+     * @param usersMap The map of each user to its password followed by its roles
+     * @param rolesMapping The users-roles mapping
+     */
+    private void addRolesMapping(Map<String, ArrayList<String>> usersMap, String rolesMapping) {
+        String[] rolesStringSplit = rolesMapping.split("=");
+        String user = rolesStringSplit[0].trim();
+        String[] roles = new String[]{};
+        if (rolesStringSplit.length < 2) {
+            String message = String.format("No roles were found for user %s", user);
+            warningHandler(message);
+        } else {
+            roles = rolesStringSplit[1].trim().split(",");
+        }
+        ArrayList<String> userAttributes = usersMap.get(user);
+        if (userAttributes == null) {
+            String message = String.format("Roles were found for user %1$s, but user %1$s was not defined.", user);
+            warningHandler(message);
+            ArrayList<String> attributesWithEmptyPassword = new ArrayList<>();
+            attributesWithEmptyPassword.add(null);
+            attributesWithEmptyPassword.addAll(new ArrayList<>(Arrays.asList(roles)));
+            userAttributes = attributesWithEmptyPassword;
+            usersMap.put(user, userAttributes);
+        } else {
+            userAttributes.addAll(Arrays.asList(roles));
+            usersMap.replace(user, userAttributes);
+        }
+        if (summaryMode) {
+            summaryString.append(String.format("Added roles: %s for user %s.", ArrayUtils.toString(roles), user));
+            summaryString.append(System.getProperty("line.separator"));
+        }
     }
 
     /**
-     * Handles creating the Elytron filesystem-realm from the input arrays
+     * Handles creating the Elytron filesystem-realm from the input files
      *
      * @throws Exception Exception to be handled by Elytron Tool
      */
@@ -535,79 +629,84 @@ class FileSystemRealmCommand extends Command {
             if (descriptor.getUsersFile() == null || descriptor.getRolesFile() == null || descriptor.getOutputLocation() == null) {
                 continue;
             }
-            List<String> usersList = parseInputFile(descriptor, USERS_FILE_PARAM, i + 1);
-            List<String> rolesList = parseInputFile(descriptor, ROLES_FILE_PARAM, i + 1);
-            if (usersList.isEmpty() || rolesList.isEmpty()) {
+            Map<String, ArrayList<String>> usersMap = new HashMap<>();
+            if (! parseInputFile(descriptor, USERS_FILE_PARAM, i + 1, userMapping -> addUserMapping(usersMap, userMapping))
+                    || ! parseInputFile(descriptor, ROLES_FILE_PARAM, i + 1, rolesMapping -> addRolesMapping(usersMap, rolesMapping))) {
                 descriptor.reset();
                 continue;
             }
             FileSystemSecurityRealm newFileSystemRealm = new FileSystemSecurityRealm(Paths.get(descriptor.getOutputLocation()));
-            Map<String, ArrayList<String>> usersMap = new HashMap<>();
-            for (String userMapping : usersList) {
-                String[] userStringSplit = userMapping.split("=");
-                String user = userStringSplit[0].trim();
-                String password;
-                if (userStringSplit.length == 1) {
-                    String message = String.format("No password was found for user %s", user);
-                    warningHandler(message);
-                    password = null;
-                } else {
-                    password = userStringSplit[1].trim();
-                }
-                ArrayList<String> userAttributes = new ArrayList<>();
-                userAttributes.add(password);
-                usersMap.put(user, userAttributes);
+            if (parallelism > 1) {
+                createIdentitiesInParallel(newFileSystemRealm, descriptor, usersMap);
+            } else {
+                usersMap.forEach((key, value) -> createIdentity(newFileSystemRealm, descriptor, key, value));
             }
-            for (String rolesMapping : rolesList) {
-                String[] rolesStringSplit = rolesMapping.split("=");
-                String user = rolesStringSplit[0].trim();
-                String[] roles = new String[]{};
-                if (rolesStringSplit.length < 2) {
-                    String message = String.format("No roles were found for user %s", user);
-                    warningHandler(message);
-                } else {
-                    roles = rolesStringSplit[1].trim().split(",");
-                }
-                ArrayList<String> userAttributes = usersMap.get(user);
-                if (userAttributes == null) {
-                    String message = String.format("Roles were found for user %1$s, but user %1$s was not defined.", user);
-                    warningHandler(message);
-                    ArrayList<String> attributesWithEmptyPassword = new ArrayList<>();
-                    attributesWithEmptyPassword.add(null);
-                    attributesWithEmptyPassword.addAll(new ArrayList<>(Arrays.asList(roles)));
-                    userAttributes = attributesWithEmptyPassword;
-                    usersMap.put(user, userAttributes);
-                } else {
-                    userAttributes.addAll(Arrays.asList(roles));
-                    usersMap.replace(user, userAttributes);
-                }
-                if (summaryMode) {
-                    summaryString.append(String.format("Added roles: %s for user %s.", ArrayUtils.toString(roles), user));
-                    summaryString.append(System.getProperty("line.separator"));
+        }
+    }
+
+    /**
+     * Writes the identities of a filesystem-realm using a pool of {@code parallelism} threads, reporting the progress
+     * and the throughput of the conversion. Each identity is written exactly as it is by the single threaded conversion.
+     *
+     * @param fileSystemRealm The filesystem-realm to write the identities to
+     * @param descriptor The descriptor class holding the information for this block
+     * @param usersMap The map of each user to its password followed by its roles
+     * @throws Exception Exception to be handled by Elytron Tool
+     */
+    private void createIdentitiesInParallel(FileSystemSecurityRealm fileSystemRealm, Descriptor descriptor, Map<String, ArrayList<String>> usersMap) throws Exception {
+        int total = usersMap.size();
+        AtomicInteger converted = new AtomicInteger();
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // a parallel stream run from within a pool executes its tasks in that pool
+            pool.submit(() -> usersMap.entrySet().parallelStream().forEach(entry -> {
+                createIdentity(fileSystemRealm, descriptor, entry.getKey(), entry.getValue());
+                int count = converted.incrementAndGet();
+                if (count % PROGRESS_INTERVAL == 0 && count < total) {
+                    progressHandler(ElytronToolMessages.msg.fileSystemRealmConversionProgress(count, total));
                 }
+            })).get();
+        } finally {
+            pool.shutdown();
+        }
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        String throughput = ElytronToolMessages.msg.fileSystemRealmConversionThroughput(total, descriptor.getOutputLocation(), millis, total * 1000L / millis);
+        progressHandler(throughput);
+        if (summaryMode) {
+            summaryString.append(throughput);
+            summaryString.append(System.getProperty("line.separator"));
+        }
+    }
+
+    /**
+     * Creates a single identity of a filesystem-realm
+     *
+     * @param fileSystemRealm The filesystem-realm to create the identity in
+     * @param descriptor The descriptor class holding the information for this block
+     * @param name The name of the user
+     * @param value The password of the user, followed by its roles
+     */
+    private void createIdentity(FileSystemSecurityRealm fileSystemRealm, Descriptor descriptor, String name, List<String> value) {
+        ModifiableRealmIdentity identity = fileSystemRealm.getRealmIdentityForUpdate(new NamePrincipal(name));
+        try {
+            identity.create();
+            MapAttributes attributes = new MapAttributes();
+            attributes.addAll("roles", value.subList(1, value.size()));
+            identity.setAttributes(attributes);
+            String password = value.get(0);
+            if (password != null) {
+                byte[] hashed = ByteIterator.ofBytes(password.getBytes(StandardCharsets.UTF_8)).asUtf8String().hexDecode().drain();
+                PasswordSpec passwordSpec = new DigestPasswordSpec(name, descriptor.getRealmName(), hashed);
+                PasswordFactory factory = PasswordFactory.getInstance(DigestPassword.ALGORITHM_DIGEST_MD5);
+                DigestPassword digestPassword = (DigestPassword) factory.generatePassword(passwordSpec);
+                identity.setCredentials(Collections.singleton(new PasswordCredential(digestPassword)));
             }
-            usersMap.forEach((key,value) -> {
-                ModifiableRealmIdentity identity = newFileSystemRealm.getRealmIdentityForUpdate(new NamePrincipal(key));
-                try {
-                    identity.create();
-                    MapAttributes attributes = new MapAttributes();
-                    attributes.addAll("roles", value.subList(1, value.size()));
-                    identity.setAttributes(attributes);
-                    String password = value.get(0);
-                    if (password != null) {
-                        byte[] hashed = ByteIterator.ofBytes(password.getBytes(StandardCharsets.UTF_8)).asUtf8String().hexDecode().drain();
-                        PasswordSpec passwordSpec = new DigestPasswordSpec(key, descriptor.getRealmName(), hashed);
-                        PasswordFactory factory = PasswordFactory.getInstance(DigestPassword.ALGORITHM_DIGEST_MD5);
-                        DigestPassword digestPassword = (DigestPassword) factory.generatePassword(passwordSpec);
-                        identity.setCredentials(Collections.singleton(new PasswordCredential(digestPassword)));
-                    }
-                    identity.dispose();
-                } catch (NullPointerException e) {
-                    warningHandler(String.format("Could not read realm name from the users file"));
-                } catch (Exception e) {
-                    warningHandler(String.format("Could not create realm for user %s due to error: ", key) + e.getMessage());
-                }
-            });
+            identity.dispose();
+        } catch (NullPointerException e) {
+            warningHandler(String.format("Could not read realm name from the users file"));
+        } catch (Exception e) {
+            warningHandler(String.format("Could not create realm for user %s due to error: ", name) + e.getMessage());
         }
     }
 
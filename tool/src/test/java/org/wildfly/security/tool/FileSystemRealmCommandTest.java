@@ -17,6 +17,7 @@
  */
 package org.wildfly.security.tool;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -32,6 +33,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -66,6 +69,7 @@ public class FileSystemRealmCommandTest extends AbstractCommandTest {
     private static String ABSOLUTE_BASE_DIR_ROLES = "";
     private static String[] OUTPUT_LOCATIONS_CLI = new String[13];
     private static String[] OUTPUT_LOCATIONS_BULK = new String[11];
+    private static String PARALLEL_BASE_DIR = "";
 
     private static final String ELYTRON_PASSWORD = "testPasswordElytron";
     private static final String JAVAJOE_PASSWORD = "testPasswordJavaJoe";
@@ -254,6 +258,7 @@ public class FileSystemRealmCommandTest extends AbstractCommandTest {
         OUTPUT_LOCATIONS_BULK[8] = ABSOLUTE_BASE_DIR + "output-2-bulk-wrong-2";
         OUTPUT_LOCATIONS_BULK[9] = ABSOLUTE_BASE_DIR + "output-3-bulk-wrong-2";
         OUTPUT_LOCATIONS_BULK[10] = ABSOLUTE_BASE_DIR + "output-4-bulk-wrong-2";
+        PARALLEL_BASE_DIR = ABSOLUTE_BASE_DIR + "parallel";
     }
 
     @BeforeClass
@@ -298,6 +303,10 @@ public class FileSystemRealmCommandTest extends AbstractCommandTest {
             }
         }
         new File(RELATIVE_BASE_DIR + "descriptor-file-2").delete();
+        Path parallelPath = Paths.get(PARALLEL_BASE_DIR);
+        if (parallelPath.toFile().exists()) {
+            Files.walk(parallelPath).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
     }
 
     @Test
@@ -628,4 +637,41 @@ public class FileSystemRealmCommandTest extends AbstractCommandTest {
         run(descriptorFile, EXPECTED_WARNING);
         checkMultipleFileSystemRealmCreatedSuccessfully(userMaps, optionalParamsMap);
     }
+
+    @Test
+    public void testParallelConversionMatchesSequential() throws Exception {
+        int users = 2500;
+        Path parallelPath = Paths.get(PARALLEL_BASE_DIR);
+        Files.createDirectories(parallelPath);
+        List<String> usersLines = new ArrayList<>();
+        List<String> rolesLines = new ArrayList<>();
+        usersLines.add("#$REALM_NAME=ManagementRealm$");
+        for (int i = 0; i < users; i++) {
+            usersLines.add(String.format("user%d=%032x", i, i * 7919L));
+            rolesLines.add(String.format("user%d=role%d,role%d", i, i % 10, i % 7));
+        }
+        Path usersFile = Files.write(parallelPath.resolve("users.properties"), usersLines);
+        Path rolesFile = Files.write(parallelPath.resolve("roles.properties"), rolesLines);
+        Path sequentialOutput = parallelPath.resolve("sequential");
+        Path parallelOutput = parallelPath.resolve("parallel");
+
+        executeCommandAndCheckStatus(new String[]{"-u", usersFile.toString(), "-r", rolesFile.toString(), "-o", sequentialOutput.toString(),
+                "-f", "sequential-fs", "-s", "sequential-sd", "--silent"}, EXPECTED_OK);
+        String output = executeCommandAndCheckStatusAndGetOutput(new String[]{"-u", usersFile.toString(), "-r", rolesFile.toString(), "-o", parallelOutput.toString(),
+                "-f", "parallel-fs", "-s", "parallel-sd", "--parallelism", "4"}, EXPECTED_OK);
+        assertTrue(output, output.contains(ElytronToolMessages.msg.fileSystemRealmConversionProgress(FileSystemRealmCommand.PROGRESS_INTERVAL, users)));
+
+        List<Path> sequentialIdentities = listIdentityFiles(sequentialOutput);
+        assertEquals(users, sequentialIdentities.size());
+        assertEquals(sequentialIdentities, listIdentityFiles(parallelOutput));
+        for (Path identity : sequentialIdentities) {
+            assertArrayEquals(identity.toString(), Files.readAllBytes(sequentialOutput.resolve(identity)), Files.readAllBytes(parallelOutput.resolve(identity)));
+        }
+    }
+
+    private static List<Path> listIdentityFiles(Path outputLocation) throws Exception {
+        try (Stream<Path> paths = Files.walk(outputLocation)) {
+            return paths.filter(path -> path.toString().endsWith(".xml")).map(outputLocation::relativize).sorted().collect(Collectors.toList());
+        }
+    }
 }